@@ -23,17 +23,32 @@
  */
 package com.flowpowered.caustic.api;
 
-import java.util.Arrays;
+import java.nio.FloatBuffer;
 import java.util.Collection;
 
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import com.flowpowered.math.matrix.Matrix4f;
 import com.flowpowered.math.vector.Vector4f;
 
+import com.flowpowered.caustic.api.data.Uniform.Matrix4Uniform;
+import com.flowpowered.caustic.api.data.UniformHolder;
 import com.flowpowered.caustic.api.gl.Context;
 import com.flowpowered.caustic.api.gl.Context.BlendFunction;
 import com.flowpowered.caustic.api.gl.Context.Capability;
 import com.flowpowered.caustic.api.gl.FrameBuffer;
 import com.flowpowered.caustic.api.gl.Program;
+import com.flowpowered.caustic.api.gl.Shader;
+import com.flowpowered.caustic.api.gl.Texture;
+import com.flowpowered.caustic.api.gl.UniformBlock;
+import com.flowpowered.caustic.api.gl.UniformHandle;
+import com.flowpowered.caustic.api.gl.VertexArray;
 import com.flowpowered.caustic.api.model.Model;
+import com.flowpowered.caustic.api.model.Model.NormalMatrixMode;
+import com.flowpowered.caustic.api.model.RenderQueue;
+import com.flowpowered.caustic.api.util.CausticUtil;
 import com.flowpowered.caustic.api.util.Rectangle;
 
 /**
@@ -426,11 +441,57 @@ public abstract class Action {
     }
 
     /**
-     * An action that renders the models to the bound buffer. The models will be reordered to be grouped by material. This reordering is done via a stable sort ({@link
-     * java.util.Arrays#sort(Object[])}) so that models with the same materials are not reordered. This grouping improves performance by reducing the amount of rendering calls.
+     * An action that renders the models to the bound buffer. The models are reordered so that the ones sharing the same state are rendered together, and only the state that differs between
+     * consecutive models is changed. Opaque models are sorted by program, textures, vertex array and then front to back. Translucent models (see {@link Material#isTranslucent()}) are rendered last,
+     * from back to front. The sort is stable, and is skipped when the order didn't change since the last frame. The models can be given as a collection, or as a {@link
+     * com.flowpowered.caustic.api.model.RenderQueue}, which avoids iterating over the collection every frame.
+     * <p/>
+     * The normal matrix and, for programs that declare it, the "modelViewProjectionMatrix" uniform are cached by each model until it or the camera changes. Programs can instead declare the
+     * "modelMatrix", "normalMatrix" and "modelViewProjectionMatrix" as 4x4 matrix attributes in their attribute layouts: consecutive models sharing the same vertex array and material are then drawn
+     * in a single instanced call, with the matrices streamed as instance attributes (see {@link VertexArray#drawInstanced(int)}). Models with uniforms of their own are drawn as a single instance.
+     * <p/>
+     * When frustum culling is enabled (see {@link #setFrustumCulling(boolean)}), models whose vertex array bounds (see {@link VertexArray#getBoundsMin()}) are outside of the camera frustum are culled
+     * before sorting. This assumes the programs use the camera matrices.
+     * <p/>
+     * The camera matrices and the context uniforms are stored once per execution in a "std140" uniform block named "Frame", which declares the "projectionMatrix", the "viewMatrix" and then the
+     * context uniforms in the order they were added. Programs can also declare a block named "Object", with the "modelMatrix", "normalMatrix" and "modelViewProjectionMatrix", which is updated for
+     * each draw call. Programs that don't declare these blocks, or contexts that don't support uniform buffers, receive the uniforms one by one instead (see {@link UniformBlock}).
      */
     public static class RenderModelsAction extends Action {
+        // Matrices which can be read as instance attributes, by the name of the attribute
+        private static final String[] INSTANCE_MATRICES = {"modelMatrix", "normalMatrix", "modelViewProjectionMatrix"};
+        private static final int MODEL_MATRIX = 0;
+        private static final int NORMAL_MATRIX = 1;
+        // Names of the uniform blocks for the camera and context uniforms, and for the model matrices
+        private static final String FRAME_BLOCK = "Frame";
+        private static final String OBJECT_BLOCK = "Object";
+        // Number of elements in the object block ring, enough for the draw calls the GPU might still be processing
+        private static final int OBJECT_BLOCK_CAPACITY = 256;
         private Collection<? extends Model> models;
+        private RenderQueue queue;
+        private final RenderSorter sorter = new RenderSorter();
+        // Textures bound by unit during the execution
+        private final TIntObjectMap<Texture> boundTextures = new TIntObjectHashMap<>();
+        private NormalMatrixMode normalMatrixMode = NormalMatrixMode.FULL;
+        // Handles of the model matrix uniforms in the current program, null if it doesn't have them
+        private UniformHandle modelMatrixHandle;
+        private UniformHandle normalMatrixHandle;
+        private UniformHandle modelViewProjectionMatrixHandle;
+        // Uniform blocks, created on the first execution, and the uniforms they hold
+        private UniformBlock frameBlock;
+        private UniformBlock objectBlock;
+        private final Matrix4Uniform projectionMatrixUniform = new Matrix4Uniform("projectionMatrix", Matrix4f.IDENTITY);
+        private final Matrix4Uniform viewMatrixUniform = new Matrix4Uniform("viewMatrix", Matrix4f.IDENTITY);
+        private final Matrix4Uniform modelMatrixUniform = new Matrix4Uniform("modelMatrix", Matrix4f.IDENTITY);
+        private final Matrix4Uniform normalMatrixUniform = new Matrix4Uniform("normalMatrix", Matrix4f.IDENTITY);
+        private final Matrix4Uniform modelViewProjectionMatrixUniform = new Matrix4Uniform("modelViewProjectionMatrix", Matrix4f.IDENTITY);
+        // Context uniforms held by the frame block and their version, to only rebuild it when they change
+        private UniformHolder frameUniforms = null;
+        private int frameUniformsVersion = -1;
+        // Attribute index of each instance matrix in the current program, or -1 if it isn't declared
+        private final int[] instanceAttributes = new int[INSTANCE_MATRICES.length];
+        // Buffers for streaming the instance matrices, grown as needed
+        private final FloatBuffer[] instanceBuffers = new FloatBuffer[INSTANCE_MATRICES.length];
 
         /**
          * Constructs a model rendering action with the models to render
@@ -441,6 +502,15 @@ public abstract class Action {
             this.models = models;
         }
 
+        /**
+         * Constructs a model rendering action with the queue of models to render
+         *
+         * @param queue The render queue
+         */
+        public RenderModelsAction(RenderQueue queue) {
+            this.queue = queue;
+        }
+
         /**
          * Returns the models to render.
          *
@@ -457,55 +527,313 @@ public abstract class Action {
          */
         public void setModels(Collection<? extends Model> models) {
             this.models = models;
+            queue = null;
+        }
+
+        /**
+         * Returns the render queue.
+         *
+         * @return The render queue, or null if a collection of models is used instead
+         */
+        public RenderQueue getQueue() {
+            return queue;
+        }
+
+        /**
+         * Sets the render queue. Replaces the models collection, if any.
+         *
+         * @param queue The render queue
+         */
+        public void setQueue(RenderQueue queue) {
+            this.queue = queue;
+            models = null;
+        }
+
+        /**
+         * Returns true if the opaque models are sorted front to back, after being sorted by state.
+         *
+         * @return Whether or not the opaque models are sorted by depth
+         */
+        public boolean isDepthSorting() {
+            return sorter.isDepthSorting();
+        }
+
+        /**
+         * Sets whether or not the opaque models are sorted front to back, after being sorted by state. This is enabled by default. Translucent models are always sorted by depth.
+         *
+         * @param depthSorting Whether or not to sort the opaque models by depth
+         */
+        public void setDepthSorting(boolean depthSorting) {
+            sorter.setDepthSorting(depthSorting);
+        }
+
+        /**
+         * Returns true if the models outside of the camera frustum are culled.
+         *
+         * @return Whether or not frustum culling is enabled
+         */
+        public boolean isFrustumCulling() {
+            return sorter.isFrustumCulling();
+        }
+
+        /**
+         * Sets whether or not the models outside of the camera frustum are culled. This is disabled by default, since it assumes the programs use the camera matrices.
+         *
+         * @param frustumCulling Whether or not to cull the models
+         */
+        public void setFrustumCulling(boolean frustumCulling) {
+            sorter.setFrustumCulling(frustumCulling);
+        }
+
+        /**
+         * Returns the number of models which were rendered during the last execution.
+         *
+         * @return The number of visible models
+         */
+        public int getVisibleCount() {
+            return sorter.size();
+        }
+
+        /**
+         * Returns the number of models which were culled during the last execution.
+         *
+         * @return The number of culled models
+         */
+        public int getCulledCount() {
+            return sorter.getCulledCount();
+        }
+
+        /**
+         * Returns the way the normal matrix is computed.
+         *
+         * @return The normal matrix mode
+         */
+        public NormalMatrixMode getNormalMatrixMode() {
+            return normalMatrixMode;
+        }
+
+        /**
+         * Sets the way the normal matrix is computed. The default is {@link NormalMatrixMode#FULL}, the cheaper modes only produce a correct upper left 3x3 matrix.
+         *
+         * @param normalMatrixMode The normal matrix mode
+         */
+        public void setNormalMatrixMode(NormalMatrixMode normalMatrixMode) {
+            if (normalMatrixMode == null) {
+                throw new IllegalArgumentException("Normal matrix mode cannot be null");
+            }
+            this.normalMatrixMode = normalMatrixMode;
         }
 
         @Override
         public void execute(Context context) {
-            // Get the model array
-            final Model[] models = this.models.toArray(new Model[this.models.size()]);
-            // Batch the models with the same materials together
-            Arrays.sort(models);
-            // Current material
-            Material current = null;
-            for (Model model : models) {
+            final Camera camera = context.getCamera();
+            // Sort the models by state
+            if (queue != null) {
+                sorter.sort(queue, camera);
+            } else {
+                sorter.sort(models, camera);
+            }
+            // Update the camera and context uniforms, shared by all the programs
+            updateFrameBlock(context, camera);
+            // Current state
+            Program currentProgram = null;
+            Material currentMaterial = null;
+            // Units for which the sampler was bound in the current program
+            int boundSamplers = 0;
+            // Whether or not the current program reads the model matrices as instance attributes
+            boolean instancedProgram = false;
+            // Whether or not the current program reads the model matrices from the object block
+            boolean objectBlockProgram = false;
+            boundTextures.clear();
+            final int size = sorter.size();
+            int i = 0;
+            while (i < size) {
+                final Model model = sorter.get(i);
                 final Material material = model.getMaterial();
-                if (material == null) {
-                    throw new IllegalStateException("Null material");
-                }
                 // If we switched material
-                if (current != material) {
-                    // Unbind the old material if any
-                    if (current != null) {
-                        current.unbind();
+                if (material != currentMaterial) {
+                    final Program program = material.getProgram();
+                    // Only switch program if it differs
+                    if (program != currentProgram) {
+                        program.use();
+                        // Bind the camera and context uniforms
+                        frameBlock.bind(program);
+                        objectBlockProgram = program.getUniformBlockNames().contains(OBJECT_BLOCK);
+                        if (objectBlockProgram) {
+                            objectBlock.bind(program);
+                        }
+                        currentProgram = program;
+                        boundSamplers = 0;
+                        // Resolve the model matrix uniforms once per program
+                        modelMatrixHandle = program.getUniformHandle("modelMatrix");
+                        normalMatrixHandle = program.getUniformHandle("normalMatrix");
+                        modelViewProjectionMatrixHandle = program.getUniformHandle("modelViewProjectionMatrix");
+                        instancedProgram = findInstanceAttributes(program);
+                    }
+                    // Only bind the textures which differ
+                    final int[] units = material.getTextureUnits();
+                    final Texture[] textures = material.getTextureArray();
+                    for (int j = 0; j < units.length; j++) {
+                        final int unit = units[j];
+                        final Texture texture = textures[j];
+                        if (boundTextures.get(unit) != texture) {
+                            texture.bind(unit);
+                            boundTextures.put(unit, texture);
+                        }
+                        // Bind the shader sampler uniform to the unit, once per program
+                        final int samplerBit = unit >= 0 && unit < 32 ? 1 << unit : 0;
+                        if ((boundSamplers & samplerBit) == 0) {
+                            program.bindSampler(unit);
+                            boundSamplers |= samplerBit;
+                        }
                     }
-                    // Update the current material
-                    current = material;
-                    // Bind it
-                    current.bind();
-                    // Upload the camera matrices
-                    uploadCameraMatrices(context.getCamera(), current.getProgram());
-                    // Upload the context uniforms
-                    context.uploadUniforms(current.getProgram());
                     // Upload the material uniforms
                     material.uploadUniforms();
+                    currentMaterial = material;
+                }
+                final VertexArray vertexArray = model.getVertexArray();
+                if (instancedProgram && model.isInstanceable() && vertexArray.isInstancingSupported()) {
+                    // Extend the run to the following models which only differ by their matrices
+                    int end = i + 1;
+                    if (model.getUniforms().isEmpty()) {
+                        while (end < size && isInstance(sorter.get(end), vertexArray, material)) {
+                            end++;
+                        }
+                    }
+                    // Upload the model uniforms, if any
+                    model.uploadUniforms();
+                    // Render the run of models
+                    drawInstances(camera, vertexArray, i, end);
+                    i = end;
+                } else {
+                    // Upload the model and normal matrices
+                    if (objectBlockProgram) {
+                        updateObjectBlock(model, camera);
+                    } else {
+                        uploadModelMatrices(model, camera, currentProgram);
+                    }
+                    // Upload the model uniforms
+                    model.uploadUniforms();
+                    // Render the model
+                    model.render();
+                    i++;
+                }
+            }
+        }
+
+        private void updateFrameBlock(Context context, Camera camera) {
+            if (frameBlock == null || !frameBlock.isCreated()) {
+                frameBlock = context.newUniformBlock();
+                frameBlock.create();
+                frameBlock.setName(FRAME_BLOCK);
+                objectBlock = context.newUniformBlock();
+                objectBlock.create();
+                objectBlock.setName(OBJECT_BLOCK);
+                objectBlock.setCapacity(OBJECT_BLOCK_CAPACITY);
+                objectBlock.add(modelMatrixUniform);
+                objectBlock.add(normalMatrixUniform);
+                objectBlock.add(modelViewProjectionMatrixUniform);
+                frameUniforms = null;
+            }
+            projectionMatrixUniform.set(camera.getProjectionMatrix());
+            viewMatrixUniform.set(camera.getViewMatrix());
+            // Only rebuild the block if context uniforms were added, replaced or removed since the last execution
+            final UniformHolder uniforms = context.getUniforms();
+            if (uniforms != frameUniforms || uniforms.getVersion() != frameUniformsVersion) {
+                frameBlock.clear();
+                frameBlock.add(projectionMatrixUniform);
+                frameBlock.add(viewMatrixUniform);
+                frameBlock.addAll(uniforms);
+                frameUniforms = uniforms;
+                frameUniformsVersion = uniforms.getVersion();
+            }
+            frameBlock.update();
+        }
+
+        private void updateObjectBlock(Model model, Camera camera) {
+            modelMatrixUniform.set(model.getMatrix());
+            normalMatrixUniform.set(model.getNormalMatrix(camera, normalMatrixMode));
+            modelViewProjectionMatrixUniform.set(model.getModelViewProjectionMatrix(camera));
+            objectBlock.update();
+        }
+
+        private void uploadModelMatrices(Model model, Camera camera, Program program) {
+            if (modelMatrixHandle != null) {
+                program.setUniform(modelMatrixHandle, model.getMatrix());
+            }
+            // These are cached by the model until it or the camera changes
+            if (normalMatrixHandle != null) {
+                program.setUniform(normalMatrixHandle, model.getNormalMatrix(camera, normalMatrixMode));
+            }
+            if (modelViewProjectionMatrixHandle != null) {
+                program.setUniform(modelViewProjectionMatrixHandle, model.getModelViewProjectionMatrix(camera));
+            }
+        }
+
+        private boolean findInstanceAttributes(Program program) {
+            boolean found = false;
+            for (int i = 0; i < INSTANCE_MATRICES.length; i++) {
+                instanceAttributes[i] = -1;
+                for (Shader shader : program.getShaders()) {
+                    final TObjectIntMap<String> layouts = shader.getAttributeLayouts();
+                    if (layouts != null && layouts.containsKey(INSTANCE_MATRICES[i])) {
+                        instanceAttributes[i] = layouts.get(INSTANCE_MATRICES[i]);
+                        found = true;
+                        break;
+                    }
                 }
-                // Upload the model and normal matrices
-                uploadModelMatrices(model, context.getCamera(), current.getProgram());
-                // Upload the model uniforms
-                model.uploadUniforms();
-                // Render the model
-                model.render();
             }
+            return found;
         }
 
-        private static void uploadCameraMatrices(Camera camera, Program program) {
-            program.setUniform("projectionMatrix", camera.getProjectionMatrix());
-            program.setUniform("viewMatrix", camera.getViewMatrix());
+        private static boolean isInstance(Model model, VertexArray vertexArray, Material material) {
+            return model.getVertexArray() == vertexArray && model.getMaterial() == material && model.isInstanceable() && model.getUniforms().isEmpty();
         }
 
-        private static void uploadModelMatrices(Model model, Camera camera, Program program) {
-            program.setUniform("modelMatrix", model.getMatrix());
-            program.setUniform("normalMatrix", camera.getViewMatrix().mul(model.getMatrix()).invert().transpose());
+        private void drawInstances(Camera camera, VertexArray vertexArray, int start, int end) {
+            final int count = end - start;
+            // Stream the matrices declared by the program as instance attributes
+            for (int i = 0; i < INSTANCE_MATRICES.length; i++) {
+                final int attribute = instanceAttributes[i];
+                if (attribute < 0) {
+                    continue;
+                }
+                final FloatBuffer buffer = getInstanceBuffer(i, count * 16);
+                for (int j = start; j < end; j++) {
+                    final Matrix4f matrix = getInstanceMatrix(i, sorter.get(j), camera);
+                    // Column-major, like the matrix uniforms
+                    for (int col = 0; col < 4; col++) {
+                        for (int row = 0; row < 4; row++) {
+                            buffer.put(matrix.get(row, col));
+                        }
+                    }
+                }
+                buffer.flip();
+                vertexArray.setInstanceAttribute(attribute, 16, buffer);
+            }
+            vertexArray.drawInstanced(count);
+        }
+
+        private Matrix4f getInstanceMatrix(int matrix, Model model, Camera camera) {
+            switch (matrix) {
+                case MODEL_MATRIX:
+                    return model.getMatrix();
+                case NORMAL_MATRIX:
+                    return model.getNormalMatrix(camera, normalMatrixMode);
+                default:
+                    return model.getModelViewProjectionMatrix(camera);
+            }
+        }
+
+        private FloatBuffer getInstanceBuffer(int matrix, int capacity) {
+            FloatBuffer buffer = instanceBuffers[matrix];
+            if (buffer == null || buffer.capacity() < capacity) {
+                // Grow geometrically to avoid reallocating for each slightly larger run
+                buffer = CausticUtil.createFloatBuffer(buffer == null ? capacity : Math.max(capacity, buffer.capacity() * 2));
+                instanceBuffers[matrix] = buffer;
+            }
+            buffer.clear();
+            return buffer;
         }
     }
 
@@ -37,6 +37,8 @@ public class Camera {
     private Matrix4f rotationMatrixInverse = Matrix4f.IDENTITY;
     private Matrix4f viewMatrix = Matrix4f.IDENTITY;
     private boolean updateViewMatrix = true;
+    // Incremented each time the projection or view matrix changes
+    private int version = 0;
 
     /**
      * Creates a new camera from the supplied projection matrix.
@@ -63,6 +65,7 @@ public class Camera {
      */
     public void setProjection(Matrix4f projection) {
         this.projection = projection;
+        version++;
     }
 
     /**
@@ -81,6 +84,15 @@ public class Camera {
         return viewMatrix;
     }
 
+    /**
+     * Returns the version of the camera matrices. It increases each time the projection or view matrix changes, so it can be used to cache values derived from them.
+     *
+     * @return The camera version
+     */
+    public int getVersion() {
+        return version;
+    }
+
     /**
      * Gets the camera position.
      *
@@ -98,6 +110,7 @@ public class Camera {
     public void setPosition(Vector3f position) {
         this.position = position;
         updateViewMatrix = true;
+        version++;
     }
 
     /**
@@ -117,6 +130,7 @@ public class Camera {
     public void setRotation(Quaternionf rotation) {
         this.rotation = rotation;
         updateViewMatrix = true;
+        version++;
     }
 
     /**
@@ -0,0 +1,191 @@
+/*
+ * This file is part of Caustic API, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.api;
+
+import java.util.List;
+
+import com.flowpowered.caustic.api.Action.BindFrameBufferAction;
+import com.flowpowered.caustic.api.Action.ClearBufferAction;
+import com.flowpowered.caustic.api.Action.DisableCapabilitiesAction;
+import com.flowpowered.caustic.api.Action.EnableCapabilitiesAction;
+import com.flowpowered.caustic.api.Action.RenderModelsAction;
+import com.flowpowered.caustic.api.Action.SetBlendingFunctions;
+import com.flowpowered.caustic.api.Action.SetCameraAction;
+import com.flowpowered.caustic.api.Action.SetClearColorAction;
+import com.flowpowered.caustic.api.Action.SetDepthMaskAction;
+import com.flowpowered.caustic.api.Action.SetViewPortAction;
+import com.flowpowered.caustic.api.Action.UnbindFrameBufferAction;
+import com.flowpowered.caustic.api.Action.UpdateDisplayAction;
+import com.flowpowered.caustic.api.gl.Context;
+import com.flowpowered.caustic.api.gl.Context.Capability;
+
+/**
+ * A pipeline compiled to a flat command list. The state changing actions are applied through the {@link ContextState} of the context, which drops the changes that would have no effect. The actions are
+ * still read when running, so they can be modified after the pipeline is built. Actions of unknown types are executed as is, after which the context state is invalidated.
+ */
+public class CompiledPipeline extends Pipeline {
+    // Command types
+    private static final byte EXECUTE = 0;
+    private static final byte EXECUTE_AND_INVALIDATE = 1;
+    private static final byte ENABLE_CAPABILITIES = 2;
+    private static final byte DISABLE_CAPABILITIES = 3;
+    private static final byte SET_DEPTH_MASK = 4;
+    private static final byte SET_BLENDING_FUNCTIONS = 5;
+    private static final byte SET_VIEW_PORT = 6;
+    private static final byte BIND_FRAME_BUFFER = 7;
+    private static final byte UNBIND_FRAME_BUFFER = 8;
+    private final Action[] actions;
+    private final byte[] commands;
+    private int savedCalls = 0;
+
+    /**
+     * Constructs a new compiled pipeline from the list of actions.
+     *
+     * @param actions The list of actions
+     */
+    protected CompiledPipeline(List<Action> actions) {
+        super(actions);
+        this.actions = actions.toArray(new Action[actions.size()]);
+        commands = new byte[this.actions.length];
+        for (int i = 0; i < commands.length; i++) {
+            commands[i] = compile(this.actions[i]);
+        }
+    }
+
+    @Override
+    public void run(Context context) {
+        final ContextState state = context.getState();
+        final PipelineProfiler profiler = getProfiler();
+        int saved = 0;
+        if (profiler != null) {
+            profiler.beginFrame(context, getActions());
+            for (int i = 0; i < commands.length; i++) {
+                profiler.beginAction(i);
+                saved += execute(i, context, state);
+                profiler.endAction(i);
+            }
+            profiler.endFrame();
+        } else {
+            for (int i = 0; i < commands.length; i++) {
+                saved += execute(i, context, state);
+            }
+        }
+        savedCalls = saved;
+    }
+
+    private int execute(int index, Context context, ContextState state) {
+        final Action action = actions[index];
+        int saved = 0;
+        switch (commands[index]) {
+            case EXECUTE:
+                action.execute(context);
+                break;
+            case EXECUTE_AND_INVALIDATE:
+                action.execute(context);
+                state.invalidate();
+                break;
+            case ENABLE_CAPABILITIES:
+                for (Capability capability : ((EnableCapabilitiesAction) action).getCapabilities()) {
+                    if (!state.enableCapability(context, capability)) {
+                        saved++;
+                    }
+                }
+                break;
+            case DISABLE_CAPABILITIES:
+                for (Capability capability : ((DisableCapabilitiesAction) action).getCapabilities()) {
+                    if (!state.disableCapability(context, capability)) {
+                        saved++;
+                    }
+                }
+                break;
+            case SET_DEPTH_MASK:
+                if (!state.setDepthMask(context, ((SetDepthMaskAction) action).getEnabled())) {
+                    saved++;
+                }
+                break;
+            case SET_BLENDING_FUNCTIONS:
+                final SetBlendingFunctions blending = (SetBlendingFunctions) action;
+                if (!state.setBlendingFunctions(context, blending.getSource(), blending.getDestination())) {
+                    saved++;
+                }
+                break;
+            case SET_VIEW_PORT:
+                if (!state.setViewPort(context, ((SetViewPortAction) action).getViewPort())) {
+                    saved++;
+                }
+                break;
+            case BIND_FRAME_BUFFER:
+                if (!state.bindFrameBuffer(((BindFrameBufferAction) action).getFrameBuffer())) {
+                    saved++;
+                }
+                break;
+            case UNBIND_FRAME_BUFFER:
+                if (!state.unbindFrameBuffer(((UnbindFrameBufferAction) action).getFrameBuffer())) {
+                    saved++;
+                }
+                break;
+        }
+        return saved;
+    }
+
+    /**
+     * Returns the number of state changes that were dropped during the last run, because they would have had no effect. Each dropped change is a saved GL call.
+     *
+     * @return The number of saved calls during the last run
+     */
+    public int getSavedCalls() {
+        return savedCalls;
+    }
+
+    private static byte compile(Action action) {
+        // Only the exact action types are known, subclasses could do anything in execute
+        final Class<? extends Action> type = action.getClass();
+        if (type == EnableCapabilitiesAction.class) {
+            return ENABLE_CAPABILITIES;
+        }
+        if (type == DisableCapabilitiesAction.class) {
+            return DISABLE_CAPABILITIES;
+        }
+        if (type == SetDepthMaskAction.class) {
+            return SET_DEPTH_MASK;
+        }
+        if (type == SetBlendingFunctions.class) {
+            return SET_BLENDING_FUNCTIONS;
+        }
+        if (type == SetViewPortAction.class) {
+            return SET_VIEW_PORT;
+        }
+        if (type == BindFrameBufferAction.class) {
+            return BIND_FRAME_BUFFER;
+        }
+        if (type == UnbindFrameBufferAction.class) {
+            return UNBIND_FRAME_BUFFER;
+        }
+        // These don't change any of the tracked state
+        if (type == SetClearColorAction.class || type == ClearBufferAction.class || type == SetCameraAction.class || type == RenderModelsAction.class || type == UpdateDisplayAction.class) {
+            return EXECUTE;
+        }
+        return EXECUTE_AND_INVALIDATE;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * This file is part of Caustic API, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.api;
+
+import com.flowpowered.caustic.api.gl.Context;
+import com.flowpowered.caustic.api.gl.Context.BlendFunction;
+import com.flowpowered.caustic.api.gl.Context.Capability;
+import com.flowpowered.caustic.api.gl.FrameBuffer;
+import com.flowpowered.caustic.api.util.Rectangle;
+
+/**
+ * A shadow of the state of a context, used by compiled pipelines to drop state changes that would have no effect. Each context has one, accessible with {@link
+ * com.flowpowered.caustic.api.gl.Context#getState()}. The shadow only knows about the state changes done through a {@link CompiledPipeline}, any other change must be followed by a call to {@link
+ * #invalidate()}. Regular pipelines do this automatically.
+ */
+public class ContextState {
+    private static final byte UNKNOWN = 0;
+    private static final byte ENABLED = 1;
+    private static final byte DISABLED = 2;
+    private final byte[] capabilities = new byte[Capability.values().length];
+    private byte depthMask = UNKNOWN;
+    private BlendFunction blendSource, blendDestination;
+    private boolean viewPortKnown = false;
+    private int viewPortX, viewPortY, viewPortWidth, viewPortHeight;
+    private boolean frameBufferKnown = false;
+    private FrameBuffer frameBuffer;
+
+    /**
+     * Forgets all the known state. The next state changes will always be applied to the context.
+     */
+    public void invalidate() {
+        for (int i = 0; i < capabilities.length; i++) {
+            capabilities[i] = UNKNOWN;
+        }
+        depthMask = UNKNOWN;
+        blendSource = null;
+        blendDestination = null;
+        viewPortKnown = false;
+        frameBufferKnown = false;
+        frameBuffer = null;
+    }
+
+    /**
+     * Enables the capability in the context, unless it's already known to be enabled.
+     *
+     * @param context The context
+     * @param capability The capability to enable
+     * @return Whether or not the context was called
+     */
+    public boolean enableCapability(Context context, Capability capability) {
+        final int index = capability.ordinal();
+        if (capabilities[index] == ENABLED) {
+            return false;
+        }
+        context.enableCapability(capability);
+        capabilities[index] = ENABLED;
+        return true;
+    }
+
+    /**
+     * Disables the capability in the context, unless it's already known to be disabled.
+     *
+     * @param context The context
+     * @param capability The capability to disable
+     * @return Whether or not the context was called
+     */
+    public boolean disableCapability(Context context, Capability capability) {
+        final int index = capability.ordinal();
+        if (capabilities[index] == DISABLED) {
+            return false;
+        }
+        context.disableCapability(capability);
+        capabilities[index] = DISABLED;
+        return true;
+    }
+
+    /**
+     * Sets the depth mask in the context, unless it's already known to have the same value.
+     *
+     * @param context The context
+     * @param enabled The depth mask value
+     * @return Whether or not the context was called
+     */
+    public boolean setDepthMask(Context context, boolean enabled) {
+        final byte value = enabled ? ENABLED : DISABLED;
+        if (depthMask == value) {
+            return false;
+        }
+        context.setDepthMask(enabled);
+        depthMask = value;
+        return true;
+    }
+
+    /**
+     * Sets the blending functions in the context, unless they're already known to be the same.
+     *
+     * @param context The context
+     * @param source The source blending function
+     * @param destination The destination blending function
+     * @return Whether or not the context was called
+     */
+    public boolean setBlendingFunctions(Context context, BlendFunction source, BlendFunction destination) {
+        if (blendSource == source && blendDestination == destination) {
+            return false;
+        }
+        context.setBlendingFunctions(source, destination);
+        blendSource = source;
+        blendDestination = destination;
+        return true;
+    }
+
+    /**
+     * Sets the view port in the context, unless it's already known to be the same. The rectangle is copied, so it can be modified afterwards.
+     *
+     * @param context The context
+     * @param viewPort The view port
+     * @return Whether or not the context was called
+     */
+    public boolean setViewPort(Context context, Rectangle viewPort) {
+        final int x = viewPort.getX(), y = viewPort.getY(), width = viewPort.getWidth(), height = viewPort.getHeight();
+        if (viewPortKnown && viewPortX == x && viewPortY == y && viewPortWidth == width && viewPortHeight == height) {
+            return false;
+        }
+        context.setViewPort(viewPort);
+        viewPortKnown = true;
+        viewPortX = x;
+        viewPortY = y;
+        viewPortWidth = width;
+        viewPortHeight = height;
+        return true;
+    }
+
+    /**
+     * Binds the frame buffer, unless it's already known to be bound.
+     *
+     * @param frameBuffer The frame buffer to bind
+     * @return Whether or not the frame buffer was bound
+     */
+    public boolean bindFrameBuffer(FrameBuffer frameBuffer) {
+        if (frameBufferKnown && this.frameBuffer == frameBuffer) {
+            return false;
+        }
+        frameBuffer.bind();
+        frameBufferKnown = true;
+        this.frameBuffer = frameBuffer;
+        return true;
+    }
+
+    /**
+     * Unbinds the frame buffer, unless no frame buffer is known to be bound.
+     *
+     * @param frameBuffer The frame buffer to unbind
+     * @return Whether or not the frame buffer was unbound
+     */
+    public boolean unbindFrameBuffer(FrameBuffer frameBuffer) {
+        if (frameBufferKnown && this.frameBuffer == null) {
+            return false;
+        }
+        frameBuffer.unbind();
+        frameBufferKnown = true;
+        this.frameBuffer = null;
+        return true;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * This file is part of Caustic API, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.api;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.flowpowered.math.matrix.Matrix4f;
+import com.flowpowered.math.vector.Vector3f;
+
+import com.flowpowered.caustic.api.gl.VertexArray;
+import com.flowpowered.caustic.api.model.Model;
+
+/**
+ * Culls the models which are outside of the camera frustum. The planes are extracted from the product of the camera projection and view matrices. The bounds of each model's vertex array are
+ * transformed by the model matrix into a world space axis aligned box, which is then tested against the planes. The boxes are stored as arrays of components, so that the plane tests are simple loops
+ * which can be vectorized. Large lists of models are culled in parallel. Models with unknown bounds, or which aren't cullable, are never culled.
+ */
+class FrustumCuller {
+    // Lists with at least this many models are culled in parallel
+    private static final int PARALLEL_THRESHOLD = 4096;
+    // Number of models culled per parallel task
+    private static final int TASK_SIZE = 1024;
+    private static final int PLANE_COUNT = 6;
+    private static ForkJoinPool pool;
+    // The planes as a, b, c and d, with the normals pointing inside the frustum
+    private final float[] planes = new float[PLANE_COUNT * 4];
+    private Camera camera = null;
+    private int cameraVersion = 0;
+    // Model matrices and model space bounds, gathered before culling
+    private Matrix4f[] matrices = new Matrix4f[0];
+    private Vector3f[] mins = new Vector3f[0];
+    private Vector3f[] maxs = new Vector3f[0];
+    // World space boxes as center and half size, and the smallest signed distance to the planes
+    private float[] centersX = new float[0], centersY = new float[0], centersZ = new float[0];
+    private float[] extentsX = new float[0], extentsY = new float[0], extentsZ = new float[0];
+    private float[] distances = new float[0];
+    private int visibleCount = 0;
+    private int culledCount = 0;
+
+    /**
+     * Culls the models, moving the visible ones to the start of the array, in the same order.
+     *
+     * @param models The models
+     * @param count The number of models
+     * @param camera The camera, or null to not cull anything
+     * @return The number of visible models
+     */
+    int cull(Model[] models, int count, Camera camera) {
+        if (camera == null) {
+            visibleCount = count;
+            culledCount = 0;
+            return count;
+        }
+        updatePlanes(camera);
+        ensureCapacity(count);
+        // This might compute the model matrices, which isn't thread safe, so it's done before the parallel part
+        for (int i = 0; i < count; i++) {
+            final Model model = models[i];
+            final VertexArray vertexArray = model.getVertexArray();
+            final Vector3f min = model.isCullable() ? vertexArray.getBoundsMin() : null;
+            mins[i] = min;
+            maxs[i] = vertexArray.getBoundsMax();
+            matrices[i] = min != null ? model.getMatrix() : null;
+        }
+        if (count >= PARALLEL_THRESHOLD) {
+            getPool().invoke(new CullTask(0, count));
+        } else {
+            cull(0, count);
+        }
+        // Compact the visible models
+        int visible = 0;
+        for (int i = 0; i < count; i++) {
+            if (distances[i] >= 0) {
+                models[visible++] = models[i];
+            }
+        }
+        Arrays.fill(models, visible, count, null);
+        Arrays.fill(matrices, 0, count, null);
+        visibleCount = visible;
+        culledCount = count - visible;
+        return visible;
+    }
+
+    int getVisibleCount() {
+        return visibleCount;
+    }
+
+    int getCulledCount() {
+        return culledCount;
+    }
+
+    private void updatePlanes(Camera camera) {
+        if (camera == this.camera && camera.getVersion() == cameraVersion) {
+            return;
+        }
+        final Matrix4f clip = camera.getProjectionMatrix().mul(camera.getViewMatrix());
+        // Each plane is the last row plus or minus one of the others: left, right, bottom, top, near and far
+        for (int p = 0; p < PLANE_COUNT; p++) {
+            final int row = p >> 1;
+            final float sign = (p & 1) == 0 ? 1 : -1;
+            for (int col = 0; col < 4; col++) {
+                planes[p * 4 + col] = clip.get(3, col) + sign * clip.get(row, col);
+            }
+        }
+        this.camera = camera;
+        cameraVersion = camera.getVersion();
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (matrices.length < capacity) {
+            final int length = Math.max(capacity, matrices.length * 3 / 2);
+            matrices = new Matrix4f[length];
+            mins = new Vector3f[length];
+            maxs = new Vector3f[length];
+            centersX = new float[length];
+            centersY = new float[length];
+            centersZ = new float[length];
+            extentsX = new float[length];
+            extentsY = new float[length];
+            extentsZ = new float[length];
+            distances = new float[length];
+        }
+    }
+
+    private void cull(int start, int end) {
+        // Transform the bounds to world space boxes
+        for (int i = start; i < end; i++) {
+            final Matrix4f m = matrices[i];
+            if (m == null) {
+                // An infinite box, which is always visible
+                centersX[i] = centersY[i] = centersZ[i] = 0;
+                extentsX[i] = extentsY[i] = extentsZ[i] = Float.MAX_VALUE;
+                continue;
+            }
+            final Vector3f min = mins[i];
+            final Vector3f max = maxs[i];
+            final float cx = (min.getX() + max.getX()) * 0.5f, cy = (min.getY() + max.getY()) * 0.5f, cz = (min.getZ() + max.getZ()) * 0.5f;
+            final float ex = (max.getX() - min.getX()) * 0.5f, ey = (max.getY() - min.getY()) * 0.5f, ez = (max.getZ() - min.getZ()) * 0.5f;
+            centersX[i] = m.get(0, 0) * cx + m.get(0, 1) * cy + m.get(0, 2) * cz + m.get(0, 3);
+            centersY[i] = m.get(1, 0) * cx + m.get(1, 1) * cy + m.get(1, 2) * cz + m.get(1, 3);
+            centersZ[i] = m.get(2, 0) * cx + m.get(2, 1) * cy + m.get(2, 2) * cz + m.get(2, 3);
+            // The half size of the box enclosing the transformed box
+            extentsX[i] = Math.abs(m.get(0, 0)) * ex + Math.abs(m.get(0, 1)) * ey + Math.abs(m.get(0, 2)) * ez;
+            extentsY[i] = Math.abs(m.get(1, 0)) * ex + Math.abs(m.get(1, 1)) * ey + Math.abs(m.get(1, 2)) * ez;
+            extentsZ[i] = Math.abs(m.get(2, 0)) * ex + Math.abs(m.get(2, 1)) * ey + Math.abs(m.get(2, 2)) * ez;
+        }
+        // Keep the smallest signed distance of the box to the planes, a negative one means the box is outside of a plane
+        Arrays.fill(distances, start, end, Float.POSITIVE_INFINITY);
+        for (int p = 0; p < PLANE_COUNT; p++) {
+            final float a = planes[p * 4], b = planes[p * 4 + 1], c = planes[p * 4 + 2], d = planes[p * 4 + 3];
+            final float absA = Math.abs(a), absB = Math.abs(b), absC = Math.abs(c);
+            for (int i = start; i < end; i++) {
+                final float distance = a * centersX[i] + b * centersY[i] + c * centersZ[i] + d + absA * extentsX[i] + absB * extentsY[i] + absC * extentsZ[i];
+                distances[i] = Math.min(distances[i], distance);
+            }
+        }
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+
+    private class CullTask extends RecursiveAction {
+        private static final long serialVersionUID = 1;
+        private final int start, end;
+
+        private CullTask(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= TASK_SIZE) {
+                cull(start, end);
+                return;
+            }
+            final int middle = start + end >>> 1;
+            invokeAll(new CullTask(start, middle), new CullTask(middle, end));
+        }
+    }
+}
@@ -23,6 +23,7 @@
  */
 package com.flowpowered.caustic.api;
 
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import gnu.trove.iterator.TIntObjectIterator;
@@ -48,6 +49,13 @@ public class Material implements Comparable<Material> {
     private TIntObjectMap<Texture> textures;
     // Material uniforms
     private final UniformHolder uniforms = new UniformHolder();
+    // Whether or not the material is rendered after the opaque ones, from back to front
+    private boolean translucent = false;
+    // Incremented when the program, textures or translucency change
+    private int version = 0;
+    // Textures sorted by unit, for iteration while rendering, rebuilt when null
+    private int[] textureUnits = null;
+    private Texture[] textureArray = null;
 
     public Material(Program program) {
         if (program == null) {
@@ -104,6 +112,7 @@ public class Material implements Comparable<Material> {
         }
         program.checkCreated();
         this.program = program;
+        version++;
     }
 
     /**
@@ -130,6 +139,7 @@ public class Material implements Comparable<Material> {
             textures = new TIntObjectHashMap<>();
         }
         textures.put(unit, texture);
+        invalidateTextures();
     }
 
     /**
@@ -158,9 +168,68 @@ public class Material implements Comparable<Material> {
      * @param unit The unit to remove the texture from
      */
     public void removeTexture(int unit) {
-        if (textures != null) {
-            textures.remove(unit);
+        if (textures != null && textures.remove(unit) != null) {
+            invalidateTextures();
+        }
+    }
+
+    private void invalidateTextures() {
+        textureUnits = null;
+        textureArray = null;
+        version++;
+    }
+
+    int[] getTextureUnits() {
+        if (textureUnits == null) {
+            updateTextureArrays();
+        }
+        return textureUnits;
+    }
+
+    Texture[] getTextureArray() {
+        if (textureArray == null) {
+            updateTextureArrays();
+        }
+        return textureArray;
+    }
+
+    private void updateTextureArrays() {
+        if (textures == null) {
+            textureUnits = new int[0];
+            textureArray = new Texture[0];
+            return;
         }
+        final int[] units = textures.keys();
+        Arrays.sort(units);
+        final Texture[] array = new Texture[units.length];
+        for (int i = 0; i < units.length; i++) {
+            array[i] = textures.get(units[i]);
+        }
+        textureUnits = units;
+        textureArray = array;
+    }
+
+    /**
+     * Returns true if the material is translucent. Translucent materials are rendered after the opaque ones, and their models are sorted from back to front.
+     *
+     * @return Whether or not the material is translucent
+     */
+    public boolean isTranslucent() {
+        return translucent;
+    }
+
+    /**
+     * Sets whether or not the material is translucent. Translucent materials are rendered after the opaque ones, and their models are sorted from back to front.
+     *
+     * @param translucent Whether or not the material is translucent
+     */
+    public void setTranslucent(boolean translucent) {
+        this.translucent = translucent;
+        version++;
+    }
+
+    int getVersion() {
+        return version;
     }
 
     /**
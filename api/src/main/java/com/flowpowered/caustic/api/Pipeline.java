@@ -46,6 +46,7 @@ import com.flowpowered.caustic.api.gl.Context.BlendFunction;
 import com.flowpowered.caustic.api.gl.Context.Capability;
 import com.flowpowered.caustic.api.gl.FrameBuffer;
 import com.flowpowered.caustic.api.model.Model;
+import com.flowpowered.caustic.api.model.RenderQueue;
 import com.flowpowered.caustic.api.util.Rectangle;
 
 /**
@@ -54,6 +55,7 @@ import com.flowpowered.caustic.api.util.Rectangle;
  */
 public class Pipeline {
     private final List<Action> actions;
+    private PipelineProfiler profiler;
 
     /**
      * Constructs a new pipeline from the list of actions.
@@ -65,14 +67,53 @@ public class Pipeline {
     }
 
     /**
-     * Runs the pipeline using the provided context.
+     * Runs the pipeline using the provided context. The state of the context is changed directly, so its {@link ContextState} is invalidated afterwards.
      *
      * @param context The context to use.
      */
     public void run(Context context) {
-        for (Action action : actions) {
-            action.execute(context);
+        if (profiler != null) {
+            profiler.beginFrame(context, actions);
+            int i = 0;
+            for (Action action : actions) {
+                profiler.beginAction(i);
+                action.execute(context);
+                profiler.endAction(i++);
+            }
+            profiler.endFrame();
+        } else {
+            for (Action action : actions) {
+                action.execute(context);
+            }
         }
+        context.getState().invalidate();
+    }
+
+    /**
+     * Returns the actions of the pipeline, in order.
+     *
+     * @return The actions
+     */
+    protected List<Action> getActions() {
+        return actions;
+    }
+
+    /**
+     * Sets the profiler used to measure the cost of each action when running the pipeline. Null disables profiling.
+     *
+     * @param profiler The profiler, or null for none
+     */
+    public void setProfiler(PipelineProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Returns the profiler used when running the pipeline.
+     *
+     * @return The profiler, or null if none
+     */
+    public PipelineProfiler getProfiler() {
+        return profiler;
     }
 
     /**
@@ -198,6 +239,17 @@ public class Pipeline {
             return doAction(new RenderModelsAction(models));
         }
 
+        /**
+         * Builds the next action in the chain. The actions renders the models in the render queue. The queue is kept grouped by material as models are added or removed, so no sorting is done when
+         * rendering.
+         *
+         * @param queue The render queue
+         * @return The builder itself, for chained calls
+         */
+        public PipelineBuilder renderModels(RenderQueue queue) {
+            return doAction(new RenderModelsAction(queue));
+        }
+
         /**
          * Builds the next action in the chain. The action updates the context's display.
          *
@@ -224,6 +276,19 @@ public class Pipeline {
          * @return The built pipeline
          */
         public Pipeline build() {
+            return build(false);
+        }
+
+        /**
+         * Builds the pipeline, returning it. If compiled, the pipeline is a {@link CompiledPipeline}, which drops the redundant state changes when running.
+         *
+         * @param compiled Whether or not to compile the pipeline
+         * @return The built pipeline
+         */
+        public Pipeline build(boolean compiled) {
+            if (compiled) {
+                return new CompiledPipeline(actions);
+            }
             return new Pipeline(actions);
         }
     }
@@ -0,0 +1,340 @@
+/*
+ * This file is part of Caustic API, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.api;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+
+import com.flowpowered.caustic.api.gl.Context;
+import com.flowpowered.caustic.api.gl.TimerQuery;
+
+/**
+ * Measures the cost of each action of a pipeline, when set with {@link Pipeline#setProfiler(PipelineProfiler)}. Each run of the pipeline is a frame, and for each action the CPU wall time, the bytes
+ * allocated by the rendering thread and, if the context supports timer queries, the GPU time are recorded. The samples of the last frames are kept in a ring buffer, from which percentiles can be
+ * queried, such as {@code getCPUTime(action, 0.99f)} for the p99. All times are in nanoseconds.
+ * <p/>
+ * The GPU times are only known a few frames after the actions are executed, so that reading them doesn't stall the pipeline. The allocated bytes are only available on JVMs which support thread
+ * allocation measurements, otherwise they're always zero.
+ */
+public class PipelineProfiler {
+    // Number of frames the GPU results can lag behind
+    private static final int QUERY_LATENCY = 4;
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS;
+    // Bytes allocated by the measurement itself
+    private static final long ALLOCATION_OVERHEAD;
+    private final int capacity;
+    private final long[] scratch;
+    private Context context;
+    private Action[] actions = new Action[0];
+    private long[][] cpuTimes = new long[0][];
+    private long[][] allocatedBytes = new long[0][];
+    private long[][] gpuTimes = new long[0][];
+    private TimerQuery[][] queries = new TimerQuery[0][];
+    private long[][] queryFrames = new long[0][];
+    private long frame = 0;
+    private long actionStart, allocationStart;
+
+    static {
+        com.sun.management.ThreadMXBean allocations = null;
+        long overhead = 0;
+        try {
+            if (THREADS instanceof com.sun.management.ThreadMXBean) {
+                allocations = (com.sun.management.ThreadMXBean) THREADS;
+                if (allocations.isThreadAllocatedMemorySupported()) {
+                    allocations.setThreadAllocatedMemoryEnabled(true);
+                    final long id = Thread.currentThread().getId();
+                    // Measure twice, the first call could allocate more
+                    allocations.getThreadAllocatedBytes(id);
+                    final long start = allocations.getThreadAllocatedBytes(id);
+                    overhead = allocations.getThreadAllocatedBytes(id) - start;
+                } else {
+                    allocations = null;
+                }
+            }
+        } catch (UnsupportedOperationException | NoClassDefFoundError ex) {
+            allocations = null;
+        }
+        ALLOCATIONS = allocations;
+        ALLOCATION_OVERHEAD = overhead;
+    }
+
+    /**
+     * Constructs a new profiler keeping the samples of the last 128 frames.
+     */
+    public PipelineProfiler() {
+        this(128);
+    }
+
+    /**
+     * Constructs a new profiler keeping the samples of the desired number of last frames.
+     *
+     * @param capacity The number of frames to keep, greater than zero
+     */
+    public PipelineProfiler(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater than zero");
+        }
+        this.capacity = capacity;
+        scratch = new long[capacity];
+    }
+
+    /**
+     * Called by the pipeline before running the actions.
+     *
+     * @param context The context used to run the pipeline
+     * @param actions The actions of the pipeline, in order
+     */
+    protected void beginFrame(Context context, List<Action> actions) {
+        // Start over if the actions or the context changed
+        if (context != this.context || !matches(actions)) {
+            reset(context, actions);
+        }
+        // Collect the GPU results which are ready, without waiting
+        if (queries.length > 0) {
+            for (int i = 0; i < queries.length; i++) {
+                for (int j = 0; j < QUERY_LATENCY; j++) {
+                    if (queryFrames[i][j] >= 0 && queries[i][j].isResultAvailable()) {
+                        collectQuery(i, j);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by the pipeline before executing an action.
+     *
+     * @param index The index of the action in the pipeline
+     */
+    protected void beginAction(int index) {
+        if (queries.length > 0) {
+            final int slot = (int) (frame % QUERY_LATENCY);
+            // Wait for the oldest result if it's still not ready, so the query can be reused
+            if (queryFrames[index][slot] >= 0) {
+                collectQuery(index, slot);
+            }
+            queries[index][slot].begin();
+            queryFrames[index][slot] = frame;
+        }
+        if (ALLOCATIONS != null) {
+            allocationStart = ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        actionStart = System.nanoTime();
+    }
+
+    /**
+     * Called by the pipeline after executing an action.
+     *
+     * @param index The index of the action in the pipeline
+     */
+    protected void endAction(int index) {
+        final long time = System.nanoTime() - actionStart;
+        final int sample = (int) (frame % capacity);
+        if (ALLOCATIONS != null) {
+            final long allocated = ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocationStart - ALLOCATION_OVERHEAD;
+            allocatedBytes[index][sample] = Math.max(allocated, 0);
+        }
+        cpuTimes[index][sample] = time;
+        if (queries.length > 0) {
+            queries[index][(int) (frame % QUERY_LATENCY)].end();
+            gpuTimes[index][sample] = -1;
+        }
+    }
+
+    /**
+     * Called by the pipeline after running the actions.
+     */
+    protected void endFrame() {
+        frame++;
+    }
+
+    private boolean matches(List<Action> actions) {
+        if (actions.size() != this.actions.length) {
+            return false;
+        }
+        int i = 0;
+        for (Action action : actions) {
+            if (action != this.actions[i++]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void reset(Context context, List<Action> actions) {
+        destroyQueries();
+        this.context = context;
+        this.actions = actions.toArray(new Action[actions.size()]);
+        final int count = this.actions.length;
+        cpuTimes = new long[count][capacity];
+        allocatedBytes = new long[count][capacity];
+        gpuTimes = new long[count][capacity];
+        for (long[] times : gpuTimes) {
+            Arrays.fill(times, -1);
+        }
+        if (context.hasTimerQueries()) {
+            queries = new TimerQuery[count][QUERY_LATENCY];
+            queryFrames = new long[count][QUERY_LATENCY];
+            for (int i = 0; i < count; i++) {
+                for (int j = 0; j < QUERY_LATENCY; j++) {
+                    final TimerQuery query = context.newTimerQuery();
+                    query.create();
+                    queries[i][j] = query;
+                    queryFrames[i][j] = -1;
+                }
+            }
+        }
+        frame = 0;
+    }
+
+    private void collectQuery(int index, int slot) {
+        final long queryFrame = queryFrames[index][slot];
+        final long result = queries[index][slot].getResult();
+        // Only keep the result if the frame is still in the samples
+        if (frame - queryFrame < capacity) {
+            gpuTimes[index][(int) (queryFrame % capacity)] = result;
+        }
+        queryFrames[index][slot] = -1;
+    }
+
+    private void destroyQueries() {
+        for (TimerQuery[] actionQueries : queries) {
+            for (TimerQuery query : actionQueries) {
+                if (query.isCreated()) {
+                    query.destroy();
+                }
+            }
+        }
+        queries = new TimerQuery[0][];
+        queryFrames = new long[0][];
+    }
+
+    /**
+     * Clears all the samples and releases the timer queries, if any. The profiler can still be used afterwards.
+     */
+    public void clear() {
+        destroyQueries();
+        context = null;
+        actions = new Action[0];
+        cpuTimes = new long[0][];
+        allocatedBytes = new long[0][];
+        gpuTimes = new long[0][];
+        frame = 0;
+    }
+
+    /**
+     * Returns the number of actions that are profiled.
+     *
+     * @return The number of actions
+     */
+    public int getActionCount() {
+        return actions.length;
+    }
+
+    /**
+     * Returns the action at the index in the pipeline.
+     *
+     * @param index The index of the action
+     * @return The action
+     */
+    public Action getAction(int index) {
+        return actions[index];
+    }
+
+    /**
+     * Returns the number of frames for which samples are available, at most the capacity.
+     *
+     * @return The number of frames sampled
+     */
+    public int getFrameCount() {
+        return (int) Math.min(frame, capacity);
+    }
+
+    /**
+     * Returns true if GPU times are being recorded, which requires support for timer queries by the context.
+     *
+     * @return Whether or not GPU times are recorded
+     */
+    public boolean hasGPUTimes() {
+        return queries.length > 0;
+    }
+
+    /**
+     * Returns the CPU wall time of the action at the desired percentile of the sampled frames.
+     *
+     * @param index The index of the action
+     * @param percentile The percentile, between 0 and 1, such as 0.5 for the median
+     * @return The CPU time in nanoseconds, or -1 if there are no samples
+     */
+    public long getCPUTime(int index, float percentile) {
+        return getPercentile(cpuTimes[index], percentile);
+    }
+
+    /**
+     * Returns the bytes allocated by the action at the desired percentile of the sampled frames.
+     *
+     * @param index The index of the action
+     * @param percentile The percentile, between 0 and 1, such as 0.5 for the median
+     * @return The allocated bytes, or -1 if there are no samples
+     */
+    public long getAllocatedBytes(int index, float percentile) {
+        return getPercentile(allocatedBytes[index], percentile);
+    }
+
+    /**
+     * Returns the GPU time of the action at the desired percentile of the sampled frames. Only the frames for which the GPU time is known are considered.
+     *
+     * @param index The index of the action
+     * @param percentile The percentile, between 0 and 1, such as 0.5 for the median
+     * @return The GPU time in nanoseconds, or -1 if there are no samples
+     */
+    public long getGPUTime(int index, float percentile) {
+        return getPercentile(gpuTimes[index], percentile);
+    }
+
+    private long getPercentile(long[] samples, float percentile) {
+        if (percentile < 0 || percentile > 1) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 1");
+        }
+        // Copy the valid samples, the unknown ones are negative
+        final int frames = getFrameCount();
+        int count = 0;
+        for (int i = 0; i < frames; i++) {
+            final long sample = samples[i];
+            if (sample >= 0) {
+                scratch[count++] = sample;
+            }
+        }
+        if (count == 0) {
+            return -1;
+        }
+        Arrays.sort(scratch, 0, count);
+        // Nearest rank
+        final int rank = (int) Math.ceil(percentile * count);
+        return scratch[Math.max(rank - 1, 0)];
+    }
+}
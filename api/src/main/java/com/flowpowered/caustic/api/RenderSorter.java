@@ -0,0 +1,426 @@
+/*
+ * This file is part of Caustic API, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.api;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.custom_hash.TObjectIntCustomHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.strategy.IdentityHashingStrategy;
+
+import com.flowpowered.math.matrix.Matrix4f;
+
+import com.flowpowered.caustic.api.gl.Program;
+import com.flowpowered.caustic.api.gl.Texture;
+import com.flowpowered.caustic.api.gl.VertexArray;
+import com.flowpowered.caustic.api.model.Model;
+import com.flowpowered.caustic.api.model.RenderQueue;
+
+/**
+ * Sorts models for rendering using 64 bit keys, so that the models sharing the same state are next to each other. The opaque models are sorted by program, texture set, vertex array and then front to
+ * back. The translucent models come after, sorted back to front and then by state. The keys are sorted with a radix sort. When the models are the same as for the last sort, the keys are computed in
+ * the last sorted order, and the sort is skipped if they're still in order. The arrays are reused between sorts, so the models of the last sort are retained until the next one. The IDs and keys
+ * cached for the materials, programs, texture sets and vertex arrays are dropped periodically, so that discarded ones aren't retained either. When frustum culling is enabled, the models outside of
+ * the camera frustum are culled before sorting.
+ */
+class RenderSorter {
+    // Key layout from the most significant bit, the sign bit is always zero
+    private static final int DEPTH_BITS = 24;
+    private static final int PROGRAM_BITS = 12;
+    private static final int TEXTURES_BITS = 12;
+    private static final int VERTEX_ARRAY_BITS = 14;
+    private static final long TRANSLUCENT = 1L << 62;
+    private static final int DEPTH_MASK = (1 << DEPTH_BITS) - 1;
+    // Opaque: translucent bit, program, textures, vertex array, depth
+    private static final int OPAQUE_PROGRAM_SHIFT = TEXTURES_BITS + VERTEX_ARRAY_BITS + DEPTH_BITS;
+    private static final int OPAQUE_TEXTURES_SHIFT = VERTEX_ARRAY_BITS + DEPTH_BITS;
+    private static final int OPAQUE_VERTEX_ARRAY_SHIFT = DEPTH_BITS;
+    // Translucent: translucent bit, inverted depth, program, textures, vertex array
+    private static final int TRANSLUCENT_DEPTH_SHIFT = PROGRAM_BITS + TEXTURES_BITS + VERTEX_ARRAY_BITS;
+    private static final int TRANSLUCENT_PROGRAM_SHIFT = TEXTURES_BITS + VERTEX_ARRAY_BITS;
+    private static final int TRANSLUCENT_TEXTURES_SHIFT = VERTEX_ARRAY_BITS;
+    // Number of sorts after which the cached IDs and keys are dropped, the objects still in use get new ones on the next sort
+    private static final int RESET_INTERVAL = 256;
+    // Dense IDs for the key fields
+    private final IDMap<Program> programs = new IDMap<>(PROGRAM_BITS, new TObjectIntCustomHashMap<Program>(IdentityHashingStrategy.INSTANCE, 16, 0.5f, IDMap.NO_ID));
+    private final IDMap<TextureSet> textureSets = new IDMap<>(TEXTURES_BITS, new TObjectIntHashMap<TextureSet>(16, 0.5f, IDMap.NO_ID));
+    private final IDMap<VertexArray> vertexArrays = new IDMap<>(VERTEX_ARRAY_BITS, new TObjectIntCustomHashMap<VertexArray>(IdentityHashingStrategy.INSTANCE, 16, 0.5f, IDMap.NO_ID));
+    // Cached key fields for each material
+    private final Map<Material, MaterialKey> materialKeys = new IdentityHashMap<>();
+    // Sorting data, the models are in input order and the indices in sorted order
+    private Model[] models = new Model[0];
+    private Model[] input = new Model[0];
+    private long[] inputKeys = new long[0];
+    private long[] keys = new long[0];
+    private long[] swapKeys = new long[0];
+    private int[] indices = new int[0];
+    private int[] swapIndices = new int[0];
+    private final int[][] histograms = new int[8][256];
+    private int size = 0;
+    private int sortsSinceReset = 0;
+    private boolean depthSorting = true;
+    private final FrustumCuller culler = new FrustumCuller();
+    private boolean frustumCulling = false;
+
+    /**
+     * Sets whether or not the opaque models are sorted front to back after sorting by state. Translucent models are always sorted by depth.
+     *
+     * @param depthSorting Whether or not to sort the opaque models by depth
+     */
+    void setDepthSorting(boolean depthSorting) {
+        this.depthSorting = depthSorting;
+    }
+
+    boolean isDepthSorting() {
+        return depthSorting;
+    }
+
+    /**
+     * Sets whether or not the models outside of the camera frustum are culled before sorting.
+     *
+     * @param frustumCulling Whether or not to cull the models
+     */
+    void setFrustumCulling(boolean frustumCulling) {
+        this.frustumCulling = frustumCulling;
+    }
+
+    boolean isFrustumCulling() {
+        return frustumCulling;
+    }
+
+    int getCulledCount() {
+        return frustumCulling ? culler.getCulledCount() : 0;
+    }
+
+    void sort(Collection<? extends Model> models, Camera camera) {
+        ensureCapacity(models.size());
+        int i = 0;
+        for (Model model : models) {
+            input[i++] = model;
+        }
+        sort(frustumCulling ? culler.cull(input, i, camera) : i, camera);
+    }
+
+    void sort(RenderQueue queue, Camera camera) {
+        ensureCapacity(queue.size());
+        int i = 0;
+        for (int g = 0; g < queue.getGroupCount(); g++) {
+            final int groupSize = queue.getGroupSize(g);
+            System.arraycopy(queue.getGroupModels(g), 0, input, i, groupSize);
+            i += groupSize;
+        }
+        sort(frustumCulling ? culler.cull(input, i, camera) : i, camera);
+    }
+
+    int size() {
+        return size;
+    }
+
+    Model get(int index) {
+        return models[indices[index]];
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (models.length < capacity) {
+            final int length = Math.max(capacity, models.length * 3 / 2);
+            // Keep the last models, to compare them with the new ones
+            models = Arrays.copyOf(models, length);
+            input = new Model[length];
+            inputKeys = new long[length];
+            keys = new long[length];
+            swapKeys = new long[length];
+            indices = Arrays.copyOf(indices, length);
+            swapIndices = new int[length];
+        }
+    }
+
+    private void sort(int inputSize, Camera camera) {
+        // Start from the last sorted order if the models are the same
+        boolean same = inputSize == size;
+        for (int i = 0; same && i < inputSize; i++) {
+            same = input[i] == models[i];
+        }
+        if (!same) {
+            final Model[] temp = models;
+            models = input;
+            input = temp;
+            for (int i = 0; i < inputSize; i++) {
+                indices[i] = i;
+            }
+        }
+        // Clear the other array to not retain more models than needed
+        Arrays.fill(input, 0, Math.max(inputSize, size), null);
+        size = inputSize;
+        // Periodically forget the objects seen so far, some could have been discarded
+        if (++sortsSinceReset >= RESET_INTERVAL) {
+            materialKeys.clear();
+            programs.clear();
+            textureSets.clear();
+            vertexArrays.clear();
+            sortsSinceReset = 0;
+        }
+        // Compute the keys in input order, which is faster to access, then place them in the last sorted order
+        computeKeys(camera);
+        // If the IDs ran out while some were held by objects which weren't seen, reassign them and compute the keys once more
+        final boolean programsReset = programs.endPass();
+        final boolean textureSetsReset = textureSets.endPass();
+        final boolean vertexArraysReset = vertexArrays.endPass();
+        if (programsReset || textureSetsReset || vertexArraysReset) {
+            computeKeys(camera);
+        }
+        boolean sorted = true;
+        for (int i = 0; i < size; i++) {
+            final long key = inputKeys[indices[i]];
+            keys[i] = key;
+            if (i > 0 && keys[i - 1] > key) {
+                sorted = false;
+            }
+        }
+        // Nothing to do if the order didn't change since the last sort
+        if (!sorted) {
+            radixSort();
+        }
+    }
+
+    private void computeKeys(Camera camera) {
+        programs.startPass();
+        textureSets.startPass();
+        vertexArrays.startPass();
+        final Matrix4f view = camera != null ? camera.getViewMatrix() : null;
+        Material lastMaterial = null;
+        MaterialKey materialKey = null;
+        VertexArray lastVertexArray = null;
+        long vertexArrayID = 0;
+        for (int i = 0; i < size; i++) {
+            final Model model = models[i];
+            final Material material = model.getMaterial();
+            if (material == null) {
+                throw new IllegalStateException("Null material");
+            }
+            // Consecutive models often share the material and vertex array
+            if (material != lastMaterial) {
+                materialKey = getMaterialKey(material);
+                lastMaterial = material;
+            }
+            final VertexArray vertexArray = model.getVertexArray();
+            if (vertexArray != lastVertexArray) {
+                vertexArrayID = vertexArrays.get(vertexArray);
+                lastVertexArray = vertexArray;
+            }
+            // Use the view space depth of the model origin
+            int depth = 0;
+            if (view != null && (materialKey.translucent || depthSorting)) {
+                final Matrix4f matrix = model.getMatrix();
+                final float z = view.get(2, 0) * matrix.get(0, 3) + view.get(2, 1) * matrix.get(1, 3) + view.get(2, 2) * matrix.get(2, 3) + view.get(2, 3);
+                depth = quantizeDepth(-z);
+            }
+            if (materialKey.translucent) {
+                inputKeys[i] = TRANSLUCENT | (long) (~depth & DEPTH_MASK) << TRANSLUCENT_DEPTH_SHIFT | materialKey.bits | vertexArrayID;
+            } else {
+                inputKeys[i] = materialKey.bits | vertexArrayID << OPAQUE_VERTEX_ARRAY_SHIFT | depth;
+            }
+        }
+    }
+
+    private static int quantizeDepth(float depth) {
+        // The bits of a positive float have the same order as its value, keep the exponent and the top of the mantissa
+        if (!(depth > 0)) {
+            return 0;
+        }
+        return Float.floatToIntBits(depth) >>> 31 - DEPTH_BITS;
+    }
+
+    private MaterialKey getMaterialKey(Material material) {
+        MaterialKey key = materialKeys.get(material);
+        if (key == null) {
+            // Start over if too many materials were seen, some could have been discarded
+            if (materialKeys.size() >= 1 << PROGRAM_BITS + TEXTURES_BITS) {
+                materialKeys.clear();
+            }
+            key = new MaterialKey();
+            materialKeys.put(material, key);
+        }
+        if (key.version != material.getVersion() || key.programs != programs.getGeneration() || key.textureSets != textureSets.getGeneration()) {
+            final long programID = programs.get(material.getProgram());
+            final long texturesID = textureSets.get(new TextureSet(material.getTextureUnits(), material.getTextureArray()));
+            key.translucent = material.isTranslucent();
+            if (key.translucent) {
+                key.bits = programID << TRANSLUCENT_PROGRAM_SHIFT | texturesID << TRANSLUCENT_TEXTURES_SHIFT;
+            } else {
+                key.bits = programID << OPAQUE_PROGRAM_SHIFT | texturesID << OPAQUE_TEXTURES_SHIFT;
+            }
+            key.version = material.getVersion();
+            key.programs = programs.getGeneration();
+            key.textureSets = textureSets.getGeneration();
+        }
+        return key;
+    }
+
+    private void radixSort() {
+        // Least significant digit first, one byte at a time, which is stable
+        for (int[] histogram : histograms) {
+            Arrays.fill(histogram, 0);
+        }
+        for (int i = 0; i < size; i++) {
+            final long key = keys[i];
+            for (int b = 0; b < 8; b++) {
+                histograms[b][(int) (key >>> (b << 3)) & 0xFF]++;
+            }
+        }
+        long[] sourceKeys = keys, destinationKeys = swapKeys;
+        int[] sourceIndices = indices, destinationIndices = swapIndices;
+        for (int b = 0; b < 8; b++) {
+            final int[] histogram = histograms[b];
+            final int shift = b << 3;
+            // Skip the bytes which are the same for all keys
+            if (histogram[(int) (sourceKeys[0] >>> shift) & 0xFF] == size) {
+                continue;
+            }
+            // Convert the counts to offsets
+            int offset = 0;
+            for (int i = 0; i < 256; i++) {
+                final int count = histogram[i];
+                histogram[i] = offset;
+                offset += count;
+            }
+            for (int i = 0; i < size; i++) {
+                final long key = sourceKeys[i];
+                final int destination = histogram[(int) (key >>> shift) & 0xFF]++;
+                destinationKeys[destination] = key;
+                destinationIndices[destination] = sourceIndices[i];
+            }
+            final long[] tempKeys = sourceKeys;
+            sourceKeys = destinationKeys;
+            destinationKeys = tempKeys;
+            final int[] tempIndices = sourceIndices;
+            sourceIndices = destinationIndices;
+            destinationIndices = tempIndices;
+        }
+        keys = sourceKeys;
+        swapKeys = destinationKeys;
+        indices = sourceIndices;
+        swapIndices = destinationIndices;
+    }
+
+    private static class MaterialKey {
+        private int version = -1;
+        private int programs = -1;
+        private int textureSets = -1;
+        private boolean translucent;
+        private long bits;
+    }
+
+    private static class TextureSet {
+        private final int[] units;
+        private final Texture[] textures;
+
+        private TextureSet(int[] units, Texture[] textures) {
+            this.units = units;
+            this.textures = textures;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TextureSet)) {
+                return false;
+            }
+            final TextureSet that = (TextureSet) o;
+            return Arrays.equals(units, that.units) && Arrays.equals(textures, that.textures);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(units) + Arrays.hashCode(textures);
+        }
+    }
+
+    private static class IDMap<T> {
+        private static final int NO_ID = -1;
+        private final int max;
+        private final TObjectIntMap<T> ids;
+        // Number of the pass in which each ID was last used
+        private final int[] lastPasses;
+        private int pass = 0;
+        private int usedCount = 0;
+        private boolean overflowed = false;
+        private int generation = 0;
+
+        private IDMap(int bits, TObjectIntMap<T> ids) {
+            max = 1 << bits;
+            this.ids = ids;
+            lastPasses = new int[max];
+        }
+
+        private void startPass() {
+            pass++;
+            usedCount = 0;
+            overflowed = false;
+        }
+
+        private int get(T object) {
+            int id = ids.get(object);
+            if (id == NO_ID) {
+                // When out of IDs, share the last one until the end of the pass
+                if (ids.size() >= max - 1) {
+                    overflowed = true;
+                    return max - 1;
+                }
+                id = ids.size();
+                ids.put(object, id);
+            }
+            if (lastPasses[id] != pass) {
+                lastPasses[id] = pass;
+                usedCount++;
+            }
+            return id;
+        }
+
+        private boolean endPass() {
+            // Start over if the pass ran out of IDs and some are held by objects it didn't use, which might have been discarded
+            // If they were all used, there are just too many objects, and the keys using the shared ID are kept as they are
+            if (overflowed && usedCount < ids.size()) {
+                clear();
+                return true;
+            }
+            return false;
+        }
+
+        private void clear() {
+            ids.clear();
+            // Invalidates the material keys using the old IDs
+            generation++;
+        }
+
+        private int getGeneration() {
+            return generation;
+        }
+    }
+}
@@ -37,6 +37,8 @@ import com.flowpowered.caustic.api.gl.Program;
  */
 public abstract class Uniform {
     protected final String name;
+    // Incremented each time the value changes
+    private int version = 0;
 
     protected Uniform(String name) {
         this.name = name;
@@ -58,6 +60,22 @@ public abstract class Uniform {
         return name;
     }
 
+    /**
+     * Returns the version of the uniform value. It changes each time the value is set, so that programs can skip uploading a uniform they already received.
+     *
+     * @return The value version
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Marks the value as changed, so that it's uploaded again. This is only needed after modifying an array value in place.
+     */
+    public void markChanged() {
+        version++;
+    }
+
     /**
      * Represents a uniform with a boolean value.
      */
@@ -96,6 +114,7 @@ public abstract class Uniform {
          */
         public void set(boolean value) {
             this.value = value;
+            markChanged();
         }
     }
 
@@ -137,6 +156,7 @@ public abstract class Uniform {
          */
         public void set(int value) {
             this.value = value;
+            markChanged();
         }
     }
 
@@ -178,6 +198,7 @@ public abstract class Uniform {
          */
         public void set(float value) {
             this.value = value;
+            markChanged();
         }
     }
 
@@ -219,6 +240,7 @@ public abstract class Uniform {
          */
         public void set(float[] value) {
             this.value = value;
+            markChanged();
         }
     }
 
@@ -260,6 +282,7 @@ public abstract class Uniform {
          */
         public void set(Vector2f value) {
             this.value = value;
+            markChanged();
         }
     }
 
@@ -303,6 +326,7 @@ public abstract class Uniform {
         public void set(Vector2f[] value) {
             this.value = new Vector2f[value.length];
             System.arraycopy(value, 0, this.value, 0, value.length);
+            markChanged();
         }
     }
 
@@ -344,6 +368,7 @@ public abstract class Uniform {
          */
         public void set(Vector3f value) {
             this.value = value;
+            markChanged();
         }
     }
 
@@ -387,6 +412,7 @@ public abstract class Uniform {
         public void set(Vector3f[] value) {
             this.value = new Vector3f[value.length];
             System.arraycopy(value, 0, this.value, 0, value.length);
+            markChanged();
         }
     }
 
@@ -428,6 +454,7 @@ public abstract class Uniform {
          */
         public void set(Vector4f value) {
             this.value = value;
+            markChanged();
         }
     }
 
@@ -469,6 +496,7 @@ public abstract class Uniform {
          */
         public void set(Matrix2f value) {
             this.value = value;
+            markChanged();
         }
     }
 
@@ -510,6 +538,7 @@ public abstract class Uniform {
          */
         public void set(Matrix3f value) {
             this.value = value;
+            markChanged();
         }
     }
 
@@ -551,6 +580,7 @@ public abstract class Uniform {
          */
         public void set(Matrix4f value) {
             this.value = value;
+            markChanged();
         }
     }
 }
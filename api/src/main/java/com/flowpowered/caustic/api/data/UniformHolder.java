@@ -23,23 +23,44 @@
  */
 package com.flowpowered.caustic.api.data;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.NoSuchElementException;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 
 /**
- * Represents a set of uniforms held by an object. Uniforms can be added, removed and modified.
+ * Represents a set of uniforms held by an object. Uniforms can be added, removed and modified. They are iterated in the order they were added, which is also their order in a {@link
+ * com.flowpowered.caustic.api.gl.UniformBlock}. The uniforms are stored in an array, and the holder has a version which changes each time a uniform is added, replaced or removed, so that programs
+ * can remember which uniforms they received from it (see {@link com.flowpowered.caustic.api.gl.Program#upload(UniformHolder)}).
  */
 public class UniformHolder implements Iterable<Uniform> {
-    private final Map<String, Uniform> uniforms = new HashMap<>();
+    private static final Uniform[] EMPTY_UNIFORMS = {};
+    private Uniform[] uniforms = EMPTY_UNIFORMS;
+    private int size = 0;
+    // Map of the uniform names to their indices in the array
+    private final TObjectIntMap<String> indices = new TObjectIntHashMap<>(10, 0.5f, -1);
+    // Incremented each time the uniforms change, but not their values
+    private int version = 0;
 
     /**
-     * Adds a uniform to the holder.
+     * Adds a uniform to the holder. If the holder already has a uniform with the same name, it is replaced instead, and keeps its position.
      *
      * @param uniform The uniform to add
      */
     public void add(Uniform uniform) {
-        uniforms.put(uniform.name, uniform);
+        final int index = indices.get(uniform.name);
+        if (index >= 0) {
+            uniforms[index] = uniform;
+        } else {
+            if (size == uniforms.length) {
+                uniforms = Arrays.copyOf(uniforms, Math.max(size * 2, 4));
+            }
+            indices.put(uniform.name, size);
+            uniforms[size++] = uniform;
+        }
+        version++;
     }
 
     /**
@@ -48,8 +69,8 @@ public class UniformHolder implements Iterable<Uniform> {
      * @param uniforms The uniforms to add
      */
     public void addAll(UniformHolder uniforms) {
-        for (Uniform uniform : uniforms) {
-            add(uniform);
+        for (int i = 0; i < uniforms.size; i++) {
+            add(uniforms.uniforms[i]);
         }
     }
 
@@ -60,7 +81,7 @@ public class UniformHolder implements Iterable<Uniform> {
      * @return Whether or not this holder has a uniform with that name
      */
     public boolean has(String name) {
-        return uniforms.containsKey(name);
+        return indices.containsKey(name);
     }
 
     /**
@@ -71,11 +92,24 @@ public class UniformHolder implements Iterable<Uniform> {
      */
     @SuppressWarnings("unchecked")
     public <U extends Uniform> U get(String name) {
-        final Uniform uniform = uniforms.get(name);
-        if (uniform == null) {
+        final int index = indices.get(name);
+        if (index < 0) {
             return null;
         }
-        return (U) uniform;
+        return (U) uniforms[index];
+    }
+
+    /**
+     * Returns the uniform at the index, in the order the uniforms were added.
+     *
+     * @param index The index of the uniform
+     * @return The uniform
+     */
+    public Uniform get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return uniforms[index];
     }
 
     /**
@@ -93,18 +127,82 @@ public class UniformHolder implements Iterable<Uniform> {
      * @param name The name of the uniform to remove
      */
     public void remove(String name) {
-        uniforms.remove(name);
+        final int index = indices.remove(name);
+        if (index < 0) {
+            return;
+        }
+        // Shift the following uniforms to keep the order
+        System.arraycopy(uniforms, index + 1, uniforms, index, size - index - 1);
+        uniforms[--size] = null;
+        for (int i = index; i < size; i++) {
+            indices.put(uniforms[i].name, i);
+        }
+        version++;
+    }
+
+    /**
+     * Returns the number of uniforms in the holder.
+     *
+     * @return The number of uniforms
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if the holder has no uniforms.
+     *
+     * @return Whether or not the holder is empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
     }
 
     /**
      * Removes all the uniforms.
      */
     public void clear() {
-        uniforms.clear();
+        Arrays.fill(uniforms, 0, size, null);
+        size = 0;
+        indices.clear();
+        version++;
+    }
+
+    /**
+     * Returns the version of the holder. It changes each time a uniform is added, replaced or removed. Changes to the values of the uniforms are tracked by the uniforms themselves (see {@link
+     * Uniform#getVersion()}).
+     *
+     * @return The holder version
+     */
+    public int getVersion() {
+        return version;
     }
 
     @Override
     public Iterator<Uniform> iterator() {
-        return uniforms.values().iterator();
+        return new Iterator<Uniform>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public Uniform next() {
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+                return uniforms[index++];
+            }
+
+            @Override
+            public void remove() {
+                if (index <= 0) {
+                    throw new IllegalStateException();
+                }
+                UniformHolder.this.remove(uniforms[--index].name);
+            }
+        };
     }
 }
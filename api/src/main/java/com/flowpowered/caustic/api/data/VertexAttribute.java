@@ -24,6 +24,7 @@
 package com.flowpowered.caustic.api.data;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import gnu.trove.iterator.TDoubleIterator;
 import gnu.trove.iterator.TFloatIterator;
@@ -109,6 +110,18 @@ public class VertexAttribute implements Cloneable {
         return uploadMode;
     }
 
+    /**
+     * Returns the number of vertices in the attribute data, which is the number of complete groups of components.
+     *
+     * @return The vertex count
+     */
+    public int getVertexCount() {
+        if (buffer == null) {
+            return 0;
+        }
+        return buffer.capacity() / (size * type.getByteSize());
+    }
+
     /**
      * Returns a new byte buffer filled and ready to read, containing the attribute data. This method will {@link java.nio.ByteBuffer#flip()} the buffer before returning it.
      *
@@ -125,6 +138,38 @@ public class VertexAttribute implements Cloneable {
         return copy;
     }
 
+    /**
+     * Returns a read-only view of the attribute data, positioned at the start and in the native byte order. Unlike {@link #getData()}, the data isn't copied, so the view reflects later changes to
+     * the attribute data. Use this to read or upload the data without allocating a new buffer.
+     *
+     * @return The read-only view of the data
+     */
+    public ByteBuffer getDataView() {
+        if (this.buffer == null) {
+            throw new IllegalStateException("ByteBuffer must have data before it is ready for use.");
+        }
+        final ByteBuffer view = buffer.asReadOnlyBuffer().order(buffer.order());
+        view.clear();
+        return view;
+    }
+
+    /**
+     * Replaces the current buffer data with the given {@link java.nio.ByteBuffer}, without copying it. The attribute takes ownership of the buffer, which shouldn't be modified afterwards. Only the data
+     * between the position and the limit is used. The buffer must be direct and in the native byte order, like the ones created by {@link CausticUtil#createByteBuffer(int)}.
+     *
+     * @param buffer The buffer to adopt
+     */
+    public void adoptData(ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("Buffer cannot be null");
+        }
+        if (!buffer.isDirect() || buffer.order() != ByteOrder.nativeOrder()) {
+            throw new IllegalArgumentException("Buffer must be direct and in the native byte order");
+        }
+        // Slice the buffer so that the capacity is the size of the data
+        this.buffer = buffer.slice().order(buffer.order());
+    }
+
     /**
      * Replaces the current buffer data with a copy of the given {@link java.nio.ByteBuffer} This method arbitrarily creates data for the ByteBuffer regardless of the data type of the vertex
      * attribute.
@@ -24,6 +24,7 @@
 package com.flowpowered.caustic.api.data;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Collections;
 import java.util.Set;
 
@@ -46,17 +47,31 @@ import com.flowpowered.caustic.api.util.CausticUtil;
 public class VertexData {
     // Rendering indices
     private final TIntList indices = new TIntArrayList();
+    // Rendering indices adopted as a direct buffer, used instead of the list until the list is requested
+    private ByteBuffer indicesBuffer;
     // Attributes by index
     private final TIntObjectMap<VertexAttribute> attributes = new TIntObjectHashMap<>();
     // Index from name lookup
     private final TObjectIntMap<String> nameToIndex = new TObjectIntHashMap<>(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, -1);
+    // Whether or not the vertex arrays should store the attributes interleaved in a single buffer
+    private boolean interleaved = false;
 
     /**
-     * Returns the list of indices used by OpenGL to pick the vertices to draw the object with in the correct order. Use it to add mesh data.
+     * Returns the list of indices used by OpenGL to pick the vertices to draw the object with in the correct order. Use it to add mesh data. If the indices were adopted as a buffer, they are first
+     * copied to the list, which then replaces the buffer.
      *
      * @return The indices list
      */
     public TIntList getIndices() {
+        if (indicesBuffer != null) {
+            final ByteBuffer buffer = indicesBuffer;
+            indicesBuffer = null;
+            final int count = buffer.capacity() / DataType.INT.getByteSize();
+            indices.clear();
+            for (int i = 0; i < count; i++) {
+                indices.add(buffer.getInt(i * DataType.INT.getByteSize()));
+            }
+        }
         return indices;
     }
 
@@ -66,23 +81,120 @@ public class VertexData {
      * @return The number of indices
      */
     public int getIndicesCount() {
+        if (indicesBuffer != null) {
+            return indicesBuffer.capacity() / DataType.INT.getByteSize();
+        }
         return indices.size();
     }
 
     /**
-     * Returns a byte buffer containing all the current indices.
+     * Returns the largest index, or -1 if there are no indices.
+     *
+     * @return The largest index
+     */
+    public int getMaxIndex() {
+        final int count = getIndicesCount();
+        int max = -1;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, getIndex(i));
+        }
+        return max;
+    }
+
+    /**
+     * Returns the narrowest type which can hold all the indices: {@link DataType#UNSIGNED_BYTE}, {@link DataType#UNSIGNED_SHORT} or {@link DataType#UNSIGNED_INT}, depending on the largest index. Most
+     * meshes have less than 65536 vertices, so using this type for the indices buffer halves its size or better.
+     *
+     * @return The narrowest indices type
+     */
+    public DataType getIndicesType() {
+        final int max = getMaxIndex();
+        if (max <= 0xFF) {
+            return DataType.UNSIGNED_BYTE;
+        }
+        if (max <= 0xFFFF) {
+            return DataType.UNSIGNED_SHORT;
+        }
+        return DataType.UNSIGNED_INT;
+    }
+
+    /**
+     * Returns a byte buffer containing all the current indices, as ints. If the indices were adopted as a buffer, a read-only view of it is returned instead of a copy.
      *
      * @return A buffer of the indices
      */
     public ByteBuffer getIndicesBuffer() {
-        final ByteBuffer buffer = CausticUtil.createByteBuffer(indices.size() * DataType.INT.getByteSize());
-        for (int i = 0; i < indices.size(); i++) {
-            buffer.putInt(indices.get(i));
+        return getIndicesBuffer(DataType.UNSIGNED_INT);
+    }
+
+    /**
+     * Returns a byte buffer containing all the current indices, stored as the provided type, which is one of {@link DataType#UNSIGNED_BYTE}, {@link DataType#UNSIGNED_SHORT} or {@link
+     * DataType#UNSIGNED_INT}. Indices which don't fit in the type are truncated, use {@link #getIndicesType()} to get a type which fits them all. If the indices were adopted as a buffer and the type is
+     * {@link DataType#UNSIGNED_INT}, a read-only view of it is returned instead of a copy.
+     *
+     * @param type The type of the indices in the buffer
+     * @return A buffer of the indices
+     */
+    public ByteBuffer getIndicesBuffer(DataType type) {
+        if (type == null) {
+            throw new IllegalArgumentException("Type cannot be null");
+        }
+        if (type == DataType.UNSIGNED_INT && indicesBuffer != null) {
+            final ByteBuffer view = indicesBuffer.asReadOnlyBuffer().order(indicesBuffer.order());
+            view.clear();
+            return view;
+        }
+        final int count = getIndicesCount();
+        final ByteBuffer buffer = CausticUtil.createByteBuffer(count * type.getByteSize());
+        switch (type) {
+            case UNSIGNED_BYTE:
+                for (int i = 0; i < count; i++) {
+                    buffer.put((byte) getIndex(i));
+                }
+                break;
+            case UNSIGNED_SHORT:
+                for (int i = 0; i < count; i++) {
+                    buffer.putShort((short) getIndex(i));
+                }
+                break;
+            case UNSIGNED_INT:
+                for (int i = 0; i < count; i++) {
+                    buffer.putInt(getIndex(i));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported indices type: " + type);
         }
         buffer.flip();
         return buffer;
     }
 
+    private int getIndex(int i) {
+        if (indicesBuffer != null) {
+            return indicesBuffer.getInt(i * DataType.INT.getByteSize());
+        }
+        return indices.get(i);
+    }
+
+    /**
+     * Replaces the indices with the ones in the given {@link java.nio.ByteBuffer}, as ints, without copying them. The vertex data takes ownership of the buffer, which shouldn't be modified afterwards.
+     * Only the data between the position and the limit is used. The buffer must be direct and in the native byte order, like the ones created by {@link CausticUtil#createByteBuffer(int)}. This
+     * avoids building the indices list for large meshes, as long as {@link #getIndices()} isn't called.
+     *
+     * @param buffer The buffer of indices to adopt
+     */
+    public void adoptIndicesBuffer(ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("Buffer cannot be null");
+        }
+        if (!buffer.isDirect() || buffer.order() != ByteOrder.nativeOrder()) {
+            throw new IllegalArgumentException("Buffer must be direct and in the native byte order");
+        }
+        indices.clear();
+        // Slice the buffer so that the capacity is the size of the data
+        indicesBuffer = buffer.slice().order(buffer.order());
+    }
+
     /**
      * Adds an attribute.
      *
@@ -268,10 +380,110 @@ public class VertexData {
     }
 
     /**
-     * Clears all the vertex data.
+     * Returns true if the vertex arrays should store the attributes interleaved in a single buffer, instead of one buffer per attribute.
+     *
+     * @return Whether or not the attributes are interleaved
+     */
+    public boolean isInterleaved() {
+        return interleaved;
+    }
+
+    /**
+     * Sets whether or not the vertex arrays should store the attributes interleaved in a single buffer, instead of one buffer per attribute. The attributes of a vertex are then next to each other in
+     * memory, which is faster to read when drawing, and only requires binding a single buffer. The interleaving is done once, when the data is set in the vertex array. This is disabled by default.
+     *
+     * @param interleaved Whether or not to interleave the attributes
+     */
+    public void setInterleaved(boolean interleaved) {
+        this.interleaved = interleaved;
+    }
+
+    /**
+     * Returns the number of vertices, which is the largest vertex count of the attributes.
+     *
+     * @return The vertex count
+     */
+    public int getVertexCount() {
+        int count = 0;
+        for (VertexAttribute attribute : attributes.valueCollection()) {
+            count = Math.max(count, attribute.getVertexCount());
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of bytes between two vertices in the interleaved layout. Each attribute is padded to a multiple of four bytes.
+     *
+     * @return The stride of the interleaved layout
+     */
+    public int getStride() {
+        int stride = 0;
+        for (VertexAttribute attribute : attributes.valueCollection()) {
+            stride += getInterleavedSize(attribute);
+        }
+        return stride;
+    }
+
+    /**
+     * Returns the offset in bytes of the attribute at the provided index in a vertex of the interleaved layout, or -1 if none can be found. The attributes are laid out by increasing index.
+     *
+     * @param index The index to lookup
+     * @return The offset of the attribute, or -1 if none can be found
+     */
+    public int getAttributeOffset(int index) {
+        if (!attributes.containsKey(index)) {
+            return -1;
+        }
+        int offset = 0;
+        final TIntObjectIterator<VertexAttribute> iterator = attributes.iterator();
+        while (iterator.hasNext()) {
+            iterator.advance();
+            if (iterator.key() < index) {
+                offset += getInterleavedSize(iterator.value());
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Returns a byte buffer containing all the attributes, interleaved by vertex. The buffer is returned filled and ready for reading. Missing data, when the attributes don't have the same vertex
+     * count, is left as zeros.
+     *
+     * @return A buffer of the interleaved attributes
+     */
+    public ByteBuffer getInterleavedBuffer() {
+        final int stride = getStride();
+        // Direct buffers are allocated filled with zeros
+        final ByteBuffer buffer = CausticUtil.createByteBuffer(stride * getVertexCount());
+        final TIntObjectIterator<VertexAttribute> iterator = attributes.iterator();
+        while (iterator.hasNext()) {
+            iterator.advance();
+            final VertexAttribute attribute = iterator.value();
+            final int offset = getAttributeOffset(iterator.key());
+            final int size = attribute.getSize() * attribute.getType().getByteSize();
+            final ByteBuffer data = attribute.getDataView();
+            // Copy each vertex to its place in the interleaved data
+            final int vertexCount = attribute.getVertexCount();
+            for (int i = 0; i < vertexCount; i++) {
+                data.limit(data.position() + size);
+                buffer.position(i * stride + offset);
+                buffer.put(data);
+            }
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private static int getInterleavedSize(VertexAttribute attribute) {
+        return attribute.getSize() * attribute.getType().getByteSize() + 3 & ~3;
+    }
+
+    /**
+     * Clears all the vertex data. The interleaving setting is kept.
      */
     public void clear() {
         indices.clear();
+        indicesBuffer = null;
         attributes.clear();
         nameToIndex.clear();
     }
@@ -284,11 +496,17 @@ public class VertexData {
     public void copy(VertexData data) {
         clear();
         indices.addAll(data.indices);
+        if (data.indicesBuffer != null) {
+            indicesBuffer = CausticUtil.createByteBuffer(data.indicesBuffer.capacity());
+            indicesBuffer.put(data.getIndicesBuffer());
+            indicesBuffer.flip();
+        }
         final TIntObjectIterator<VertexAttribute> iterator = data.attributes.iterator();
         while (iterator.hasNext()) {
             iterator.advance();
             attributes.put(iterator.key(), iterator.value().clone());
         }
         nameToIndex.putAll(data.nameToIndex);
+        interleaved = data.interleaved;
     }
 }
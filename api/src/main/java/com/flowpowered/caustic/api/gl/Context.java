@@ -29,6 +29,7 @@ import com.flowpowered.math.vector.Vector2i;
 import com.flowpowered.math.vector.Vector4f;
 
 import com.flowpowered.caustic.api.Camera;
+import com.flowpowered.caustic.api.ContextState;
 import com.flowpowered.caustic.api.Creatable;
 import com.flowpowered.caustic.api.GLVersioned;
 import com.flowpowered.caustic.api.data.UniformHolder;
@@ -46,10 +47,13 @@ public abstract class Context extends Creatable implements GLVersioned {
     protected final UniformHolder uniforms = new UniformHolder();
     // Camera
     protected Camera camera;
+    // Shadow of the state, for compiled pipelines
+    protected final ContextState state = new ContextState();
 
     @Override
     public void destroy() {
         uniforms.clear();
+        state.invalidate();
         super.destroy();
     }
 
@@ -95,6 +99,39 @@ public abstract class Context extends Creatable implements GLVersioned {
      */
     public abstract VertexArray newVertexArray();
 
+    /**
+     * Creates a new uniform block. The block is backed by a uniform buffer if they are supported by the context, else the uniforms are uploaded to the programs one by one.
+     *
+     * @return A new uniform block
+     */
+    public abstract UniformBlock newUniformBlock();
+
+    /**
+     * Creates a new mesh pool. The meshes of the pool share buffers and a vertex array object if this is supported by the context, else they are independent vertex arrays.
+     *
+     * @return A new mesh pool
+     */
+    public abstract MeshPool newMeshPool();
+
+    /**
+     * Returns true if this context supports timer queries, and thus {@link #newTimerQuery()} can be used. The context must be created.
+     *
+     * @return Whether or not timer queries are supported
+     */
+    public boolean hasTimerQueries() {
+        return false;
+    }
+
+    /**
+     * Creates a new timer query, if supported (see {@link #hasTimerQueries()}).
+     *
+     * @return A new timer query
+     * @throws UnsupportedOperationException If timer queries aren't supported
+     */
+    public TimerQuery newTimerQuery() {
+        throw new UnsupportedOperationException("Timer queries are not supported by this context");
+    }
+
     /**
      * Returns the window title.
      *
@@ -277,6 +314,15 @@ public abstract class Context extends Creatable implements GLVersioned {
         this.msaa = value;
     }
 
+    /**
+     * Returns the state shadow used by compiled pipelines to drop redundant state changes.
+     *
+     * @return The context state
+     */
+    public ContextState getState() {
+        return state;
+    }
+
     /**
      * Returns the Uniforms for this renderer
      *
@@ -0,0 +1,87 @@
+/*
+ * This file is part of Caustic API, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.api.gl;
+
+import java.util.List;
+
+import com.flowpowered.caustic.api.Creatable;
+import com.flowpowered.caustic.api.GLVersioned;
+
+/**
+ * Represents a pool of meshes which share a few large buffers and a single vertex array object. The meshes are vertex arrays created by {@link #newMesh()}, and their data is sub-allocated from the
+ * pool buffers when it's set. All the meshes of a pool must have the same attribute format, which is the one of the first data set. Pooling many small meshes avoids creating a buffer object per
+ * attribute and per mesh, and rebinding the vertex array object before each draw call.
+ * <p/>
+ * When the buffers are full, they are grown. Removing meshes, by destroying them or setting smaller data, leaves holes in the buffers which are reused by the next meshes, and can be removed with
+ * {@link #compact()}. When pooling isn't supported by the context, the meshes are independent vertex arrays.
+ */
+public abstract class MeshPool extends Creatable implements GLVersioned {
+    protected int id = 0;
+
+    @Override
+    public void destroy() {
+        id = 0;
+        super.destroy();
+    }
+
+    /**
+     * Creates a new mesh in the pool. It's a vertex array which stores its data in the pool buffers. The mesh must be created before use, and destroyed to release its space in the pool. The pool
+     * must be created.
+     *
+     * @return A new mesh
+     */
+    public abstract VertexArray newMesh();
+
+    /**
+     * Moves the data of the meshes next to each other at the start of the buffers, removing the holes left by the meshes which were removed, and shrinks the buffers to fit.
+     */
+    public abstract void compact();
+
+    /**
+     * Binds the pool, so that the draw calls of its meshes don't have to bind and unbind it each time. This is useful when drawing many meshes of the pool in a row, with different uniforms between
+     * the draw calls. No other vertex array can be drawn until the pool is unbound with {@link #unbind()}.
+     */
+    public abstract void bind();
+
+    /**
+     * Unbinds the pool, after a call to {@link #bind()}.
+     */
+    public abstract void unbind();
+
+    /**
+     * Draws the meshes of the pool in a batch, binding the pool only once. The meshes must all have the same drawing and polygon modes.
+     *
+     * @param meshes The meshes to draw, which must be from this pool
+     */
+    public abstract void draw(List<? extends VertexArray> meshes);
+
+    /**
+     * Gets the ID of the vertex array object of this pool as assigned by OpenGL, or 0 if the meshes are independent vertex arrays.
+     *
+     * @return The ID
+     */
+    public int getID() {
+        return id;
+    }
+}
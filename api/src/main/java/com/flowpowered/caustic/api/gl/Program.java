@@ -23,8 +23,15 @@
  */
 package com.flowpowered.caustic.api.gl;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 
 import com.flowpowered.math.matrix.Matrix2f;
 import com.flowpowered.math.matrix.Matrix3f;
@@ -45,11 +52,21 @@ import com.flowpowered.caustic.api.data.UniformHolder;
  * partial, wrong or missing rendering, and affects models using multiple attributes. The texture layout should also be setup using {@link Shader#setTextureLayout(int, String)} in the same way.
  */
 public abstract class Program extends Creatable implements GLVersioned {
+    private static final Uniform[] EMPTY_UNIFORMS = {};
+    private static final int[] EMPTY_VERSIONS = {};
     protected int id;
+    // Slot of each uniform name uploaded through this class, and for each slot, the uniform last uploaded and its version at the time
+    private final TObjectIntMap<String> uploadSlots = new TObjectIntHashMap<>(10, 0.5f, -1);
+    private Uniform[] uploadedUniforms = EMPTY_UNIFORMS;
+    private int[] uploadedVersions = EMPTY_VERSIONS;
+    // The slots of the uniforms of each holder uploaded to this program, resolved again when the holder changes
+    private final Map<UniformHolder, HolderSlots> holderSlots = new WeakHashMap<>();
 
     @Override
     public void destroy() {
         id = 0;
+        clearUploadedUniforms();
+        holderSlots.clear();
         super.destroy();
     }
 
@@ -180,6 +197,166 @@ public abstract class Program extends Creatable implements GLVersioned {
      */
     public abstract void setUniform(String name, Matrix4f m);
 
+    /**
+     * Returns a handle to the uniform with the name, which can be used to set it without looking it up by name. The handle is valid until the program is linked again or destroyed.
+     *
+     * @param name The name of the uniform
+     * @return The uniform handle, or null if the program doesn't have a uniform with that name
+     */
+    public UniformHandle getUniformHandle(String name) {
+        checkCreated();
+        return getUniformNames().contains(name) ? new UniformHandle(this, name, -1, 0, 1) : null;
+    }
+
+    /**
+     * Sets a uniform boolean in the shader to the desired value.
+     *
+     * @param handle The handle of the uniform to set
+     * @param b The boolean value
+     */
+    public void setUniform(UniformHandle handle, boolean b) {
+        checkHandle(handle);
+        setUniform(handle.getName(), b);
+    }
+
+    /**
+     * Sets a uniform integer in the shader to the desired value.
+     *
+     * @param handle The handle of the uniform to set
+     * @param i The integer value
+     */
+    public void setUniform(UniformHandle handle, int i) {
+        checkHandle(handle);
+        setUniform(handle.getName(), i);
+    }
+
+    /**
+     * Sets a uniform float in the shader to the desired value.
+     *
+     * @param handle The handle of the uniform to set
+     * @param f The float value
+     */
+    public void setUniform(UniformHandle handle, float f) {
+        checkHandle(handle);
+        setUniform(handle.getName(), f);
+    }
+
+    /**
+     * Sets a uniform float array in the shader to the desired value.
+     *
+     * @param handle The handle of the uniform to set
+     * @param fs The float array value
+     */
+    public void setUniform(UniformHandle handle, float[] fs) {
+        checkHandle(handle);
+        setUniform(handle.getName(), fs);
+    }
+
+    /**
+     * Sets a uniform {@link com.flowpowered.math.vector.Vector2f} in the shader to the desired value.
+     *
+     * @param handle The handle of the uniform to set
+     * @param v The vector value
+     */
+    public void setUniform(UniformHandle handle, Vector2f v) {
+        checkHandle(handle);
+        setUniform(handle.getName(), v);
+    }
+
+    /**
+     * Sets a uniform {@link com.flowpowered.math.vector.Vector2f} array in the shader to the desired value.
+     *
+     * @param handle The handle of the uniform to set
+     * @param vs The vector array value
+     */
+    public void setUniform(UniformHandle handle, Vector2f[] vs) {
+        checkHandle(handle);
+        setUniform(handle.getName(), vs);
+    }
+
+    /**
+     * Sets a uniform {@link com.flowpowered.math.vector.Vector3f} in the shader to the desired value.
+     *
+     * @param handle The handle of the uniform to set
+     * @param v The vector value
+     */
+    public void setUniform(UniformHandle handle, Vector3f v) {
+        checkHandle(handle);
+        setUniform(handle.getName(), v);
+    }
+
+    /**
+     * Sets a uniform {@link com.flowpowered.math.vector.Vector3f} array in the shader to the desired value.
+     *
+     * @param handle The handle of the uniform to set
+     * @param vs The vector array value
+     */
+    public void setUniform(UniformHandle handle, Vector3f[] vs) {
+        checkHandle(handle);
+        setUniform(handle.getName(), vs);
+    }
+
+    /**
+     * Sets a uniform {@link com.flowpowered.math.vector.Vector4f} in the shader to the desired value.
+     *
+     * @param handle The handle of the uniform to set
+     * @param v The vector value
+     */
+    public void setUniform(UniformHandle handle, Vector4f v) {
+        checkHandle(handle);
+        setUniform(handle.getName(), v);
+    }
+
+    /**
+     * Sets a uniform {@link com.flowpowered.math.matrix.Matrix4f} in the shader to the desired value.
+     *
+     * @param handle The handle of the uniform to set
+     * @param m The matrix value
+     */
+    public void setUniform(UniformHandle handle, Matrix2f m) {
+        checkHandle(handle);
+        setUniform(handle.getName(), m);
+    }
+
+    /**
+     * Sets a uniform {@link com.flowpowered.math.matrix.Matrix4f} in the shader to the desired value.
+     *
+     * @param handle The handle of the uniform to set
+     * @param m The matrix value
+     */
+    public void setUniform(UniformHandle handle, Matrix3f m) {
+        checkHandle(handle);
+        setUniform(handle.getName(), m);
+    }
+
+    /**
+     * Sets a uniform {@link com.flowpowered.math.matrix.Matrix4f} in the shader to the desired value.
+     *
+     * @param handle The handle of the uniform to set
+     * @param m The matrix value
+     */
+    public void setUniform(UniformHandle handle, Matrix4f m) {
+        checkHandle(handle);
+        setUniform(handle.getName(), m);
+    }
+
+    /**
+     * Checks that the handle can be used with this program.
+     *
+     * @param handle The uniform handle
+     */
+    protected void checkHandle(UniformHandle handle) {
+        if (handle == null) {
+            throw new IllegalArgumentException("Handle cannot be null");
+        }
+        if (handle.getProgram() != this) {
+            throw new IllegalArgumentException("Handle belongs to another program");
+        }
+        if (!handle.isValid()) {
+            throw new IllegalStateException("Handle is no longer valid, the program was linked again or destroyed");
+        }
+    }
+
     /**
      * Returns the shaders that have been attached to this program.
      *
@@ -195,23 +372,92 @@ public abstract class Program extends Creatable implements GLVersioned {
     public abstract Set<String> getUniformNames();
 
     /**
-     * Uploads the uniform to this program.
+     * Returns a set containing the names of the uniform blocks declared by this program. The set is empty if uniform blocks aren't supported.
+     *
+     * @return A set of the uniform block names
+     */
+    public Set<String> getUniformBlockNames() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Binds the uniform block with the name to the uniform buffer binding point.
+     *
+     * @param name The name of the uniform block
+     * @param binding The binding point
+     * @throws UnsupportedOperationException If uniform blocks aren't supported
+     */
+    public void bindUniformBlock(String name, int binding) {
+        throw new UnsupportedOperationException("Uniform blocks are not supported by this program");
+    }
+
+    /**
+     * Uploads the uniform to this program. Nothing is done if the program already received this uniform, and its value didn't change since (see {@link Uniform#getVersion()}).
      *
      * @param uniform The uniform to upload
      */
     public void upload(Uniform uniform) {
-        uniform.upload(this);
+        upload(uniform, getUploadSlot(uniform.getName()));
     }
 
     /**
-     * Uploads the uniforms to this program.
+     * Uploads the uniforms to this program. Only the uniforms which this program didn't receive yet, or whose value changed since, are uploaded. A uniform set directly with one of the
+     * "setUniform" methods isn't tracked, so uploading a uniform with the same name after that might do nothing, unless {@link #clearUploadedUniforms()} is called.
      *
      * @param uniforms The uniforms to upload
      */
     public void upload(UniformHolder uniforms) {
-        for (Uniform uniform : uniforms) {
-            uniform.upload(this);
+        HolderSlots slots = holderSlots.get(uniforms);
+        if (slots == null) {
+            slots = new HolderSlots();
+            holderSlots.put(uniforms, slots);
         }
+        // Resolve the slots once per holder version, instead of once per uniform and upload
+        final int size = uniforms.size();
+        if (slots.version != uniforms.getVersion()) {
+            if (slots.indices.length != size) {
+                slots.indices = new int[size];
+            }
+            for (int i = 0; i < size; i++) {
+                slots.indices[i] = getUploadSlot(uniforms.get(i).getName());
+            }
+            slots.version = uniforms.getVersion();
+        }
+        final int[] indices = slots.indices;
+        for (int i = 0; i < size; i++) {
+            upload(uniforms.get(i), indices[i]);
+        }
+    }
+
+    private void upload(Uniform uniform, int slot) {
+        final int version = uniform.getVersion();
+        if (uploadedUniforms[slot] == uniform && uploadedVersions[slot] == version) {
+            return;
+        }
+        uniform.upload(this);
+        uploadedUniforms[slot] = uniform;
+        uploadedVersions[slot] = version;
+    }
+
+    private int getUploadSlot(String name) {
+        int slot = uploadSlots.get(name);
+        if (slot < 0) {
+            slot = uploadSlots.size();
+            uploadSlots.put(name, slot);
+            if (slot >= uploadedUniforms.length) {
+                final int length = Math.max(slot * 2, 8);
+                uploadedUniforms = Arrays.copyOf(uploadedUniforms, length);
+                uploadedVersions = Arrays.copyOf(uploadedVersions, length);
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Forgets which uniforms were uploaded to this program, so that they are all uploaded again. This is done when the values in the program might have been reset, such as when linking it again.
+     */
+    public void clearUploadedUniforms() {
+        Arrays.fill(uploadedUniforms, null);
     }
 
     /**
@@ -222,4 +468,9 @@ public abstract class Program extends Creatable implements GLVersioned {
     public int getID() {
         return id;
     }
+
+    private static class HolderSlots {
+        private int version = -1;
+        private int[] indices = EMPTY_VERSIONS;
+    }
 }
@@ -0,0 +1,74 @@
+/*
+ * This file is part of Caustic API, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.api.gl;
+
+import com.flowpowered.caustic.api.Creatable;
+import com.flowpowered.caustic.api.GLVersioned;
+
+/**
+ * Represents an OpenGL timer query. The query measures the time taken by the GPU to execute the commands issued between {@link #begin()} and {@link #end()}. The result isn't available right away,
+ * {@link #isResultAvailable()} can be used to avoid waiting on the GPU. Only one timer query can be active at once.
+ */
+public abstract class TimerQuery extends Creatable implements GLVersioned {
+    protected int id;
+
+    @Override
+    public void destroy() {
+        id = 0;
+        super.destroy();
+    }
+
+    /**
+     * Starts measuring the time of the following commands.
+     */
+    public abstract void begin();
+
+    /**
+     * Stops measuring the time.
+     */
+    public abstract void end();
+
+    /**
+     * Returns true if the result of the query can be read without waiting for the GPU.
+     *
+     * @return Whether or not the result is available
+     */
+    public abstract boolean isResultAvailable();
+
+    /**
+     * Returns the time elapsed between the start and the end of the query, in nanoseconds. Waits for the result if it isn't available yet.
+     *
+     * @return The elapsed time in nanoseconds
+     */
+    public abstract long getResult();
+
+    /**
+     * Gets the ID for this timer query as assigned by OpenGL.
+     *
+     * @return The ID
+     */
+    public int getID() {
+        return id;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * This file is part of Caustic API, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.api.gl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.flowpowered.math.matrix.Matrix2f;
+import com.flowpowered.math.matrix.Matrix3f;
+import com.flowpowered.math.matrix.Matrix4f;
+import com.flowpowered.math.vector.Vector2f;
+import com.flowpowered.math.vector.Vector3f;
+import com.flowpowered.math.vector.Vector4f;
+
+import com.flowpowered.caustic.api.Creatable;
+import com.flowpowered.caustic.api.GLVersioned;
+import com.flowpowered.caustic.api.data.Uniform;
+import com.flowpowered.caustic.api.data.Uniform.BooleanUniform;
+import com.flowpowered.caustic.api.data.Uniform.FloatArrayUniform;
+import com.flowpowered.caustic.api.data.Uniform.FloatUniform;
+import com.flowpowered.caustic.api.data.Uniform.IntUniform;
+import com.flowpowered.caustic.api.data.Uniform.Matrix2Uniform;
+import com.flowpowered.caustic.api.data.Uniform.Matrix3Uniform;
+import com.flowpowered.caustic.api.data.Uniform.Matrix4Uniform;
+import com.flowpowered.caustic.api.data.Uniform.Vector2ArrayUniform;
+import com.flowpowered.caustic.api.data.Uniform.Vector2Uniform;
+import com.flowpowered.caustic.api.data.Uniform.Vector3ArrayUniform;
+import com.flowpowered.caustic.api.data.Uniform.Vector3Uniform;
+import com.flowpowered.caustic.api.data.Uniform.Vector4Uniform;
+import com.flowpowered.caustic.api.data.UniformHolder;
+
+/**
+ * Represents a named block of uniforms, shared by all the programs which declare a uniform block with the same name. The uniforms must be added in the order of their declaration in the shaders,
+ * and the block must use the "std140" layout. When uniform buffers are supported, the values are stored in a buffer, and binding the block to a program is almost free. Otherwise, or for the programs
+ * which don't declare the block, the uniforms are uploaded one by one when binding it.
+ * <p/>
+ * A block can hold more than one element, in which case it's used as a ring: each update writes to the next element, which leaves the previous ones untouched for the draw calls which still read
+ * them. This is meant for per object data, updated before each draw call.
+ */
+public abstract class UniformBlock extends Creatable implements GLVersioned {
+    protected int id;
+    protected String name;
+    // The uniforms, in declaration order
+    protected final List<Uniform> uniforms = new ArrayList<>();
+    // The number of elements in the ring
+    protected int capacity = 1;
+
+    @Override
+    public void destroy() {
+        id = 0;
+        uniforms.clear();
+        super.destroy();
+    }
+
+    /**
+     * Returns the name of the block, as declared in the shaders.
+     *
+     * @return The block name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Sets the name of the block, as declared in the shaders.
+     *
+     * @param name The block name
+     */
+    public void setName(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Name cannot be null");
+        }
+        this.name = name;
+    }
+
+    /**
+     * Adds a uniform at the end of the block. If the block already has a uniform with the same name, it is replaced instead, and keeps its position.
+     *
+     * @param uniform The uniform to add
+     */
+    public void add(Uniform uniform) {
+        if (uniform == null) {
+            throw new IllegalArgumentException("Uniform cannot be null");
+        }
+        final int index = indexOf(uniform.getName());
+        if (index >= 0) {
+            uniforms.set(index, uniform);
+        } else {
+            uniforms.add(uniform);
+        }
+    }
+
+    /**
+     * Adds all the uniforms at the end of the block, in the iteration order of the holder.
+     *
+     * @param uniforms The uniforms to add
+     */
+    public void addAll(UniformHolder uniforms) {
+        for (Uniform uniform : uniforms) {
+            add(uniform);
+        }
+    }
+
+    /**
+     * Removes the uniform with the provided name from the block, if present.
+     *
+     * @param name The name of the uniform to remove
+     */
+    public void remove(String name) {
+        final int index = indexOf(name);
+        if (index >= 0) {
+            uniforms.remove(index);
+        }
+    }
+
+    /**
+     * Removes all the uniforms from the block.
+     */
+    public void clear() {
+        uniforms.clear();
+    }
+
+    /**
+     * Returns the uniforms of the block, in declaration order.
+     *
+     * @return The uniforms
+     */
+    public List<Uniform> getUniforms() {
+        return Collections.unmodifiableList(uniforms);
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < uniforms.size(); i++) {
+            if (uniforms.get(i).getName().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of elements in the block.
+     *
+     * @return The capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the number of elements in the block. Blocks updated once per draw call should hold enough elements for the draw calls the GPU might still be processing. The default is one.
+     *
+     * @param capacity The capacity, greater than zero
+     */
+    public void setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater than zero");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Writes the current values of the uniforms to the next element of the block, which becomes the one read by the programs the block is bound to.
+     */
+    public abstract void update();
+
+    /**
+     * Binds the block to the program. If the program declares a uniform block with the same name and uniform buffers are supported, the program reads the last updated element. Else the uniforms are
+     * uploaded to the program one by one.
+     *
+     * @param program The program to bind to
+     */
+    public abstract void bind(Program program);
+
+    /**
+     * Uploads the uniforms to the program one by one, as a fallback for when the block can't be bound.
+     *
+     * @param program The program to upload to
+     */
+    protected void upload(Program program) {
+        for (int i = 0; i < uniforms.size(); i++) {
+            program.upload(uniforms.get(i));
+        }
+    }
+
+    /**
+     * Writes the values of the uniforms at the start of the buffer, following the "std140" layout. If the buffer is null, only the size is computed.
+     *
+     * @param buffer The buffer to write to, or null
+     * @return The size of the data, in bytes
+     */
+    protected int write(ByteBuffer buffer) {
+        int offset = 0;
+        for (int i = 0; i < uniforms.size(); i++) {
+            final Uniform uniform = uniforms.get(i);
+            if (uniform instanceof BooleanUniform) {
+                offset = writeScalar(buffer, offset, ((BooleanUniform) uniform).get() ? 1 : 0);
+            } else if (uniform instanceof IntUniform) {
+                offset = writeScalar(buffer, offset, ((IntUniform) uniform).get());
+            } else if (uniform instanceof FloatUniform) {
+                offset = writeScalar(buffer, offset, Float.floatToRawIntBits(((FloatUniform) uniform).get()));
+            } else if (uniform instanceof FloatArrayUniform) {
+                // Array elements are aligned to 16 bytes
+                for (float f : ((FloatArrayUniform) uniform).get()) {
+                    offset = writeVector(buffer, align(offset, 16), 16, f, 0, 0, 0);
+                }
+            } else if (uniform instanceof Vector2Uniform) {
+                final Vector2f v = ((Vector2Uniform) uniform).get();
+                offset = writeVector(buffer, align(offset, 8), 8, v.getX(), v.getY(), 0, 0);
+            } else if (uniform instanceof Vector2ArrayUniform) {
+                for (Vector2f v : ((Vector2ArrayUniform) uniform).get()) {
+                    offset = writeVector(buffer, align(offset, 16), 16, v.getX(), v.getY(), 0, 0);
+                }
+            } else if (uniform instanceof Vector3Uniform) {
+                final Vector3f v = ((Vector3Uniform) uniform).get();
+                offset = writeVector(buffer, align(offset, 16), 12, v.getX(), v.getY(), v.getZ(), 0);
+            } else if (uniform instanceof Vector3ArrayUniform) {
+                for (Vector3f v : ((Vector3ArrayUniform) uniform).get()) {
+                    offset = writeVector(buffer, align(offset, 16), 16, v.getX(), v.getY(), v.getZ(), 0);
+                }
+            } else if (uniform instanceof Vector4Uniform) {
+                final Vector4f v = ((Vector4Uniform) uniform).get();
+                offset = writeVector(buffer, align(offset, 16), 16, v.getX(), v.getY(), v.getZ(), v.getW());
+            } else if (uniform instanceof Matrix2Uniform) {
+                // Matrices are stored as arrays of columns
+                final Matrix2f m = ((Matrix2Uniform) uniform).get();
+                offset = align(offset, 16);
+                for (int col = 0; col < 2; col++) {
+                    offset = writeVector(buffer, offset, 16, m.get(0, col), m.get(1, col), 0, 0);
+                }
+            } else if (uniform instanceof Matrix3Uniform) {
+                final Matrix3f m = ((Matrix3Uniform) uniform).get();
+                offset = align(offset, 16);
+                for (int col = 0; col < 3; col++) {
+                    offset = writeVector(buffer, offset, 16, m.get(0, col), m.get(1, col), m.get(2, col), 0);
+                }
+            } else if (uniform instanceof Matrix4Uniform) {
+                final Matrix4f m = ((Matrix4Uniform) uniform).get();
+                offset = align(offset, 16);
+                for (int col = 0; col < 4; col++) {
+                    offset = writeVector(buffer, offset, 16, m.get(0, col), m.get(1, col), m.get(2, col), m.get(3, col));
+                }
+            } else {
+                throw new IllegalStateException("Unsupported uniform type in a block: " + uniform.getClass().getSimpleName());
+            }
+        }
+        // The size of a block is rounded up to the alignment of a vec4
+        return align(offset, 16);
+    }
+
+    private static int writeScalar(ByteBuffer buffer, int offset, int bits) {
+        offset = align(offset, 4);
+        if (buffer != null) {
+            buffer.putInt(offset, bits);
+        }
+        return offset + 4;
+    }
+
+    private static int writeVector(ByteBuffer buffer, int offset, int size, float x, float y, float z, float w) {
+        if (buffer != null) {
+            // Write only the components which are part of the size, the padding is left as is
+            buffer.putFloat(offset, x);
+            if (size > 4) {
+                buffer.putFloat(offset + 4, y);
+            }
+            if (size > 8) {
+                buffer.putFloat(offset + 8, z);
+            }
+            if (size > 12) {
+                buffer.putFloat(offset + 12, w);
+            }
+        }
+        return offset + size;
+    }
+
+    private static int align(int offset, int alignment) {
+        return offset + alignment - 1 & -alignment;
+    }
+
+    /**
+     * Gets the ID for the buffer of this block as assigned by OpenGL, or zero if the block isn't backed by a buffer.
+     *
+     * @return The ID
+     */
+    public int getID() {
+        return id;
+    }
+}
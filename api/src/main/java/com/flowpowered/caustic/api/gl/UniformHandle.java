@@ -0,0 +1,121 @@
+/*
+ * This file is part of Caustic API, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.api.gl;
+
+/**
+ * Represents a uniform of a {@link Program}, resolved once so that it can be set without looking it up by name. Handles are obtained with {@link Program#getUniformHandle(String)}, and are only
+ * valid for the program they were obtained from, until it's linked again or destroyed.
+ */
+public class UniformHandle {
+    private final Program program;
+    private final String name;
+    private final int location;
+    private final int type;
+    private final int size;
+    private boolean valid = true;
+
+    /**
+     * Constructs a new uniform handle.
+     *
+     * @param program The program of the uniform
+     * @param name The name of the uniform
+     * @param location The location of the uniform, or -1 if it doesn't have one
+     * @param type The OpenGL type constant of the uniform, or 0 if unknown
+     * @param size The number of elements of the uniform, one if it isn't an array
+     */
+    public UniformHandle(Program program, String name, int location, int type, int size) {
+        if (program == null) {
+            throw new IllegalArgumentException("Program cannot be null");
+        }
+        if (name == null) {
+            throw new IllegalArgumentException("Name cannot be null");
+        }
+        this.program = program;
+        this.name = name;
+        this.location = location;
+        this.type = type;
+        this.size = size;
+    }
+
+    /**
+     * Returns the program of the uniform.
+     *
+     * @return The program
+     */
+    public Program getProgram() {
+        return program;
+    }
+
+    /**
+     * Returns the name of the uniform.
+     *
+     * @return The name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the location of the uniform in the program.
+     *
+     * @return The location, or -1 if it doesn't have one
+     */
+    public int getLocation() {
+        return location;
+    }
+
+    /**
+     * Returns the OpenGL type constant of the uniform, such as GL_FLOAT_MAT4.
+     *
+     * @return The type, or 0 if unknown
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Returns the number of elements of the uniform, which is one if it isn't an array.
+     *
+     * @return The size
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns true if the handle can still be used with its program.
+     *
+     * @return Whether or not the handle is valid
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Invalidates the handle, after which it can't be used anymore.
+     */
+    protected void invalidate() {
+        valid = false;
+    }
+}
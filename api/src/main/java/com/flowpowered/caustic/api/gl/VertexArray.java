@@ -23,8 +23,15 @@
  */
 package com.flowpowered.caustic.api.gl;
 
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import com.flowpowered.math.vector.Vector3f;
+
 import com.flowpowered.caustic.api.Creatable;
 import com.flowpowered.caustic.api.GLVersioned;
+import com.flowpowered.caustic.api.data.VertexAttribute;
+import com.flowpowered.caustic.api.data.VertexAttribute.DataType;
 import com.flowpowered.caustic.api.data.VertexData;
 
 /**
@@ -32,10 +39,18 @@ import com.flowpowered.caustic.api.data.VertexData;
  */
 public abstract class VertexArray extends Creatable implements GLVersioned {
     protected int id = 0;
+    // Bounds of the vertex positions, null if unknown
+    private Vector3f boundsMin = null;
+    private Vector3f boundsMax = null;
+    // Number of components of the positions, when the bounds are known
+    private int boundsSize = 0;
 
     @Override
     public void destroy() {
         id = 0;
+        boundsMin = null;
+        boundsMax = null;
+        boundsSize = 0;
         super.destroy();
     }
 
@@ -46,6 +61,28 @@ public abstract class VertexArray extends Creatable implements GLVersioned {
      */
     public abstract void setData(VertexData vertexData);
 
+    /**
+     * Sets the usage hint for the buffers of the vertex array, which tells the implementation how often the data will change. Use {@link BufferUsage#DYNAMIC} or {@link BufferUsage#STREAM} for data
+     * which is updated often, such as deforming meshes or particles. The hint is used for the next uploads. The default is {@link BufferUsage#STATIC}.
+     *
+     * @param usage The buffer usage hint
+     */
+    public abstract void setBufferUsage(BufferUsage usage);
+
+    /**
+     * Replaces part of the data of the attribute at the index, without uploading the other attributes or the indices. The data is read from the position to the limit of the buffer, and written at the
+     * byte offset in the attribute data, which has the layout of the vertex data last set. The update must fit inside that data, use {@link #setData(com.flowpowered.caustic.api.data.VertexData)} to
+     * resize it. Updating a single attribute isn't supported when the vertex data is interleaved. If the data was set with the {@link BufferUsage#DYNAMIC} or {@link BufferUsage#STREAM} usages, the
+     * implementations may write the update to other storage than the one used by the previous draws, so it doesn't wait for them. Updating the positions, the attribute at index 0, grows the bounds to
+     * include the new ones.
+     *
+     * @param index The attribute index
+     * @param byteOffset The offset in bytes in the attribute data
+     * @param data The new data
+     * @throws IllegalStateException If the vertex data is interleaved
+     */
+    public abstract void updateAttribute(int index, int byteOffset, ByteBuffer data);
+
     /**
      * Sets the vertex array's drawing mode.
      *
@@ -81,6 +118,169 @@ public abstract class VertexArray extends Creatable implements GLVersioned {
      */
     public abstract void draw();
 
+    /**
+     * Returns true if this vertex array supports instanced rendering, using {@link #setInstanceAttribute(int, int, java.nio.FloatBuffer)} and {@link #drawInstanced(int)}.
+     *
+     * @return Whether or not instanced rendering is supported
+     */
+    public boolean isInstancingSupported() {
+        return false;
+    }
+
+    /**
+     * Sets the data of a per-instance float attribute, which advances once per instance instead of once per vertex. The data is read from the position to the limit of the buffer. Sizes above 4 must be
+     * a multiple of 4, and span consecutive attribute indices, 4 components at a time: a 4x4 matrix has a size of 16 and uses the index and the three following ones. Matrices are expected in
+     * column-major order. The indices must not overlap the ones of the vertex data. Setting the data again for the same index replaces it.
+     *
+     * @param index The attribute index, or the first one for sizes above 4
+     * @param size The number of components per instance
+     * @param data The instance data
+     * @throws UnsupportedOperationException If instanced rendering isn't supported
+     */
+    public void setInstanceAttribute(int index, int size, FloatBuffer data) {
+        throw new UnsupportedOperationException("Instanced rendering is not supported by this vertex array");
+    }
+
+    /**
+     * Draws the primitives defined by the vertex data once for each instance, in a single call. Each instance reads the next values of the instance attributes.
+     *
+     * @param count The number of instances
+     * @throws UnsupportedOperationException If instanced rendering isn't supported
+     */
+    public void drawInstanced(int count) {
+        throw new UnsupportedOperationException("Instanced rendering is not supported by this vertex array");
+    }
+
+    /**
+     * Checks the arguments of {@link #setInstanceAttribute(int, int, java.nio.FloatBuffer)}.
+     *
+     * @param index The attribute index
+     * @param size The number of components per instance
+     * @param data The instance data
+     */
+    protected static void checkInstanceAttribute(int index, int size, FloatBuffer data) {
+        if (index < 0) {
+            throw new IllegalArgumentException("Index cannot be negative");
+        }
+        if (size <= 0 || size > 4 && (size & 3) != 0) {
+            throw new IllegalArgumentException("Size must be between 1 and 4, or a multiple of 4");
+        }
+        if (data == null) {
+            throw new IllegalArgumentException("Data cannot be null");
+        }
+        if (data.remaining() % size != 0) {
+            throw new IllegalArgumentException("Data length must be a multiple of the size");
+        }
+    }
+
+    /**
+     * Checks the arguments of {@link #updateAttribute(int, int, java.nio.ByteBuffer)}.
+     *
+     * @param index The attribute index
+     * @param byteOffset The offset in bytes in the attribute data
+     * @param data The new data
+     */
+    protected static void checkAttributeUpdate(int index, int byteOffset, ByteBuffer data) {
+        if (index < 0) {
+            throw new IllegalArgumentException("Index cannot be negative");
+        }
+        if (byteOffset < 0) {
+            throw new IllegalArgumentException("Byte offset cannot be negative");
+        }
+        if (data == null) {
+            throw new IllegalArgumentException("Data cannot be null");
+        }
+    }
+
+    /**
+     * Returns the minimum corner of the axis aligned box bounding the vertex positions, in model space. See {@link #updateBounds(com.flowpowered.caustic.api.data.VertexData)} for how they are found.
+     *
+     * @return The minimum corner of the bounds, or null if they are unknown
+     */
+    public Vector3f getBoundsMin() {
+        return boundsMin;
+    }
+
+    /**
+     * Returns the maximum corner of the axis aligned box bounding the vertex positions, in model space. See {@link #updateBounds(com.flowpowered.caustic.api.data.VertexData)} for how they are found.
+     *
+     * @return The maximum corner of the bounds, or null if they are unknown
+     */
+    public Vector3f getBoundsMax() {
+        return boundsMax;
+    }
+
+    /**
+     * Computes the bounds of the vertex positions, which are the attribute at index 0. The bounds are unknown if there's no such attribute or if it isn't made of floats. Missing components are zero.
+     * Implementations must call this when the data is set.
+     *
+     * @param vertexData The vertex data
+     */
+    protected void updateBounds(VertexData vertexData) {
+        boundsMin = null;
+        boundsMax = null;
+        boundsSize = 0;
+        final VertexAttribute positions = vertexData.getAttribute(0);
+        if (positions == null || positions.getType() != DataType.FLOAT) {
+            return;
+        }
+        final int size = positions.getSize();
+        final FloatBuffer data = positions.getDataView().asFloatBuffer();
+        final int vertexCount = data.remaining() / size;
+        if (vertexCount <= 0) {
+            return;
+        }
+        final float[] min = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+        final float[] max = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        for (int i = 0; i < vertexCount; i++) {
+            for (int c = 0; c < 3; c++) {
+                final float value = c < size ? data.get(i * size + c) : 0;
+                min[c] = Math.min(min[c], value);
+                max[c] = Math.max(max[c], value);
+            }
+        }
+        boundsMin = new Vector3f(min[0], min[1], min[2]);
+        boundsMax = new Vector3f(max[0], max[1], max[2]);
+        boundsSize = size;
+    }
+
+    /**
+     * Grows the bounds to include the positions written by an update of the attribute at the index, if it's the positions. The bounds never shrink, so they stay conservative for moving vertices.
+     * Implementations must call this when an attribute is updated.
+     *
+     * @param index The attribute index
+     * @param byteOffset The offset in bytes in the attribute data
+     * @param data The new data
+     */
+    protected void updateBounds(int index, int byteOffset, ByteBuffer data) {
+        if (index != 0 || boundsMin == null) {
+            return;
+        }
+        final int floatSize = DataType.FLOAT.getByteSize();
+        if (byteOffset % floatSize != 0) {
+            // The components can't be told apart, so the bounds become unknown
+            boundsMin = null;
+            boundsMax = null;
+            boundsSize = 0;
+            return;
+        }
+        final FloatBuffer positions = data.duplicate().order(data.order()).asFloatBuffer();
+        final float[] min = {boundsMin.getX(), boundsMin.getY(), boundsMin.getZ()};
+        final float[] max = {boundsMax.getX(), boundsMax.getY(), boundsMax.getZ()};
+        final int first = byteOffset / floatSize;
+        final int count = positions.remaining();
+        for (int i = 0; i < count; i++) {
+            final int c = (first + i) % boundsSize;
+            if (c < 3) {
+                final float value = positions.get(i);
+                min[c] = Math.min(min[c], value);
+                max[c] = Math.max(max[c], value);
+            }
+        }
+        boundsMin = new Vector3f(min[0], min[1], min[2]);
+        boundsMax = new Vector3f(max[0], max[1], max[2]);
+    }
+
     /**
      * Gets the ID for this vertex array as assigned by OpenGL.
      *
@@ -122,6 +322,29 @@ public abstract class VertexArray extends Creatable implements GLVersioned {
         }
     }
 
+    /**
+     * Represents the different usage hints for the buffers of the vertex array
+     */
+    public static enum BufferUsage {
+        STATIC(0x88E4), // GL15.GL_STATIC_DRAW
+        DYNAMIC(0x88E8), // GL15.GL_DYNAMIC_DRAW
+        STREAM(0x88E0); // GL15.GL_STREAM_DRAW
+        private final int glConstant;
+
+        private BufferUsage(int constant) {
+            glConstant = constant;
+        }
+
+        /**
+         * Returns the OpenGL constant associated to the buffer usage
+         *
+         * @return The OpenGL constant
+         */
+        public int getGLConstant() {
+            return glConstant;
+        }
+    }
+
     /**
      * Represents the different polygon modes for the vertex array
      */
@@ -23,9 +23,12 @@
  */
 package com.flowpowered.caustic.api.model;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
+import com.flowpowered.caustic.api.Camera;
 import com.flowpowered.caustic.api.Material;
 import com.flowpowered.caustic.api.data.UniformHolder;
 import com.flowpowered.caustic.api.gl.VertexArray;
@@ -35,7 +38,7 @@ import com.flowpowered.math.vector.Vector3f;
 
 /**
  * Represents a model. Each model has it's own position and rotation and set of uniforms. The vertex array provides the vertex data (mesh), while the material provides uniforms and textures for the
- * shader.
+ * shader. The matrices of many models can be computed in bulk by adding them to a {@link TransformStore}.
  */
 public class Model implements Comparable<Model> {
     // Vertex array
@@ -48,13 +51,29 @@ public class Model implements Comparable<Model> {
     private Quaternionf rotation = new Quaternionf();
     private Matrix4f matrix = new Matrix4f();
     private boolean updateMatrix = true;
+    // Incremented each time the matrix changes
+    private int version = 0;
+    // Matrices depending on the camera, cached for the camera and model versions
+    private Camera cachedCamera = null;
+    private int cachedCameraVersion = -1;
+    private int cachedVersion = -1;
+    private Matrix4f modelViewMatrix = null;
+    private Matrix4f modelViewProjectionMatrix = null;
+    private Matrix4f normalMatrix = null;
+    private NormalMatrixMode normalMatrixMode = null;
     // Model uniforms
     private final UniformHolder uniforms = new UniformHolder();
     // Optional parent model
     private Model parent = null;
-    private final Set<Model> children = new HashSet<>();
+    private final Set<Model> children = new LinkedHashSet<>();
     private Matrix4f lastParentMatrix = null;
     private Matrix4f childMatrix = null;
+    // Optional transform store computing the matrix
+    private TransformStore transformStore = null;
+    private int transformIndex = -1;
+    private int transformVersion = -1;
+    // Render queues containing the model, created when first needed
+    private List<RenderQueue> queues = null;
 
     /**
      * An empty constructor for child classes only.
@@ -108,6 +127,26 @@ public class Model implements Comparable<Model> {
         vertexArray.draw();
     }
 
+    /**
+     * Returns true if the model can be drawn in a single instanced draw call with other models sharing the same vertex array and material, which is the case if {@link #render()} only draws the vertex
+     * array. Subclasses which override {@link #render()} to do more should return false.
+     *
+     * @return Whether or not the model can be instanced
+     */
+    public boolean isInstanceable() {
+        return true;
+    }
+
+    /**
+     * Returns true if the model can be culled using the bounds of its vertex array transformed by the model matrix, which is the case if the rendered geometry stays within those bounds. Subclasses
+     * which render outside of them, by offsetting the vertices in the shader for example, should return false.
+     *
+     * @return Whether or not the model can be frustum culled
+     */
+    public boolean isCullable() {
+        return true;
+    }
+
     /**
      * Returns the model's vertex array.
      *
@@ -148,7 +187,14 @@ public class Model implements Comparable<Model> {
         if (material == null) {
             throw new IllegalArgumentException("Material cannot be null");
         }
+        final Material oldMaterial = this.material;
         this.material = material;
+        // Regroup the model in the queues
+        if (queues != null && oldMaterial != material) {
+            for (RenderQueue queue : queues) {
+                queue.updateMaterial(this, oldMaterial);
+            }
+        }
     }
 
     /**
@@ -157,12 +203,28 @@ public class Model implements Comparable<Model> {
      * @return The transformation matrix
      */
     public Matrix4f getMatrix() {
+        if (transformStore != null) {
+            // Read the matrix from the store, after updating it if needed
+            if (transformStore.isDirty()) {
+                transformStore.update();
+            }
+            final int transformVersion = transformStore.getVersion(transformIndex);
+            if (transformVersion != this.transformVersion) {
+                matrix = transformStore.getWorldMatrix(transformIndex);
+                this.transformVersion = transformVersion;
+                version++;
+            }
+            return matrix;
+        }
         if (updateMatrix) {
             final Matrix4f matrix = Matrix4f.createScaling(scale.toVector4(1)).rotate(rotation).translate(position);
             if (parent == null) {
                 this.matrix = matrix;
+                version++;
             } else {
                 childMatrix = matrix;
+                // Force the combination with the parent matrix
+                lastParentMatrix = null;
             }
             updateMatrix = false;
         }
@@ -171,11 +233,130 @@ public class Model implements Comparable<Model> {
             if (parentMatrix != lastParentMatrix) {
                 matrix = parentMatrix.mul(childMatrix);
                 lastParentMatrix = parentMatrix;
+                version++;
             }
         }
         return matrix;
     }
 
+    /**
+     * Returns the version of the model matrix. It increases each time the matrix changes, including when the parent matrix changes, so it can be used to cache values derived from the matrix.
+     *
+     * @return The matrix version
+     */
+    public int getVersion() {
+        getMatrix();
+        return version;
+    }
+
+    /**
+     * Returns the model-view matrix, the product of the camera view matrix and the model matrix. It's cached until the camera or the model changes.
+     *
+     * @param camera The camera
+     * @return The model-view matrix
+     */
+    public Matrix4f getModelViewMatrix(Camera camera) {
+        validateCameraMatrices(camera);
+        if (modelViewMatrix == null) {
+            modelViewMatrix = camera.getViewMatrix().mul(matrix);
+        }
+        return modelViewMatrix;
+    }
+
+    /**
+     * Returns the model-view-projection matrix, the product of the camera projection matrix and the model-view matrix. It's cached until the camera or the model changes.
+     *
+     * @param camera The camera
+     * @return The model-view-projection matrix
+     */
+    public Matrix4f getModelViewProjectionMatrix(Camera camera) {
+        validateCameraMatrices(camera);
+        if (modelViewProjectionMatrix == null) {
+            modelViewProjectionMatrix = camera.getProjectionMatrix().mul(getModelViewMatrix(camera));
+        }
+        return modelViewProjectionMatrix;
+    }
+
+    /**
+     * Returns the normal matrix, the inverse transpose of the model-view matrix, computed using the mode. It's cached until the camera, the model or the mode changes.
+     *
+     * @param camera The camera
+     * @param mode The normal matrix computation mode
+     * @return The normal matrix
+     */
+    public Matrix4f getNormalMatrix(Camera camera, NormalMatrixMode mode) {
+        validateCameraMatrices(camera);
+        if (normalMatrix == null || normalMatrixMode != mode) {
+            final Matrix4f modelView = getModelViewMatrix(camera);
+            switch (mode) {
+                case FULL:
+                    normalMatrix = modelView.invert().transpose();
+                    break;
+                case UNIFORM_SCALE:
+                    // The rotation part is enough when the scale is uniform, the normals only need to be normalized
+                    if (hasUniformScale()) {
+                        normalMatrix = new Matrix4f(
+                                modelView.get(0, 0), modelView.get(0, 1), modelView.get(0, 2), 0,
+                                modelView.get(1, 0), modelView.get(1, 1), modelView.get(1, 2), 0,
+                                modelView.get(2, 0), modelView.get(2, 1), modelView.get(2, 2), 0,
+                                0, 0, 0, 1);
+                    } else {
+                        normalMatrix = invertTranspose3(modelView);
+                    }
+                    break;
+                case INVERSE_TRANSPOSE_3X3:
+                    normalMatrix = invertTranspose3(modelView);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown normal matrix mode: " + mode);
+            }
+            normalMatrixMode = mode;
+        }
+        return normalMatrix;
+    }
+
+    private void validateCameraMatrices(Camera camera) {
+        final int version = getVersion();
+        if (camera != cachedCamera || camera.getVersion() != cachedCameraVersion || version != cachedVersion) {
+            modelViewMatrix = null;
+            modelViewProjectionMatrix = null;
+            normalMatrix = null;
+            cachedCamera = camera;
+            cachedCameraVersion = camera.getVersion();
+            cachedVersion = version;
+        }
+    }
+
+    private boolean hasUniformScale() {
+        for (Model model = this; model != null; model = model.parent) {
+            final Vector3f scale = model.scale;
+            if (scale.getX() != scale.getY() || scale.getX() != scale.getZ()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Matrix4f invertTranspose3(Matrix4f m) {
+        // Inverse transpose of the upper left 3x3 matrix, which is its cofactor matrix divided by the determinant
+        final float m00 = m.get(0, 0), m01 = m.get(0, 1), m02 = m.get(0, 2);
+        final float m10 = m.get(1, 0), m11 = m.get(1, 1), m12 = m.get(1, 2);
+        final float m20 = m.get(2, 0), m21 = m.get(2, 1), m22 = m.get(2, 2);
+        final float c00 = m11 * m22 - m12 * m21, c01 = m12 * m20 - m10 * m22, c02 = m10 * m21 - m11 * m20;
+        final float c10 = m02 * m21 - m01 * m22, c11 = m00 * m22 - m02 * m20, c12 = m01 * m20 - m00 * m21;
+        final float c20 = m01 * m12 - m02 * m11, c21 = m02 * m10 - m00 * m12, c22 = m00 * m11 - m01 * m10;
+        final float det = m00 * c00 + m01 * c01 + m02 * c02;
+        if (Math.abs(det) < 1e-30f) {
+            throw new ArithmeticException("Cannot invert a matrix with a determinant of zero");
+        }
+        final float inverseDet = 1 / det;
+        return new Matrix4f(
+                c00 * inverseDet, c01 * inverseDet, c02 * inverseDet, 0,
+                c10 * inverseDet, c11 * inverseDet, c12 * inverseDet, 0,
+                c20 * inverseDet, c21 * inverseDet, c22 * inverseDet, 0,
+                0, 0, 0, 1);
+    }
+
     /**
      * Gets the model position.
      *
@@ -192,7 +373,7 @@ public class Model implements Comparable<Model> {
      */
     public void setPosition(Vector3f position) {
         this.position = position;
-        updateMatrix = true;
+        invalidateMatrix();
     }
 
     /**
@@ -211,7 +392,7 @@ public class Model implements Comparable<Model> {
      */
     public void setRotation(Quaternionf rotation) {
         this.rotation = rotation;
-        updateMatrix = true;
+        invalidateMatrix();
     }
 
     /**
@@ -230,7 +411,7 @@ public class Model implements Comparable<Model> {
      */
     public void setScale(Vector3f scale) {
         this.scale = scale;
-        updateMatrix = true;
+        invalidateMatrix();
     }
 
     /**
@@ -278,16 +459,96 @@ public class Model implements Comparable<Model> {
         if (parent == this) {
             throw new IllegalArgumentException("The model can't be its own parent");
         }
-        if (parent == null) {
+        if (transformStore != null && parent != null && parent.transformStore != transformStore) {
+            throw new IllegalArgumentException("The parent model must be in the same transform store");
+        }
+        if (this.parent != null) {
             this.parent.children.remove(this);
-        } else {
+        }
+        if (parent != null) {
             parent.children.add(this);
         }
         this.parent = parent;
+        // The model could be at a different level of the hierarchy in the store
+        if (transformStore != null) {
+            transformStore.invalidateOrder(transformIndex);
+        }
+        updateMatrix = true;
+        lastParentMatrix = null;
+    }
+
+    private void invalidateMatrix() {
+        updateMatrix = true;
+        if (transformStore != null) {
+            transformStore.setLocal(transformIndex, this);
+        }
+    }
+
+    /**
+     * Returns the transform store computing the matrix of this model, if any.
+     *
+     * @return The transform store, or null if none
+     */
+    public TransformStore getTransformStore() {
+        return transformStore;
+    }
+
+    void setTransformStore(TransformStore transformStore, int transformIndex) {
+        this.transformStore = transformStore;
+        this.transformIndex = transformIndex;
+        transformVersion = -1;
+        // Recompute the matrix if back to computing it directly
+        updateMatrix = true;
+        lastParentMatrix = null;
+    }
+
+    int getTransformIndex() {
+        return transformIndex;
+    }
+
+    void setTransformIndex(int transformIndex) {
+        this.transformIndex = transformIndex;
+    }
+
+    boolean addQueue(RenderQueue queue) {
+        if (queues == null) {
+            queues = new ArrayList<>(1);
+        } else if (queues.contains(queue)) {
+            return false;
+        }
+        queues.add(queue);
+        return true;
+    }
+
+    boolean removeQueue(RenderQueue queue) {
+        return queues != null && queues.remove(queue);
+    }
+
+    boolean isInQueue(RenderQueue queue) {
+        return queues != null && queues.contains(queue);
     }
 
     @Override
     public int compareTo(Model that) {
         return material.compareTo(that.material);
     }
+
+    /**
+     * The ways of computing the normal matrix.
+     */
+    public static enum NormalMatrixMode {
+        /**
+         * Inverse transpose of the full 4x4 model-view matrix.
+         */
+        FULL,
+        /**
+         * Inverse transpose of the upper left 3x3 model-view matrix, which is cheaper and enough to transform normals. The translation part of the result is zero.
+         */
+        INVERSE_TRANSPOSE_3X3,
+        /**
+         * Skips the inverse when the model and its parents have a uniform scale, in which case the rotation part of the model-view matrix is used, and the normals need to be normalized in the
+         * shader. Otherwise the same as {@link #INVERSE_TRANSPOSE_3X3}.
+         */
+        UNIFORM_SCALE
+    }
 }
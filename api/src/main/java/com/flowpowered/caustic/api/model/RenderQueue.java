@@ -0,0 +1,225 @@
+/*
+ * This file is part of Caustic API, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.api.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.flowpowered.caustic.api.Material;
+
+/**
+ * A retained list of models to render, kept grouped by material. Models are added once and stay in the queue until removed. The groups are kept sorted by material as models are added, removed or change
+ * material, so rendering the queue requires no sorting and no allocation. Models with the same material are kept in the order they were added. A model can be in more than one queue.
+ * <p/>
+ * Adding a model is done in constant time, unless its material is new to the queue. Removing a model takes time proportional to the number of models sharing its material.
+ */
+public class RenderQueue {
+    // The groups, sorted by material
+    private final List<Group> groups = new ArrayList<>();
+    private final Map<Material, Group> groupsByMaterial = new HashMap<>();
+    private int size = 0;
+
+    /**
+     * Adds a model to the queue. The model must have a material.
+     *
+     * @param model The model to add
+     * @return Whether or not the model was added, false if it was already in the queue
+     */
+    public boolean add(Model model) {
+        if (model == null) {
+            throw new IllegalArgumentException("Model cannot be null");
+        }
+        if (model.getMaterial() == null) {
+            throw new IllegalArgumentException("Model material cannot be null");
+        }
+        if (!model.addQueue(this)) {
+            return false;
+        }
+        addToGroup(model, model.getMaterial());
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes a model from the queue.
+     *
+     * @param model The model to remove
+     * @return Whether or not the model was removed, false if it wasn't in the queue
+     */
+    public boolean remove(Model model) {
+        if (model == null || !model.removeQueue(this)) {
+            return false;
+        }
+        removeFromGroup(model, model.getMaterial());
+        size--;
+        return true;
+    }
+
+    /**
+     * Returns true if the model is in the queue.
+     *
+     * @param model The model to check
+     * @return Whether or not the model is in the queue
+     */
+    public boolean contains(Model model) {
+        return model != null && model.isInQueue(this);
+    }
+
+    /**
+     * Removes all the models from the queue.
+     */
+    public void clear() {
+        for (Group group : groups) {
+            for (int i = 0; i < group.size; i++) {
+                group.models[i].removeQueue(this);
+            }
+        }
+        groups.clear();
+        groupsByMaterial.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns the number of models in the queue.
+     *
+     * @return The number of models
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of material groups in the queue.
+     *
+     * @return The number of groups
+     */
+    public int getGroupCount() {
+        return groups.size();
+    }
+
+    /**
+     * Returns the material of the group at the index. The groups are sorted by material.
+     *
+     * @param index The index of the group
+     * @return The material of the group
+     */
+    public Material getGroupMaterial(int index) {
+        return groups.get(index).material;
+    }
+
+    /**
+     * Returns the number of models in the group at the index.
+     *
+     * @param index The index of the group
+     * @return The number of models in the group
+     */
+    public int getGroupSize(int index) {
+        return groups.get(index).size;
+    }
+
+    /**
+     * Returns the models of the group at the index. This is the backing array of the group, it should not be modified. Only the first {@link #getGroupSize(int)} models are valid.
+     *
+     * @param index The index of the group
+     * @return The models of the group
+     */
+    public Model[] getGroupModels(int index) {
+        return groups.get(index).models;
+    }
+
+    void updateMaterial(Model model, Material oldMaterial) {
+        // Move the model to the group of its new material
+        removeFromGroup(model, oldMaterial);
+        addToGroup(model, model.getMaterial());
+    }
+
+    private void addToGroup(Model model, Material material) {
+        Group group = groupsByMaterial.get(material);
+        if (group == null) {
+            group = new Group(material);
+            groupsByMaterial.put(material, group);
+            // Insert the group at its sorted position
+            groups.add(-findGroup(material) - 1, group);
+        }
+        group.add(model);
+    }
+
+    private void removeFromGroup(Model model, Material material) {
+        final Group group = groupsByMaterial.get(material);
+        group.remove(model);
+        if (group.size <= 0) {
+            groupsByMaterial.remove(material);
+            groups.remove(findGroup(material));
+        }
+    }
+
+    private int findGroup(Material material) {
+        // Binary search, returns (-(insertion point) - 1) if not found
+        int low = 0, high = groups.size() - 1;
+        while (low <= high) {
+            final int middle = low + high >>> 1;
+            final int comparison = groups.get(middle).material.compareTo(material);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private static class Group {
+        private final Material material;
+        private Model[] models = new Model[4];
+        private int size = 0;
+
+        private Group(Material material) {
+            this.material = material;
+        }
+
+        private void add(Model model) {
+            if (size >= models.length) {
+                final Model[] newModels = new Model[models.length << 1];
+                System.arraycopy(models, 0, newModels, 0, size);
+                models = newModels;
+            }
+            models[size++] = model;
+        }
+
+        private void remove(Model model) {
+            for (int i = 0; i < size; i++) {
+                if (models[i] == model) {
+                    // Shift the following models to keep the order
+                    System.arraycopy(models, i + 1, models, i, size - i - 1);
+                    models[--size] = null;
+                    return;
+                }
+            }
+        }
+    }
+}
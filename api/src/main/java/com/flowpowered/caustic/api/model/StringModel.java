@@ -183,6 +183,18 @@ public class StringModel extends Model {
         setVertexArray(vertexArray);
     }
 
+    @Override
+    public boolean isInstanceable() {
+        // Each glyph is a separate draw call, with its own uniforms
+        return false;
+    }
+
+    @Override
+    public boolean isCullable() {
+        // The glyphs are offset by the shader, so the vertex array bounds don't contain the rendered text
+        return false;
+    }
+
     @Override
     public void render() {
         final Program program = getMaterial().getProgram();
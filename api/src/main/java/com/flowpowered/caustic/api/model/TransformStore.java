@@ -0,0 +1,323 @@
+/*
+ * This file is part of Caustic API, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.api.model;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.flowpowered.math.imaginary.Quaternionf;
+import com.flowpowered.math.matrix.Matrix4f;
+import com.flowpowered.math.vector.Vector3f;
+
+/**
+ * Stores the transforms of models in flat arrays, to update their world matrices in bulk. The local and world matrices are kept as contiguous row major floats, ordered by depth in the hierarchy so
+ * that parents are always before their children. Models added to a store read their matrix from it. Changing the position, rotation or scale of a model recomputes its local matrix right away and
+ * marks it as dirty, and the next update recomputes the world matrices of the dirty models and of their descendants only, without accessing the models. The update happens on the first call to {@link Model#getMatrix()} after a change, or explicitly with {@link
+ * #update()}. Levels of the hierarchy with many models are updated in parallel.
+ * <p/>
+ * A parent must be added before its children, and removing a model also removes its descendants in the store.
+ */
+public class TransformStore {
+    // Levels with at least this many models are updated in parallel
+    private static final int PARALLEL_THRESHOLD = 2048;
+    // Number of models updated per parallel task
+    private static final int TASK_SIZE = 512;
+    private static ForkJoinPool pool;
+    private Model[] models = new Model[0];
+    private int[] parents = new int[0];
+    private float[] locals = new float[0];
+    private float[] worlds = new float[0];
+    // Whether or not the local matrix changed, and then whether or not the world matrix changed during the update
+    private boolean[] dirty = new boolean[0];
+    private int[] versions = new int[0];
+    // Start of each hierarchy level in the arrays, with one extra entry for the end
+    private int[] levels = new int[0];
+    private int levelCount = 0;
+    private int size = 0;
+    private boolean orderValid = true;
+    private boolean anyDirty = false;
+
+    /**
+     * Adds a model to the store. The model's parent, if any, must already be in the store.
+     *
+     * @param model The model to add
+     */
+    public void add(Model model) {
+        if (model == null) {
+            throw new IllegalArgumentException("Model cannot be null");
+        }
+        if (model.getTransformStore() != null) {
+            throw new IllegalArgumentException("Model is already in a transform store");
+        }
+        final Model parent = model.getParent();
+        if (parent != null && parent.getTransformStore() != this) {
+            throw new IllegalArgumentException("The parent model must be in the same transform store");
+        }
+        ensureCapacity(size + 1);
+        final int index = size++;
+        models[index] = model;
+        versions[index] = 0;
+        model.setTransformStore(this, index);
+        setLocal(index, model);
+        // The model could be at a new level of the hierarchy
+        orderValid = false;
+        anyDirty = true;
+    }
+
+    /**
+     * Removes a model and its descendants from the store. They go back to computing their own matrix.
+     *
+     * @param model The model to remove
+     */
+    public void remove(Model model) {
+        if (model == null || model.getTransformStore() != this) {
+            return;
+        }
+        for (Model child : model.getChildren()) {
+            remove(child);
+        }
+        // Move the last model in place of the removed one, the order is fixed on the next update
+        final int index = model.getTransformIndex();
+        final int last = --size;
+        if (index != last) {
+            move(last, index);
+        }
+        models[last] = null;
+        model.setTransformStore(null, -1);
+        orderValid = false;
+    }
+
+    /**
+     * Returns the number of models in the store.
+     *
+     * @return The number of models
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Updates the world matrices of the dirty models and their descendants.
+     */
+    public void update() {
+        if (!orderValid) {
+            sortByLevel();
+        }
+        if (!anyDirty) {
+            return;
+        }
+        for (int level = 0; level < levelCount; level++) {
+            final int start = levels[level], end = levels[level + 1];
+            if (end - start >= PARALLEL_THRESHOLD) {
+                getPool().invoke(new UpdateTask(start, end));
+            } else {
+                update(start, end);
+            }
+        }
+        Arrays.fill(dirty, 0, size, false);
+        anyDirty = false;
+    }
+
+    void setLocal(int index, Model model) {
+        computeLocal(model.getScale(), model.getRotation(), model.getPosition(), locals, index << 4);
+        dirty[index] = true;
+        anyDirty = true;
+    }
+
+    void invalidateOrder(int index) {
+        orderValid = false;
+        dirty[index] = true;
+        anyDirty = true;
+    }
+
+    boolean isDirty() {
+        return anyDirty || !orderValid;
+    }
+
+    int getVersion(int index) {
+        return versions[index];
+    }
+
+    Matrix4f getWorldMatrix(int index) {
+        final float[] w = worlds;
+        final int i = index << 4;
+        return new Matrix4f(
+                w[i], w[i + 1], w[i + 2], w[i + 3],
+                w[i + 4], w[i + 5], w[i + 6], w[i + 7],
+                w[i + 8], w[i + 9], w[i + 10], w[i + 11],
+                w[i + 12], w[i + 13], w[i + 14], w[i + 15]);
+    }
+
+    private void update(int start, int end) {
+        for (int i = start; i < end; i++) {
+            final int parent = parents[i];
+            // The model is dirty if its parent's world matrix changed, the parents were updated in a previous level
+            if (!dirty[i] && (parent < 0 || !dirty[parent])) {
+                continue;
+            }
+            dirty[i] = true;
+            if (parent < 0) {
+                System.arraycopy(locals, i << 4, worlds, i << 4, 16);
+            } else {
+                multiply(worlds, parent << 4, locals, i << 4, worlds, i << 4);
+            }
+            versions[i]++;
+        }
+    }
+
+    private void sortByLevel() {
+        // Compute the level of each model, the parent of a model isn't necessarily before it yet
+        final int[] modelLevels = new int[size];
+        int maxLevel = 0;
+        for (int i = 0; i < size; i++) {
+            int level = 0;
+            for (Model parent = models[i].getParent(); parent != null; parent = parent.getParent()) {
+                level++;
+            }
+            modelLevels[i] = level;
+            maxLevel = Math.max(maxLevel, level);
+        }
+        // Counting sort by level, which is stable
+        levelCount = maxLevel + 1;
+        levels = new int[levelCount + 1];
+        for (int i = 0; i < size; i++) {
+            levels[modelLevels[i] + 1]++;
+        }
+        for (int level = 0; level < levelCount; level++) {
+            levels[level + 1] += levels[level];
+        }
+        final int[] offsets = Arrays.copyOf(levels, levelCount);
+        final Model[] sortedModels = new Model[models.length];
+        final float[] sortedLocals = new float[locals.length];
+        final float[] sortedWorlds = new float[worlds.length];
+        final boolean[] sortedDirty = new boolean[dirty.length];
+        final int[] sortedVersions = new int[versions.length];
+        for (int i = 0; i < size; i++) {
+            final int destination = offsets[modelLevels[i]]++;
+            sortedModels[destination] = models[i];
+            System.arraycopy(locals, i << 4, sortedLocals, destination << 4, 16);
+            System.arraycopy(worlds, i << 4, sortedWorlds, destination << 4, 16);
+            sortedDirty[destination] = dirty[i];
+            sortedVersions[destination] = versions[i];
+            models[i].setTransformIndex(destination);
+        }
+        models = sortedModels;
+        locals = sortedLocals;
+        worlds = sortedWorlds;
+        dirty = sortedDirty;
+        versions = sortedVersions;
+        // Resolve the parent indices now that the models are in place
+        for (int i = 0; i < size; i++) {
+            final Model parent = models[i].getParent();
+            parents[i] = parent != null ? parent.getTransformIndex() : -1;
+        }
+        orderValid = true;
+    }
+
+    private void move(int from, int to) {
+        final Model model = models[from];
+        models[to] = model;
+        System.arraycopy(locals, from << 4, locals, to << 4, 16);
+        System.arraycopy(worlds, from << 4, worlds, to << 4, 16);
+        dirty[to] = dirty[from];
+        versions[to] = versions[from];
+        model.setTransformIndex(to);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (models.length < capacity) {
+            final int length = Math.max(capacity, Math.max(16, models.length * 3 / 2));
+            models = Arrays.copyOf(models, length);
+            parents = Arrays.copyOf(parents, length);
+            locals = Arrays.copyOf(locals, length << 4);
+            worlds = Arrays.copyOf(worlds, length << 4);
+            dirty = Arrays.copyOf(dirty, length);
+            versions = Arrays.copyOf(versions, length);
+        }
+    }
+
+    private static void computeLocal(Vector3f scale, Quaternionf rotation, Vector3f position, float[] m, int i) {
+        // Translation * rotation * scaling, with the rotation from the normalized quaternion
+        final float length = rotation.length();
+        final float x = rotation.getX() / length, y = rotation.getY() / length, z = rotation.getZ() / length, w = rotation.getW() / length;
+        final float sx = scale.getX(), sy = scale.getY(), sz = scale.getZ();
+        m[i] = (1 - 2 * y * y - 2 * z * z) * sx;
+        m[i + 1] = (2 * x * y - 2 * w * z) * sy;
+        m[i + 2] = (2 * x * z + 2 * w * y) * sz;
+        m[i + 3] = position.getX();
+        m[i + 4] = (2 * x * y + 2 * w * z) * sx;
+        m[i + 5] = (1 - 2 * x * x - 2 * z * z) * sy;
+        m[i + 6] = (2 * y * z - 2 * w * x) * sz;
+        m[i + 7] = position.getY();
+        m[i + 8] = (2 * x * z - 2 * w * y) * sx;
+        m[i + 9] = (2 * y * z + 2 * x * w) * sy;
+        m[i + 10] = (1 - 2 * x * x - 2 * y * y) * sz;
+        m[i + 11] = position.getZ();
+        m[i + 12] = 0;
+        m[i + 13] = 0;
+        m[i + 14] = 0;
+        m[i + 15] = 1;
+    }
+
+    private static void multiply(float[] a, int ai, float[] b, int bi, float[] d, int di) {
+        // d = a * b, for row major 4x4 matrices
+        for (int row = 0; row < 4; row++) {
+            final int r = ai + (row << 2);
+            final float a0 = a[r], a1 = a[r + 1], a2 = a[r + 2], a3 = a[r + 3];
+            final int o = di + (row << 2);
+            d[o] = a0 * b[bi] + a1 * b[bi + 4] + a2 * b[bi + 8] + a3 * b[bi + 12];
+            d[o + 1] = a0 * b[bi + 1] + a1 * b[bi + 5] + a2 * b[bi + 9] + a3 * b[bi + 13];
+            d[o + 2] = a0 * b[bi + 2] + a1 * b[bi + 6] + a2 * b[bi + 10] + a3 * b[bi + 14];
+            d[o + 3] = a0 * b[bi + 3] + a1 * b[bi + 7] + a2 * b[bi + 11] + a3 * b[bi + 15];
+        }
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+
+    private class UpdateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1;
+        private final int start, end;
+
+        private UpdateTask(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= TASK_SIZE) {
+                update(start, end);
+                return;
+            }
+            final int middle = start + end >>> 1;
+            invokeAll(new UpdateTask(start, middle), new UpdateTask(middle, end));
+        }
+    }
+}
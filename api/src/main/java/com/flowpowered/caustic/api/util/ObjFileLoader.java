@@ -23,8 +23,16 @@
  */
 package com.flowpowered.caustic.api.util;
 
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import gnu.trove.list.TFloatList;
 import gnu.trove.list.TIntList;
@@ -36,17 +44,32 @@ import com.flowpowered.math.vector.Vector3i;
 /**
  * A static loading class for standard .obj model files. This class will load positions, normals can texture coordinates. Missing normals are not calculated. Normals are expected to be of unit length.
  * Models should be triangulated.
+ * <p/>
+ * The file is read in chunks of bytes and the numbers are parsed directly from them, without creating strings. Files can also be split in line aligned chunks which are parsed in parallel, then
+ * merged in order.
  */
 public final class ObjFileLoader {
     private ObjFileLoader() {
     }
 
-    private static final String COMPONENT_SEPARATOR = " ";
-    private static final String INDEX_SEPARATOR = "/";
-    private static final String POSITION_LIST_PREFIX = "v";
-    private static final String TEXTURE_LIST_PREFIX = "vt";
-    private static final String NORMAL_LIST_PREFIX = "vn";
-    private static final String INDEX_LIST_PREFIX = "f";
+    private static final byte COMPONENT_SEPARATOR = ' ';
+    private static final byte INDEX_SEPARATOR = '/';
+    private static final byte POSITION_LIST_PREFIX = 'v';
+    private static final byte TEXTURE_LIST_PREFIX = 't';
+    private static final byte NORMAL_LIST_PREFIX = 'n';
+    private static final byte INDEX_LIST_PREFIX = 'f';
+    private static final byte LINE_SEPARATOR = '\n';
+    private static final int BUFFER_SIZE = 1 << 16;
+    // Files smaller than this aren't split when parsing in parallel
+    private static final int MIN_PARALLEL_CHUNK_SIZE = 1 << 20;
+    // Powers of ten which are exactly representable as doubles
+    // All of these are exact as floats, so a single multiplication or division by one of them is correctly rounded
+    private static final float[] POWERS_OF_TEN = {
+            1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+    // Mantissas up to this value are exact as floats
+    private static final long MAX_FAST_MANTISSA = 1 << 24;
+    private static ForkJoinPool pool;
 
     /**
      * Loads a .obj file, storing the data in the provided lists. After loading, the input stream will be closed. The number of components for each attribute is returned in a Vector3, x being the
@@ -62,92 +85,466 @@ public final class ObjFileLoader {
      * @throws MalformedObjFileException If any errors occur during loading
      */
     public static Vector3i load(InputStream stream, TFloatList positions, TFloatList normals, TFloatList textureCoords, TIntList indices) {
-        int positionSize = -1;
-        final TFloatList rawTextureCoords = new TFloatArrayList();
-        int textureCoordSize = -1;
-        final TFloatList rawNormalComponents = new TFloatArrayList();
-        int normalSize = -1;
-        final TIntList textureCoordIndices = new TIntArrayList();
-        final TIntList normalIndices = new TIntArrayList();
-        String line = null;
-        try (Scanner scanner = new Scanner(stream)) {
-            while (scanner.hasNextLine()) {
-                line = scanner.nextLine();
-                if (line.startsWith(POSITION_LIST_PREFIX + COMPONENT_SEPARATOR)) {
-                    parseComponents(positions, line);
-                    if (positionSize == -1) {
-                        positionSize = positions.size();
-                    }
-                } else if (textureCoords != null && line.startsWith(TEXTURE_LIST_PREFIX + COMPONENT_SEPARATOR)) {
-                    parseComponents(rawTextureCoords, line);
-                    if (textureCoordSize == -1) {
-                        textureCoordSize = rawTextureCoords.size();
-                    }
-                } else if (normals != null && line.startsWith(NORMAL_LIST_PREFIX + COMPONENT_SEPARATOR)) {
-                    parseComponents(rawNormalComponents, line);
-                    if (normalSize == -1) {
-                        normalSize = rawNormalComponents.size();
-                    }
-                } else if (line.startsWith(INDEX_LIST_PREFIX + COMPONENT_SEPARATOR)) {
-                    parseIndices(indices, textureCoordIndices, normalIndices, line);
+        final ObjData data = new ObjData(positions, indices, textureCoords != null, normals != null);
+        try (InputStream input = stream) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int length = 0;
+            int read;
+            while ((read = input.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+                final int parsed = data.parseLines(buffer, length, false);
+                length -= parsed;
+                if (length == buffer.length) {
+                    // The line doesn't fit in the buffer
+                    final byte[] newBuffer = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, newBuffer, 0, length);
+                    buffer = newBuffer;
+                } else {
+                    System.arraycopy(buffer, parsed, buffer, 0, length);
                 }
             }
-            line = null;
-            final boolean hasTextureCoords;
-            final boolean hasNormals;
-            if (!textureCoordIndices.isEmpty() && !rawTextureCoords.isEmpty()) {
-                textureCoords.fill(0, positions.size() / positionSize * textureCoordSize, 0);
-                hasTextureCoords = true;
+            data.parseLines(buffer, length, true);
+        } catch (MalformedObjFileException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new MalformedObjFileException(null, ex);
+        }
+        return data.assemble(normals, textureCoords);
+    }
+
+    /**
+     * Loads a .obj file from the file system, storing the data in the provided lists. This is the same as {@link #load(java.nio.file.Path, gnu.trove.list.TFloatList, gnu.trove.list.TFloatList,
+     * gnu.trove.list.TFloatList, gnu.trove.list.TIntList, boolean)}, without parallel parsing.
+     *
+     * @param path The path of the .obj file
+     * @param positions The list in which to store the positions
+     * @param normals The list in which to store the normals or null to ignore them
+     * @param textureCoords The list in which to store the texture coords
+     * @param indices The list in which to store the indices or null to ignore them
+     * @return A Vector3 containing, in order, the number of components for the positions, normals and texture coords
+     * @throws MalformedObjFileException If any errors occur during loading
+     */
+    public static Vector3i load(Path path, TFloatList positions, TFloatList normals, TFloatList textureCoords, TIntList indices) {
+        return load(path, positions, normals, textureCoords, indices, false);
+    }
+
+    /**
+     * Loads a .obj file from the file system, storing the data in the provided lists. The file is read in chunks through a {@link java.nio.channels.FileChannel}. When parallel parsing is enabled,
+     * the file is split in line aligned chunks which are parsed concurrently and merged in order, so the result is the same. The returned value and the lists are as described in {@link
+     * #load(java.io.InputStream, gnu.trove.list.TFloatList, gnu.trove.list.TFloatList, gnu.trove.list.TFloatList, gnu.trove.list.TIntList)}.
+     *
+     * @param path The path of the .obj file
+     * @param positions The list in which to store the positions
+     * @param normals The list in which to store the normals or null to ignore them
+     * @param textureCoords The list in which to store the texture coords
+     * @param indices The list in which to store the indices or null to ignore them
+     * @param parallel Whether or not to parse the chunks of the file in parallel
+     * @return A Vector3 containing, in order, the number of components for the positions, normals and texture coords
+     * @throws MalformedObjFileException If any errors occur during loading
+     */
+    public static Vector3i load(Path path, TFloatList positions, TFloatList normals, TFloatList textureCoords, TIntList indices, boolean parallel) {
+        final long size;
+        try {
+            size = Files.size(path);
+        } catch (IOException ex) {
+            throw new MalformedObjFileException(null, ex);
+        }
+        final int chunkCount = parallel ? (int) Math.min(Runtime.getRuntime().availableProcessors(), size / MIN_PARALLEL_CHUNK_SIZE) : 1;
+        return load(path, positions, normals, textureCoords, indices, chunkCount);
+    }
+
+    // Splits the file in the given number of chunks, regardless of the file size, so the chunking can be tested on small files
+    static Vector3i load(Path path, TFloatList positions, TFloatList normals, TFloatList textureCoords, TIntList indices, int chunkCount) {
+        final boolean loadTextureCoords = textureCoords != null;
+        final boolean loadNormals = normals != null;
+        final ObjData data;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (chunkCount <= 1) {
+                data = new ObjData(positions, indices, loadTextureCoords, loadNormals);
+                parseChunk(data, channel, 0, size);
             } else {
-                hasTextureCoords = false;
+                // Split the file at line boundaries, each chunk parsing into its own lists
+                final ChunkTask[] tasks = new ChunkTask[chunkCount];
+                long start = 0;
+                for (int i = 0; i < chunkCount; i++) {
+                    final long end = i == chunkCount - 1 ? size : findLineEnd(channel, Math.max(start, size * (i + 1) / chunkCount), size);
+                    tasks[i] = new ChunkTask(new ObjData(new TFloatArrayList(), new TIntArrayList(), loadTextureCoords, loadNormals), channel, start, end);
+                    start = end;
+                }
+                for (ChunkTask task : tasks) {
+                    getPool().execute(task);
+                }
+                for (ChunkTask task : tasks) {
+                    task.join();
+                    task.rethrow();
+                }
+                // Merge the chunks in order
+                data = new ObjData(positions, indices, loadTextureCoords, loadNormals);
+                for (ChunkTask task : tasks) {
+                    data.merge(task.data);
+                }
             }
-            if (!normalIndices.isEmpty() && !rawNormalComponents.isEmpty()) {
-                normals.fill(0, positions.size() / positionSize * normalSize, 0);
-                hasNormals = true;
+        } catch (MalformedObjFileException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new MalformedObjFileException(null, ex);
+        }
+        return data.assemble(normals, textureCoords);
+    }
+
+    private static void parseChunk(ObjData data, FileChannel channel, long start, long end) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(end - start, 1))];
+        int length = 0;
+        long position = start;
+        while (position < end) {
+            final ByteBuffer target = ByteBuffer.wrap(buffer, length, (int) Math.min(buffer.length - length, end - position));
+            final int read = channel.read(target, position);
+            if (read == -1) {
+                break;
+            }
+            position += read;
+            length += read;
+            final int parsed = data.parseLines(buffer, length, false);
+            length -= parsed;
+            if (length == buffer.length) {
+                // The line doesn't fit in the buffer
+                final byte[] newBuffer = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, newBuffer, 0, length);
+                buffer = newBuffer;
             } else {
-                hasNormals = false;
-            }
-            if (hasTextureCoords) {
-                for (int i = 0; i < textureCoordIndices.size(); i++) {
-                    final int textureCoordIndex = textureCoordIndices.get(i) * textureCoordSize;
-                    final int positionIndex = indices.get(i) * textureCoordSize;
-                    for (int ii = 0; ii < textureCoordSize; ii++) {
-                        textureCoords.set(positionIndex + ii, rawTextureCoords.get(textureCoordIndex + ii));
+                System.arraycopy(buffer, parsed, buffer, 0, length);
+            }
+        }
+        data.parseLines(buffer, length, true);
+    }
+
+    private static long findLineEnd(FileChannel channel, long position, long size) throws IOException {
+        // Returns the position after the first line separator at or after the given position
+        final ByteBuffer buffer = ByteBuffer.allocate(256);
+        while (position < size) {
+            buffer.clear();
+            final int read = channel.read(buffer, position);
+            if (read == -1) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == LINE_SEPARATOR) {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+
+    private static float parseFloat(byte[] bytes, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int exponent = 0;
+        boolean hasDigits = false;
+        boolean exact = true;
+        for (; i < end && isDigit(bytes[i]); i++) {
+            if (mantissa < MAX_FAST_MANTISSA) {
+                mantissa = mantissa * 10 + (bytes[i] - '0');
+            } else {
+                exact = false;
+            }
+            hasDigits = true;
+        }
+        if (i < end && bytes[i] == '.') {
+            for (i++; i < end && isDigit(bytes[i]); i++) {
+                if (mantissa < MAX_FAST_MANTISSA) {
+                    mantissa = mantissa * 10 + (bytes[i] - '0');
+                } else {
+                    exact = false;
+                }
+                exponent--;
+                hasDigits = true;
+            }
+        }
+        if (hasDigits && i < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            int explicitExponent = 0;
+            final int exponentStart = i;
+            for (; i < end && isDigit(bytes[i]) && explicitExponent < 1000; i++) {
+                explicitExponent = explicitExponent * 10 + (bytes[i] - '0');
+            }
+            if (i == exponentStart) {
+                hasDigits = false;
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        // The fast path is only correctly rounded when both the mantissa and the power of ten are exact as floats,
+        // so fall back to the slow path for anything else, or for anything that isn't a plain decimal number
+        if (!hasDigits || i != end || !exact || mantissa >= MAX_FAST_MANTISSA || exponent < -10 || exponent > 10) {
+            return Float.parseFloat(new String(bytes, start, end - start, StandardCharsets.US_ASCII));
+        }
+        float value = mantissa;
+        if (exponent < 0) {
+            value /= POWERS_OF_TEN[-exponent];
+        } else {
+            value *= POWERS_OF_TEN[exponent];
+        }
+        return negative ? -value : value;
+    }
+
+    private static int parseInt(byte[] bytes, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        if (i == end || end - i > 9) {
+            // Empty or possibly overflowing, let the slow path handle it
+            return Integer.parseInt(new String(bytes, start, end - start, StandardCharsets.US_ASCII));
+        }
+        int value = 0;
+        for (; i < end; i++) {
+            final byte digit = bytes[i];
+            if (!isDigit(digit)) {
+                throw new NumberFormatException("For input string: \"" + new String(bytes, start, end - start, StandardCharsets.US_ASCII) + "\"");
+            }
+            value = value * 10 + (digit - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == COMPONENT_SEPARATOR || b == '\t' || b == '\r';
+    }
+
+    private static class ObjData {
+        private final TFloatList positions;
+        private final TFloatList rawTextureCoords = new TFloatArrayList();
+        private final TFloatList rawNormalComponents = new TFloatArrayList();
+        private final TIntList indices;
+        private final TIntList textureCoordIndices = new TIntArrayList();
+        private final TIntList normalIndices = new TIntArrayList();
+        private final boolean loadTextureCoords;
+        private final boolean loadNormals;
+        private int positionSize = -1;
+        private int textureCoordSize = -1;
+        private int normalSize = -1;
+
+        private ObjData(TFloatList positions, TIntList indices, boolean loadTextureCoords, boolean loadNormals) {
+            this.positions = positions;
+            this.indices = indices;
+            this.loadTextureCoords = loadTextureCoords;
+            this.loadNormals = loadNormals;
+        }
+
+        private int parseLines(byte[] bytes, int length, boolean last) {
+            // Parses the complete lines in the bytes, or all of them if this is the last call, and returns the number of bytes consumed
+            int lineStart = 0;
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] == LINE_SEPARATOR) {
+                    parseLine(bytes, lineStart, i);
+                    lineStart = i + 1;
+                }
+            }
+            if (last && lineStart < length) {
+                parseLine(bytes, lineStart, length);
+                lineStart = length;
+            }
+            return lineStart;
+        }
+
+        private void parseLine(byte[] bytes, int start, int end) {
+            if (end - start < 2) {
+                return;
+            }
+            try {
+                final byte first = bytes[start];
+                final byte second = bytes[start + 1];
+                if (first == POSITION_LIST_PREFIX) {
+                    if (second == COMPONENT_SEPARATOR) {
+                        final int count = parseComponents(positions, bytes, start + 2, end);
+                        if (positionSize == -1) {
+                            positionSize = count;
+                        }
+                    } else if (end - start > 2 && bytes[start + 2] == COMPONENT_SEPARATOR) {
+                        if (loadTextureCoords && second == TEXTURE_LIST_PREFIX) {
+                            final int count = parseComponents(rawTextureCoords, bytes, start + 3, end);
+                            if (textureCoordSize == -1) {
+                                textureCoordSize = count;
+                            }
+                        } else if (loadNormals && second == NORMAL_LIST_PREFIX) {
+                            final int count = parseComponents(rawNormalComponents, bytes, start + 3, end);
+                            if (normalSize == -1) {
+                                normalSize = count;
+                            }
+                        }
                     }
+                } else if (first == INDEX_LIST_PREFIX && second == COMPONENT_SEPARATOR) {
+                    parseIndices(bytes, start + 2, end);
                 }
+            } catch (Exception ex) {
+                throw new MalformedObjFileException(new String(bytes, start, end - start, StandardCharsets.UTF_8).trim(), ex);
             }
-            if (hasNormals) {
-                for (int i = 0; i < normalIndices.size(); i++) {
-                    final int normalIndex = normalIndices.get(i) * normalSize;
-                    final int positionIndex = indices.get(i) * normalSize;
-                    for (int ii = 0; ii < normalSize; ii++) {
-                        normals.set(positionIndex + ii, rawNormalComponents.get(normalIndex + ii));
+        }
+
+        private int parseComponents(TFloatList destination, byte[] bytes, int start, int end) {
+            int count = 0;
+            int i = start;
+            while (true) {
+                while (i < end && isWhitespace(bytes[i])) {
+                    i++;
+                }
+                if (i == end) {
+                    return count;
+                }
+                final int componentStart = i;
+                while (i < end && !isWhitespace(bytes[i])) {
+                    i++;
+                }
+                destination.add(parseFloat(bytes, componentStart, i));
+                count++;
+            }
+        }
+
+        private void parseIndices(byte[] bytes, int start, int end) {
+            int i = start;
+            while (true) {
+                while (i < end && isWhitespace(bytes[i])) {
+                    i++;
+                }
+                if (i == end) {
+                    return;
+                }
+                // Parses a group of the form "position[/[textureCoord][/normal]]"
+                int indexStart = i;
+                while (i < end && bytes[i] != INDEX_SEPARATOR && !isWhitespace(bytes[i])) {
+                    i++;
+                }
+                indices.add(parseInt(bytes, indexStart, i) - 1);
+                if (i < end && bytes[i] == INDEX_SEPARATOR) {
+                    indexStart = ++i;
+                    while (i < end && bytes[i] != INDEX_SEPARATOR && !isWhitespace(bytes[i])) {
+                        i++;
+                    }
+                    if (i > indexStart) {
+                        textureCoordIndices.add(parseInt(bytes, indexStart, i) - 1);
+                    }
+                    if (i < end && bytes[i] == INDEX_SEPARATOR) {
+                        indexStart = ++i;
+                        while (i < end && !isWhitespace(bytes[i])) {
+                            i++;
+                        }
+                        normalIndices.add(parseInt(bytes, indexStart, i) - 1);
                     }
                 }
             }
-        } catch (Exception ex) {
-            throw new MalformedObjFileException(line, ex);
         }
-        return new Vector3i(positionSize, normalSize, textureCoordSize).max(0, 0, 0);
-    }
 
-    private static void parseComponents(TFloatList destination, String line) {
-        final String[] components = line.split(COMPONENT_SEPARATOR);
-        for (int i = 1; i < components.length; i++) {
-            destination.add(Float.parseFloat(components[i]));
+        private void merge(ObjData data) {
+            positions.addAll(data.positions);
+            rawTextureCoords.addAll(data.rawTextureCoords);
+            rawNormalComponents.addAll(data.rawNormalComponents);
+            indices.addAll(data.indices);
+            textureCoordIndices.addAll(data.textureCoordIndices);
+            normalIndices.addAll(data.normalIndices);
+            // The sizes are those of the first line of each attribute in the file
+            if (positionSize == -1) {
+                positionSize = data.positionSize;
+            }
+            if (textureCoordSize == -1) {
+                textureCoordSize = data.textureCoordSize;
+            }
+            if (normalSize == -1) {
+                normalSize = data.normalSize;
+            }
+        }
+
+        private Vector3i assemble(TFloatList normals, TFloatList textureCoords) {
+            try {
+                final boolean hasTextureCoords;
+                final boolean hasNormals;
+                if (!textureCoordIndices.isEmpty() && !rawTextureCoords.isEmpty()) {
+                    textureCoords.fill(0, positions.size() / positionSize * textureCoordSize, 0);
+                    hasTextureCoords = true;
+                } else {
+                    hasTextureCoords = false;
+                }
+                if (!normalIndices.isEmpty() && !rawNormalComponents.isEmpty()) {
+                    normals.fill(0, positions.size() / positionSize * normalSize, 0);
+                    hasNormals = true;
+                } else {
+                    hasNormals = false;
+                }
+                if (hasTextureCoords) {
+                    for (int i = 0; i < textureCoordIndices.size(); i++) {
+                        final int textureCoordIndex = textureCoordIndices.get(i) * textureCoordSize;
+                        final int positionIndex = indices.get(i) * textureCoordSize;
+                        for (int ii = 0; ii < textureCoordSize; ii++) {
+                            textureCoords.set(positionIndex + ii, rawTextureCoords.get(textureCoordIndex + ii));
+                        }
+                    }
+                }
+                if (hasNormals) {
+                    for (int i = 0; i < normalIndices.size(); i++) {
+                        final int normalIndex = normalIndices.get(i) * normalSize;
+                        final int positionIndex = indices.get(i) * normalSize;
+                        for (int ii = 0; ii < normalSize; ii++) {
+                            normals.set(positionIndex + ii, rawNormalComponents.get(normalIndex + ii));
+                        }
+                    }
+                }
+            } catch (Exception ex) {
+                throw new MalformedObjFileException(null, ex);
+            }
+            return new Vector3i(positionSize, normalSize, textureCoordSize).max(0, 0, 0);
         }
     }
 
-    private static void parseIndices(TIntList positions, TIntList textureCoords, TIntList normals, String line) {
-        final String[] indicesGroup = line.split(COMPONENT_SEPARATOR);
-        for (int i = 1; i < indicesGroup.length; i++) {
-            final String[] indices = indicesGroup[i].split(INDEX_SEPARATOR);
-            positions.add(Integer.parseInt(indices[0]) - 1);
-            if (indices.length > 1 && !indices[1].isEmpty()) {
-                textureCoords.add(Integer.parseInt(indices[1]) - 1);
+    private static class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1;
+        private final transient ObjData data;
+        private final transient FileChannel channel;
+        private final long start, end;
+        private transient IOException exception;
+
+        private ChunkTask(ObjData data, FileChannel channel, long start, long end) {
+            this.data = data;
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                parseChunk(data, channel, start, end);
+            } catch (IOException ex) {
+                exception = ex;
             }
-            if (indices.length > 2) {
-                normals.add(Integer.parseInt(indices[2]) - 1);
+        }
+
+        private void rethrow() throws IOException {
+            if (exception != null) {
+                throw exception;
             }
         }
     }
@@ -0,0 +1,109 @@
+/*
+ * This file is part of Caustic API, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.api.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Random;
+
+import gnu.trove.list.array.TFloatArrayList;
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * Measures the throughput of the {@link ObjFileLoader} on a generated file, from a stream, from a file channel and from a file channel in parallel. Run the main
+ * method, optionally with the size of the file in megabytes, the results are printed in megabytes per second.
+ */
+public class ObjFileLoaderBenchmark {
+    private static final int DEFAULT_SIZE = 64;
+    private static final int WARMUP_RUNS = 2, RUNS = 5;
+
+    public static void main(String[] args) throws IOException {
+        final int size = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SIZE;
+        final Path path = Files.createTempFile("caustic", ".obj");
+        try {
+            generate(path, size * 1024L * 1024);
+            final double megabytes = Files.size(path) / (1024d * 1024);
+            System.out.println("Stream: " + megabytes / benchmark(path, 0) + " MB/s");
+            System.out.println("Channel: " + megabytes / benchmark(path, 1) + " MB/s");
+            System.out.println("Channel (parallel): " + megabytes / benchmark(path, 2) + " MB/s");
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    private static double benchmark(Path path, int mode) throws IOException {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            load(path, mode);
+        }
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            final long start = System.nanoTime();
+            load(path, mode);
+            best = Math.min(best, (System.nanoTime() - start) / 1e9);
+        }
+        return best;
+    }
+
+    private static void load(Path path, int mode) throws IOException {
+        final TFloatArrayList positions = new TFloatArrayList();
+        final TFloatArrayList normals = new TFloatArrayList();
+        final TFloatArrayList textureCoords = new TFloatArrayList();
+        final TIntArrayList indices = new TIntArrayList();
+        if (mode == 0) {
+            try (InputStream stream = Files.newInputStream(path)) {
+                ObjFileLoader.load(stream, positions, normals, textureCoords, indices);
+            }
+        } else {
+            ObjFileLoader.load(path, positions, normals, textureCoords, indices, mode == 2);
+        }
+    }
+
+    private static void generate(Path path, long size) throws IOException {
+        // Writes a triangle soup with positions, texture coords and normals, like an exported scan
+        final Random random = new Random(0);
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.US_ASCII)) {
+            long written = 0;
+            int vertex = 1;
+            while (written < size) {
+                final StringBuilder builder = new StringBuilder();
+                for (int i = 0; i < 3; i++) {
+                    builder.append(String.format(Locale.ROOT, "v %.6f %.6f %.6f\n", random.nextFloat() * 200 - 100, random.nextFloat() * 200 - 100, random.nextFloat() * 200 - 100));
+                    builder.append(String.format(Locale.ROOT, "vt %.6f %.6f\n", random.nextFloat(), random.nextFloat()));
+                    builder.append(String.format(Locale.ROOT, "vn %.6f %.6f %.6f\n", random.nextFloat() * 2 - 1, random.nextFloat() * 2 - 1, random.nextFloat() * 2 - 1));
+                }
+                builder.append("f ").append(vertex).append('/').append(vertex).append('/').append(vertex).append(' ')
+                        .append(vertex + 1).append('/').append(vertex + 1).append('/').append(vertex + 1).append(' ')
+                        .append(vertex + 2).append('/').append(vertex + 2).append('/').append(vertex + 2).append('\n');
+                vertex += 3;
+                writer.write(builder.toString());
+                written += builder.length();
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * This file is part of Caustic API, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.api.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import gnu.trove.list.TFloatList;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TFloatArrayList;
+import gnu.trove.list.array.TIntArrayList;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.flowpowered.math.vector.Vector3i;
+
+public class ObjFileLoaderTest {
+    private static final int FLOAT_COUNT = 30000;
+    private static final int[] CHUNK_COUNTS = {2, 3, 7, 16, 64};
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testParseFloat() {
+        final Random random = new Random(12345);
+        final List<String> decimals = new ArrayList<>();
+        decimals.add("3.96137797832489");
+        decimals.add("0.00795131130144");
+        decimals.add("-0");
+        decimals.add("16777216");
+        decimals.add("16777217");
+        decimals.add("1e10");
+        decimals.add("1e-10");
+        decimals.add("1.5E+3");
+        decimals.add("123.");
+        decimals.add(".5");
+        for (int i = 0; i < FLOAT_COUNT; i++) {
+            // Short decimals, which take the fast path
+            final StringBuilder decimal = new StringBuilder();
+            if (random.nextBoolean()) {
+                decimal.append('-');
+            }
+            decimal.append(new BigDecimal(random.nextInt(1 << 25)).movePointLeft(random.nextInt(11)).toPlainString());
+            if (random.nextInt(4) == 0) {
+                decimal.append('e').append(random.nextInt(21) - 10);
+            }
+            decimals.add(decimal.toString());
+            // Long decimals, as commonly exported
+            decimals.add(Double.toString(random.nextGaussian() * Math.pow(10, random.nextInt(9) - 4)));
+            // Decimals on, or just around, the midpoint between two adjacent floats
+            final float value = Float.intBitsToFloat(random.nextInt(0x7F000000));
+            final BigDecimal midpoint = new BigDecimal(value).add(new BigDecimal(Math.nextUp(value))).divide(BigDecimal.valueOf(2));
+            decimals.add(midpoint.toString());
+            final int digits = 9 + random.nextInt(9);
+            decimals.add(midpoint.round(new MathContext(digits, RoundingMode.FLOOR)).toString());
+            decimals.add(midpoint.round(new MathContext(digits, RoundingMode.CEILING)).toString());
+        }
+        final StringBuilder obj = new StringBuilder();
+        for (String decimal : decimals) {
+            obj.append("v ").append(decimal).append(' ').append(decimal).append(' ').append(decimal).append('\n');
+        }
+        final TFloatList positions = new TFloatArrayList();
+        ObjFileLoader.load(new ByteArrayInputStream(obj.toString().getBytes(StandardCharsets.US_ASCII)), positions, null, null, new TIntArrayList());
+        Assert.assertEquals(decimals.size() * 3, positions.size());
+        for (int i = 0; i < decimals.size(); i++) {
+            final String decimal = decimals.get(i);
+            Assert.assertEquals(decimal, Float.floatToIntBits(Float.parseFloat(decimal)), Float.floatToIntBits(positions.get(i * 3)));
+        }
+    }
+
+    @Test
+    public void testParallelParsing() throws IOException {
+        final Random random = new Random(54321);
+        final StringBuilder obj = new StringBuilder();
+        obj.append("# Lines of varying lengths, so the chunk boundaries fall mid-line\n");
+        final int vertexCount = 2000;
+        for (int i = 0; i < vertexCount; i++) {
+            obj.append("v ").append(random.nextFloat() * 100).append(' ').append(-random.nextFloat()).append(' ').append(random.nextInt(1000)).append('\n');
+            obj.append("vt ").append(random.nextFloat()).append(' ').append(random.nextFloat()).append('\n');
+            obj.append("vn ").append(random.nextGaussian()).append(' ').append(random.nextGaussian()).append(' ').append(random.nextGaussian()).append('\n');
+        }
+        for (int i = 0; i < vertexCount / 3; i++) {
+            obj.append('f');
+            for (int ii = 0; ii < 3; ii++) {
+                final int index = i * 3 + ii + 1;
+                obj.append(' ').append(index).append('/').append(index).append('/').append(index);
+            }
+            obj.append('\n');
+        }
+        final byte[] bytes = obj.toString().getBytes(StandardCharsets.US_ASCII);
+        final Path path = folder.newFile("test.obj").toPath();
+        Files.write(path, bytes);
+        final TFloatList positions = new TFloatArrayList();
+        final TFloatList normals = new TFloatArrayList();
+        final TFloatList textureCoords = new TFloatArrayList();
+        final TIntList indices = new TIntArrayList();
+        final Vector3i sizes = ObjFileLoader.load(path, positions, normals, textureCoords, indices, false);
+        Assert.assertEquals(new Vector3i(3, 3, 2), sizes);
+        Assert.assertEquals(vertexCount * 3, positions.size());
+        for (int chunkCount : CHUNK_COUNTS) {
+            boolean midLine = false;
+            for (int i = 1; i < chunkCount; i++) {
+                midLine |= bytes[(int) ((long) bytes.length * i / chunkCount) - 1] != '\n';
+            }
+            Assert.assertTrue(midLine);
+            final TFloatList chunkedPositions = new TFloatArrayList();
+            final TFloatList chunkedNormals = new TFloatArrayList();
+            final TFloatList chunkedTextureCoords = new TFloatArrayList();
+            final TIntList chunkedIndices = new TIntArrayList();
+            final Vector3i chunkedSizes = ObjFileLoader.load(path, chunkedPositions, chunkedNormals, chunkedTextureCoords, chunkedIndices, chunkCount);
+            Assert.assertEquals(sizes, chunkedSizes);
+            Assert.assertEquals(positions, chunkedPositions);
+            Assert.assertEquals(normals, chunkedNormals);
+            Assert.assertEquals(textureCoords, chunkedTextureCoords);
+            Assert.assertEquals(indices, chunkedIndices);
+        }
+    }
+}
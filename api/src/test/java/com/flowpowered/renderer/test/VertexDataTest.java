@@ -23,11 +23,16 @@
  */
 package com.flowpowered.caustic.test;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
 import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TByteArrayList;
+import gnu.trove.list.array.TFloatArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TShortArrayList;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -36,6 +41,7 @@ import com.flowpowered.caustic.api.data.VertexAttribute;
 import com.flowpowered.caustic.api.data.VertexAttribute.DataType;
 import com.flowpowered.caustic.api.data.VertexAttribute.UploadMode;
 import com.flowpowered.caustic.api.data.VertexData;
+import com.flowpowered.caustic.api.util.CausticUtil;
 
 public class VertexDataTest {
     @Test
@@ -193,4 +199,122 @@ public class VertexDataTest {
         count = vertexData.getAttributeCount();
         Assert.assertEquals(0, count);
     }
+
+    @Test
+    public void testInterleaved() {
+        VertexData vertexData = new VertexData();
+        vertexData.setInterleaved(true);
+        Assert.assertTrue(vertexData.isInterleaved());
+        // Attributes with gaps in the indices, unequal vertex counts and sizes which aren't multiples of four bytes
+        VertexAttribute floatAttribute = new VertexAttribute("float", DataType.FLOAT, 3);
+        floatAttribute.setData(new TFloatArrayList(new float[]{1, 2, 3, 4, 5, 6, 7, 8, 9}));
+        vertexData.addAttribute(0, floatAttribute);
+        VertexAttribute byteAttribute = new VertexAttribute("byte", DataType.UNSIGNED_BYTE, 3);
+        byteAttribute.setData(new TByteArrayList(new byte[]{10, 11, 12, 13, 14, 15}));
+        vertexData.addAttribute(2, byteAttribute);
+        VertexAttribute shortAttribute = new VertexAttribute("short", DataType.SHORT, 1);
+        short[] shorts = {-1, 300, 301};
+        shortAttribute.setData(new TShortArrayList(shorts));
+        vertexData.addAttribute(5, shortAttribute);
+        // Vertex count
+        Assert.assertEquals(3, vertexData.getVertexCount());
+        // Stride, each attribute is padded to four bytes
+        int stride = vertexData.getStride();
+        Assert.assertEquals(12 + 4 + 4, stride);
+        // Attribute offsets, by increasing index
+        Assert.assertEquals(0, vertexData.getAttributeOffset(0));
+        Assert.assertEquals(-1, vertexData.getAttributeOffset(1));
+        Assert.assertEquals(12, vertexData.getAttributeOffset(2));
+        Assert.assertEquals(16, vertexData.getAttributeOffset(5));
+        // Interleaved buffer
+        ByteBuffer buffer = vertexData.getInterleavedBuffer();
+        Assert.assertEquals(0, buffer.position());
+        Assert.assertEquals(stride * 3, buffer.limit());
+        for (int i = 0; i < 3; i++) {
+            final int vertex = i * stride;
+            Assert.assertEquals(i * 3 + 1, buffer.getFloat(vertex), 0);
+            Assert.assertEquals(i * 3 + 2, buffer.getFloat(vertex + 4), 0);
+            Assert.assertEquals(i * 3 + 3, buffer.getFloat(vertex + 8), 0);
+            // The last vertex has no byte data, which is left as zeros, like the padding
+            for (int ii = 0; ii < 3; ii++) {
+                Assert.assertEquals(i < 2 ? 10 + i * 3 + ii : 0, buffer.get(vertex + 12 + ii));
+            }
+            Assert.assertEquals(0, buffer.get(vertex + 15));
+            Assert.assertEquals(shorts[i], buffer.getShort(vertex + 16));
+            Assert.assertEquals(0, buffer.getShort(vertex + 18));
+        }
+        // The layout is the same when not interleaved
+        vertexData.setInterleaved(false);
+        Assert.assertEquals(stride, vertexData.getStride());
+        Assert.assertEquals(buffer, vertexData.getInterleavedBuffer());
+    }
+
+    @Test
+    public void testIndicesType() {
+        VertexData vertexData = new VertexData();
+        // No indices
+        Assert.assertEquals(-1, vertexData.getMaxIndex());
+        Assert.assertEquals(DataType.UNSIGNED_BYTE, vertexData.getIndicesType());
+        Assert.assertEquals(0, vertexData.getIndicesBuffer(DataType.UNSIGNED_BYTE).remaining());
+        // Type thresholds
+        TIntList indices = vertexData.getIndices();
+        indices.add(new int[]{0, 255, 7});
+        Assert.assertEquals(255, vertexData.getMaxIndex());
+        Assert.assertEquals(DataType.UNSIGNED_BYTE, vertexData.getIndicesType());
+        indices.set(1, 256);
+        Assert.assertEquals(DataType.UNSIGNED_SHORT, vertexData.getIndicesType());
+        indices.set(1, 65535);
+        Assert.assertEquals(DataType.UNSIGNED_SHORT, vertexData.getIndicesType());
+        indices.set(1, 65536);
+        Assert.assertEquals(DataType.UNSIGNED_INT, vertexData.getIndicesType());
+        // Narrowed buffers
+        indices.set(1, 255);
+        ByteBuffer buffer = vertexData.getIndicesBuffer(DataType.UNSIGNED_BYTE);
+        Assert.assertEquals(3, buffer.remaining());
+        Assert.assertEquals(255, buffer.get(1) & 0xFF);
+        indices.set(1, 65535);
+        buffer = vertexData.getIndicesBuffer(DataType.UNSIGNED_SHORT);
+        Assert.assertEquals(6, buffer.remaining());
+        Assert.assertEquals(65535, buffer.getShort(2) & 0xFFFF);
+        Assert.assertEquals(7, buffer.getShort(4));
+        buffer = vertexData.getIndicesBuffer();
+        Assert.assertEquals(12, buffer.remaining());
+        Assert.assertEquals(65535, buffer.getInt(4));
+    }
+
+    @Test
+    public void testAdoptedIndices() {
+        VertexData vertexData = new VertexData();
+        vertexData.getIndices().add(42);
+        // Only the data after the position is adopted
+        ByteBuffer adopted = CausticUtil.createByteBuffer(4 * 4);
+        adopted.putInt(99).putInt(1).putInt(300).putInt(2);
+        adopted.position(4);
+        vertexData.adoptIndicesBuffer(adopted);
+        Assert.assertEquals(3, vertexData.getIndicesCount());
+        Assert.assertEquals(300, vertexData.getMaxIndex());
+        Assert.assertEquals(DataType.UNSIGNED_SHORT, vertexData.getIndicesType());
+        // The int buffer is a read-only view of the adopted one
+        ByteBuffer buffer = vertexData.getIndicesBuffer();
+        Assert.assertTrue(buffer.isReadOnly());
+        Assert.assertEquals(12, buffer.remaining());
+        Assert.assertEquals(300, buffer.getInt(4));
+        buffer = vertexData.getIndicesBuffer(DataType.UNSIGNED_SHORT);
+        Assert.assertEquals(6, buffer.remaining());
+        Assert.assertEquals(300, buffer.getShort(2));
+        // Getting the list copies the adopted indices into it
+        TIntList indices = vertexData.getIndices();
+        Assert.assertEquals(new TIntArrayList(new int[]{1, 300, 2}), indices);
+        Assert.assertEquals(3, vertexData.getIndicesCount());
+        indices.add(70000);
+        Assert.assertEquals(DataType.UNSIGNED_INT, vertexData.getIndicesType());
+        Assert.assertFalse(vertexData.getIndicesBuffer().isReadOnly());
+        // Non direct buffers can't be adopted
+        try {
+            vertexData.adoptIndicesBuffer(ByteBuffer.allocate(4));
+            Assert.fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+    }
 }
@@ -0,0 +1,158 @@
+/*
+ * This file is part of Caustic LWJGL, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.lwjgl.gl20;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.opengl.ARBCopyBuffer;
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GLContext;
+
+/**
+ * A small ring of array buffers holding the same data, used for the attributes which are updated often. Updates are written in the current buffer, and once a draw might be using it, the ring moves
+ * to the next buffer instead, which the previous draws aren't using, so the updates don't wait for them. The next buffer only receives the ranges it's missing, copied on the GPU from the current
+ * buffer, so the data doesn't have to be kept on the CPU. This requires OpenGL 3.1 or the ARB_copy_buffer extension.
+ */
+public class BufferRing {
+    // Enough buffers for the draws of the frames the driver might queue
+    private static final int SIZE = 3;
+    private final int[] bufferIDs = new int[SIZE];
+    // Byte range written while each buffer was the current one, which the other buffers are missing
+    private final int[] writtenStarts = new int[SIZE];
+    private final int[] writtenEnds = new int[SIZE];
+    private final boolean coreCopyBuffer;
+    private int current = 0;
+    // Draw count of the vertex array when the current buffer was last written, the buffer might be used by a draw once it differs
+    private long drawCount;
+
+    /**
+     * Creates a new ring around the buffer, which becomes the current buffer. The other buffers are created with the same size, and receive the data of the first one on their first use. The buffer
+     * is assumed to be in use by a draw.
+     *
+     * @param bufferID The ID of the buffer holding the data
+     * @param size The size of the buffer, in bytes
+     * @param usage The usage hint of the buffer, as a GL constant
+     */
+    public BufferRing(int bufferID, int size, int usage) {
+        coreCopyBuffer = GLContext.getCapabilities().OpenGL31;
+        bufferIDs[0] = bufferID;
+        writtenEnds[0] = size;
+        for (int i = 1; i < SIZE; i++) {
+            bufferIDs[i] = GL15.glGenBuffers();
+            GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, bufferIDs[i]);
+            GL15.glBufferData(GL15.GL_ARRAY_BUFFER, size, usage);
+        }
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+        drawCount = -1;
+    }
+
+    /**
+     * Writes the data at the byte offset of the current buffer, first moving to the next buffer if the current one might be used by a draw.
+     *
+     * @param byteOffset The offset in the buffer at which to write the data, in bytes
+     * @param data The data to write
+     * @param drawCount The number of draws of the vertex array so far
+     * @return The ID of the current buffer after the update
+     */
+    public int update(int byteOffset, ByteBuffer data, long drawCount) {
+        if (drawCount != this.drawCount) {
+            rotate();
+            this.drawCount = drawCount;
+        }
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, bufferIDs[current]);
+        GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, byteOffset, data);
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+        // Record the written range, the other buffers will copy it when they become current
+        final int end = byteOffset + data.remaining();
+        if (writtenStarts[current] >= writtenEnds[current]) {
+            writtenStarts[current] = byteOffset;
+            writtenEnds[current] = end;
+        } else {
+            writtenStarts[current] = Math.min(writtenStarts[current], byteOffset);
+            writtenEnds[current] = Math.max(writtenEnds[current], end);
+        }
+        return bufferIDs[current];
+    }
+
+    private void rotate() {
+        final int next = (current + 1) % SIZE;
+        // The next buffer is missing what was written while the others were current, since it last was
+        int start = Integer.MAX_VALUE;
+        int end = 0;
+        for (int i = 0; i < SIZE; i++) {
+            if (i != next && writtenStarts[i] < writtenEnds[i]) {
+                start = Math.min(start, writtenStarts[i]);
+                end = Math.max(end, writtenEnds[i]);
+            }
+        }
+        if (start < end) {
+            // Copy the missing range from the current buffer, on the GPU
+            GL15.glBindBuffer(GL31.GL_COPY_READ_BUFFER, bufferIDs[current]);
+            GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, bufferIDs[next]);
+            if (coreCopyBuffer) {
+                GL31.glCopyBufferSubData(GL31.GL_COPY_READ_BUFFER, GL31.GL_COPY_WRITE_BUFFER, start, start, end - start);
+            } else {
+                ARBCopyBuffer.glCopyBufferSubData(GL31.GL_COPY_READ_BUFFER, GL31.GL_COPY_WRITE_BUFFER, start, start, end - start);
+            }
+            GL15.glBindBuffer(GL31.GL_COPY_READ_BUFFER, 0);
+            GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+        }
+        // Nothing has been written to the next buffer yet
+        writtenStarts[next] = 0;
+        writtenEnds[next] = 0;
+        current = next;
+    }
+
+    /**
+     * Returns the ID of the current buffer, which holds the up to date data.
+     *
+     * @return The ID of the current buffer
+     */
+    public int getBufferID() {
+        return bufferIDs[current];
+    }
+
+    /**
+     * Deletes all the buffers except for the current one, which is left to the caller.
+     */
+    public void destroy() {
+        for (int i = 0; i < SIZE; i++) {
+            if (i != current) {
+                GL15.glDeleteBuffers(bufferIDs[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the context supports buffer rings, which requires the buffers to be copyable on the GPU.
+     *
+     * @param capabilities The capabilities of the context
+     * @return Whether or not buffer rings are supported
+     */
+    public static boolean isSupported(ContextCapabilities capabilities) {
+        return capabilities.OpenGL31 || capabilities.GL_ARB_copy_buffer;
+    }
+}
@@ -34,11 +34,13 @@ import org.lwjgl.opengl.PixelFormat;
 
 import com.flowpowered.caustic.api.gl.Context;
 import com.flowpowered.caustic.api.gl.FrameBuffer;
+import com.flowpowered.caustic.api.gl.MeshPool;
 import com.flowpowered.caustic.api.gl.Program;
 import com.flowpowered.caustic.api.gl.RenderBuffer;
 import com.flowpowered.caustic.api.gl.Shader;
 import com.flowpowered.caustic.api.gl.Texture;
 import com.flowpowered.caustic.api.gl.Texture.InternalFormat;
+import com.flowpowered.caustic.api.gl.UniformBlock;
 import com.flowpowered.caustic.api.gl.VertexArray;
 import com.flowpowered.caustic.api.util.CausticUtil;
 import com.flowpowered.caustic.api.util.Rectangle;
@@ -119,6 +121,16 @@ public class GL20Context extends Context {
         return new GL20VertexArray();
     }
 
+    @Override
+    public UniformBlock newUniformBlock() {
+        return new GL20UniformBlock();
+    }
+
+    @Override
+    public MeshPool newMeshPool() {
+        return new GL20MeshPool();
+    }
+
     @Override
     public String getWindowTitle() {
         return Display.getTitle();
@@ -0,0 +1,87 @@
+/*
+ * This file is part of Caustic LWJGL, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.lwjgl.gl20;
+
+import java.util.List;
+
+import com.flowpowered.caustic.api.gl.MeshPool;
+import com.flowpowered.caustic.api.gl.VertexArray;
+
+/**
+ * An OpenGL 2.0 implementation of {@link MeshPool}. Drawing with a base vertex isn't supported, so the meshes are independent vertex arrays.
+ *
+ * @see MeshPool
+ */
+public class GL20MeshPool extends MeshPool {
+    @Override
+    public void create() {
+        checkNotCreated();
+        super.create();
+    }
+
+    @Override
+    public void destroy() {
+        checkCreated();
+        super.destroy();
+    }
+
+    @Override
+    public VertexArray newMesh() {
+        checkCreated();
+        return new GL20VertexArray();
+    }
+
+    @Override
+    public void compact() {
+        checkCreated();
+        // The meshes don't share any buffer
+    }
+
+    @Override
+    public void bind() {
+        checkCreated();
+        // Each mesh binds its own vertex array
+    }
+
+    @Override
+    public void unbind() {
+        checkCreated();
+    }
+
+    @Override
+    public void draw(List<? extends VertexArray> meshes) {
+        checkCreated();
+        if (meshes == null) {
+            throw new IllegalArgumentException("Meshes cannot be null");
+        }
+        for (VertexArray mesh : meshes) {
+            mesh.draw();
+        }
+    }
+
+    @Override
+    public GLVersion getGLVersion() {
+        return GLVersion.GL20;
+    }
+}
@@ -26,6 +26,7 @@ package com.flowpowered.caustic.lwjgl.gl20;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -34,15 +35,17 @@ import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import gnu.trove.impl.Constants;
 import gnu.trove.iterator.TObjectIntIterator;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.TObjectIntMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.map.hash.TObjectIntHashMap;
 
+import org.lwjgl.opengl.ContextCapabilities;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GLContext;
 
 import com.flowpowered.math.matrix.Matrix2f;
 import com.flowpowered.math.matrix.Matrix3f;
@@ -53,32 +56,31 @@ import com.flowpowered.math.vector.Vector4f;
 
 import com.flowpowered.caustic.api.gl.Program;
 import com.flowpowered.caustic.api.gl.Shader;
+import com.flowpowered.caustic.api.gl.UniformHandle;
 import com.flowpowered.caustic.api.util.CausticUtil;
 import com.flowpowered.caustic.lwjgl.LWJGLUtil;
 
 /**
- * An OpenGL 2.0 implementation of {@link Program}.
+ * An OpenGL 2.0 implementation of {@link Program}. The uniforms are resolved when linking. Each one keeps a copy of its last uploaded value, so that setting it to the same value does nothing, and the
+ * values are uploaded through a reused buffer, so setting uniforms doesn't allocate.
  *
  * @see Program
  */
 public class GL20Program extends Program {
-    // Represents an unset value for a uniform
-    private static final Object UNSET = new Object() {
-        @Override
-        public String toString() {
-            return "UNSET";
-        }
-    };
+    private static final int[] EMPTY_BINDINGS = {};
     // Set of all shaders in this program
     private final Set<Shader> shaders = new HashSet<>();
     // Map of the attribute names to their vao index (optional for GL30 as they can be defined in the shader instead)
     private final TObjectIntMap<String> attributeLayouts = new TObjectIntHashMap<>();
     // Map of the texture units to their names
     private final TIntObjectMap<String> textureLayouts = new TIntObjectHashMap<>();
-    // Map of the uniform names to their locations
-    private final TObjectIntMap<String> uniforms = new TObjectIntHashMap<>(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, -1);
-    // Map of the uniform names to their values
-    private final Map<String, Object> uniformValues = new HashMap<>();
+    // Map of the uniform names to their handles
+    private final Map<String, GL20UniformHandle> uniforms = new HashMap<>();
+    // Map of the uniform block names to their indices, and the binding point of each block, or -1 if it wasn't bound yet
+    private final TObjectIntMap<String> uniformBlocks = new TObjectIntHashMap<>();
+    private int[] uniformBlockBindings = EMPTY_BINDINGS;
+    // Buffer for uploading the uniform arrays and matrices
+    private FloatBuffer uniformBuffer = CausticUtil.createFloatBuffer(16);
 
     @Override
     public void create() {
@@ -100,8 +102,9 @@ public class GL20Program extends Program {
         shaders.clear();
         attributeLayouts.clear();
         textureLayouts.clear();
-        uniforms.clear();
-        uniformValues.clear();
+        clearUniforms();
+        uniformBlocks.clear();
+        uniformBlockBindings = EMPTY_BINDINGS;
         // Update the state
         super.destroy();
     }
@@ -163,32 +166,56 @@ public class GL20Program extends Program {
                 logger.log(Level.WARNING, "Program validation failed. This doesn''t mean it won''t work, so you maybe able to ignore it\n{0}", GL20.glGetProgramInfoLog(id, 1000));
             }
         }
-        // Load uniforms
-        uniforms.clear();
+        // Load uniforms, the handles from a previous link are invalidated, and the values are reset
+        clearUniforms();
+        clearUploadedUniforms();
         final int uniformCount = GL20.glGetProgrami(id, GL20.GL_ACTIVE_UNIFORMS);
         final int maxLength = GL20.glGetProgrami(id, GL20.GL_ACTIVE_UNIFORM_MAX_LENGTH);
         final IntBuffer lengthBuffer = CausticUtil.createIntBuffer(1);
-        final IntBuffer ignored1 = CausticUtil.createIntBuffer(1);
-        final IntBuffer ignored2 = CausticUtil.createIntBuffer(1);
+        final IntBuffer sizeBuffer = CausticUtil.createIntBuffer(1);
+        final IntBuffer typeBuffer = CausticUtil.createIntBuffer(1);
         final ByteBuffer nameBuffer = CausticUtil.createByteBuffer(maxLength);
         final byte[] nameBytes = new byte[maxLength];
         for (int i = 0; i < uniformCount; i++) {
             lengthBuffer.clear();
-            ignored1.clear();
-            ignored2.clear();
+            sizeBuffer.clear();
+            typeBuffer.clear();
             nameBuffer.clear();
-            GL20.glGetActiveUniform(id, i, lengthBuffer, ignored1, ignored2, nameBuffer);
+            GL20.glGetActiveUniform(id, i, lengthBuffer, sizeBuffer, typeBuffer, nameBuffer);
             final int length = lengthBuffer.get();
             nameBuffer.get(nameBytes, 0, length);
             // Simplify array names
             final String name = new String(nameBytes, 0, length).replaceFirst("\\[\\d+\\]", "");
-            uniforms.put(name, GL20.glGetUniformLocation(id, name));
-            uniformValues.put(name, UNSET);
+            final int location = GL20.glGetUniformLocation(id, name);
+            // Uniforms in blocks don't have a location, they are set through the block instead
+            if (location != -1) {
+                uniforms.put(name, new GL20UniformHandle(this, name, location, typeBuffer.get(), sizeBuffer.get()));
+            }
+        }
+        // Load the uniform blocks, if supported
+        uniformBlocks.clear();
+        uniformBlockBindings = EMPTY_BINDINGS;
+        final ContextCapabilities capabilities = GLContext.getCapabilities();
+        if (capabilities.OpenGL31 || capabilities.GL_ARB_uniform_buffer_object) {
+            final int blockCount = GL20.glGetProgrami(id, GL31.GL_ACTIVE_UNIFORM_BLOCKS);
+            final int maxBlockLength = GL20.glGetProgrami(id, GL31.GL_ACTIVE_UNIFORM_BLOCK_MAX_NAME_LENGTH);
+            for (int i = 0; i < blockCount; i++) {
+                uniformBlocks.put(GL31.glGetActiveUniformBlockName(id, i, maxBlockLength), i);
+            }
+            uniformBlockBindings = new int[blockCount];
+            Arrays.fill(uniformBlockBindings, -1);
         }
         // Check for errors
         LWJGLUtil.checkForGLError();
     }
 
+    private void clearUniforms() {
+        for (GL20UniformHandle handle : uniforms.values()) {
+            handle.destroy();
+        }
+        uniforms.clear();
+    }
+
     @Override
     public void use() {
         checkCreated();
@@ -206,169 +233,336 @@ public class GL20Program extends Program {
         setUniform(textureLayouts.get(unit), unit);
     }
 
+    @Override
+    public Set<String> getUniformBlockNames() {
+        return Collections.unmodifiableSet(uniformBlocks.keySet());
+    }
+
+    @Override
+    public void bindUniformBlock(String name, int binding) {
+        checkCreated();
+        if (!uniformBlocks.containsKey(name)) {
+            throw new IllegalArgumentException("No uniform block with the name: " + name);
+        }
+        final int index = uniformBlocks.get(name);
+        // The binding is part of the program state, so it only needs to be set once
+        if (uniformBlockBindings[index] != binding) {
+            GL31.glUniformBlockBinding(id, index, binding);
+            uniformBlockBindings[index] = binding;
+            // Check for errors
+            LWJGLUtil.checkForGLError();
+        }
+    }
+
+    @Override
+    public UniformHandle getUniformHandle(String name) {
+        checkCreated();
+        return uniforms.get(name);
+    }
+
     // TODO: Support int and boolean vectors
     @Override
     public void setUniform(String name, boolean b) {
-        checkCreated();
-        if (!isDirty(name, b)) {
-            return;
+        final GL20UniformHandle handle = uniforms.get(name);
+        if (handle != null) {
+            setUniform(handle, b);
         }
-        GL20.glUniform1i(uniforms.get(name), b ? 1 : 0);
-        uniformValues.put(name, b);
-        LWJGLUtil.checkForGLError();
     }
 
     @Override
     public void setUniform(String name, int i) {
-        checkCreated();
-        if (!isDirty(name, i)) {
-            return;
+        final GL20UniformHandle handle = uniforms.get(name);
+        if (handle != null) {
+            setUniform(handle, i);
         }
-        GL20.glUniform1i(uniforms.get(name), i);
-        uniformValues.put(name, i);
-        LWJGLUtil.checkForGLError();
     }
 
     @Override
     public void setUniform(String name, float f) {
-        checkCreated();
-        if (!isDirty(name, f)) {
-            return;
+        final GL20UniformHandle handle = uniforms.get(name);
+        if (handle != null) {
+            setUniform(handle, f);
         }
-        GL20.glUniform1f(uniforms.get(name), f);
-        uniformValues.put(name, f);
-        LWJGLUtil.checkForGLError();
     }
 
     @Override
     public void setUniform(String name, float[] fs) {
-        checkCreated();
-        if (!isDirty(name, fs)) {
+        final GL20UniformHandle handle = uniforms.get(name);
+        if (handle != null) {
+            setUniform(handle, fs);
+        }
+    }
+
+    @Override
+    public void setUniform(String name, Vector2f v) {
+        final GL20UniformHandle handle = uniforms.get(name);
+        if (handle != null) {
+            setUniform(handle, v);
+        }
+    }
+
+    @Override
+    public void setUniform(String name, Vector2f[] vs) {
+        final GL20UniformHandle handle = uniforms.get(name);
+        if (handle != null) {
+            setUniform(handle, vs);
+        }
+    }
+
+    @Override
+    public void setUniform(String name, Vector3f v) {
+        final GL20UniformHandle handle = uniforms.get(name);
+        if (handle != null) {
+            setUniform(handle, v);
+        }
+    }
+
+    @Override
+    public void setUniform(String name, Vector3f[] vs) {
+        final GL20UniformHandle handle = uniforms.get(name);
+        if (handle != null) {
+            setUniform(handle, vs);
+        }
+    }
+
+    @Override
+    public void setUniform(String name, Vector4f v) {
+        final GL20UniformHandle handle = uniforms.get(name);
+        if (handle != null) {
+            setUniform(handle, v);
+        }
+    }
+
+    @Override
+    public void setUniform(String name, Matrix2f m) {
+        final GL20UniformHandle handle = uniforms.get(name);
+        if (handle != null) {
+            setUniform(handle, m);
+        }
+    }
+
+    @Override
+    public void setUniform(String name, Matrix3f m) {
+        final GL20UniformHandle handle = uniforms.get(name);
+        if (handle != null) {
+            setUniform(handle, m);
+        }
+    }
+
+    @Override
+    public void setUniform(String name, Matrix4f m) {
+        final GL20UniformHandle handle = uniforms.get(name);
+        if (handle != null) {
+            setUniform(handle, m);
+        }
+    }
+
+    @Override
+    public void setUniform(UniformHandle handle, boolean b) {
+        final GL20UniformHandle uniform = checkUniform(handle, 1);
+        uniform.set(0, b ? 1 : 0);
+        if (!uniform.isDirty()) {
             return;
         }
-        final FloatBuffer floatBuffer = CausticUtil.createFloatBuffer(fs.length);
-        for (float f : fs) {
-            floatBuffer.put(f);
+        GL20.glUniform1i(uniform.getLocation(), b ? 1 : 0);
+        LWJGLUtil.checkForGLError();
+    }
+
+    @Override
+    public void setUniform(UniformHandle handle, int i) {
+        final GL20UniformHandle uniform = checkUniform(handle, 1);
+        uniform.set(0, i);
+        if (!uniform.isDirty()) {
+            return;
         }
-        floatBuffer.flip();
-        GL20.glUniform1(uniforms.get(name), floatBuffer);
-        uniformValues.put(name, fs);
+        GL20.glUniform1i(uniform.getLocation(), i);
         LWJGLUtil.checkForGLError();
     }
 
     @Override
-    public void setUniform(String name, Vector2f v) {
-        checkCreated();
-        if (!isDirty(name, v)) {
+    public void setUniform(UniformHandle handle, float f) {
+        final GL20UniformHandle uniform = checkUniform(handle, 1);
+        uniform.set(0, f);
+        if (!uniform.isDirty()) {
             return;
         }
-        GL20.glUniform2f(uniforms.get(name), v.getX(), v.getY());
-        uniformValues.put(name, v);
+        GL20.glUniform1f(uniform.getLocation(), f);
         LWJGLUtil.checkForGLError();
     }
 
     @Override
-    public void setUniform(String name, Vector2f[] vs) {
-        checkCreated();
-        if (!isDirty(name, vs)) {
+    public void setUniform(UniformHandle handle, float[] fs) {
+        final GL20UniformHandle uniform = checkUniform(handle, fs.length);
+        final FloatBuffer buffer = getUniformBuffer(fs.length);
+        for (int i = 0; i < fs.length; i++) {
+            final float f = fs[i];
+            uniform.set(i, f);
+            buffer.put(f);
+        }
+        if (!uniform.isDirty()) {
             return;
         }
-        final FloatBuffer vectorBuffer = CausticUtil.createFloatBuffer(vs.length * 2);
-        for (Vector2f v : vs) {
-            vectorBuffer.put(v.getX());
-            vectorBuffer.put(v.getY());
+        buffer.flip();
+        GL20.glUniform1(uniform.getLocation(), buffer);
+        LWJGLUtil.checkForGLError();
+    }
+
+    @Override
+    public void setUniform(UniformHandle handle, Vector2f v) {
+        final GL20UniformHandle uniform = checkUniform(handle, 2);
+        uniform.set(0, v.getX());
+        uniform.set(1, v.getY());
+        if (!uniform.isDirty()) {
+            return;
         }
-        vectorBuffer.flip();
-        GL20.glUniform2(uniforms.get(name), vectorBuffer);
-        uniformValues.put(name, vs);
+        GL20.glUniform2f(uniform.getLocation(), v.getX(), v.getY());
         LWJGLUtil.checkForGLError();
     }
 
     @Override
-    public void setUniform(String name, Vector3f v) {
-        checkCreated();
-        if (!isDirty(name, v)) {
+    public void setUniform(UniformHandle handle, Vector2f[] vs) {
+        final GL20UniformHandle uniform = checkUniform(handle, vs.length * 2);
+        final FloatBuffer buffer = getUniformBuffer(vs.length * 2);
+        int index = 0;
+        for (Vector2f v : vs) {
+            uniform.set(index++, v.getX());
+            uniform.set(index++, v.getY());
+            buffer.put(v.getX());
+            buffer.put(v.getY());
+        }
+        if (!uniform.isDirty()) {
             return;
         }
-        GL20.glUniform3f(uniforms.get(name), v.getX(), v.getY(), v.getZ());
-        uniformValues.put(name, v);
+        buffer.flip();
+        GL20.glUniform2(uniform.getLocation(), buffer);
         LWJGLUtil.checkForGLError();
     }
 
     @Override
-    public void setUniform(String name, Vector3f[] vs) {
-        checkCreated();
-        if (!isDirty(name, vs)) {
+    public void setUniform(UniformHandle handle, Vector3f v) {
+        final GL20UniformHandle uniform = checkUniform(handle, 3);
+        uniform.set(0, v.getX());
+        uniform.set(1, v.getY());
+        uniform.set(2, v.getZ());
+        if (!uniform.isDirty()) {
             return;
         }
-        final FloatBuffer vectorBuffer = CausticUtil.createFloatBuffer(vs.length * 3);
+        GL20.glUniform3f(uniform.getLocation(), v.getX(), v.getY(), v.getZ());
+        LWJGLUtil.checkForGLError();
+    }
+
+    @Override
+    public void setUniform(UniformHandle handle, Vector3f[] vs) {
+        final GL20UniformHandle uniform = checkUniform(handle, vs.length * 3);
+        final FloatBuffer buffer = getUniformBuffer(vs.length * 3);
+        int index = 0;
         for (Vector3f v : vs) {
-            vectorBuffer.put(v.getX());
-            vectorBuffer.put(v.getY());
-            vectorBuffer.put(v.getZ());
+            uniform.set(index++, v.getX());
+            uniform.set(index++, v.getY());
+            uniform.set(index++, v.getZ());
+            buffer.put(v.getX());
+            buffer.put(v.getY());
+            buffer.put(v.getZ());
+        }
+        if (!uniform.isDirty()) {
+            return;
         }
-        vectorBuffer.flip();
-        GL20.glUniform3(uniforms.get(name), vectorBuffer);
-        uniformValues.put(name, vs);
+        buffer.flip();
+        GL20.glUniform3(uniform.getLocation(), buffer);
         LWJGLUtil.checkForGLError();
     }
 
     @Override
-    public void setUniform(String name, Vector4f v) {
-        checkCreated();
-        if (!isDirty(name, v)) {
+    public void setUniform(UniformHandle handle, Vector4f v) {
+        final GL20UniformHandle uniform = checkUniform(handle, 4);
+        uniform.set(0, v.getX());
+        uniform.set(1, v.getY());
+        uniform.set(2, v.getZ());
+        uniform.set(3, v.getW());
+        if (!uniform.isDirty()) {
             return;
         }
-        GL20.glUniform4f(uniforms.get(name), v.getX(), v.getY(), v.getZ(), v.getW());
-        uniformValues.put(name, v);
+        GL20.glUniform4f(uniform.getLocation(), v.getX(), v.getY(), v.getZ(), v.getW());
         LWJGLUtil.checkForGLError();
     }
 
     @Override
-    public void setUniform(String name, Matrix2f m) {
-        checkCreated();
-        if (!isDirty(name, m)) {
+    public void setUniform(UniformHandle handle, Matrix2f m) {
+        final GL20UniformHandle uniform = checkUniform(handle, 4);
+        final FloatBuffer buffer = getUniformBuffer(4);
+        // Column major order
+        int index = 0;
+        for (int col = 0; col < 2; col++) {
+            for (int row = 0; row < 2; row++) {
+                final float f = m.get(row, col);
+                uniform.set(index++, f);
+                buffer.put(f);
+            }
+        }
+        if (!uniform.isDirty()) {
             return;
         }
-        final FloatBuffer buffer = CausticUtil.createFloatBuffer(4);
-        buffer.put(m.toArray(true));
         buffer.flip();
-        GL20.glUniformMatrix2(uniforms.get(name), false, buffer);
-        uniformValues.put(name, m);
+        GL20.glUniformMatrix2(uniform.getLocation(), false, buffer);
         LWJGLUtil.checkForGLError();
     }
 
     @Override
-    public void setUniform(String name, Matrix3f m) {
-        checkCreated();
-        if (!isDirty(name, m)) {
+    public void setUniform(UniformHandle handle, Matrix3f m) {
+        final GL20UniformHandle uniform = checkUniform(handle, 9);
+        final FloatBuffer buffer = getUniformBuffer(9);
+        // Column major order
+        int index = 0;
+        for (int col = 0; col < 3; col++) {
+            for (int row = 0; row < 3; row++) {
+                final float f = m.get(row, col);
+                uniform.set(index++, f);
+                buffer.put(f);
+            }
+        }
+        if (!uniform.isDirty()) {
             return;
         }
-        final FloatBuffer buffer = CausticUtil.createFloatBuffer(9);
-        buffer.put(m.toArray(true));
         buffer.flip();
-        GL20.glUniformMatrix3(uniforms.get(name), false, buffer);
-        uniformValues.put(name, m);
+        GL20.glUniformMatrix3(uniform.getLocation(), false, buffer);
         LWJGLUtil.checkForGLError();
     }
 
     @Override
-    public void setUniform(String name, Matrix4f m) {
-        checkCreated();
-        if (!isDirty(name, m)) {
+    public void setUniform(UniformHandle handle, Matrix4f m) {
+        final GL20UniformHandle uniform = checkUniform(handle, 16);
+        final FloatBuffer buffer = getUniformBuffer(16);
+        // Column major order
+        int index = 0;
+        for (int col = 0; col < 4; col++) {
+            for (int row = 0; row < 4; row++) {
+                final float f = m.get(row, col);
+                uniform.set(index++, f);
+                buffer.put(f);
+            }
+        }
+        if (!uniform.isDirty()) {
             return;
         }
-        final FloatBuffer buffer = CausticUtil.createFloatBuffer(16);
-        buffer.put(m.toArray(true));
         buffer.flip();
-        GL20.glUniformMatrix4(uniforms.get(name), false, buffer);
-        uniformValues.put(name, m);
+        GL20.glUniformMatrix4(uniform.getLocation(), false, buffer);
         LWJGLUtil.checkForGLError();
     }
 
-    private boolean isDirty(String name, Object newValue) {
-        final Object oldValue = uniformValues.get(name);
-        return oldValue != null && (oldValue == UNSET || !oldValue.equals(newValue));
+    private GL20UniformHandle checkUniform(UniformHandle handle, int count) {
+        checkCreated();
+        checkHandle(handle);
+        final GL20UniformHandle uniform = (GL20UniformHandle) handle;
+        uniform.begin(count);
+        return uniform;
+    }
+
+    private FloatBuffer getUniformBuffer(int capacity) {
+        if (uniformBuffer.capacity() < capacity) {
+            uniformBuffer = CausticUtil.createFloatBuffer(Math.max(capacity, uniformBuffer.capacity() * 2));
+        }
+        uniformBuffer.clear();
+        return uniformBuffer;
     }
 
     @Override
@@ -385,4 +579,44 @@ public class GL20Program extends Program {
     public GLVersion getGLVersion() {
         return GLVersion.GL20;
     }
+
+    private static class GL20UniformHandle extends UniformHandle {
+        private static final int[] EMPTY_VALUES = {};
+        // Raw bits of the last uploaded value, and its number of components, or -1 if nothing was uploaded yet
+        private int[] values = EMPTY_VALUES;
+        private int count = -1;
+        // Whether or not the value being set differs from the last uploaded one
+        private boolean dirty;
+
+        private GL20UniformHandle(Program program, String name, int location, int type, int size) {
+            super(program, name, location, type, size);
+        }
+
+        private void begin(int count) {
+            if (values.length < count) {
+                values = Arrays.copyOf(values, count);
+            }
+            dirty = this.count != count;
+            this.count = count;
+        }
+
+        private void set(int index, int i) {
+            if (values[index] != i) {
+                values[index] = i;
+                dirty = true;
+            }
+        }
+
+        private void set(int index, float f) {
+            set(index, Float.floatToRawIntBits(f));
+        }
+
+        private boolean isDirty() {
+            return dirty;
+        }
+
+        private void destroy() {
+            invalidate();
+        }
+    }
 }
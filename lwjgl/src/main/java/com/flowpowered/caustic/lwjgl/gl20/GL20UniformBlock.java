@@ -0,0 +1,51 @@
+/*
+ * This file is part of Caustic LWJGL, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.lwjgl.gl20;
+
+import com.flowpowered.caustic.api.gl.Program;
+import com.flowpowered.caustic.api.gl.UniformBlock;
+
+/**
+ * An OpenGL 2.0 implementation of {@link UniformBlock}. Uniform buffers aren't supported, so the uniforms are uploaded to the programs one by one when binding the block.
+ *
+ * @see UniformBlock
+ */
+public class GL20UniformBlock extends UniformBlock {
+    @Override
+    public void update() {
+        checkCreated();
+        // The values are read when binding
+    }
+
+    @Override
+    public void bind(Program program) {
+        checkCreated();
+        upload(program);
+    }
+
+    @Override
+    public GLVersion getGLVersion() {
+        return GLVersion.GL20;
+    }
+}
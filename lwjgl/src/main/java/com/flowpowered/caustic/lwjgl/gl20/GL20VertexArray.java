@@ -54,24 +54,41 @@ public class GL20VertexArray extends VertexArray {
     private int[] attributeBufferIDs = EMPTY_ARRAY;
     // Size of the attribute buffers
     private int[] attributeBufferSizes = EMPTY_ARRAY;
+    // Rings of buffers for the attributes which are updated when the usage isn't static, created on the first update
+    private BufferRing[] attributeRings = null;
+    // Whether or not the attributes are interleaved in the first buffer
+    private boolean interleaved = false;
+    // Size of the indices buffer, in bytes
+    private int indicesBufferSize = 0;
+    // Type of the indices, the narrowest one which fits them all
+    private DataType indicesType = DataType.UNSIGNED_INT;
     // Amount of indices to render
     private int indicesCount = 0;
     private int indicesDrawCount = 0;
     // First and last index to render
     private int indicesOffset = 0;
+    // Usage hint for the buffers
+    private BufferUsage usage = BufferUsage.STATIC;
     // Drawing mode
     private DrawingMode drawingMode = DrawingMode.TRIANGLES;
     // Polygon mode
     private PolygonMode polygonMode = PolygonMode.FILL;
     // The available vao extension
     private final VertexArrayExtension extension;
-    // Attribute properties for when we don't have a vao extension
+    // Attribute properties, to define the attributes on each render call when we don't have a vao extension, or to point the vao at a different buffer when the ring of an attribute moves
     private int[] attributeSizes;
     private int[] attributeTypes;
     private boolean[] attributeNormalizing;
+    private int attributeStride;
+    private int[] attributeOffsets;
+    // Whether or not the buffers can be copied on the GPU, which is required by buffer rings
+    private final boolean bufferRingsSupported;
+    // Number of draws so far, so the buffer rings know when the current buffer might be in use
+    private long drawCount = 0;
 
     public GL20VertexArray() {
         final ContextCapabilities capabilities = GLContext.getCapabilities();
+        bufferRingsSupported = BufferRing.isSupported(capabilities);
         if (capabilities.GL_ARB_vertex_array_object) {
             extension = VertexArrayExtension.ARB;
         } else if (capabilities.GL_APPLE_vertex_array_object) {
@@ -99,6 +116,8 @@ public class GL20VertexArray extends VertexArray {
         checkCreated();
         // Delete the indices buffer
         GL15.glDeleteBuffers(indicesBufferID);
+        // Delete the extra buffers of the attribute rings
+        destroyAttributeRings();
         // Delete the attribute buffers
         for (int attributeBufferID : attributeBufferIDs) {
             GL15.glDeleteBuffers(attributeBufferID);
@@ -106,16 +125,19 @@ public class GL20VertexArray extends VertexArray {
         if (extension.has()) {
             // Delete the vao
             extension.glDeleteVertexArrays(id);
-        } else {
-            // Else delete the attribute properties
-            attributeSizes = null;
-            attributeTypes = null;
-            attributeNormalizing = null;
         }
+        // Delete the attribute properties
+        attributeSizes = null;
+        attributeTypes = null;
+        attributeNormalizing = null;
+        attributeOffsets = null;
         // Reset the IDs and data
         indicesBufferID = 0;
+        indicesBufferSize = 0;
+        indicesType = DataType.UNSIGNED_INT;
         attributeBufferIDs = EMPTY_ARRAY;
         attributeBufferSizes = EMPTY_ARRAY;
+        interleaved = false;
         // Update the state
         super.destroy();
         // Check for errors
@@ -125,21 +147,28 @@ public class GL20VertexArray extends VertexArray {
     @Override
     public void setData(VertexData vertexData) {
         checkCreated();
+        // Compute the bounds of the positions
+        updateBounds(vertexData);
         // Generate a new indices buffer if we don't have one yet
         if (indicesBufferID == 0) {
             indicesBufferID = GL15.glGenBuffers();
         }
         // Bind the indices buffer
         GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, indicesBufferID);
-        // Get the new count of indices
+        // Get the new count of indices, and store them as the narrowest type which fits them
         final int newIndicesCount = vertexData.getIndicesCount();
-        // If the new count is greater than or 50% smaller than the old one, we'll reallocate the memory
+        indicesType = vertexData.getIndicesType();
+        final ByteBuffer indicesBuffer = vertexData.getIndicesBuffer(indicesType);
+        final int newIndicesBufferSize = indicesBuffer.remaining();
+        // If the new size is greater than or 50% smaller than the old one, we'll reallocate the memory
         // In the first case because we need more space, in the other to save space
-        if (newIndicesCount > indicesCount || newIndicesCount <= indicesCount * 0.5) {
-            GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, vertexData.getIndicesBuffer(), GL15.GL_STATIC_DRAW);
+        // Buffers which change often are always reallocated, which orphans the previous storage instead of waiting for the draws using it
+        if (usage != BufferUsage.STATIC || newIndicesBufferSize > indicesBufferSize || newIndicesBufferSize <= indicesBufferSize * 0.5) {
+            GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, usage.getGLConstant());
+            indicesBufferSize = newIndicesBufferSize;
         } else {
             // Else, we replace the data with the new one, but we don't resize, so some old data might be left trailing in the buffer
-            GL15.glBufferSubData(GL15.GL_ELEMENT_ARRAY_BUFFER, 0, vertexData.getIndicesBuffer());
+            GL15.glBufferSubData(GL15.GL_ELEMENT_ARRAY_BUFFER, 0, indicesBuffer);
         }
         // Unbind the indices buffer
         GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, 0);
@@ -150,13 +179,18 @@ public class GL20VertexArray extends VertexArray {
         // Ensure that the indices offset and count fits inside the valid part of the buffer
         indicesOffset = Math.min(indicesOffset, indicesDrawCount - 1);
         indicesDrawCount -= indicesOffset;
+        // Delete the extra buffers of the attribute rings, the data will be uploaded again
+        destroyAttributeRings();
         // Bind the vao
         if (extension.has()) {
             extension.glBindVertexArray(id);
         }
-        // Create a new array of attribute buffers ID of the correct size
+        // Interleaved attributes are all stored in a single buffer
         final int attributeCount = vertexData.getAttributeCount();
-        final int[] newAttributeBufferIDs = new int[attributeCount];
+        interleaved = vertexData.isInterleaved();
+        final int bufferCount = interleaved ? Math.min(attributeCount, 1) : attributeCount;
+        // Create a new array of attribute buffers ID of the correct size
+        final int[] newAttributeBufferIDs = new int[bufferCount];
         // Copy all the old buffer IDs that will fit in the new array so we can reuse them
         System.arraycopy(attributeBufferIDs, 0, newAttributeBufferIDs, 0, Math.min(attributeBufferIDs.length, newAttributeBufferIDs.length));
         // Delete any buffers that we don't need (new array is smaller than the previous one)
@@ -168,44 +202,40 @@ public class GL20VertexArray extends VertexArray {
             newAttributeBufferIDs[i] = GL15.glGenBuffers();
         }
         // Copy the old valid attribute buffer sizes
-        final int[] newAttributeBufferSizes = new int[attributeCount];
+        final int[] newAttributeBufferSizes = new int[bufferCount];
         System.arraycopy(attributeBufferSizes, 0, newAttributeBufferSizes, 0, Math.min(attributeBufferSizes.length, newAttributeBufferSizes.length));
-        // If we don't have a vao, we have to save the properties manually
-        if (!extension.has()) {
-            attributeSizes = new int[attributeCount];
-            attributeTypes = new int[attributeCount];
-            attributeNormalizing = new boolean[attributeCount];
+        // Save the properties, in case we have to define the attributes again
+        attributeSizes = new int[attributeCount];
+        attributeTypes = new int[attributeCount];
+        attributeNormalizing = new boolean[attributeCount];
+        attributeOffsets = new int[attributeCount];
+        // Upload the new vertex data, interleaving it if needed
+        if (interleaved) {
+            if (bufferCount > 0) {
+                newAttributeBufferSizes[0] = uploadBuffer(newAttributeBufferIDs[0], newAttributeBufferSizes[0], vertexData.getInterleavedBuffer(), usage);
+            }
+        } else {
+            for (int i = 0; i < attributeCount; i++) {
+                newAttributeBufferSizes[i] = uploadBuffer(newAttributeBufferIDs[i], newAttributeBufferSizes[i], vertexData.getAttribute(i).getDataView(), usage);
+            }
         }
-        // Upload the new vertex data
+        attributeStride = interleaved ? vertexData.getStride() : 0;
         for (int i = 0; i < attributeCount; i++) {
             final VertexAttribute attribute = vertexData.getAttribute(i);
-            final ByteBuffer attributeData = attribute.getData();
-            // Get the current buffer size
-            final int bufferSize = newAttributeBufferSizes[i];
-            // Get the new buffer size
-            final int newBufferSize = attributeData.remaining();
-            // Bind the target buffer
-            GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, newAttributeBufferIDs[i]);
-            // If the new count is greater than or 50% smaller than the old one, we'll reallocate the memory
-            if (newBufferSize > bufferSize || newBufferSize <= bufferSize * 0.5) {
-                GL15.glBufferData(GL15.GL_ARRAY_BUFFER, attributeData, GL15.GL_STATIC_DRAW);
-            } else {
-                // Else, we replace the data with the new one, but we don't resize, so some old data might be left trailing in the buffer
-                GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, 0, attributeData);
-            }
-            // Update the buffer size to the new one
-            newAttributeBufferSizes[i] = newBufferSize;
-            // Next, we add the pointer to the data in the vao
+            final int offset = interleaved ? vertexData.getAttributeOffset(i) : 0;
+            // Save the properties
+            attributeSizes[i] = attribute.getSize();
+            attributeTypes[i] = attribute.getType().getGLConstant();
+            attributeNormalizing[i] = attribute.getUploadMode().normalize();
+            attributeOffsets[i] = offset;
+            // Next, we add the pointer to the data in the vao, else it's defined when rendering
             if (extension.has()) {
+                // Bind the source buffer
+                GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, newAttributeBufferIDs[interleaved ? 0 : i]);
                 // As a float, normalized or not
-                GL20.glVertexAttribPointer(i, attribute.getSize(), attribute.getType().getGLConstant(), attribute.getUploadMode().normalize(), 0, 0);
+                GL20.glVertexAttribPointer(i, attribute.getSize(), attribute.getType().getGLConstant(), attribute.getUploadMode().normalize(), attributeStride, offset);
                 // Enable the attribute
                 GL20.glEnableVertexAttribArray(i);
-            } else {
-                // Else we save the properties for rendering
-                attributeSizes[i] = attribute.getSize();
-                attributeTypes[i] = attribute.getType().getGLConstant();
-                attributeNormalizing[i] = attribute.getUploadMode().normalize();
             }
         }
         // Unbind the last vbo
@@ -222,6 +252,91 @@ public class GL20VertexArray extends VertexArray {
         LWJGLUtil.checkForGLError();
     }
 
+    private static int uploadBuffer(int bufferID, int bufferSize, ByteBuffer data, BufferUsage usage) {
+        // Get the new buffer size
+        final int newBufferSize = data.remaining();
+        // Bind the target buffer
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, bufferID);
+        // If the new count is greater than or 50% smaller than the old one, we'll reallocate the memory
+        // Buffers which change often are always reallocated, which orphans the previous storage instead of waiting for the draws using it
+        if (usage != BufferUsage.STATIC || newBufferSize > bufferSize || newBufferSize <= bufferSize * 0.5) {
+            GL15.glBufferData(GL15.GL_ARRAY_BUFFER, data, usage.getGLConstant());
+        } else {
+            // Else, we replace the data with the new one, but we don't resize, so some old data might be left trailing in the buffer
+            GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, 0, data);
+        }
+        return newBufferSize;
+    }
+
+    private void destroyAttributeRings() {
+        if (attributeRings == null) {
+            return;
+        }
+        for (BufferRing ring : attributeRings) {
+            if (ring != null) {
+                ring.destroy();
+            }
+        }
+        attributeRings = null;
+    }
+
+    @Override
+    public void setBufferUsage(BufferUsage usage) {
+        if (usage == null) {
+            throw new IllegalArgumentException("Buffer usage cannot be null");
+        }
+        this.usage = usage;
+    }
+
+    @Override
+    public void updateAttribute(int index, int byteOffset, ByteBuffer data) {
+        checkCreated();
+        checkAttributeUpdate(index, byteOffset, data);
+        if (interleaved) {
+            throw new IllegalStateException("Cannot update a single attribute of interleaved vertex data");
+        }
+        if (index >= attributeBufferIDs.length) {
+            throw new IllegalArgumentException("No attribute at index: " + index);
+        }
+        final int size = data.remaining();
+        final int bufferSize = attributeBufferSizes[index];
+        if (byteOffset + size > bufferSize) {
+            throw new IllegalArgumentException("Update exceeds the attribute data size of " + bufferSize + " bytes");
+        }
+        // Grow the bounds if the positions moved
+        updateBounds(index, byteOffset, data);
+        if (usage != BufferUsage.STATIC && bufferRingsSupported) {
+            // Write the update to a buffer of the attribute's ring which no draw is using, instead of waiting for them
+            if (attributeRings == null) {
+                attributeRings = new BufferRing[attributeBufferIDs.length];
+            }
+            BufferRing ring = attributeRings[index];
+            if (ring == null) {
+                ring = new BufferRing(attributeBufferIDs[index], bufferSize, usage.getGLConstant());
+                attributeRings[index] = ring;
+            }
+            final int bufferID = ring.update(byteOffset, data, drawCount);
+            if (bufferID != attributeBufferIDs[index]) {
+                // The ring moved to another buffer, point the vao at it, else the new buffer is bound when rendering
+                attributeBufferIDs[index] = bufferID;
+                if (extension.has()) {
+                    extension.glBindVertexArray(id);
+                    GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, bufferID);
+                    GL20.glVertexAttribPointer(index, attributeSizes[index], attributeTypes[index], attributeNormalizing[index], attributeStride, attributeOffsets[index]);
+                    GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+                    extension.glBindVertexArray(0);
+                }
+            }
+        } else {
+            // Else, we replace the range, which might wait for the draws using the buffer
+            GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, attributeBufferIDs[index]);
+            GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, byteOffset, data);
+            GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+        }
+        // Check for errors
+        LWJGLUtil.checkForGLError();
+    }
+
     @Override
     public void setDrawingMode(DrawingMode mode) {
         if (mode == null) {
@@ -258,11 +373,14 @@ public class GL20VertexArray extends VertexArray {
             extension.glBindVertexArray(id);
         } else {
             // Enable the vertex attributes
-            for (int i = 0; i < attributeBufferIDs.length; i++) {
-                // Bind the buffer
-                GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, attributeBufferIDs[i]);
+            final int attributeCount = attributeSizes != null ? attributeSizes.length : 0;
+            for (int i = 0; i < attributeCount; i++) {
+                // Bind the buffer, only once if the attributes are interleaved
+                if (!interleaved || i == 0) {
+                    GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, attributeBufferIDs[interleaved ? 0 : i]);
+                }
                 // Define the attribute
-                GL20.glVertexAttribPointer(i, attributeSizes[i], attributeTypes[i], attributeNormalizing[i], 0, 0);
+                GL20.glVertexAttribPointer(i, attributeSizes[i], attributeTypes[i], attributeNormalizing[i], attributeStride, attributeOffsets[i]);
                 // Enable it
                 GL20.glEnableVertexAttribArray(i);
             }
@@ -274,9 +392,11 @@ public class GL20VertexArray extends VertexArray {
         // Set the polygon mode
         GL11.glPolygonMode(GL11.GL_FRONT_AND_BACK, polygonMode.getGLConstant());
         // Draw all indices with the provided mode
-        GL11.glDrawElements(drawingMode.getGLConstant(), indicesDrawCount, GL11.GL_UNSIGNED_INT, indicesOffset * DataType.INT.getByteSize());
+        GL11.glDrawElements(drawingMode.getGLConstant(), indicesDrawCount, indicesType.getGLConstant(), indicesOffset * indicesType.getByteSize());
         // Unbind the indices buffer
         GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, 0);
+        // The buffers might now be in use until the draw completes
+        drawCount++;
         // Check for errors
         LWJGLUtil.checkForGLError();
     }
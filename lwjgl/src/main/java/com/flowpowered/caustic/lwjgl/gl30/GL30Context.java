@@ -25,17 +25,23 @@ package com.flowpowered.caustic.lwjgl.gl30;
 
 import org.lwjgl.LWJGLUtil;
 import org.lwjgl.opengl.ContextAttribs;
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GLContext;
 
 import com.flowpowered.caustic.api.gl.FrameBuffer;
+import com.flowpowered.caustic.api.gl.MeshPool;
 import com.flowpowered.caustic.api.gl.Program;
 import com.flowpowered.caustic.api.gl.RenderBuffer;
 import com.flowpowered.caustic.api.gl.Shader;
 import com.flowpowered.caustic.api.gl.Texture;
+import com.flowpowered.caustic.api.gl.UniformBlock;
 import com.flowpowered.caustic.api.gl.VertexArray;
 import com.flowpowered.caustic.lwjgl.gl20.GL20Context;
 import com.flowpowered.caustic.lwjgl.gl20.GL20Program;
 import com.flowpowered.caustic.lwjgl.gl20.GL20Shader;
 import com.flowpowered.caustic.lwjgl.gl20.GL20VertexArray;
+import com.flowpowered.caustic.lwjgl.gl31.GL31UniformBlock;
+import com.flowpowered.caustic.lwjgl.gl32.GL32MeshPool;
 
 /**
  * An OpenGL 3.0 implementation of {@link com.flowpowered.caustic.api.gl.Context}.
@@ -81,6 +87,29 @@ public class GL30Context extends GL20Context {
         return new GL30VertexArray();
     }
 
+    @Override
+    public UniformBlock newUniformBlock() {
+        checkCreated();
+        final ContextCapabilities capabilities = GLContext.getCapabilities();
+        if (capabilities.OpenGL31 || capabilities.GL_ARB_uniform_buffer_object) {
+            return new GL31UniformBlock();
+        }
+        return super.newUniformBlock();
+    }
+
+    @Override
+    public MeshPool newMeshPool() {
+        checkCreated();
+        if (LWJGLUtil.getPlatform() == LWJGLUtil.PLATFORM_MACOSX) {
+            return super.newMeshPool();
+        }
+        final ContextCapabilities capabilities = GLContext.getCapabilities();
+        if ((capabilities.OpenGL32 || capabilities.GL_ARB_draw_elements_base_vertex) && (capabilities.OpenGL31 || capabilities.GL_ARB_copy_buffer)) {
+            return new GL32MeshPool();
+        }
+        return super.newMeshPool();
+    }
+
     @Override
     public GLVersion getGLVersion() {
         return GLVersion.GL30;
@@ -24,11 +24,21 @@
 package com.flowpowered.caustic.lwjgl.gl30;
 
 import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+
+import org.lwjgl.opengl.ARBDrawInstanced;
+import org.lwjgl.opengl.ARBInstancedArrays;
+import org.lwjgl.opengl.ContextCapabilities;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL33;
+import org.lwjgl.opengl.GLContext;
 
 import com.flowpowered.caustic.api.data.VertexAttribute;
 import com.flowpowered.caustic.api.data.VertexAttribute.DataType;
@@ -36,9 +46,11 @@ import com.flowpowered.caustic.api.data.VertexAttribute.UploadMode;
 import com.flowpowered.caustic.api.data.VertexData;
 import com.flowpowered.caustic.api.gl.VertexArray;
 import com.flowpowered.caustic.lwjgl.LWJGLUtil;
+import com.flowpowered.caustic.lwjgl.gl20.BufferRing;
 
 /**
- * An OpenGL 3.0 implementation of {@link VertexArray}.
+ * An OpenGL 3.0 implementation of {@link VertexArray}. Instanced rendering is supported if the hardware has OpenGL 3.3, or the ARB_instanced_arrays and ARB_draw_instanced extensions (the
+ * latter being core in OpenGL 3.1).
  *
  * @see VertexArray
  */
@@ -49,15 +61,46 @@ public class GL30VertexArray extends VertexArray {
     private int[] attributeBufferIDs = EMPTY_ARRAY;
     // Size of the attribute buffers
     private int[] attributeBufferSizes = EMPTY_ARRAY;
+    // Rings of buffers for the attributes which are updated when the usage isn't static, created on the first update
+    private BufferRing[] attributeRings = null;
+    // Attributes of the vertex data, to point the vao at a different buffer when the ring of an attribute moves
+    private VertexAttribute[] attributes = null;
+    // Whether or not the attributes are interleaved in the first buffer
+    private boolean interleaved = false;
+    // Size of the indices buffer, in bytes
+    private int indicesBufferSize = 0;
+    // Type of the indices, the narrowest one which fits them all
+    private DataType indicesType = DataType.UNSIGNED_INT;
     // Amount of indices to render
     private int indicesCount = 0;
     private int indicesDrawCount = 0;
     // First and last index to render
     private int indicesOffset = 0;
+    // Usage hint for the buffers
+    private BufferUsage usage = BufferUsage.STATIC;
     // Drawing mode
     private DrawingMode drawingMode = DrawingMode.TRIANGLES;
     // Polygon mode
     private PolygonMode polygonMode = PolygonMode.FILL;
+    // Instanced rendering support, using the core functions when available, else the ARB extensions
+    private final boolean instancingSupported;
+    private final boolean coreDrawInstanced;
+    private final boolean coreInstancedArrays;
+    // Buffer IDs and sizes of the instance attributes, by attribute index
+    private final TIntIntMap instanceBufferIDs = new TIntIntHashMap();
+    private final TIntIntMap instanceAttributeSizes = new TIntIntHashMap();
+    // Whether or not the buffers can be copied on the GPU, which is required by buffer rings
+    private final boolean bufferRingsSupported;
+    // Number of draws so far, so the buffer rings know when the current buffer might be in use
+    private long drawCount = 0;
+
+    public GL30VertexArray() {
+        final ContextCapabilities capabilities = GLContext.getCapabilities();
+        coreDrawInstanced = capabilities.OpenGL31;
+        coreInstancedArrays = capabilities.OpenGL33;
+        instancingSupported = (coreDrawInstanced || capabilities.GL_ARB_draw_instanced) && (coreInstancedArrays || capabilities.GL_ARB_instanced_arrays);
+        bufferRingsSupported = BufferRing.isSupported(capabilities);
+    }
 
     @Override
     public void create() {
@@ -75,16 +118,28 @@ public class GL30VertexArray extends VertexArray {
         checkCreated();
         // Delete the indices buffer
         GL15.glDeleteBuffers(indicesBufferID);
+        // Delete the extra buffers of the attribute rings
+        destroyAttributeRings();
         // Delete the attribute buffers
         for (int attributeBufferID : attributeBufferIDs) {
             GL15.glDeleteBuffers(attributeBufferID);
         }
+        // Delete the instance attribute buffers
+        for (int instanceBufferID : instanceBufferIDs.values()) {
+            GL15.glDeleteBuffers(instanceBufferID);
+        }
         // Delete the vao
         GL30.glDeleteVertexArrays(id);
         // Reset the IDs and data
         indicesBufferID = 0;
+        indicesBufferSize = 0;
+        indicesType = DataType.UNSIGNED_INT;
         attributeBufferIDs = EMPTY_ARRAY;
         attributeBufferSizes = EMPTY_ARRAY;
+        attributes = null;
+        interleaved = false;
+        instanceBufferIDs.clear();
+        instanceAttributeSizes.clear();
         // Update the state
         super.destroy();
         // Check for errors
@@ -94,21 +149,28 @@ public class GL30VertexArray extends VertexArray {
     @Override
     public void setData(VertexData vertexData) {
         checkCreated();
+        // Compute the bounds of the positions
+        updateBounds(vertexData);
         // Generate a new indices buffer if we don't have one yet
         if (indicesBufferID == 0) {
             indicesBufferID = GL15.glGenBuffers();
         }
         // Bind the indices buffer
         GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, indicesBufferID);
-        // Get the new count of indices
+        // Get the new count of indices, and store them as the narrowest type which fits them
         final int newIndicesCount = vertexData.getIndicesCount();
-        // If the new count is greater than or 50% smaller than the old one, we'll reallocate the memory
+        indicesType = vertexData.getIndicesType();
+        final ByteBuffer indicesBuffer = vertexData.getIndicesBuffer(indicesType);
+        final int newIndicesBufferSize = indicesBuffer.remaining();
+        // If the new size is greater than or 50% smaller than the old one, we'll reallocate the memory
         // In the first case because we need more space, in the other to save space
-        if (newIndicesCount > indicesCount || newIndicesCount <= indicesCount * 0.5) {
-            GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, vertexData.getIndicesBuffer(), GL15.GL_STATIC_DRAW);
+        // Buffers which change often are always reallocated, which orphans the previous storage instead of waiting for the draws using it
+        if (usage != BufferUsage.STATIC || newIndicesBufferSize > indicesBufferSize || newIndicesBufferSize <= indicesBufferSize * 0.5) {
+            GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, usage.getGLConstant());
+            indicesBufferSize = newIndicesBufferSize;
         } else {
             // Else, we replace the data with the new one, but we don't resize, so some old data might be left trailing in the buffer
-            GL15.glBufferSubData(GL15.GL_ELEMENT_ARRAY_BUFFER, 0, vertexData.getIndicesBuffer());
+            GL15.glBufferSubData(GL15.GL_ELEMENT_ARRAY_BUFFER, 0, indicesBuffer);
         }
         // Unbind the indices buffer
         GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, 0);
@@ -119,11 +181,16 @@ public class GL30VertexArray extends VertexArray {
         // Ensure that the indices offset and count fits inside the valid part of the buffer
         indicesOffset = Math.min(indicesOffset, indicesDrawCount - 1);
         indicesDrawCount -= indicesOffset;
+        // Delete the extra buffers of the attribute rings, the data will be uploaded again
+        destroyAttributeRings();
         // Bind the vao
         GL30.glBindVertexArray(id);
-        // Create a new array of attribute buffers ID of the correct size
+        // Interleaved attributes are all stored in a single buffer
         final int attributeCount = vertexData.getAttributeCount();
-        final int[] newAttributeBufferIDs = new int[attributeCount];
+        interleaved = vertexData.isInterleaved();
+        final int bufferCount = interleaved ? Math.min(attributeCount, 1) : attributeCount;
+        // Create a new array of attribute buffers ID of the correct size
+        final int[] newAttributeBufferIDs = new int[bufferCount];
         // Copy all the old buffer IDs that will fit in the new array so we can reuse them
         System.arraycopy(attributeBufferIDs, 0, newAttributeBufferIDs, 0, Math.min(attributeBufferIDs.length, newAttributeBufferIDs.length));
         // Delete any buffers that we don't need (new array is smaller than the previous one)
@@ -135,36 +202,27 @@ public class GL30VertexArray extends VertexArray {
             newAttributeBufferIDs[i] = GL15.glGenBuffers();
         }
         // Copy the old valid attribute buffer sizes
-        final int[] newAttributeBufferSizes = new int[attributeCount];
+        final int[] newAttributeBufferSizes = new int[bufferCount];
         System.arraycopy(attributeBufferSizes, 0, newAttributeBufferSizes, 0, Math.min(attributeBufferSizes.length, newAttributeBufferSizes.length));
-        // Upload the new vertex data
+        // Upload the new vertex data, interleaving it if needed
+        if (interleaved) {
+            if (bufferCount > 0) {
+                newAttributeBufferSizes[0] = uploadBuffer(newAttributeBufferIDs[0], newAttributeBufferSizes[0], vertexData.getInterleavedBuffer(), usage);
+            }
+        } else {
+            for (int i = 0; i < attributeCount; i++) {
+                newAttributeBufferSizes[i] = uploadBuffer(newAttributeBufferIDs[i], newAttributeBufferSizes[i], vertexData.getAttribute(i).getDataView(), usage);
+            }
+        }
+        final int stride = interleaved ? vertexData.getStride() : 0;
+        attributes = new VertexAttribute[attributeCount];
         for (int i = 0; i < attributeCount; i++) {
             final VertexAttribute attribute = vertexData.getAttribute(i);
-            final ByteBuffer attributeData = attribute.getData();
-            // Get the current buffer size
-            final int bufferSize = newAttributeBufferSizes[i];
-            // Get the new buffer size
-            final int newBufferSize = attributeData.remaining();
-            // Bind the target buffer
-            GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, newAttributeBufferIDs[i]);
-            // If the new count is greater than or 50% smaller than the old one, we'll reallocate the memory
-            if (newBufferSize > bufferSize || newBufferSize <= bufferSize * 0.5) {
-                GL15.glBufferData(GL15.GL_ARRAY_BUFFER, attributeData, GL15.GL_STATIC_DRAW);
-            } else {
-                // Else, we replace the data with the new one, but we don't resize, so some old data might be left trailing in the buffer
-                GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, 0, attributeData);
-            }
-            // Update the buffer size to the new one
-            newAttributeBufferSizes[i] = newBufferSize;
+            attributes[i] = attribute;
+            // Bind the source buffer
+            GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, newAttributeBufferIDs[interleaved ? 0 : i]);
             // Next, we add the pointer to the data in the vao
-            // We have three ways to interpret integer data
-            if (attribute.getType().isInteger() && attribute.getUploadMode() == UploadMode.KEEP_INT) {
-                // Directly as an int
-                GL30.glVertexAttribIPointer(i, attribute.getSize(), attribute.getType().getGLConstant(), 0, 0);
-            } else {
-                // Or as a float, normalized or not
-                GL20.glVertexAttribPointer(i, attribute.getSize(), attribute.getType().getGLConstant(), attribute.getUploadMode().normalize(), 0, 0);
-            }
+            setAttributePointer(i, attribute, stride, interleaved ? vertexData.getAttributeOffset(i) : 0);
             // Finally enable the attribute
             GL20.glEnableVertexAttribArray(i);
         }
@@ -180,6 +238,100 @@ public class GL30VertexArray extends VertexArray {
         LWJGLUtil.checkForGLError();
     }
 
+    private static int uploadBuffer(int bufferID, int bufferSize, ByteBuffer data, BufferUsage usage) {
+        // Get the new buffer size
+        final int newBufferSize = data.remaining();
+        // Bind the target buffer
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, bufferID);
+        // If the new count is greater than or 50% smaller than the old one, we'll reallocate the memory
+        // Buffers which change often are always reallocated, which orphans the previous storage instead of waiting for the draws using it
+        if (usage != BufferUsage.STATIC || newBufferSize > bufferSize || newBufferSize <= bufferSize * 0.5) {
+            GL15.glBufferData(GL15.GL_ARRAY_BUFFER, data, usage.getGLConstant());
+        } else {
+            // Else, we replace the data with the new one, but we don't resize, so some old data might be left trailing in the buffer
+            GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, 0, data);
+        }
+        return newBufferSize;
+    }
+
+    private static void setAttributePointer(int index, VertexAttribute attribute, int stride, int offset) {
+        // We have three ways to interpret integer data
+        if (attribute.getType().isInteger() && attribute.getUploadMode() == UploadMode.KEEP_INT) {
+            // Directly as an int
+            GL30.glVertexAttribIPointer(index, attribute.getSize(), attribute.getType().getGLConstant(), stride, offset);
+        } else {
+            // Or as a float, normalized or not
+            GL20.glVertexAttribPointer(index, attribute.getSize(), attribute.getType().getGLConstant(), attribute.getUploadMode().normalize(), stride, offset);
+        }
+    }
+
+    private void destroyAttributeRings() {
+        if (attributeRings == null) {
+            return;
+        }
+        for (BufferRing ring : attributeRings) {
+            if (ring != null) {
+                ring.destroy();
+            }
+        }
+        attributeRings = null;
+    }
+
+    @Override
+    public void setBufferUsage(BufferUsage usage) {
+        if (usage == null) {
+            throw new IllegalArgumentException("Buffer usage cannot be null");
+        }
+        this.usage = usage;
+    }
+
+    @Override
+    public void updateAttribute(int index, int byteOffset, ByteBuffer data) {
+        checkCreated();
+        checkAttributeUpdate(index, byteOffset, data);
+        if (interleaved) {
+            throw new IllegalStateException("Cannot update a single attribute of interleaved vertex data");
+        }
+        if (index >= attributeBufferIDs.length) {
+            throw new IllegalArgumentException("No attribute at index: " + index);
+        }
+        final int size = data.remaining();
+        final int bufferSize = attributeBufferSizes[index];
+        if (byteOffset + size > bufferSize) {
+            throw new IllegalArgumentException("Update exceeds the attribute data size of " + bufferSize + " bytes");
+        }
+        // Grow the bounds if the positions moved
+        updateBounds(index, byteOffset, data);
+        if (usage != BufferUsage.STATIC && bufferRingsSupported) {
+            // Write the update to a buffer of the attribute's ring which no draw is using, instead of waiting for them
+            if (attributeRings == null) {
+                attributeRings = new BufferRing[attributeBufferIDs.length];
+            }
+            BufferRing ring = attributeRings[index];
+            if (ring == null) {
+                ring = new BufferRing(attributeBufferIDs[index], bufferSize, usage.getGLConstant());
+                attributeRings[index] = ring;
+            }
+            final int bufferID = ring.update(byteOffset, data, drawCount);
+            if (bufferID != attributeBufferIDs[index]) {
+                // The ring moved to another buffer, point the vao at it
+                attributeBufferIDs[index] = bufferID;
+                GL30.glBindVertexArray(id);
+                GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, bufferID);
+                setAttributePointer(index, attributes[index], 0, 0);
+                GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+                GL30.glBindVertexArray(0);
+            }
+        } else {
+            // Else, we replace the range, which might wait for the draws using the buffer
+            GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, attributeBufferIDs[index]);
+            GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, byteOffset, data);
+            GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+        }
+        // Check for errors
+        LWJGLUtil.checkForGLError();
+    }
+
     @Override
     public void setDrawingMode(DrawingMode mode) {
         if (mode == null) {
@@ -218,15 +370,107 @@ public class GL30VertexArray extends VertexArray {
         // Set the polygon mode
         GL11.glPolygonMode(GL11.GL_FRONT_AND_BACK, polygonMode.getGLConstant());
         // Draw all indices with the provided mode
-        GL11.glDrawElements(drawingMode.getGLConstant(), indicesDrawCount, GL11.GL_UNSIGNED_INT, indicesOffset * DataType.INT.getByteSize());
+        GL11.glDrawElements(drawingMode.getGLConstant(), indicesDrawCount, indicesType.getGLConstant(), indicesOffset * indicesType.getByteSize());
+        // Unbind the index buffer
+        GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, 0);
+        // Unbind the vao
+        GL30.glBindVertexArray(0);
+        // The buffers might now be in use until the draw completes
+        drawCount++;
+        // Check for errors
+        LWJGLUtil.checkForGLError();
+    }
+
+    @Override
+    public boolean isInstancingSupported() {
+        return instancingSupported;
+    }
+
+    @Override
+    public void setInstanceAttribute(int index, int size, FloatBuffer data) {
+        checkCreated();
+        checkInstancingSupported();
+        checkInstanceAttribute(index, size, data);
+        // Generate a new buffer for the attribute if we don't have one yet
+        int bufferID = instanceBufferIDs.get(index);
+        if (bufferID == 0) {
+            bufferID = GL15.glGenBuffers();
+            instanceBufferIDs.put(index, bufferID);
+        }
+        // Bind the buffer
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, bufferID);
+        // The data is respecified entirely, which lets the driver give us new storage instead of waiting for the draw calls still using the old one
+        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, data, GL15.GL_STREAM_DRAW);
+        // Only setup the pointers in the vao when the attribute is new or its size changed
+        final int oldSize = instanceAttributeSizes.get(index);
+        if (oldSize != size) {
+            // Bind the vao
+            GL30.glBindVertexArray(id);
+            // Attributes larger than a vector span consecutive indices, each one taking the next 4 components
+            final int locations = size + 3 >> 2;
+            final int components = Math.min(size, 4);
+            final int stride = size * DataType.FLOAT.getByteSize();
+            for (int i = 0; i < locations; i++) {
+                GL20.glVertexAttribPointer(index + i, components, GL11.GL_FLOAT, false, stride, i * 4 * DataType.FLOAT.getByteSize());
+                GL20.glEnableVertexAttribArray(index + i);
+                // Advance once per instance instead of once per vertex
+                setAttributeDivisor(index + i, 1);
+            }
+            // Disable the indices left over by a previously larger attribute
+            for (int i = locations; i < oldSize + 3 >> 2; i++) {
+                GL20.glDisableVertexAttribArray(index + i);
+                setAttributeDivisor(index + i, 0);
+            }
+            // Unbind the vao
+            GL30.glBindVertexArray(0);
+            instanceAttributeSizes.put(index, size);
+        }
+        // Unbind the buffer
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+        // Check for errors
+        LWJGLUtil.checkForGLError();
+    }
+
+    @Override
+    public void drawInstanced(int count) {
+        checkCreated();
+        checkInstancingSupported();
+        // Bind the vao
+        GL30.glBindVertexArray(id);
+        // Bind the index buffer
+        GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, indicesBufferID);
+        // Set the polygon mode
+        GL11.glPolygonMode(GL11.GL_FRONT_AND_BACK, polygonMode.getGLConstant());
+        // Draw all indices with the provided mode, once per instance
+        if (coreDrawInstanced) {
+            GL31.glDrawElementsInstanced(drawingMode.getGLConstant(), indicesDrawCount, indicesType.getGLConstant(), indicesOffset * indicesType.getByteSize(), count);
+        } else {
+            ARBDrawInstanced.glDrawElementsInstancedARB(drawingMode.getGLConstant(), indicesDrawCount, indicesType.getGLConstant(), indicesOffset * indicesType.getByteSize(), count);
+        }
         // Unbind the index buffer
         GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, 0);
         // Unbind the vao
         GL30.glBindVertexArray(0);
+        // The buffers might now be in use until the draw completes
+        drawCount++;
         // Check for errors
         LWJGLUtil.checkForGLError();
     }
 
+    private void checkInstancingSupported() {
+        if (!instancingSupported) {
+            throw new UnsupportedOperationException("Instanced rendering is not supported by this vertex array");
+        }
+    }
+
+    private void setAttributeDivisor(int index, int divisor) {
+        if (coreInstancedArrays) {
+            GL33.glVertexAttribDivisor(index, divisor);
+        } else {
+            ARBInstancedArrays.glVertexAttribDivisorARB(index, divisor);
+        }
+    }
+
     @Override
     public GLVersion getGLVersion() {
         return GLVersion.GL30;
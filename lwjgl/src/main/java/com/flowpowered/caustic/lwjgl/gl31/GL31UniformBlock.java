@@ -0,0 +1,150 @@
+/*
+ * This file is part of Caustic LWJGL, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.lwjgl.gl31;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+
+import com.flowpowered.caustic.api.gl.Program;
+import com.flowpowered.caustic.api.gl.UniformBlock;
+import com.flowpowered.caustic.api.util.CausticUtil;
+import com.flowpowered.caustic.lwjgl.LWJGLUtil;
+
+/**
+ * An OpenGL 3.1 implementation of {@link UniformBlock}, using a uniform buffer (also available through the ARB_uniform_buffer_object extension). Each block uses its own binding point. The elements
+ * of the ring are stored one after the other in the buffer, which is orphaned each time the ring wraps around, so that updating it doesn't wait for the draw calls still reading the previous
+ * elements.
+ *
+ * @see UniformBlock
+ */
+public class GL31UniformBlock extends UniformBlock {
+    // The binding points used by the blocks
+    private static final BitSet BINDINGS = new BitSet();
+    private int binding = -1;
+    // The alignment of the element offsets, as required by the implementation
+    private int offsetAlignment;
+    // Buffer for writing the uniforms of an element
+    private ByteBuffer data;
+    // The layout of the buffer storage, the stride is the aligned size of an element
+    private int stride = 0;
+    private int allocatedCapacity = 0;
+    // The index of the last updated element
+    private int element = -1;
+
+    @Override
+    public void create() {
+        checkNotCreated();
+        // Find a free binding point
+        binding = BINDINGS.nextClearBit(0);
+        if (binding >= GL11.glGetInteger(GL31.GL_MAX_UNIFORM_BUFFER_BINDINGS)) {
+            throw new IllegalStateException("No uniform buffer binding point left");
+        }
+        BINDINGS.set(binding);
+        offsetAlignment = Math.max(GL11.glGetInteger(GL31.GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT), 1);
+        // Generate the buffer
+        id = GL15.glGenBuffers();
+        // Update the state
+        super.create();
+        // Check for errors
+        LWJGLUtil.checkForGLError();
+    }
+
+    @Override
+    public void destroy() {
+        checkCreated();
+        // Delete the buffer
+        GL15.glDeleteBuffers(id);
+        // Release the binding point
+        BINDINGS.clear(binding);
+        binding = -1;
+        // Reset the data
+        data = null;
+        stride = 0;
+        allocatedCapacity = 0;
+        element = -1;
+        // Update the state
+        super.destroy();
+        // Check for errors
+        LWJGLUtil.checkForGLError();
+    }
+
+    @Override
+    public void update() {
+        checkCreated();
+        // Write the uniforms, growing the buffer if needed
+        final int size = write(null);
+        if (data == null || data.capacity() < size) {
+            data = CausticUtil.createByteBuffer(size);
+        }
+        data.clear();
+        write(data);
+        data.limit(size);
+        final int stride = (size + offsetAlignment - 1) / offsetAlignment * offsetAlignment;
+        element++;
+        GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, id);
+        if (stride != this.stride || capacity != allocatedCapacity || element >= capacity) {
+            // Orphan the storage, the draw calls still reading it keep the old one
+            GL15.glBufferData(GL31.GL_UNIFORM_BUFFER, (long) stride * capacity, GL15.GL_STREAM_DRAW);
+            this.stride = stride;
+            allocatedCapacity = capacity;
+            element = 0;
+        }
+        final long offset = (long) element * stride;
+        GL15.glBufferSubData(GL31.GL_UNIFORM_BUFFER, offset, data);
+        GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, 0);
+        // Bind the element to the binding point of the block
+        GL30.glBindBufferRange(GL31.GL_UNIFORM_BUFFER, binding, id, offset, size);
+        // Check for errors
+        LWJGLUtil.checkForGLError();
+    }
+
+    @Override
+    public void bind(Program program) {
+        checkCreated();
+        if (program.getUniformBlockNames().contains(name)) {
+            program.bindUniformBlock(name, binding);
+        } else {
+            upload(program);
+        }
+    }
+
+    /**
+     * Returns the uniform buffer binding point used by this block.
+     *
+     * @return The binding point
+     */
+    public int getBinding() {
+        return binding;
+    }
+
+    @Override
+    public GLVersion getGLVersion() {
+        return GLVersion.GL31;
+    }
+}
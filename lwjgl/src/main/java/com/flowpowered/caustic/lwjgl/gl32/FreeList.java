@@ -0,0 +1,103 @@
+/*
+ * This file is part of Caustic LWJGL, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.lwjgl.gl32;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * Allocates ranges of a buffer, in arbitrary units, using a list of the free ranges sorted by start. Allocation takes the first range which is large enough, and freeing a range merges it with its
+ * free neighbours.
+ */
+class FreeList {
+    private final TIntList starts = new TIntArrayList();
+    private final TIntList lengths = new TIntArrayList();
+    private int capacity = 0;
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    int allocate(int length) {
+        for (int i = 0; i < starts.size(); i++) {
+            final int free = lengths.get(i);
+            if (free >= length) {
+                final int start = starts.get(i);
+                if (free == length) {
+                    starts.removeAt(i);
+                    lengths.removeAt(i);
+                } else {
+                    starts.set(i, start + length);
+                    lengths.set(i, free - length);
+                }
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    void free(int start, int length) {
+        if (length <= 0) {
+            return;
+        }
+        // Find where the range goes in the sorted list
+        int i = starts.binarySearch(start);
+        if (i >= 0) {
+            throw new IllegalStateException("Range is already free: " + start);
+        }
+        i = -i - 1;
+        // Merge with the previous range if it ends at the start
+        if (i > 0 && starts.get(i - 1) + lengths.get(i - 1) == start) {
+            i--;
+            start = starts.get(i);
+            length += lengths.get(i);
+            starts.removeAt(i);
+            lengths.removeAt(i);
+        }
+        // Merge with the next range if it starts at the end
+        if (i < starts.size() && start + length == starts.get(i)) {
+            length += lengths.get(i);
+            starts.removeAt(i);
+            lengths.removeAt(i);
+        }
+        starts.insert(i, start);
+        lengths.insert(i, length);
+    }
+
+    void grow(int capacity) {
+        if (capacity <= this.capacity) {
+            return;
+        }
+        final int old = this.capacity;
+        this.capacity = capacity;
+        free(old, capacity - old);
+    }
+
+    void reset(int used, int capacity) {
+        starts.clear();
+        lengths.clear();
+        this.capacity = capacity;
+        free(used, capacity - used);
+    }
+}
@@ -24,7 +24,11 @@
 package com.flowpowered.caustic.lwjgl.gl32;
 
 import org.lwjgl.opengl.ContextAttribs;
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GLContext;
 
+import com.flowpowered.caustic.api.gl.MeshPool;
+import com.flowpowered.caustic.api.gl.TimerQuery;
 import com.flowpowered.caustic.api.gl.VertexArray;
 import com.flowpowered.caustic.lwjgl.gl30.GL30Context;
 import com.flowpowered.caustic.lwjgl.gl30.GL30VertexArray;
@@ -49,6 +53,26 @@ public class GL32Context extends GL30Context {
         return new GL30VertexArray();
     }
 
+    @Override
+    public MeshPool newMeshPool() {
+        return new GL32MeshPool();
+    }
+
+    @Override
+    public boolean hasTimerQueries() {
+        checkCreated();
+        final ContextCapabilities capabilities = GLContext.getCapabilities();
+        return capabilities.OpenGL33 || capabilities.GL_ARB_timer_query;
+    }
+
+    @Override
+    public TimerQuery newTimerQuery() {
+        if (!hasTimerQueries()) {
+            throw new UnsupportedOperationException("Timer queries are not supported by this context");
+        }
+        return new GL32TimerQuery();
+    }
+
     @Override
     public GLVersion getGLVersion() {
         return GLVersion.GL32;
@@ -0,0 +1,382 @@
+/*
+ * This file is part of Caustic LWJGL, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.lwjgl.gl32;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lwjgl.opengl.ARBCopyBuffer;
+import org.lwjgl.opengl.ARBDrawElementsBaseVertex;
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.opengl.GLContext;
+
+import com.flowpowered.caustic.api.data.VertexAttribute;
+import com.flowpowered.caustic.api.data.VertexAttribute.DataType;
+import com.flowpowered.caustic.api.data.VertexAttribute.UploadMode;
+import com.flowpowered.caustic.api.data.VertexData;
+import com.flowpowered.caustic.api.gl.MeshPool;
+import com.flowpowered.caustic.api.gl.VertexArray;
+import com.flowpowered.caustic.api.gl.VertexArray.DrawingMode;
+import com.flowpowered.caustic.api.gl.VertexArray.PolygonMode;
+import com.flowpowered.caustic.lwjgl.LWJGLUtil;
+
+/**
+ * An OpenGL 3.2 implementation of {@link MeshPool}, which requires a vertex array object, drawing with a base vertex and copying between buffers (also available through the
+ * ARB_draw_elements_base_vertex and ARB_copy_buffer extensions). The vertices of the meshes are interleaved in a single buffer, and the indices are stored as ints in another. Since the indices are
+ * relative to the first vertex of their mesh, the meshes are drawn with a base vertex and their indices never have to be rewritten when they move.
+ *
+ * @see MeshPool
+ */
+public class GL32MeshPool extends MeshPool {
+    // Minimum number of vertices or indices to grow the buffers by
+    private static final int MINIMUM_GROWTH = 1024;
+    private static final int INDEX_SIZE = DataType.UNSIGNED_INT.getByteSize();
+    private final boolean coreCopyBuffer;
+    private final boolean coreBaseVertex;
+    // Buffer IDs
+    private int vertexBufferID = 0;
+    private int indexBufferID = 0;
+    // Allocators for the vertices and indices, in vertices and indices respectively
+    private final FreeList vertexAllocator = new FreeList();
+    private final FreeList indexAllocator = new FreeList();
+    // The meshes with data in the pool
+    private final List<GL32PooledVertexArray> meshes = new ArrayList<>();
+    // The attribute format, set by the first data, with the offsets of the attributes in a vertex and the size of a vertex, in bytes
+    private VertexAttribute[] format;
+    private int[] attributeOffsets;
+    private int stride;
+    // Whether or not the pool has been bound by the user
+    private boolean bound = false;
+
+    public GL32MeshPool() {
+        final ContextCapabilities capabilities = GLContext.getCapabilities();
+        coreCopyBuffer = capabilities.OpenGL31;
+        coreBaseVertex = capabilities.OpenGL32;
+    }
+
+    @Override
+    public void create() {
+        checkNotCreated();
+        // Generate the vao and buffers
+        id = GL30.glGenVertexArrays();
+        vertexBufferID = GL15.glGenBuffers();
+        indexBufferID = GL15.glGenBuffers();
+        // Update state
+        super.create();
+        // Check for errors
+        LWJGLUtil.checkForGLError();
+    }
+
+    @Override
+    public void destroy() {
+        checkCreated();
+        // Delete the buffers and the vao
+        GL15.glDeleteBuffers(vertexBufferID);
+        GL15.glDeleteBuffers(indexBufferID);
+        GL30.glDeleteVertexArrays(id);
+        // Reset the IDs and data
+        vertexBufferID = 0;
+        indexBufferID = 0;
+        vertexAllocator.reset(0, 0);
+        indexAllocator.reset(0, 0);
+        meshes.clear();
+        format = null;
+        attributeOffsets = null;
+        stride = 0;
+        bound = false;
+        // Update the state
+        super.destroy();
+        // Check for errors
+        LWJGLUtil.checkForGLError();
+    }
+
+    @Override
+    public VertexArray newMesh() {
+        checkCreated();
+        return new GL32PooledVertexArray(this);
+    }
+
+    @Override
+    public void compact() {
+        checkCreated();
+        // Count the space used by the meshes
+        int vertexCount = 0, indexCount = 0;
+        for (GL32PooledVertexArray mesh : meshes) {
+            vertexCount += mesh.getVertexCount();
+            indexCount += mesh.getIndexCount();
+        }
+        // Copy the data of each mesh after the previous one, in new buffers of the exact size
+        final int newVertexBufferID = createBuffer(vertexCount * stride);
+        final int newIndexBufferID = createBuffer(indexCount * INDEX_SIZE);
+        int vertexOffset = 0, indexOffset = 0;
+        for (GL32PooledVertexArray mesh : meshes) {
+            copyBuffer(vertexBufferID, newVertexBufferID, mesh.getVertexOffset() * stride, vertexOffset * stride, mesh.getVertexCount() * stride);
+            copyBuffer(indexBufferID, newIndexBufferID, mesh.getIndexOffset() * INDEX_SIZE, indexOffset * INDEX_SIZE, mesh.getIndexCount() * INDEX_SIZE);
+            mesh.setRanges(vertexOffset, mesh.getVertexCount(), indexOffset, mesh.getIndexCount());
+            vertexOffset += mesh.getVertexCount();
+            indexOffset += mesh.getIndexCount();
+        }
+        // Replace the buffers
+        GL15.glDeleteBuffers(vertexBufferID);
+        GL15.glDeleteBuffers(indexBufferID);
+        vertexBufferID = newVertexBufferID;
+        indexBufferID = newIndexBufferID;
+        vertexAllocator.reset(vertexCount, vertexCount);
+        indexAllocator.reset(indexCount, indexCount);
+        updateVertexArray();
+        // Check for errors
+        LWJGLUtil.checkForGLError();
+    }
+
+    @Override
+    public void bind() {
+        checkCreated();
+        GL30.glBindVertexArray(id);
+        bound = true;
+    }
+
+    @Override
+    public void unbind() {
+        checkCreated();
+        GL30.glBindVertexArray(0);
+        bound = false;
+    }
+
+    @Override
+    public void draw(List<? extends VertexArray> meshes) {
+        checkCreated();
+        if (meshes == null) {
+            throw new IllegalArgumentException("Meshes cannot be null");
+        }
+        if (meshes.isEmpty()) {
+            return;
+        }
+        // Check that the meshes are from this pool, and have the same modes
+        DrawingMode drawingMode = null;
+        PolygonMode polygonMode = null;
+        for (VertexArray vertexArray : meshes) {
+            final GL32PooledVertexArray mesh = checkMesh(vertexArray);
+            if (drawingMode == null) {
+                drawingMode = mesh.getDrawingMode();
+                polygonMode = mesh.getPolygonMode();
+            } else if (mesh.getDrawingMode() != drawingMode || mesh.getPolygonMode() != polygonMode) {
+                throw new IllegalArgumentException("Meshes must have the same drawing and polygon modes");
+            }
+        }
+        // LWJGL doesn't expose glMultiDrawElementsBaseVertex, so the meshes are drawn one after the other, with a single vao bind
+        if (!bound) {
+            GL30.glBindVertexArray(id);
+        }
+        GL11.glPolygonMode(GL11.GL_FRONT_AND_BACK, polygonMode.getGLConstant());
+        for (VertexArray vertexArray : meshes) {
+            final GL32PooledVertexArray mesh = (GL32PooledVertexArray) vertexArray;
+            drawElements(drawingMode, mesh);
+        }
+        if (!bound) {
+            GL30.glBindVertexArray(0);
+        }
+        // Check for errors
+        LWJGLUtil.checkForGLError();
+    }
+
+    @Override
+    public GLVersion getGLVersion() {
+        return GLVersion.GL32;
+    }
+
+    void setData(GL32PooledVertexArray mesh, VertexData vertexData) {
+        checkCreated();
+        checkFormat(vertexData);
+        // Release the previous data of the mesh
+        release(mesh);
+        // Allocate the space for the new data, growing the buffers if needed
+        final int vertexCount = vertexData.getVertexCount();
+        final int indexCount = vertexData.getIndicesCount();
+        final int vertexOffset = allocate(vertexAllocator, vertexCount, true);
+        final int indexOffset = allocate(indexAllocator, indexCount, false);
+        // Upload the data, through the copy target so that the binding of the vao isn't changed
+        if (vertexCount > 0) {
+            GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, vertexBufferID);
+            GL15.glBufferSubData(GL31.GL_COPY_WRITE_BUFFER, (long) vertexOffset * stride, vertexData.getInterleavedBuffer());
+        }
+        if (indexCount > 0) {
+            GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, indexBufferID);
+            GL15.glBufferSubData(GL31.GL_COPY_WRITE_BUFFER, (long) indexOffset * INDEX_SIZE, vertexData.getIndicesBuffer(DataType.UNSIGNED_INT));
+        }
+        GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+        mesh.setRanges(vertexOffset, vertexCount, indexOffset, indexCount);
+        meshes.add(mesh);
+        // Check for errors
+        LWJGLUtil.checkForGLError();
+    }
+
+    void release(GL32PooledVertexArray mesh) {
+        if (meshes.remove(mesh)) {
+            vertexAllocator.free(mesh.getVertexOffset(), mesh.getVertexCount());
+            indexAllocator.free(mesh.getIndexOffset(), mesh.getIndexCount());
+            mesh.setRanges(0, 0, 0, 0);
+        }
+    }
+
+    void draw(GL32PooledVertexArray mesh) {
+        checkCreated();
+        if (!bound) {
+            GL30.glBindVertexArray(id);
+        }
+        GL11.glPolygonMode(GL11.GL_FRONT_AND_BACK, mesh.getPolygonMode().getGLConstant());
+        drawElements(mesh.getDrawingMode(), mesh);
+        if (!bound) {
+            GL30.glBindVertexArray(0);
+        }
+        // Check for errors
+        LWJGLUtil.checkForGLError();
+    }
+
+    private void drawElements(DrawingMode drawingMode, GL32PooledVertexArray mesh) {
+        final int count = mesh.getIndicesDrawCount();
+        if (count <= 0) {
+            return;
+        }
+        final long offset = (long) (mesh.getIndexOffset() + mesh.getIndicesOffset()) * INDEX_SIZE;
+        if (coreBaseVertex) {
+            GL32.glDrawElementsBaseVertex(drawingMode.getGLConstant(), count, GL11.GL_UNSIGNED_INT, offset, mesh.getVertexOffset());
+        } else {
+            ARBDrawElementsBaseVertex.glDrawElementsBaseVertex(drawingMode.getGLConstant(), count, GL11.GL_UNSIGNED_INT, offset, mesh.getVertexOffset());
+        }
+    }
+
+    private GL32PooledVertexArray checkMesh(VertexArray vertexArray) {
+        if (!(vertexArray instanceof GL32PooledVertexArray) || ((GL32PooledVertexArray) vertexArray).getPool() != this) {
+            throw new IllegalArgumentException("Mesh is not from this pool");
+        }
+        final GL32PooledVertexArray mesh = (GL32PooledVertexArray) vertexArray;
+        mesh.checkCreated();
+        return mesh;
+    }
+
+    private void checkFormat(VertexData vertexData) {
+        final int attributeCount = vertexData.getAttributeCount();
+        if (format == null) {
+            // The first data sets the format of the pool
+            format = new VertexAttribute[attributeCount];
+            attributeOffsets = new int[attributeCount];
+            for (int i = 0; i < attributeCount; i++) {
+                final VertexAttribute attribute = vertexData.getAttribute(i);
+                format[i] = new VertexAttribute(attribute.getName(), attribute.getType(), attribute.getSize(), attribute.getUploadMode());
+                attributeOffsets[i] = vertexData.getAttributeOffset(i);
+            }
+            stride = vertexData.getStride();
+            updateVertexArray();
+            return;
+        }
+        if (attributeCount != format.length) {
+            throw new IllegalArgumentException("Vertex data must have the same attribute format as the pool");
+        }
+        for (int i = 0; i < attributeCount; i++) {
+            final VertexAttribute attribute = vertexData.getAttribute(i);
+            final VertexAttribute expected = format[i];
+            if (attribute.getType() != expected.getType() || attribute.getSize() != expected.getSize() || attribute.getUploadMode() != expected.getUploadMode()) {
+                throw new IllegalArgumentException("Vertex data must have the same attribute format as the pool");
+            }
+        }
+    }
+
+    private int allocate(FreeList allocator, int length, boolean vertices) {
+        if (length <= 0) {
+            return 0;
+        }
+        int offset = allocator.allocate(length);
+        if (offset < 0) {
+            // Grow the buffer, at least doubling it, and copy the old data
+            final int capacity = allocator.getCapacity();
+            final int newCapacity = Math.max(capacity + Math.max(length, MINIMUM_GROWTH), capacity * 2);
+            final int elementSize = vertices ? stride : INDEX_SIZE;
+            final int oldBufferID = vertices ? vertexBufferID : indexBufferID;
+            final int newBufferID = createBuffer(newCapacity * elementSize);
+            copyBuffer(oldBufferID, newBufferID, 0, 0, capacity * elementSize);
+            GL15.glDeleteBuffers(oldBufferID);
+            if (vertices) {
+                vertexBufferID = newBufferID;
+            } else {
+                indexBufferID = newBufferID;
+            }
+            allocator.grow(newCapacity);
+            updateVertexArray();
+            offset = allocator.allocate(length);
+        }
+        return offset;
+    }
+
+    private int createBuffer(int size) {
+        final int bufferID = GL15.glGenBuffers();
+        GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, bufferID);
+        GL15.glBufferData(GL31.GL_COPY_WRITE_BUFFER, size, GL15.GL_STATIC_DRAW);
+        GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+        return bufferID;
+    }
+
+    private void copyBuffer(int sourceID, int destinationID, int sourceOffset, int destinationOffset, int size) {
+        if (size <= 0) {
+            return;
+        }
+        GL15.glBindBuffer(GL31.GL_COPY_READ_BUFFER, sourceID);
+        GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, destinationID);
+        if (coreCopyBuffer) {
+            GL31.glCopyBufferSubData(GL31.GL_COPY_READ_BUFFER, GL31.GL_COPY_WRITE_BUFFER, sourceOffset, destinationOffset, size);
+        } else {
+            ARBCopyBuffer.glCopyBufferSubData(GL31.GL_COPY_READ_BUFFER, GL31.GL_COPY_WRITE_BUFFER, sourceOffset, destinationOffset, size);
+        }
+        GL15.glBindBuffer(GL31.GL_COPY_READ_BUFFER, 0);
+        GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+    }
+
+    private void updateVertexArray() {
+        // Point the attributes and the indices to the current buffers
+        GL30.glBindVertexArray(id);
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vertexBufferID);
+        final int attributeCount = format != null ? format.length : 0;
+        for (int i = 0; i < attributeCount; i++) {
+            final VertexAttribute attribute = format[i];
+            // We have three ways to interpret integer data
+            if (attribute.getType().isInteger() && attribute.getUploadMode() == UploadMode.KEEP_INT) {
+                // Directly as an int
+                GL30.glVertexAttribIPointer(i, attribute.getSize(), attribute.getType().getGLConstant(), stride, attributeOffsets[i]);
+            } else {
+                // Or as a float, normalized or not
+                GL20.glVertexAttribPointer(i, attribute.getSize(), attribute.getType().getGLConstant(), attribute.getUploadMode().normalize(), stride, attributeOffsets[i]);
+            }
+            GL20.glEnableVertexAttribArray(i);
+        }
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+        GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, indexBufferID);
+        // Keep the vao bound if the user bound the pool
+        GL30.glBindVertexArray(bound ? id : 0);
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * This file is part of Caustic LWJGL, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.lwjgl.gl32;
+
+import java.nio.ByteBuffer;
+
+import com.flowpowered.caustic.api.data.VertexData;
+import com.flowpowered.caustic.api.gl.VertexArray;
+
+/**
+ * A mesh of a {@link GL32MeshPool}. The data is stored in the pool buffers, interleaved, and the mesh is drawn with a base vertex using the pool's vertex array object.
+ *
+ * @see GL32MeshPool
+ */
+public class GL32PooledVertexArray extends VertexArray {
+    private final GL32MeshPool pool;
+    // Ranges of the data in the pool buffers, in vertices and indices
+    private int vertexOffset = 0, vertexCount = 0;
+    private int indexOffset = 0, indexCount = 0;
+    // Amount of indices to render
+    private int indicesDrawCount = 0;
+    // First index to render
+    private int indicesOffset = 0;
+    // Drawing mode
+    private DrawingMode drawingMode = DrawingMode.TRIANGLES;
+    // Polygon mode
+    private PolygonMode polygonMode = PolygonMode.FILL;
+
+    GL32PooledVertexArray(GL32MeshPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void create() {
+        checkNotCreated();
+        pool.checkCreated();
+        // The vao is the one of the pool
+        id = pool.getID();
+        // Update state
+        super.create();
+    }
+
+    @Override
+    public void destroy() {
+        checkCreated();
+        // Release the space in the pool
+        if (pool.isCreated()) {
+            pool.release(this);
+        }
+        indicesDrawCount = 0;
+        indicesOffset = 0;
+        // Update the state
+        super.destroy();
+    }
+
+    @Override
+    public void setData(VertexData vertexData) {
+        checkCreated();
+        // Compute the bounds of the positions
+        updateBounds(vertexData);
+        // Store the data in the pool
+        pool.setData(this, vertexData);
+        // Ensure the count fits under the total one
+        indicesDrawCount = indicesDrawCount <= 0 ? indexCount : Math.min(indicesDrawCount, indexCount);
+        // Ensure that the indices offset and count fits inside the valid part of the buffer
+        indicesOffset = Math.min(indicesOffset, indicesDrawCount - 1);
+        indicesDrawCount -= indicesOffset;
+    }
+
+    @Override
+    public void setBufferUsage(BufferUsage usage) {
+        if (usage == null) {
+            throw new IllegalArgumentException("Buffer usage cannot be null");
+        }
+        // The buffers are shared by the whole pool, so the hint is ignored
+    }
+
+    @Override
+    public void updateAttribute(int index, int byteOffset, ByteBuffer data) {
+        checkCreated();
+        checkAttributeUpdate(index, byteOffset, data);
+        throw new IllegalStateException("Cannot update a single attribute of pooled vertex data, which is interleaved");
+    }
+
+    @Override
+    public void setDrawingMode(DrawingMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("Drawing mode cannot be null");
+        }
+        this.drawingMode = mode;
+    }
+
+    @Override
+    public void setPolygonMode(PolygonMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("Polygon mode cannot be null");
+        }
+        polygonMode = mode;
+    }
+
+    @Override
+    public void setIndicesOffset(int offset) {
+        indicesOffset = Math.min(offset, indexCount - 1);
+        indicesDrawCount = Math.min(indicesDrawCount, indexCount - indicesOffset);
+    }
+
+    @Override
+    public void setIndicesCount(int count) {
+        indicesDrawCount = count <= 0 ? indexCount : count;
+        indicesDrawCount = Math.min(indicesDrawCount, indexCount - indicesOffset);
+    }
+
+    @Override
+    public void draw() {
+        checkCreated();
+        pool.draw(this);
+    }
+
+    @Override
+    public GLVersion getGLVersion() {
+        return GLVersion.GL32;
+    }
+
+    GL32MeshPool getPool() {
+        return pool;
+    }
+
+    void setRanges(int vertexOffset, int vertexCount, int indexOffset, int indexCount) {
+        this.vertexOffset = vertexOffset;
+        this.vertexCount = vertexCount;
+        this.indexOffset = indexOffset;
+        this.indexCount = indexCount;
+    }
+
+    int getVertexOffset() {
+        return vertexOffset;
+    }
+
+    int getVertexCount() {
+        return vertexCount;
+    }
+
+    int getIndexOffset() {
+        return indexOffset;
+    }
+
+    int getIndexCount() {
+        return indexCount;
+    }
+
+    int getIndicesOffset() {
+        return indicesOffset;
+    }
+
+    int getIndicesDrawCount() {
+        return indicesDrawCount;
+    }
+
+    DrawingMode getDrawingMode() {
+        return drawingMode;
+    }
+
+    PolygonMode getPolygonMode() {
+        return polygonMode;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * This file is part of Caustic LWJGL, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.lwjgl.gl32;
+
+import org.lwjgl.opengl.ARBTimerQuery;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+
+import com.flowpowered.caustic.api.gl.TimerQuery;
+import com.flowpowered.caustic.lwjgl.LWJGLUtil;
+
+/**
+ * An OpenGL 3.2 implementation of {@link TimerQuery}, using the ARB_timer_query extension (core in OpenGL 3.3).
+ *
+ * @see TimerQuery
+ */
+public class GL32TimerQuery extends TimerQuery {
+    @Override
+    public void create() {
+        checkNotCreated();
+        // Generate the query
+        id = GL15.glGenQueries();
+        // Update the state
+        super.create();
+        // Check for errors
+        LWJGLUtil.checkForGLError();
+    }
+
+    @Override
+    public void destroy() {
+        checkCreated();
+        // Delete the query
+        GL15.glDeleteQueries(id);
+        // Update the state
+        super.destroy();
+        // Check for errors
+        LWJGLUtil.checkForGLError();
+    }
+
+    @Override
+    public void begin() {
+        checkCreated();
+        GL15.glBeginQuery(ARBTimerQuery.GL_TIME_ELAPSED, id);
+        // Check for errors
+        LWJGLUtil.checkForGLError();
+    }
+
+    @Override
+    public void end() {
+        checkCreated();
+        GL15.glEndQuery(ARBTimerQuery.GL_TIME_ELAPSED);
+        // Check for errors
+        LWJGLUtil.checkForGLError();
+    }
+
+    @Override
+    public boolean isResultAvailable() {
+        checkCreated();
+        final boolean available = GL15.glGetQueryObjecti(id, GL15.GL_QUERY_RESULT_AVAILABLE) == GL11.GL_TRUE;
+        // Check for errors
+        LWJGLUtil.checkForGLError();
+        return available;
+    }
+
+    @Override
+    public long getResult() {
+        checkCreated();
+        // Waits for the GPU if necessary
+        final long result = ARBTimerQuery.glGetQueryObjectui64(id, GL15.GL_QUERY_RESULT);
+        // Check for errors
+        LWJGLUtil.checkForGLError();
+        return result;
+    }
+
+    @Override
+    public GLVersion getGLVersion() {
+        return GLVersion.GL32;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * This file is part of Caustic Software, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.software;
+
+import com.flowpowered.caustic.api.gl.Context.BlendFunction;
+
+/**
+ *
+ */
+class Blender {
+    // Specialized modes for the common function pairs
+    static final int GENERIC = 0;
+    static final int ALPHA = 1;
+    static final int ADDITIVE = 2;
+    private final BlendFunction source;
+    private final BlendFunction destination;
+    private final int mode;
+
+    Blender(BlendFunction source, BlendFunction destination) {
+        this.source = source;
+        this.destination = destination;
+        if (source == BlendFunction.GL_SRC_ALPHA && destination == BlendFunction.GL_ONE_MINUS_SRC_ALPHA) {
+            mode = ALPHA;
+        } else if (source == BlendFunction.GL_ONE && destination == BlendFunction.GL_ONE) {
+            mode = ADDITIVE;
+        } else {
+            mode = GENERIC;
+        }
+    }
+
+    int getMode() {
+        return mode;
+    }
+
+    float blend(boolean alpha, float s, float d, float sa, float da) {
+        switch (mode) {
+            case ALPHA:
+                return s * sa + d * (1 - sa);
+            case ADDITIVE:
+                return s + d;
+            default:
+                return s * getFactor(source, alpha, s, d, sa, da) + d * getFactor(destination, alpha, s, d, sa, da);
+        }
+    }
+
+    static int blendAlpha(int source, int destination) {
+        final int sa = source >>> 24;
+        final int da = 255 - sa;
+        // Blend two channels at once, each with 16 bits of room
+        int rb = (source & 0xFF00FF) * sa + (destination & 0xFF00FF) * da;
+        int ag = (source >>> 8 & 0xFF00FF) * sa + (destination >>> 8 & 0xFF00FF) * da;
+        // Divide by 255 with rounding
+        rb += 0x800080;
+        rb = rb + (rb >>> 8 & 0xFF00FF) >>> 8 & 0xFF00FF;
+        ag += 0x800080;
+        ag = ag + (ag >>> 8 & 0xFF00FF) & 0xFF00FF00;
+        return ag | rb;
+    }
+
+    static int blendAdditive(int source, int destination) {
+        // Add two channels at once, then saturate the ones which overflowed into the ninth bit
+        int rb = (source & 0xFF00FF) + (destination & 0xFF00FF);
+        int ag = (source >>> 8 & 0xFF00FF) + (destination >>> 8 & 0xFF00FF);
+        int overflow = rb & 0x1000100;
+        rb = (rb | overflow - (overflow >>> 8)) & 0xFF00FF;
+        overflow = ag & 0x1000100;
+        ag = (ag | overflow - (overflow >>> 8)) & 0xFF00FF;
+        return ag << 8 | rb;
+    }
+
+    private static float getFactor(BlendFunction function, boolean alpha, float s, float d, float sa, float da) {
+        switch (function) {
+            case GL_ZERO:
+                return 0;
+            case GL_ONE:
+                return 1;
+            case GL_SRC_COLOR:
+            case GL_SRC1_COLOR:
+                return s;
+            case GL_ONE_MINUS_SRC_COLOR:
+            case GL_ONE_MINUS_SRC1_COLOR:
+                return 1 - s;
+            case GL_DST_COLOR:
+                return d;
+            case GL_ONE_MINUS_DST_COLOR:
+                return 1 - d;
+            case GL_SRC_ALPHA:
+            case GL_SRC1_ALPHA:
+                return sa;
+            case GL_ONE_MINUS_SRC_ALPHA:
+            case GL_ONE_MINUS_SRC1_ALPHA:
+                return 1 - sa;
+            case GL_DST_ALPHA:
+                return da;
+            case GL_ONE_MINUS_DST_ALPHA:
+                return 1 - da;
+            case GL_CONSTANT_COLOR:
+            case GL_CONSTANT_ALPHA:
+                // The blend color can't be set, so it's always the default of zero
+                return 0;
+            case GL_ONE_MINUS_CONSTANT_COLOR:
+            case GL_ONE_MINUS_CONSTANT_ALPHA:
+                return 1;
+            case GL_SRC_ALPHA_SATURATE:
+                return alpha ? 1 : Math.min(sa, 1 - da);
+            default:
+                throw new IllegalArgumentException("Unsupported blend function: " + function);
+        }
+    }
+}
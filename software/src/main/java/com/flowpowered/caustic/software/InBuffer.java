@@ -38,6 +38,58 @@ public interface InBuffer {
 
     float readFloat();
 
+    /**
+     * Reads the component at the index in the current input as an int, without moving to the next input. Missing components are zero. Call {@link #skip()} to move on.
+     *
+     * @param component The index of the component
+     * @return The component as an int
+     */
+    int readInt(int component);
+
+    /**
+     * Reads the component at the index in the current input as a float, without moving to the next input. Missing components are zero. Call {@link #skip()} to move on.
+     *
+     * @param component The index of the component
+     * @return The component as a float
+     */
+    float readFloat(int component);
+
+    /**
+     * Returns the rate of change of the component at the index in the current input along the window x axis, without moving to the next input. Only the fragment shader
+     * inputs of triangles have derivatives, they are zero otherwise.
+     *
+     * @param component The index of the component
+     * @return The derivative of the component along x
+     */
+    float readDerivativeX(int component);
+
+    /**
+     * Returns the rate of change of the component at the index in the current input along the window y axis, without moving to the next input. Only the fragment shader
+     * inputs of triangles have derivatives, they are zero otherwise.
+     *
+     * @param component The index of the component
+     * @return The derivative of the component along y
+     */
+    float readDerivativeY(int component);
+
+    /**
+     * Reads all the components of the current input as ints into the array, starting at the offset, then moves to the next input.
+     *
+     * @param destination The array to write to
+     * @param offset The offset in the array
+     * @return The number of components read
+     */
+    int readInts(int[] destination, int offset);
+
+    /**
+     * Reads all the components of the current input as floats into the array, starting at the offset, then moves to the next input.
+     *
+     * @param destination The array to write to
+     * @param offset The offset in the array
+     * @return The number of components read
+     */
+    int readFloats(float[] destination, int offset);
+
     Vector2i readVector2i();
 
     Vector3i readVector3i();
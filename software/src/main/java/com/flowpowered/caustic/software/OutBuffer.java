@@ -38,6 +38,34 @@ public interface OutBuffer {
 
     void writeFloat(float f);
 
+    void writeInts(int x, int y);
+
+    void writeInts(int x, int y, int z);
+
+    void writeInts(int x, int y, int z, int w);
+
+    void writeFloats(float x, float y);
+
+    void writeFloats(float x, float y, float z);
+
+    void writeFloats(float x, float y, float z, float w);
+
+    /**
+     * Writes the components of the current output from the array, starting at the offset, then moves to the next output.
+     *
+     * @param source The array to read from
+     * @param offset The offset in the array
+     */
+    void writeInts(int[] source, int offset);
+
+    /**
+     * Writes the components of the current output from the array, starting at the offset, then moves to the next output.
+     *
+     * @param source The array to read from
+     * @param offset The offset in the array
+     */
+    void writeFloats(float[] source, int offset);
+
     void writeVector2i(Vector2i v);
 
     void writeVector3i(Vector3i v);
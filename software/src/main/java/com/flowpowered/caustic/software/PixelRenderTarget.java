@@ -0,0 +1,106 @@
+/*
+ * This file is part of Caustic Software, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.software;
+
+import java.util.Arrays;
+
+/**
+ *
+ */
+class PixelRenderTarget extends RenderTarget {
+    private final int[] pixels;
+    private final short[] depths;
+
+    PixelRenderTarget(int width, int height) {
+        pixels = new int[width * height];
+        depths = new short[width * height];
+        setSize(width, height);
+    }
+
+    int[] getPixels() {
+        return pixels;
+    }
+
+    short[] getDepths() {
+        return depths;
+    }
+
+    @Override
+    int getColorCount() {
+        return 1;
+    }
+
+    @Override
+    void writeColor(int attachment, int x, int y, float r, float g, float b, float a) {
+        pixels[x + y * width] = SoftwareUtil.pack(r, g, b, a);
+    }
+
+    @Override
+    void blendColor(int attachment, int x, int y, float r, float g, float b, float a, Blender blender) {
+        final int i = x + y * width;
+        final int destination = pixels[i];
+        switch (blender.getMode()) {
+            case Blender.ALPHA:
+                pixels[i] = Blender.blendAlpha(SoftwareUtil.pack(r, g, b, a), destination);
+                break;
+            case Blender.ADDITIVE:
+                pixels[i] = Blender.blendAdditive(SoftwareUtil.pack(r, g, b, a), destination);
+                break;
+            default:
+                // The colors are clamped before blending, since the pixels are fixed point
+                r = SoftwareUtil.clamp(r, 0, 1);
+                g = SoftwareUtil.clamp(g, 0, 1);
+                b = SoftwareUtil.clamp(b, 0, 1);
+                a = SoftwareUtil.clamp(a, 0, 1);
+                final float dr = (destination >> 16 & 0xFF) / 255f;
+                final float dg = (destination >> 8 & 0xFF) / 255f;
+                final float db = (destination & 0xFF) / 255f;
+                final float da = (destination >>> 24) / 255f;
+                pixels[i] = SoftwareUtil.pack(
+                        blender.blend(false, r, dr, a, da), blender.blend(false, g, dg, a, da),
+                        blender.blend(false, b, db, a, da), blender.blend(true, a, da, a, da));
+        }
+    }
+
+    @Override
+    boolean hasDepth() {
+        return true;
+    }
+
+    @Override
+    short readDepth(int x, int y) {
+        return depths[x + y * width];
+    }
+
+    @Override
+    protected void writeDepth0(int x, int y, short depth) {
+        depths[x + y * width] = depth;
+    }
+
+    @Override
+    protected void clear0(int color) {
+        Arrays.fill(pixels, color);
+        Arrays.fill(depths, Short.MAX_VALUE);
+    }
+}
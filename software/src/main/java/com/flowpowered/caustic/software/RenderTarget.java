@@ -0,0 +1,142 @@
+/*
+ * This file is part of Caustic Software, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.software;
+
+import java.util.Arrays;
+
+/**
+ *
+ */
+abstract class RenderTarget {
+    // Size of the coarse depth blocks, the same as the rasterization blocks
+    static final int DEPTH_BLOCK_SHIFT = 3;
+    static final int DEPTH_BLOCK_SIZE = 1 << DEPTH_BLOCK_SHIFT;
+    protected int width, height;
+    // Coarse depth buffer, with the min and max depths of each 8x8 block
+    private int depthBlockColumns, depthBlockRows;
+    private short[] depthBlockMins;
+    private short[] depthBlockMaxs;
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    protected void setSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+        depthBlockColumns = width + DEPTH_BLOCK_SIZE - 1 >> DEPTH_BLOCK_SHIFT;
+        depthBlockRows = height + DEPTH_BLOCK_SIZE - 1 >> DEPTH_BLOCK_SHIFT;
+        depthBlockMins = new short[depthBlockColumns * depthBlockRows];
+        depthBlockMaxs = new short[depthBlockColumns * depthBlockRows];
+        invalidateDepthBlocks();
+    }
+
+    abstract int getColorCount();
+
+    abstract void writeColor(int attachment, int x, int y, float r, float g, float b, float a);
+
+    abstract void blendColor(int attachment, int x, int y, float r, float g, float b, float a, Blender blender);
+
+    abstract boolean hasDepth();
+
+    abstract short readDepth(int x, int y);
+
+    void writeDepth(int x, int y, short depth) {
+        writeDepth0(x, y, depth);
+        // Keep the block min depth exact, the max is updated after the block is rasterized
+        final int block = (x >> DEPTH_BLOCK_SHIFT) + (y >> DEPTH_BLOCK_SHIFT) * depthBlockColumns;
+        if (depth < depthBlockMins[block]) {
+            depthBlockMins[block] = depth;
+        }
+    }
+
+    protected abstract void writeDepth0(int x, int y, short depth);
+
+    void clear(int color) {
+        clear0(color);
+        if (hasDepth()) {
+            Arrays.fill(depthBlockMins, Short.MAX_VALUE);
+            Arrays.fill(depthBlockMaxs, Short.MAX_VALUE);
+        }
+    }
+
+    protected abstract void clear0(int color);
+
+    void invalidateDepthBlocks() {
+        // The widest range, which never rejects nor trivially accepts a block
+        Arrays.fill(depthBlockMins, Short.MIN_VALUE);
+        Arrays.fill(depthBlockMaxs, Short.MAX_VALUE);
+    }
+
+    short getDepthBlockMin(int x, int y) {
+        final int block = getDepthBlock(x, y);
+        // Blocks outside the target can't be trivially accepted
+        return block < 0 ? Short.MIN_VALUE : depthBlockMins[block];
+    }
+
+    short getDepthBlockMax(int x, int y) {
+        final int block = getDepthBlock(x, y);
+        // Blocks outside the target can't be rejected
+        return block < 0 ? Short.MAX_VALUE : depthBlockMaxs[block];
+    }
+
+    void updateDepthBlock(int x, int y) {
+        final int block = getDepthBlock(x, y);
+        if (block < 0) {
+            return;
+        }
+        // Recompute the min and max depths of the pixels of the block inside the target
+        final int startX = x & ~(DEPTH_BLOCK_SIZE - 1), startY = y & ~(DEPTH_BLOCK_SIZE - 1);
+        final int endX = Math.min(startX + DEPTH_BLOCK_SIZE, width), endY = Math.min(startY + DEPTH_BLOCK_SIZE, height);
+        short min = Short.MAX_VALUE, max = Short.MIN_VALUE;
+        for (int yy = startY; yy < endY; yy++) {
+            for (int xx = startX; xx < endX; xx++) {
+                final short depth = readDepth(xx, yy);
+                if (depth < min) {
+                    min = depth;
+                }
+                if (depth > max) {
+                    max = depth;
+                }
+            }
+        }
+        depthBlockMins[block] = min;
+        depthBlockMaxs[block] = max;
+    }
+
+    private int getDepthBlock(int x, int y) {
+        if (x < 0 || y < 0) {
+            return -1;
+        }
+        final int column = x >> DEPTH_BLOCK_SHIFT, row = y >> DEPTH_BLOCK_SHIFT;
+        if (column >= depthBlockColumns || row >= depthBlockRows) {
+            return -1;
+        }
+        return column + row * depthBlockColumns;
+    }
+}
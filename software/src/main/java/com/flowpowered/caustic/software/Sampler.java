@@ -51,4 +51,56 @@ public class Sampler {
         }
         return texture.sample(x, y);
     }
+
+    /**
+     * Samples the texture at the coordinates, writing the red, green, blue and alpha components in the first four elements of the destination array. Unlike the other sample
+     * methods, this one doesn't allocate.
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @param destination The array to write the color to
+     */
+    public void sample(float x, float y, float[] destination) {
+        if (texture == null) {
+            throw new IllegalStateException("No texture bound to sampler");
+        }
+        texture.sample(x, y, destination);
+    }
+
+    /**
+     * Samples the texture at the coordinates and level of detail, writing the red, green, blue and alpha components in the first four elements of the destination array. The
+     * level of detail is the base two logarithm of the number of texels per pixel. When it's greater than zero the texture is minified, and the min filter is used, with the
+     * mipmaps if it needs them. Else the mag filter is used.
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @param lod The level of detail
+     * @param destination The array to write the color to
+     */
+    public void sampleLod(float x, float y, float lod, float[] destination) {
+        if (texture == null) {
+            throw new IllegalStateException("No texture bound to sampler");
+        }
+        texture.sampleLod(x, y, lod, destination);
+    }
+
+    /**
+     * Samples the texture at the coordinates, writing the red, green, blue and alpha components in the first four elements of the destination array. The level of detail is
+     * computed from the derivatives of the coordinates along the window x and y axes, which for fragment shaders are given by {@link InBuffer#readDerivativeX(int)} and {@link
+     * InBuffer#readDerivativeY(int)}. If the texture has anisotropic filtering, many samples are taken along the longest axis of the pixel footprint.
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @param xDx The derivative of the x coordinate along the window x axis
+     * @param yDx The derivative of the y coordinate along the window x axis
+     * @param xDy The derivative of the x coordinate along the window y axis
+     * @param yDy The derivative of the y coordinate along the window y axis
+     * @param destination The array to write the color to
+     */
+    public void sampleGrad(float x, float y, float xDx, float yDx, float xDy, float yDy, float[] destination) {
+        if (texture == null) {
+            throw new IllegalStateException("No texture bound to sampler");
+        }
+        texture.sampleGrad(x, y, xDx, yDx, xDy, yDy, destination);
+    }
 }
@@ -43,6 +43,8 @@ class ShaderBuffer implements InBuffer, OutBuffer {
     private final DataFormat[] formats;
     private int position = 0;
     private int count = 0;
+    // Derivatives of the raw values along the window axes, only for fragment inputs
+    private float[] derivativesX, derivativesY;
 
     ShaderBuffer(DataFormat[] formats) {
         this.formats = new DataFormat[formats.length];
@@ -86,10 +88,22 @@ class ShaderBuffer implements InBuffer, OutBuffer {
         return buffer.remaining();
     }
 
+    int capacity() {
+        return buffer.capacity();
+    }
+
     int readRaw() {
         return buffer.get();
     }
 
+    void readRaw(int[] destination, int offset) {
+        // Copy everything up to the limit, without moving the position
+        final int limit = buffer.limit();
+        for (int i = 0; i < limit; i++) {
+            destination[offset + i] = buffer.get(i);
+        }
+    }
+
     void writeRaw(int value) {
         buffer.put(value);
     }
@@ -100,6 +114,13 @@ class ShaderBuffer implements InBuffer, OutBuffer {
         }
     }
 
+    void writeRaw(int[] source, int offset, int length) {
+        // Replace the contents and flip for reading
+        clear();
+        buffer.put(source, offset, length);
+        flip();
+    }
+
     @Override
     public int readInt() {
         final int i = readInt0();
@@ -107,6 +128,68 @@ class ShaderBuffer implements InBuffer, OutBuffer {
         return i;
     }
 
+    @Override
+    public int readInt(int component) {
+        final DataFormat format = formats[position];
+        if (component >= format.getCount()) {
+            return 0;
+        }
+        // Find the start of the input from the components already read
+        return toInt(format, buffer.get(buffer.position() - Math.min(count, format.getCount()) + component));
+    }
+
+    @Override
+    public float readDerivativeX(int component) {
+        return readDerivative(derivativesX, component);
+    }
+
+    @Override
+    public float readDerivativeY(int component) {
+        return readDerivative(derivativesY, component);
+    }
+
+    private float readDerivative(float[] derivatives, int component) {
+        final int count = formats[position].getCount();
+        if (derivatives == null || component >= count) {
+            return 0;
+        }
+        return derivatives[buffer.position() - Math.min(this.count, count) + component];
+    }
+
+    void setDerivatives(ShaderBuffer a, ShaderBuffer b, ShaderBuffer c, float drdx, float dsdx, float dtdx, float drdy, float dsdy, float dtdy) {
+        if (derivativesX == null) {
+            derivativesX = new float[buffer.capacity()];
+            derivativesY = new float[buffer.capacity()];
+        }
+        // The values are interpolated linearly in window space, so the derivatives are the same for the whole triangle
+        int i = 0;
+        for (DataFormat format : a.formats) {
+            final boolean integer = format.getType() == DataType.INT;
+            for (int n = format.getCount(); n > 0; n--, i++) {
+                final float va = integer ? a.buffer.get(i) : Float.intBitsToFloat(a.buffer.get(i));
+                final float vb = integer ? b.buffer.get(i) : Float.intBitsToFloat(b.buffer.get(i));
+                final float vc = integer ? c.buffer.get(i) : Float.intBitsToFloat(c.buffer.get(i));
+                derivativesX[i] = va * drdx + vb * dsdx + vc * dtdx;
+                derivativesY[i] = va * drdy + vb * dsdy + vc * dtdy;
+            }
+        }
+    }
+
+    void setDerivative(int i, float dx, float dy) {
+        derivativesX[i] = dx;
+        derivativesY[i] = dy;
+    }
+
+    @Override
+    public int readInts(int[] destination, int offset) {
+        final int n = formats[position].getCount();
+        for (int i = 0; i < n; i++) {
+            destination[offset + i] = readInt0();
+        }
+        advance();
+        return n;
+    }
+
     @Override
     public Vector2i readVector2i() {
         final Vector2i v = new Vector2i(readInt0(), readInt0());
@@ -135,6 +218,26 @@ class ShaderBuffer implements InBuffer, OutBuffer {
         return f;
     }
 
+    @Override
+    public float readFloat(int component) {
+        final DataFormat format = formats[position];
+        if (component >= format.getCount()) {
+            return 0;
+        }
+        // Find the start of the input from the components already read
+        return toFloat(format, buffer.get(buffer.position() - Math.min(count, format.getCount()) + component));
+    }
+
+    @Override
+    public int readFloats(float[] destination, int offset) {
+        final int n = formats[position].getCount();
+        for (int i = 0; i < n; i++) {
+            destination[offset + i] = readFloat0();
+        }
+        advance();
+        return n;
+    }
+
     @Override
     public Vector2f readVector2f() {
         final Vector2f v = new Vector2f(readFloat0(), readFloat0());
@@ -167,6 +270,39 @@ class ShaderBuffer implements InBuffer, OutBuffer {
         advance();
     }
 
+    @Override
+    public void writeInts(int x, int y) {
+        writeInt0(x);
+        writeInt0(y);
+        advance();
+    }
+
+    @Override
+    public void writeInts(int x, int y, int z) {
+        writeInt0(x);
+        writeInt0(y);
+        writeInt0(z);
+        advance();
+    }
+
+    @Override
+    public void writeInts(int x, int y, int z, int w) {
+        writeInt0(x);
+        writeInt0(y);
+        writeInt0(z);
+        writeInt0(w);
+        advance();
+    }
+
+    @Override
+    public void writeInts(int[] source, int offset) {
+        final int n = formats[position].getCount();
+        for (int i = 0; i < n; i++) {
+            writeInt0(source[offset + i]);
+        }
+        advance();
+    }
+
     @Override
     public void writeVector2i(Vector2i v) {
         writeInt0(v.getX());
@@ -197,6 +333,39 @@ class ShaderBuffer implements InBuffer, OutBuffer {
         advance();
     }
 
+    @Override
+    public void writeFloats(float x, float y) {
+        writeFloat0(x);
+        writeFloat0(y);
+        advance();
+    }
+
+    @Override
+    public void writeFloats(float x, float y, float z) {
+        writeFloat0(x);
+        writeFloat0(y);
+        writeFloat0(z);
+        advance();
+    }
+
+    @Override
+    public void writeFloats(float x, float y, float z, float w) {
+        writeFloat0(x);
+        writeFloat0(y);
+        writeFloat0(z);
+        writeFloat0(w);
+        advance();
+    }
+
+    @Override
+    public void writeFloats(float[] source, int offset) {
+        final int n = formats[position].getCount();
+        for (int i = 0; i < n; i++) {
+            writeFloat0(source[offset + i]);
+        }
+        advance();
+    }
+
     @Override
     public void writeVector2f(Vector2f v) {
         writeFloat0(v.getX());
@@ -226,7 +395,18 @@ class ShaderBuffer implements InBuffer, OutBuffer {
         if (++count > format.getCount()) {
             return 0;
         }
-        final int i = buffer.get();
+        return toInt(format, buffer.get());
+    }
+
+    private float readFloat0() {
+        final DataFormat format = formats[position];
+        if (++count > format.getCount()) {
+            return 0;
+        }
+        return toFloat(format, buffer.get());
+    }
+
+    private static int toInt(DataFormat format, int i) {
         switch (format.getType()) {
             case INT:
                 return i;
@@ -237,12 +417,7 @@ class ShaderBuffer implements InBuffer, OutBuffer {
         }
     }
 
-    private float readFloat0() {
-        final DataFormat format = formats[position];
-        if (++count > format.getCount()) {
-            return 0;
-        }
-        final int i = buffer.get();
+    private static float toFloat(DataFormat format, int i) {
         switch (format.getType()) {
             case INT:
                 return (float) i;
@@ -51,6 +51,13 @@ public abstract class ShaderImplementation {
             if (outputFormat == null || outputFormat.length <= 0 || outputFormat[0].getCount() != 4 || outputFormat[0].getType() != DataType.FLOAT) {
                 throw new IllegalArgumentException("Vertex shader output format must have 4 floats as the first output type in the declared format");
             }
+        } else if (getType() == ShaderType.FRAGMENT && outputFormat != null) {
+            // One color per output, written to the frame buffer color attachments in order
+            for (DataFormat format : outputFormat) {
+                if (format.getCount() != 4 || format.getType() != DataType.FLOAT) {
+                    throw new IllegalArgumentException("Fragment shader output format must only have 4 floats as output types");
+                }
+            }
         }
         this.outputFormat = outputFormat;
     }
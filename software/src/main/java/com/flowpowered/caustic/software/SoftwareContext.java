@@ -24,17 +24,20 @@
 package com.flowpowered.caustic.software;
 
 import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 
 import com.flowpowered.math.vector.Vector2i;
 import com.flowpowered.math.vector.Vector4f;
 
 import com.flowpowered.caustic.api.gl.Context;
 import com.flowpowered.caustic.api.gl.FrameBuffer;
+import com.flowpowered.caustic.api.gl.MeshPool;
 import com.flowpowered.caustic.api.gl.Program;
 import com.flowpowered.caustic.api.gl.RenderBuffer;
 import com.flowpowered.caustic.api.gl.Shader;
 import com.flowpowered.caustic.api.gl.Texture;
 import com.flowpowered.caustic.api.gl.Texture.InternalFormat;
+import com.flowpowered.caustic.api.gl.UniformBlock;
 import com.flowpowered.caustic.api.gl.VertexArray;
 import com.flowpowered.caustic.api.util.Rectangle;
 
@@ -42,7 +45,33 @@ import com.flowpowered.caustic.api.util.Rectangle;
  *
  */
 public class SoftwareContext extends Context {
-    private final SoftwareRenderer renderer = new SoftwareRenderer();
+    private final SoftwareRenderer renderer;
+
+    /**
+     * Constructs a new software context which renders to a window.
+     */
+    public SoftwareContext() {
+        this(false);
+    }
+
+    /**
+     * Constructs a new software context. When headless, no window is created and the frames are only rendered in memory. They can then be obtained with {@link
+     * #readFrame(Rectangle, InternalFormat)} or {@link #getFrameView()}.
+     *
+     * @param headless Whether or not to render without a window
+     */
+    public SoftwareContext(boolean headless) {
+        renderer = new SoftwareRenderer(headless);
+    }
+
+    /**
+     * Returns true if this context renders without a window.
+     *
+     * @return Whether or not the context is headless
+     */
+    public boolean isHeadless() {
+        return renderer.isHeadless();
+    }
 
     @Override
     public void create() {
@@ -58,7 +87,7 @@ public class SoftwareContext extends Context {
 
     @Override
     public FrameBuffer newFrameBuffer() {
-        return new SoftwareFrameBuffer();
+        return new SoftwareFrameBuffer(renderer);
     }
 
     @Override
@@ -68,7 +97,7 @@ public class SoftwareContext extends Context {
 
     @Override
     public RenderBuffer newRenderBuffer() {
-        return null;
+        return new SoftwareRenderBuffer(renderer);
     }
 
     @Override
@@ -86,6 +115,16 @@ public class SoftwareContext extends Context {
         return new SoftwareVertexArray(renderer);
     }
 
+    @Override
+    public UniformBlock newUniformBlock() {
+        return new SoftwareUniformBlock();
+    }
+
+    @Override
+    public MeshPool newMeshPool() {
+        return new SoftwareMeshPool(renderer);
+    }
+
     @Override
     public String getWindowTitle() {
         return renderer.getWindowTitle();
@@ -148,7 +187,8 @@ public class SoftwareContext extends Context {
 
     @Override
     public void setBlendingFunctions(int bufferIndex, BlendFunction source, BlendFunction destination) {
-
+        // The functions are the same for all the buffers
+        renderer.setBlendingFunctions(source, destination);
     }
 
     @Override
@@ -158,7 +198,122 @@ public class SoftwareContext extends Context {
 
     @Override
     public ByteBuffer readFrame(Rectangle size, InternalFormat format) {
-        return null;
+        checkCreated();
+        return renderer.readFrame(size, format);
+    }
+
+    /**
+     * Returns a read only view of the frame pixels, without copying them. The colors are packed as ARGB ints, with the rows ordered top to bottom. The view is invalidated
+     * when the window is resized.
+     *
+     * @return A view of the frame pixels
+     */
+    public IntBuffer getFrameView() {
+        checkCreated();
+        return IntBuffer.wrap(renderer.getPixels()).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the number of threads used to rasterize triangles.
+     *
+     * @return The number of rasterization threads
+     */
+    public int getRasterizationThreads() {
+        return renderer.getRasterizationThreads();
+    }
+
+    /**
+     * Sets the number of threads used to rasterize triangles. When greater than one, the triangles of each draw call are binned into screen tiles which are then rasterized
+     * in parallel. The output is identical to the single threaded one, but the fragment shaders must be safe to call from multiple threads at once. The default is one.
+     *
+     * @param threads The number of rasterization threads
+     */
+    public void setRasterizationThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Rasterization thread count must be greater than zero");
+        }
+        renderer.setRasterizationThreads(threads);
+    }
+
+    /**
+     * Returns the size of the post-transform vertex cache. See {@link #setVertexCacheSize(int)}.
+     *
+     * @return The vertex cache size
+     */
+    public int getVertexCacheSize() {
+        return renderer.getVertexCacheSize();
+    }
+
+    /**
+     * Sets the size of the post-transform vertex cache, which stores the vertex shader output of the vertices of a draw call, so that the vertices shared by many primitives
+     * are only shaded once. A positive size will only remember that many of the last shaded vertices (FIFO), zero disables the cache, and a negative size remembers all the
+     * vertices of the draw call. The default is negative.
+     *
+     * @param size The vertex cache size
+     */
+    public void setVertexCacheSize(int size) {
+        renderer.setVertexCacheSize(size);
+    }
+
+    /**
+     * Returns the number of vertex shader invocations saved by the vertex cache since the last statistics reset.
+     *
+     * @return The number of vertex cache hits
+     */
+    public long getVertexCacheHits() {
+        return renderer.getVertexCacheHits();
+    }
+
+    /**
+     * Returns the number of vertices which weren't in the vertex cache since the last statistics reset.
+     *
+     * @return The number of vertex cache misses
+     */
+    public long getVertexCacheMisses() {
+        return renderer.getVertexCacheMisses();
+    }
+
+    /**
+     * Returns the ratio of vertex cache hits over the vertex cache lookups since the last statistics reset, or zero if there were none.
+     *
+     * @return The vertex cache hit rate, between zero and one
+     */
+    public float getVertexCacheHitRate() {
+        final long hits = renderer.getVertexCacheHits();
+        final long lookups = hits + renderer.getVertexCacheMisses();
+        return lookups == 0 ? 0 : (float) hits / lookups;
+    }
+
+    /**
+     * Resets the vertex cache hit and miss counts to zero.
+     */
+    public void resetVertexCacheStatistics() {
+        renderer.resetVertexCacheStatistics();
+    }
+
+    /**
+     * Returns the number of 8x8 pixel blocks of triangles which were entirely rejected by the coarse depth buffer since the last statistics reset.
+     *
+     * @return The number of rejected depth blocks
+     */
+    public long getRejectedDepthBlocks() {
+        return renderer.getRejectedDepthBlocks();
+    }
+
+    /**
+     * Returns the number of triangle fragments which failed the depth test before shading, outside of the rejected blocks, since the last statistics reset.
+     *
+     * @return The number of rejected depth fragments
+     */
+    public long getRejectedDepthFragments() {
+        return renderer.getRejectedDepthFragments();
+    }
+
+    /**
+     * Resets the rejected depth block and fragment counts to zero.
+     */
+    public void resetDepthRejectionStatistics() {
+        renderer.resetDepthRejections();
     }
 
     @Override
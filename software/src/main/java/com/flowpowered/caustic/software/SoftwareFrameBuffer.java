@@ -23,42 +23,155 @@
  */
 package com.flowpowered.caustic.software;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import com.flowpowered.caustic.api.data.VertexAttribute.DataType;
 import com.flowpowered.caustic.api.gl.FrameBuffer;
 import com.flowpowered.caustic.api.gl.RenderBuffer;
 import com.flowpowered.caustic.api.gl.Texture;
+import com.flowpowered.caustic.api.gl.Texture.InternalFormat;
+import com.flowpowered.caustic.api.util.CausticUtil;
 
 /**
  *
  */
 public class SoftwareFrameBuffer extends FrameBuffer {
+    private final SoftwareRenderer renderer;
+    private final SoftwareTexture[] attachments = new SoftwareTexture[AttachmentPoint.values().length];
+    private final TextureRenderTarget target = new TextureRenderTarget();
+
+    SoftwareFrameBuffer(SoftwareRenderer renderer) {
+        this.renderer = renderer;
+    }
+
     @Override
-    public void bind() {
+    public void destroy() {
+        checkCreated();
+        // Rendering goes back to the window if the frame buffer is bound
+        if (isBound()) {
+            target.invalidateMipmaps();
+            renderer.setRenderTarget(null);
+        }
+        for (int i = 0; i < attachments.length; i++) {
+            attachments[i] = null;
+        }
+        target.setAttachments(new SoftwareTexture[0], null);
+        super.destroy();
+    }
 
+    @Override
+    public void bind() {
+        checkCreated();
+        if (!isComplete()) {
+            throw new IllegalStateException("Frame buffer is not complete");
+        }
+        // The fragments are written directly to the attached textures
+        target.validate();
+        target.invalidateMipmaps();
+        renderer.setRenderTarget(target);
     }
 
     @Override
     public void unbind() {
-
+        checkCreated();
+        // The mipmaps of the textures need to be rebuilt after rendering
+        if (isBound()) {
+            target.invalidateMipmaps();
+        }
+        renderer.setRenderTarget(null);
     }
 
     @Override
     public void attach(AttachmentPoint point, Texture texture) {
-
+        checkCreated();
+        texture.checkCreated();
+        CausticUtil.checkVersion(this, texture);
+        attachments[point.ordinal()] = (SoftwareTexture) texture;
+        updateTarget();
     }
 
     @Override
     public void attach(AttachmentPoint point, RenderBuffer buffer) {
-
+        checkCreated();
+        buffer.checkCreated();
+        CausticUtil.checkVersion(this, buffer);
+        // Render buffers store their pixels in a texture, which is rendered to like the texture attachments
+        attachments[point.ordinal()] = ((SoftwareRenderBuffer) buffer).getStorage();
+        updateTarget();
     }
 
     @Override
     public void detach(AttachmentPoint point) {
+        checkCreated();
+        attachments[point.ordinal()] = null;
+        updateTarget();
+    }
 
+    private void updateTarget() {
+        // The color outputs are written to the attachments in order n, n + 1, n + 2...
+        final List<SoftwareTexture> colors = new ArrayList<>();
+        for (AttachmentPoint point : AttachmentPoint.values()) {
+            final SoftwareTexture texture = attachments[point.ordinal()];
+            if (point.isColor() && texture != null) {
+                colors.add(texture);
+            }
+        }
+        SoftwareTexture depth = attachments[AttachmentPoint.DEPTH.ordinal()];
+        if (depth == null) {
+            depth = attachments[AttachmentPoint.DEPTH_STENCIL.ordinal()];
+        }
+        target.setAttachments(colors.toArray(new SoftwareTexture[colors.size()]), depth);
+        // Update the bound target right away
+        if (isBound()) {
+            target.validate();
+        }
+    }
+
+    private boolean isBound() {
+        return renderer.getRenderTarget() == target;
     }
 
     @Override
     public boolean isComplete() {
-        return false;
+        checkCreated();
+        int width = -1, height = -1;
+        for (AttachmentPoint point : AttachmentPoint.values()) {
+            final SoftwareTexture texture = attachments[point.ordinal()];
+            if (texture == null) {
+                continue;
+            }
+            // The attachments must have storage, and all have the same size
+            if (texture.getWidth() <= 0 || texture.getHeight() <= 0) {
+                return false;
+            }
+            if (width < 0) {
+                width = texture.getWidth();
+                height = texture.getHeight();
+            } else if (texture.getWidth() != width || texture.getHeight() != height) {
+                return false;
+            }
+            if (!isRenderable(texture.getInternalFormat(), point)) {
+                return false;
+            }
+        }
+        // There must be at least one attachment
+        return width > 0;
+    }
+
+    private static boolean isRenderable(InternalFormat format, AttachmentPoint point) {
+        if (format == null) {
+            return false;
+        }
+        if (point.isColor()) {
+            if (format.hasDepth()) {
+                return false;
+            }
+            final DataType type = format.getComponentType();
+            return type == DataType.UNSIGNED_BYTE || type == DataType.UNSIGNED_SHORT || type == DataType.UNSIGNED_INT || type == DataType.FLOAT;
+        }
+        // There's no stencil buffer in the software renderer
+        return point != AttachmentPoint.STENCIL && format.hasDepth();
     }
 
     @Override
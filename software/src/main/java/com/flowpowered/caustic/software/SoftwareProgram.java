@@ -57,6 +57,8 @@ public class SoftwareProgram extends Program {
     public void attachShader(Shader shader) {
         CausticUtil.checkVersion(this, shader);
         shaders.put(shader.getType(), (SoftwareShader) shader);
+        // The new shader doesn't have the uniforms yet
+        clearUploadedUniforms();
     }
 
     SoftwareShader getShader(ShaderType type) {
@@ -0,0 +1,111 @@
+/*
+ * This file is part of Caustic Software, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.software;
+
+import com.flowpowered.caustic.api.gl.RenderBuffer;
+import com.flowpowered.caustic.api.gl.Texture.InternalFormat;
+
+/**
+ * A software implementation of {@link RenderBuffer}. The pixels are stored in a texture which can't be bound, so that frame buffers render to it the same way as to texture attachments.
+ *
+ * @see RenderBuffer
+ */
+public class SoftwareRenderBuffer extends RenderBuffer {
+    // The storage of the pixels
+    private final SoftwareTexture storage;
+    // The render buffer storage format, null until the storage is set
+    private InternalFormat format;
+
+    SoftwareRenderBuffer(SoftwareRenderer renderer) {
+        storage = new SoftwareTexture(renderer);
+    }
+
+    @Override
+    public void create() {
+        checkNotCreated();
+        storage.create();
+        super.create();
+    }
+
+    @Override
+    public void destroy() {
+        checkCreated();
+        storage.destroy();
+        format = null;
+        super.destroy();
+    }
+
+    @Override
+    public void setStorage(InternalFormat format, int width, int height) {
+        checkCreated();
+        if (format == null) {
+            throw new IllegalArgumentException("Format cannot be null");
+        }
+        if (width <= 0) {
+            throw new IllegalArgumentException("Width must be greater than zero");
+        }
+        if (height <= 0) {
+            throw new IllegalArgumentException("Height must be greater than zero");
+        }
+        this.format = format;
+        // Only allocate the storage, the contents are undefined until rendered to
+        storage.setFormat(format.getFormat(), format);
+        storage.setImageData(null, width, height);
+    }
+
+    @Override
+    public InternalFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public int getWidth() {
+        return storage.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return storage.getHeight();
+    }
+
+    @Override
+    public void bind() {
+        checkCreated();
+        // There's no render buffer binding in the software renderer
+    }
+
+    @Override
+    public void unbind() {
+        checkCreated();
+    }
+
+    SoftwareTexture getStorage() {
+        return storage;
+    }
+
+    @Override
+    public GLVersion getGLVersion() {
+        return GLVersion.SOFTWARE;
+    }
+}
@@ -23,21 +23,16 @@
  */
 package com.flowpowered.caustic.software;
 
-import javax.swing.JFrame;
-import javax.swing.JPanel;
-import javax.swing.WindowConstants;
-import java.awt.BorderLayout;
-import java.awt.Canvas;
-import java.awt.Dimension;
-import java.awt.Graphics;
-import java.awt.event.WindowAdapter;
-import java.awt.event.WindowEvent;
-import java.awt.image.BufferStrategy;
-import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferInt;
-import java.util.Arrays;
-
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.flowpowered.caustic.api.data.VertexAttribute.DataType;
+import com.flowpowered.caustic.api.gl.Context.BlendFunction;
 import com.flowpowered.caustic.api.gl.Context.Capability;
+import com.flowpowered.caustic.api.gl.Texture.InternalFormat;
 import com.flowpowered.caustic.api.util.CausticUtil;
 import com.flowpowered.caustic.api.util.Rectangle;
 
@@ -47,30 +42,38 @@ import gnu.trove.map.hash.TIntObjectHashMap;
 /**
  *
  */
-class SoftwareRenderer extends Canvas {
-    private final JFrame frame;
+class SoftwareRenderer {
+    // The window, or null when rendering headless
+    private final SoftwareWindow window;
+    private String title = "Caustic";
     private int width, height;
-    private int scale = 1;
     private boolean initialized = false;
-    private volatile boolean closeRequested = false;
     private int capabilities = 0;
     private final Rectangle viewPort = new Rectangle(width, height);
     private int clearColor;
-    private BufferedImage image;
-    private int[] pixels;
-    private short[] depths;
+    // The window pixels, and the target of the rendering (either the window or a frame buffer)
+    private PixelRenderTarget frame;
+    private RenderTarget target;
+    private final AtomicLong rejectedDepthBlocks = new AtomicLong();
+    private final AtomicLong rejectedDepthFragments = new AtomicLong();
     private boolean depthWriting = true;
+    private BlendFunction blendSource = BlendFunction.GL_ONE;
+    private BlendFunction blendDestination = BlendFunction.GL_ZERO;
+    // Null when the fragment colors replace the pixels
+    private Blender blender;
     private SoftwareProgram program;
     private final TIntObjectMap<SoftwareTexture> textures = new TIntObjectHashMap<>();
+    private int rasterizationThreads = 1;
+    private ForkJoinPool rasterizationPool;
+    private int vertexCacheSize = -1;
+    private long vertexCacheHits = 0, vertexCacheMisses = 0;
+
+    SoftwareRenderer(boolean headless) {
+        window = headless ? null : new SoftwareWindow();
+    }
 
-    SoftwareRenderer() {
-        frame = new JFrame("Caustic");
-        final JPanel panel = new JPanel(new BorderLayout());
-        panel.add(this, BorderLayout.CENTER);
-        frame.setContentPane(panel);
-        frame.setResizable(false);
-        frame.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
-        frame.addWindowListener(new WindowCloseListener());
+    boolean isHeadless() {
+        return window == null;
     }
 
     int getWindowHeight() {
@@ -82,7 +85,9 @@ class SoftwareRenderer extends Canvas {
     }
 
     void setWindowResizable(boolean resizable) {
-        frame.setResizable(resizable);
+        if (window != null) {
+            window.setResizable(resizable);
+        }
     }
 
     void setWindowSize(int width, int height) {
@@ -90,23 +95,25 @@ class SoftwareRenderer extends Canvas {
             this.width = width;
             this.height = height;
             if (initialized) {
-                updateImage();
+                updateBuffers();
             }
         }
     }
 
     void setWindowTitle(String title) {
-        frame.setTitle(title);
+        if (window != null) {
+            window.setTitle(title);
+        } else {
+            this.title = title;
+        }
     }
 
     String getWindowTitle() {
-        return frame.getTitle();
+        return window != null ? window.getTitle() : title;
     }
 
     boolean isCloseRequested() {
-        final boolean oldCloseRequested = closeRequested;
-        closeRequested = false;
-        return oldCloseRequested;
+        return window != null && window.isCloseRequested();
     }
 
     Rectangle getViewPort() {
@@ -123,6 +130,9 @@ class SoftwareRenderer extends Canvas {
         } else {
             capabilities &= ~(1 << capability.ordinal());
         }
+        if (capability == Capability.BLEND) {
+            updateBlender();
+        }
     }
 
     boolean isEnabled(Capability capability) {
@@ -137,6 +147,21 @@ class SoftwareRenderer extends Canvas {
         depthWriting = enabled;
     }
 
+    void setBlendingFunctions(BlendFunction source, BlendFunction destination) {
+        blendSource = source;
+        blendDestination = destination;
+        updateBlender();
+    }
+
+    private void updateBlender() {
+        // Blending with the default functions is the same as replacing the color
+        if (isEnabled(Capability.BLEND) && (blendSource != BlendFunction.GL_ONE || blendDestination != BlendFunction.GL_ZERO)) {
+            blender = new Blender(blendSource, blendDestination);
+        } else {
+            blender = null;
+        }
+    }
+
     SoftwareProgram getProgram() {
         return program;
     }
@@ -157,90 +182,268 @@ class SoftwareRenderer extends Canvas {
         return textures.get(unit);
     }
 
+    int getRasterizationThreads() {
+        return rasterizationThreads;
+    }
+
+    void setRasterizationThreads(int threads) {
+        if (threads != rasterizationThreads) {
+            rasterizationThreads = threads;
+            // The pool will be recreated on the next use with the new parallelism
+            shutdownRasterizationPool();
+        }
+    }
+
+    ForkJoinPool getRasterizationPool() {
+        if (rasterizationPool == null) {
+            rasterizationPool = new ForkJoinPool(rasterizationThreads);
+        }
+        return rasterizationPool;
+    }
+
+    int getVertexCacheSize() {
+        return vertexCacheSize;
+    }
+
+    void setVertexCacheSize(int size) {
+        vertexCacheSize = size;
+    }
+
+    long getVertexCacheHits() {
+        return vertexCacheHits;
+    }
+
+    long getVertexCacheMisses() {
+        return vertexCacheMisses;
+    }
+
+    void addVertexCacheStatistics(long hits, long misses) {
+        vertexCacheHits += hits;
+        vertexCacheMisses += misses;
+    }
+
+    void resetVertexCacheStatistics() {
+        vertexCacheHits = 0;
+        vertexCacheMisses = 0;
+    }
+
+    private void shutdownRasterizationPool() {
+        if (rasterizationPool != null) {
+            rasterizationPool.shutdown();
+            rasterizationPool = null;
+        }
+    }
+
     void init() {
-        updateImage();
-        frame.setVisible(true);
-        createBufferStrategy(3);
+        updateBuffers();
+        if (window != null) {
+            window.init();
+        }
         viewPort.setSize(width, height);
         initialized = true;
     }
 
-    private void updateImage() {
-        final Dimension size = new Dimension(width * scale, height * scale);
-        setSize(size);
-        setPreferredSize(size);
-        setMinimumSize(size);
-        setMaximumSize(size);
-        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
-        depths = new short[width * height];
-        frame.pack();
-        if (!frame.isResizable()) {
-            frame.setLocationRelativeTo(null);
+    private void updateBuffers() {
+        final boolean renderingToFrame = target == null || target == frame;
+        frame = new PixelRenderTarget(width, height);
+        if (renderingToFrame) {
+            target = frame;
+        }
+        // The window displays the pixels directly
+        if (window != null) {
+            window.setImage(frame.getPixels(), width, height);
         }
     }
 
     void dispose() {
-        frame.dispose();
-        image = null;
-        pixels = null;
-        depths = null;
+        if (window != null) {
+            window.dispose();
+        }
+        frame = null;
+        target = null;
         program = null;
+        shutdownRasterizationPool();
         initialized = false;
     }
 
     void render() {
-        final BufferStrategy bufferStrategy = getBufferStrategy();
-        final Graphics graphics = bufferStrategy.getDrawGraphics();
-        graphics.drawImage(image, 0, 0, width * scale, height * scale, null);
-        graphics.dispose();
-        bufferStrategy.show();
-        if (frame.isResizable() && getWidth() != width && getHeight() != height) {
-            width = getWidth();
-            height = getHeight();
-            updateImage();
+        // When headless, the frame is already in the pixels
+        if (window == null) {
+            return;
+        }
+        window.render();
+        if (window.isResizable() && window.getWidth() != width && window.getHeight() != height) {
+            width = window.getWidth();
+            height = window.getHeight();
+            updateBuffers();
         }
     }
 
     void clearPixels() {
-        Arrays.fill(pixels, clearColor);
-        Arrays.fill(depths, Short.MAX_VALUE);
+        target.clear(clearColor);
+    }
+
+    int[] getPixels() {
+        return frame.getPixels();
+    }
+
+    RenderTarget getRenderTarget() {
+        return target;
+    }
+
+    void setRenderTarget(RenderTarget target) {
+        // Null is the window
+        this.target = target != null ? target : frame;
+    }
+
+    int getTargetWidth() {
+        return target.getWidth();
+    }
+
+    int getTargetHeight() {
+        return target.getHeight();
+    }
+
+    int getColorCount() {
+        return target.getColorCount();
+    }
+
+    ByteBuffer readFrame(Rectangle size, InternalFormat format) {
+        final int x = size.getX(), y = size.getY();
+        final int frameWidth = size.getWidth(), frameHeight = size.getHeight();
+        if (x < 0 || y < 0 || frameWidth < 0 || frameHeight < 0 || x + frameWidth > width || y + frameHeight > height) {
+            throw new IllegalArgumentException("Frame size is outside of the window");
+        }
+        final int[] pixels = frame.getPixels();
+        final ByteBuffer data = CausticUtil.createByteBuffer(frameWidth * frameHeight * format.getBytes());
+        // The pixels are stored top down, but OpenGL reads them bottom up
+        if (format == InternalFormat.RGBA8) {
+            // Convert the packed colors a whole row at a time
+            final IntBuffer intData = data.asIntBuffer();
+            final int[] row = new int[frameWidth];
+            final boolean littleEndian = data.order() == ByteOrder.LITTLE_ENDIAN;
+            for (int r = 0; r < frameHeight; r++) {
+                System.arraycopy(pixels, x + (height - 1 - y - r) * width, row, 0, frameWidth);
+                for (int i = 0; i < frameWidth; i++) {
+                    // ARGB to RGBA bytes
+                    final int color = row[i];
+                    row[i] = littleEndian ? color & 0xFF00FF00 | color >> 16 & 0xFF | (color & 0xFF) << 16 : color << 8 | color >>> 24;
+                }
+                intData.put(row);
+            }
+            return data;
+        }
+        final short[] depths = frame.getDepths();
+        final DataType type = format.getComponentType();
+        for (int r = 0; r < frameHeight; r++) {
+            final int start = x + (height - 1 - y - r) * width;
+            for (int i = start; i < start + frameWidth; i++) {
+                if (format.hasDepth()) {
+                    SoftwareUtil.writeNormalized(data, type, SoftwareUtil.normalizeFromShort(depths[i]));
+                    continue;
+                }
+                final int color = pixels[i];
+                if (format.hasRed()) {
+                    writeColorComponent(data, type, color >> 16 & 0xFF);
+                }
+                if (format.hasGreen()) {
+                    writeColorComponent(data, type, color >> 8 & 0xFF);
+                }
+                if (format.hasBlue()) {
+                    writeColorComponent(data, type, color & 0xFF);
+                }
+                if (format.hasAlpha()) {
+                    writeColorComponent(data, type, color >>> 24);
+                }
+            }
+        }
+        data.flip();
+        return data;
+    }
+
+    private static void writeColorComponent(ByteBuffer data, DataType type, int component) {
+        if (type == DataType.UNSIGNED_BYTE) {
+            data.put((byte) component);
+        } else {
+            SoftwareUtil.writeNormalized(data, type, component / 255f);
+        }
     }
 
     int readPixelColor(int x, int y) {
         checkBounds(x, y);
-        return pixels[x + y * width];
+        return frame.getPixels()[x + y * width];
     }
 
     int readPixelDepth(int x, int y) {
         checkBounds(x, y);
-        return depths[x + y * width];
+        return frame.getDepths()[x + y * width];
     }
 
     boolean testDepth(int x, int y, short z) {
-        final int i = x + y * width;
-        return !isEnabled(Capability.DEPTH_TEST) || z <= depths[i];
+        // Without a depth attachment the test always passes
+        return !isEnabled(Capability.DEPTH_TEST) || !target.hasDepth() || z <= target.readDepth(x, y);
     }
 
-    void writePixel(int x, int y, short z, int color) {
+    void writePixel(int x, int y, short z, float r, float g, float b, float a) {
         checkBounds(x, y);
-        final int i = x + y * width;
-        pixels[i] = color;
-        if (isEnabled(Capability.DEPTH_TEST) && depthWriting) {
-            depths[i] = z;
+        writeColor(0, x, y, r, g, b, a);
+        if (isEnabled(Capability.DEPTH_TEST) && depthWriting && target.hasDepth()) {
+            target.writeDepth(x, y, z);
         }
     }
 
-    private void checkBounds(int x, int y) {
-        if (CausticUtil.isDebugEnabled() && (x < 0 || x >= width || y < 0 || y >= width)) {
-            throw new IllegalArgumentException("(" + x + ", " + y + ") not within (0, 0) to (" + (width - 1) + ", " + (height - 1) + ")");
+    void writeColor(int attachment, int x, int y, float r, float g, float b, float a) {
+        if (blender != null) {
+            target.blendColor(attachment, x, y, r, g, b, a, blender);
+        } else {
+            target.writeColor(attachment, x, y, r, g, b, a);
         }
     }
 
-    private class WindowCloseListener extends WindowAdapter {
-        @Override
-        public void windowClosing(WindowEvent event) {
-            closeRequested = true;
+    boolean isDepthWriting() {
+        return depthWriting;
+    }
+
+    short getDepthBlockMin(int x, int y) {
+        return target.getDepthBlockMin(x, y);
+    }
+
+    short getDepthBlockMax(int x, int y) {
+        return target.getDepthBlockMax(x, y);
+    }
+
+    void updateDepthBlock(int x, int y) {
+        if (target.hasDepth()) {
+            target.updateDepthBlock(x, y);
+        }
+    }
+
+    long getRejectedDepthBlocks() {
+        return rejectedDepthBlocks.get();
+    }
+
+    long getRejectedDepthFragments() {
+        return rejectedDepthFragments.get();
+    }
+
+    void addDepthRejections(long blocks, long fragments) {
+        if (blocks > 0) {
+            rejectedDepthBlocks.addAndGet(blocks);
+        }
+        if (fragments > 0) {
+            rejectedDepthFragments.addAndGet(fragments);
+        }
+    }
+
+    void resetDepthRejections() {
+        rejectedDepthBlocks.set(0);
+        rejectedDepthFragments.set(0);
+    }
+
+    private void checkBounds(int x, int y) {
+        final int width = target.getWidth(), height = target.getHeight();
+        if (CausticUtil.isDebugEnabled() && (x < 0 || x >= width || y < 0 || y >= height)) {
+            throw new IllegalArgumentException("(" + x + ", " + y + ") not within (0, 0) to (" + (width - 1) + ", " + (height - 1) + ")");
         }
     }
 }
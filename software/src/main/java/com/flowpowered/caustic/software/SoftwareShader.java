@@ -25,6 +25,7 @@ package com.flowpowered.caustic.software;
 
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 
 import com.flowpowered.caustic.api.data.ShaderSource;
 import com.flowpowered.caustic.api.gl.Shader;
@@ -35,6 +36,8 @@ import com.flowpowered.caustic.api.gl.Shader;
 public class SoftwareShader extends Shader {
     private Class<? extends ShaderImplementation> shaderClass;
     private ShaderImplementation shader;
+    // Only describes the program inputs, the attributes are always read in the order of the vertex data
+    private final TObjectIntMap<String> attributeLayouts = new TObjectIntHashMap<>();
 
     @Override
     @SuppressWarnings("unchecked")
@@ -46,6 +49,8 @@ public class SoftwareShader extends Shader {
         } catch (ClassCastException ex) {
             throw new IllegalArgumentException("Shader class not of type " + ShaderImplementation.class.getCanonicalName());
         }
+        attributeLayouts.clear();
+        attributeLayouts.putAll(source.getAttributeLayouts());
     }
 
     @Override
@@ -69,7 +74,7 @@ public class SoftwareShader extends Shader {
 
     @Override
     public TObjectIntMap<String> getAttributeLayouts() {
-        return null;
+        return attributeLayouts;
     }
 
     @Override
@@ -79,7 +84,7 @@ public class SoftwareShader extends Shader {
 
     @Override
     public void setAttributeLayout(String attribute, int layout) {
-
+        attributeLayouts.put(attribute, layout);
     }
 
     @Override
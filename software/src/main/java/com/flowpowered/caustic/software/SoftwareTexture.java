@@ -24,7 +24,10 @@
 package com.flowpowered.caustic.software;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
+import com.flowpowered.math.GenericMath;
 import com.flowpowered.math.vector.Vector4f;
 
 import com.flowpowered.caustic.api.data.VertexAttribute.DataType;
@@ -35,11 +38,22 @@ import com.flowpowered.caustic.api.util.CausticUtil;
  *
  */
 public class SoftwareTexture extends Texture {
+    private static final float INVERSE_LOG_2 = (float) (1 / Math.log(2));
     private final SoftwareRenderer renderer;
     private int unit = -1;
-    private ByteBuffer data;
     private int width, height;
-    private InternalFormat format;
+    private InternalFormat format = InternalFormat.RGB8;
+    private FilterMode minFilter = FilterMode.NEAREST_MIPMAP_LINEAR;
+    private FilterMode magFilter = FilterMode.LINEAR;
+    private WrapMode horizontalWrap = WrapMode.REPEAT;
+    private WrapMode verticalWrap = WrapMode.REPEAT;
+    private float anisotropicFiltering = 1;
+    private final float[] borderColor = new float[4];
+    // The image followed by the mipmaps, if they're up to date
+    private volatile TextureLevel[] levels;
+    private volatile boolean mipmapsDirty = true;
+    // Incremented when the image data is replaced
+    private int version = 0;
 
     SoftwareTexture(SoftwareRenderer renderer) {
         this.renderer = renderer;
@@ -99,17 +113,40 @@ public class SoftwareTexture extends Texture {
 
     @Override
     public void setAnisotropicFiltering(float value) {
-
+        checkCreated();
+        if (value <= 0) {
+            throw new IllegalArgumentException("Anisotropic filtering value must be greater than zero");
+        }
+        anisotropicFiltering = value;
     }
 
     @Override
     public void setWraps(WrapMode horizontalWrap, WrapMode verticalWrap) {
-
+        checkCreated();
+        if (horizontalWrap == null) {
+            throw new IllegalArgumentException("Horizontal wrap cannot be null");
+        }
+        if (verticalWrap == null) {
+            throw new IllegalArgumentException("Vertical wrap cannot be null");
+        }
+        this.horizontalWrap = horizontalWrap;
+        this.verticalWrap = verticalWrap;
     }
 
     @Override
     public void setFilters(FilterMode minFilter, FilterMode magFilter) {
-
+        checkCreated();
+        if (minFilter == null) {
+            throw new IllegalArgumentException("Min filter cannot be null");
+        }
+        if (magFilter == null) {
+            throw new IllegalArgumentException("Mag filter cannot be null");
+        }
+        if (magFilter.needsMipMaps()) {
+            throw new IllegalArgumentException("Mag filter cannot require mipmaps");
+        }
+        this.minFilter = minFilter;
+        this.magFilter = magFilter;
     }
 
     @Override
@@ -119,15 +156,65 @@ public class SoftwareTexture extends Texture {
 
     @Override
     public void setBorderColor(Vector4f borderColor) {
-
+        checkCreated();
+        if (borderColor == null) {
+            throw new IllegalArgumentException("Border color cannot be null");
+        }
+        this.borderColor[0] = borderColor.getX();
+        this.borderColor[1] = borderColor.getY();
+        this.borderColor[2] = borderColor.getZ();
+        this.borderColor[3] = borderColor.getW();
     }
 
     @Override
     public void setImageData(ByteBuffer imageData, int width, int height) {
         checkCreated();
+        if (width <= 0) {
+            throw new IllegalArgumentException("Width must be greater than zero");
+        }
+        if (height <= 0) {
+            throw new IllegalArgumentException("Height must be greater than zero");
+        }
         this.width = width;
         this.height = height;
-        data = SoftwareUtil.set(data, imageData, 0.5f);
+        // Without image data, only allocate the storage, for rendering to the texture
+        final TextureLevel level = new TextureLevel(width, height);
+        if (imageData != null) {
+            readImageData(imageData, level);
+        }
+        levels = new TextureLevel[]{level};
+        mipmapsDirty = true;
+        // Build the mipmaps right away if using mipmapped filters
+        if (minFilter.needsMipMaps() && imageData != null) {
+            getMipmaps();
+        }
+        version++;
+    }
+
+    private void readImageData(ByteBuffer imageData, TextureLevel level) {
+        // Convert the texels to floats, the missing channels are zero, except for alpha which is one
+        final ByteBuffer source = imageData.duplicate().order(imageData.order());
+        final DataType type = format.getComponentType();
+        final float[] texels = level.getTexels();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int i = level.getOffset(x, y);
+                if (format.hasDepth()) {
+                    // The depth is stored in the red channel
+                    texels[i] = readComponent(source, type);
+                    texels[i + 3] = 1;
+                    continue;
+                }
+                texels[i] = format.hasRed() ? readComponent(source, type) : 0;
+                texels[i + 1] = format.hasGreen() ? readComponent(source, type) : 0;
+                texels[i + 2] = format.hasBlue() ? readComponent(source, type) : 0;
+                texels[i + 3] = format.hasAlpha() ? readComponent(source, type) : 1;
+            }
+        }
+    }
+
+    private static float readComponent(ByteBuffer data, DataType type) {
+        return SoftwareUtil.toFloat(type, SoftwareUtil.read(data, type), true);
     }
 
     @Override
@@ -137,58 +224,48 @@ public class SoftwareTexture extends Texture {
             format = this.format;
         }
         final ByteBuffer imageData = CausticUtil.createByteBuffer(width * height * format.getBytes());
-        final DataType sourceType = this.format.getComponentType();
-        final DataType destinationType = format.getComponentType();
-        data.rewind();
-        while (data.remaining() > 0) {
-            if (this.format.hasRed()) {
-                if (format.hasRed()) {
-                    SoftwareUtil.copy(data, sourceType, imageData, destinationType);
-                } else {
-                    SoftwareUtil.advance(data, sourceType);
+        final DataType type = format.getComponentType();
+        final TextureLevel level = levels[0];
+        final float[] texels = level.getTexels();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int i = level.getOffset(x, y);
+                if (format.hasDepth()) {
+                    writeComponent(imageData, type, texels[i]);
+                    continue;
                 }
-            } else {
                 if (format.hasRed()) {
-                    SoftwareUtil.write(imageData, destinationType, 0);
-                }
-            }
-            if (this.format.hasGreen()) {
-                if (format.hasGreen()) {
-                    SoftwareUtil.copy(data, sourceType, imageData, destinationType);
-                } else {
-                    SoftwareUtil.advance(data, sourceType);
+                    writeComponent(imageData, type, texels[i]);
                 }
-            } else {
                 if (format.hasGreen()) {
-                    SoftwareUtil.write(imageData, destinationType, 0);
-                }
-            }
-            if (this.format.hasBlue()) {
-                if (format.hasBlue()) {
-                    SoftwareUtil.copy(data, sourceType, imageData, destinationType);
-                } else {
-                    SoftwareUtil.advance(data, sourceType);
+                    writeComponent(imageData, type, texels[i + 1]);
                 }
-            } else {
                 if (format.hasBlue()) {
-                    SoftwareUtil.write(imageData, destinationType, 0);
-                }
-            }
-            if (this.format.hasAlpha()) {
-                if (format.hasAlpha()) {
-                    SoftwareUtil.copy(data, sourceType, imageData, destinationType);
-                } else {
-                    SoftwareUtil.advance(data, sourceType);
+                    writeComponent(imageData, type, texels[i + 2]);
                 }
-            } else {
                 if (format.hasAlpha()) {
-                    SoftwareUtil.write(imageData, destinationType, 0xFFFFFFFF);
+                    writeComponent(imageData, type, texels[i + 3]);
                 }
             }
         }
+        imageData.flip();
         return imageData;
     }
 
+    private static void writeComponent(ByteBuffer data, DataType type, float value) {
+        // Float textures aren't clamped
+        switch (type) {
+            case FLOAT:
+                data.putFloat(value);
+                break;
+            case HALF_FLOAT:
+                data.putShort(SoftwareUtil.toHalfFloat(value));
+                break;
+            default:
+                SoftwareUtil.writeNormalized(data, type, value);
+        }
+    }
+
     @Override
     public int getWidth() {
         return width;
@@ -199,33 +276,237 @@ public class SoftwareTexture extends Texture {
         return height;
     }
 
-    Vector4f sample(float x, float y) {
-        x *= width - 1;
-        y *= height - 1;
-        final DataType type = format.getComponentType();
-        final int i = ((int) x + (int) y * width) * format.getComponentCount();
-        final float r, g, b, a;
+    int getVersion() {
+        return version;
+    }
+
+    void invalidateMipmaps() {
+        mipmapsDirty = true;
+    }
+
+    private TextureLevel[] getMipmaps() {
+        if (mipmapsDirty) {
+            // The fragment shaders can sample from many threads at once
+            synchronized (this) {
+                if (mipmapsDirty) {
+                    final List<TextureLevel> mipmaps = new ArrayList<>();
+                    TextureLevel level = levels[0];
+                    mipmaps.add(level);
+                    while (level.getWidth() > 1 || level.getHeight() > 1) {
+                        level = level.downsample();
+                        mipmaps.add(level);
+                    }
+                    levels = mipmaps.toArray(new TextureLevel[mipmaps.size()]);
+                    mipmapsDirty = false;
+                }
+            }
+        }
+        return levels;
+    }
+
+    void writeColor(int x, int y, float r, float g, float b, float a) {
+        // The values are rounded to the precision of the format, for blending
+        final TextureLevel level = levels[0];
+        final float[] texels = level.getTexels();
+        final int i = level.getOffset(x, y);
         if (format.hasRed()) {
-            r = SoftwareUtil.readAsFloat(data, type, i);
-        } else {
-            r = 0;
+            texels[i] = quantize(r);
         }
         if (format.hasGreen()) {
-            g = SoftwareUtil.readAsFloat(data, type, i + 1);
-        } else {
-            g = 0;
+            texels[i + 1] = quantize(g);
         }
         if (format.hasBlue()) {
-            b = SoftwareUtil.readAsFloat(data, type, i + 2);
-        } else {
-            b = 0;
+            texels[i + 2] = quantize(b);
         }
         if (format.hasAlpha()) {
-            a = SoftwareUtil.readAsFloat(data, type, i + 3);
+            texels[i + 3] = quantize(a);
+        }
+    }
+
+    float readColor(int x, int y, int channel) {
+        final TextureLevel level = levels[0];
+        return level.getTexels()[level.getOffset(x, y) + channel];
+    }
+
+    private float quantize(float value) {
+        switch (format.getComponentType()) {
+            case UNSIGNED_BYTE:
+                return Math.round(SoftwareUtil.clamp(value, 0, 1) * 255) / 255f;
+            case UNSIGNED_SHORT:
+                return Math.round(SoftwareUtil.clamp(value, 0, 1) * 65535) / 65535f;
+            case HALF_FLOAT:
+                return SoftwareUtil.fromHalfFloat(SoftwareUtil.toHalfFloat(value));
+            case FLOAT:
+                return value;
+            default:
+                return SoftwareUtil.clamp(value, 0, 1);
+        }
+    }
+
+    void clearColor(float r, float g, float b, float a) {
+        levels[0].fill(format.hasRed() ? quantize(r) : 0, format.hasGreen() ? quantize(g) : 0,
+                format.hasBlue() ? quantize(b) : 0, format.hasAlpha() ? quantize(a) : 1);
+    }
+
+    short readDepth(int x, int y) {
+        // Convert from the normalized depth to the signed depth buffer range, rounding to get back the written depth
+        final TextureLevel level = levels[0];
+        return (short) (Math.round(level.getTexels()[level.getOffset(x, y)] * 65535) + Short.MIN_VALUE);
+    }
+
+    void writeDepth(int x, int y, short depth) {
+        final TextureLevel level = levels[0];
+        level.getTexels()[level.getOffset(x, y)] = SoftwareUtil.normalizeFromShort(depth);
+    }
+
+    void clearDepth(short depth) {
+        levels[0].fill(SoftwareUtil.normalizeFromShort(depth), 0, 0, 1);
+    }
+
+    Vector4f sample(float x, float y) {
+        final float[] color = new float[4];
+        sampleLod(x, y, 0, color);
+        return new Vector4f(color[0], color[1], color[2], color[3]);
+    }
+
+    void sample(float x, float y, float[] destination) {
+        sampleLod(x, y, 0, destination);
+    }
+
+    void sampleLod(float x, float y, float lod, float[] destination) {
+        // Magnification, or minification without mipmaps, only uses the image
+        if (lod <= 0 || !minFilter.needsMipMaps()) {
+            final boolean linear = (lod <= 0 ? magFilter : minFilter) == FilterMode.LINEAR;
+            sampleLevel(levels[0], x, y, linear, destination);
+            return;
+        }
+        final TextureLevel[] levels = getMipmaps();
+        final int maxLevel = levels.length - 1;
+        switch (minFilter) {
+            case NEAREST_MIPMAP_NEAREST:
+            case LINEAR_MIPMAP_NEAREST:
+                // Use the closest level
+                sampleLevel(levels[Math.min((int) (lod + 0.5f), maxLevel)], x, y, minFilter == FilterMode.LINEAR_MIPMAP_NEAREST, destination);
+                break;
+            default:
+                // Interpolate between the two closest levels
+                final boolean linear = minFilter == FilterMode.LINEAR_MIPMAP_LINEAR;
+                final int level = (int) lod;
+                if (level >= maxLevel) {
+                    sampleLevel(levels[maxLevel], x, y, linear, destination);
+                    break;
+                }
+                sampleLevel(levels[level + 1], x, y, linear, destination);
+                final float r = destination[0], g = destination[1], b = destination[2], a = destination[3];
+                sampleLevel(levels[level], x, y, linear, destination);
+                final float percent = lod - level;
+                destination[0] += (r - destination[0]) * percent;
+                destination[1] += (g - destination[1]) * percent;
+                destination[2] += (b - destination[2]) * percent;
+                destination[3] += (a - destination[3]) * percent;
+        }
+    }
+
+    void sampleGrad(float x, float y, float xDx, float yDx, float xDy, float yDy, float[] destination) {
+        // Convert the derivatives of the coordinates to texels
+        final float uDx = xDx * width, vDx = yDx * height;
+        final float uDy = xDy * width, vDy = yDy * height;
+        final float lengthX = (float) Math.sqrt(uDx * uDx + vDx * vDx);
+        final float lengthY = (float) Math.sqrt(uDy * uDy + vDy * vDy);
+        final float major = Math.max(lengthX, lengthY), minor = Math.min(lengthX, lengthY);
+        // Without anisotropic filtering, the level of detail is given by the major axis of the footprint
+        if (anisotropicFiltering <= 1 || minor <= 0 || major <= minor) {
+            sampleLod(x, y, log2(major), destination);
+            return;
+        }
+        // Else take samples along the major axis, using the level of detail of the smaller footprint
+        final float ratio = Math.min(major / minor, anisotropicFiltering);
+        final int samples = (int) Math.ceil(ratio);
+        final float lod = log2(major / ratio);
+        final float stepX, stepY;
+        if (lengthX >= lengthY) {
+            stepX = xDx / samples;
+            stepY = yDx / samples;
         } else {
-            a = 1;
+            stepX = xDy / samples;
+            stepY = yDy / samples;
+        }
+        float r = 0, g = 0, b = 0, a = 0;
+        for (int i = 0; i < samples; i++) {
+            final float offset = i - (samples - 1) * 0.5f;
+            sampleLod(x + stepX * offset, y + stepY * offset, lod, destination);
+            r += destination[0];
+            g += destination[1];
+            b += destination[2];
+            a += destination[3];
+        }
+        destination[0] = r / samples;
+        destination[1] = g / samples;
+        destination[2] = b / samples;
+        destination[3] = a / samples;
+    }
+
+    private static float log2(float f) {
+        return (float) Math.log(f) * INVERSE_LOG_2;
+    }
+
+    private void sampleLevel(TextureLevel level, float x, float y, boolean linear, float[] destination) {
+        final int levelWidth = level.getWidth(), levelHeight = level.getHeight();
+        final float[] texels = level.getTexels();
+        if (!linear) {
+            // Nearest texel
+            final int tx = wrap(GenericMath.floor(x * levelWidth), levelWidth, horizontalWrap);
+            final int ty = wrap(GenericMath.floor(y * levelHeight), levelHeight, verticalWrap);
+            final int i = tx < 0 || ty < 0 ? -1 : level.getOffset(tx, ty);
+            for (int c = 0; c < 4; c++) {
+                destination[c] = readTexel(texels, i, c);
+            }
+            return;
+        }
+        // Bilinear interpolation of the four closest texels
+        final float u = x * levelWidth - 0.5f, v = y * levelHeight - 0.5f;
+        final int u0 = GenericMath.floor(u), v0 = GenericMath.floor(v);
+        final float fu = u - u0, fv = v - v0;
+        final int x0 = wrap(u0, levelWidth, horizontalWrap), x1 = wrap(u0 + 1, levelWidth, horizontalWrap);
+        final int y0 = wrap(v0, levelHeight, verticalWrap), y1 = wrap(v0 + 1, levelHeight, verticalWrap);
+        final int i00 = x0 < 0 || y0 < 0 ? -1 : level.getOffset(x0, y0);
+        final int i10 = x1 < 0 || y0 < 0 ? -1 : level.getOffset(x1, y0);
+        final int i01 = x0 < 0 || y1 < 0 ? -1 : level.getOffset(x0, y1);
+        final int i11 = x1 < 0 || y1 < 0 ? -1 : level.getOffset(x1, y1);
+        for (int c = 0; c < 4; c++) {
+            final float t00 = readTexel(texels, i00, c), t10 = readTexel(texels, i10, c);
+            final float t01 = readTexel(texels, i01, c), t11 = readTexel(texels, i11, c);
+            final float top = t00 + (t10 - t00) * fu;
+            final float bottom = t01 + (t11 - t01) * fu;
+            destination[c] = top + (bottom - top) * fv;
+        }
+    }
+
+    private float readTexel(float[] texels, int i, int channel) {
+        // A negative index is the border
+        return i < 0 ? borderColor[channel] : texels[i + channel];
+    }
+
+    private static int wrap(int i, int size, WrapMode mode) {
+        switch (mode) {
+            case REPEAT:
+                i %= size;
+                return i < 0 ? i + size : i;
+            case MIRRORED_REPEAT:
+                final int period = size << 1;
+                i %= period;
+                if (i < 0) {
+                    i += period;
+                }
+                return i < size ? i : period - 1 - i;
+            case CLAMP_TO_EDGE:
+                return i < 0 ? 0 : i >= size ? size - 1 : i;
+            case CLAMP_TO_BORDER:
+                // Outside of the texture is the border
+                return i < 0 || i >= size ? -1 : i;
+            default:
+                throw new IllegalStateException("Unknown wrap mode: " + mode);
         }
-        return new Vector4f(r, g, b, a);
     }
 
     @Override
@@ -44,6 +44,7 @@ public final class SoftwareUtil {
     private static final int SHORT_MASK = 0xFFFF;
     private static final long INT_MASK = 0xFFFFFFFFl;
     public static final GLImplementation SOFT_IMPL = new GLImplementation(GLVersion.SOFTWARE, SoftwareContext.class.getName());
+    public static final GLImplementation SOFT_HEADLESS_IMPL = new GLImplementation(GLVersion.SOFTWARE, SoftwareHeadlessContext.class.getName());
 
     private SoftwareUtil() {
     }
@@ -84,6 +85,7 @@ public final class SoftwareUtil {
                 return data.get();
             case SHORT:
             case UNSIGNED_SHORT:
+            case HALF_FLOAT:
                 return data.getShort();
             case INT:
             case UNSIGNED_INT:
@@ -102,6 +104,7 @@ public final class SoftwareUtil {
                 return data.get(i);
             case SHORT:
             case UNSIGNED_SHORT:
+            case HALF_FLOAT:
                 return data.getShort(i);
             case INT:
             case UNSIGNED_INT:
@@ -120,6 +123,7 @@ public final class SoftwareUtil {
                 break;
             case SHORT:
             case UNSIGNED_SHORT:
+            case HALF_FLOAT:
                 data.putShort((short) (value & SHORT_MASK));
                 break;
             case INT:
@@ -141,6 +145,7 @@ public final class SoftwareUtil {
                 break;
             case SHORT:
             case UNSIGNED_SHORT:
+            case HALF_FLOAT:
                 data.putShort(i, (short) (value & SHORT_MASK));
                 break;
             case INT:
@@ -175,6 +180,47 @@ public final class SoftwareUtil {
         }
     }
 
+    static void writeNormalized(ByteBuffer data, DataType type, float value) {
+        value = clamp(value, 0, 1);
+        switch (type) {
+            case UNSIGNED_BYTE:
+                data.put((byte) Math.round(value * BYTE_RANGE));
+                break;
+            case UNSIGNED_SHORT:
+                data.putShort((short) Math.round(value * SHORT_RANGE));
+                break;
+            case UNSIGNED_INT:
+                data.putInt((int) Math.round((double) value * INT_RANGE));
+                break;
+            case FLOAT:
+                data.putFloat(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported data type: " + type);
+        }
+    }
+
+    static void writeNormalized(ByteBuffer data, DataType type, float value, int i) {
+        value = clamp(value, 0, 1);
+        i <<= type.getMultiplyShift();
+        switch (type) {
+            case UNSIGNED_BYTE:
+                data.put(i, (byte) Math.round(value * BYTE_RANGE));
+                break;
+            case UNSIGNED_SHORT:
+                data.putShort(i, (short) Math.round(value * SHORT_RANGE));
+                break;
+            case UNSIGNED_INT:
+                data.putInt(i, (int) Math.round((double) value * INT_RANGE));
+                break;
+            case FLOAT:
+                data.putFloat(i, value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported data type: " + type);
+        }
+    }
+
     static void advance(ByteBuffer data, DataType type) {
         advance(data, type, 1);
     }
@@ -212,6 +258,8 @@ public final class SoftwareUtil {
             case UNSIGNED_INT:
                 f = (long) value & INT_MASK;
                 return normalize ? f / INT_RANGE : f;
+            case HALF_FLOAT:
+                return fromHalfFloat(value);
             case FLOAT:
                 f = Float.intBitsToFloat(value);
                 return f;
@@ -220,6 +268,48 @@ public final class SoftwareUtil {
         }
     }
 
+    static float fromHalfFloat(int half) {
+        final int sign = (half & 0x8000) << 16;
+        final int exponent = half >> 10 & 0x1F;
+        final int mantissa = half & 0x3FF;
+        if (exponent == 0) {
+            // Zero or subnormal
+            final float f = mantissa / 16777216f;
+            return sign != 0 ? -f : f;
+        }
+        if (exponent == 0x1F) {
+            // Infinity or NaN
+            return Float.intBitsToFloat(sign | 0x7F800000 | mantissa << 13);
+        }
+        return Float.intBitsToFloat(sign | exponent + 112 << 23 | mantissa << 13);
+    }
+
+    static short toHalfFloat(float f) {
+        final int bits = Float.floatToIntBits(f);
+        final int sign = bits >>> 16 & 0x8000;
+        final int exponent = (bits >>> 23 & 0xFF) - 112;
+        int mantissa = bits & 0x7FFFFF;
+        if ((bits & 0x7FFFFFFF) > 0x7F800000) {
+            // NaN
+            return (short) (sign | 0x7E00);
+        }
+        if (exponent >= 0x1F) {
+            // Too large, infinity
+            return (short) (sign | 0x7C00);
+        }
+        if (exponent <= 0) {
+            // Subnormal or zero, with the implicit bit made explicit
+            if (exponent < -10) {
+                return (short) sign;
+            }
+            mantissa |= 0x800000;
+            final int shift = 14 - exponent;
+            return (short) (sign | mantissa + (1 << shift - 1) >> shift);
+        }
+        // Round to the nearest, which can carry into the exponent
+        return (short) (sign | (exponent << 10 | mantissa >> 13) + (mantissa >> 12 & 1));
+    }
+
     static int pack(Vector4f v) {
         return pack(v.getX(), v.getY(), v.getZ(), v.getW());
     }
@@ -245,6 +335,10 @@ public final class SoftwareUtil {
         return (short) (clamp(f, 0, 1) * SHORT_RANGE + Short.MIN_VALUE);
     }
 
+    static float normalizeFromShort(short s) {
+        return (s - Short.MIN_VALUE) / SHORT_RANGE;
+    }
+
     static void lerp(ShaderBuffer inA, ShaderBuffer inB, float percent, int start, ShaderBuffer out) {
         final DataFormat[] formats = inA.getFormat();
         for (int i = start; i < formats.length; i++) {
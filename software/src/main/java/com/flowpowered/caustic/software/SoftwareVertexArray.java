@@ -24,6 +24,9 @@
 package com.flowpowered.caustic.software;
 
 import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
 
 import com.flowpowered.math.GenericMath;
 
@@ -36,19 +39,40 @@ import com.flowpowered.caustic.api.gl.Shader.ShaderType;
 import com.flowpowered.caustic.api.gl.VertexArray;
 import com.flowpowered.caustic.api.util.Rectangle;
 
+import gnu.trove.list.TIntList;
+
 /**
  *
  */
 public class SoftwareVertexArray extends VertexArray {
-    private static final DataType INDICES_TYPE = DataType.INT;
     private static final DataFormat[] FRAGMENT_OUTPUT = {new DataFormat(DataType.FLOAT, 4)};
     private final SoftwareRenderer renderer;
-    private ByteBuffer[] attributeBuffers;
+    // The vertex attributes are always interleaved, as raw 32 bit values, so that the vertex fetch reads them linearly
+    private int[] vertices;
+    private int vertexSize = 0;
     private DataFormat[] attributeFormats;
+    // Source types, upload modes, offsets in the vertex and lengths in components of the attributes, for partial updates
+    private DataType[] attributeTypes;
+    private UploadMode[] attributeUploadModes;
+    private int[] attributeOffsets;
+    private int[] attributeLengths;
+    // Instance attributes, sorted by index. The vertex shader reads them after the vertex attributes, each as a single input of its full size (16 floats for a matrix)
+    private int[] instanceIndices = {};
+    private int[] instanceSizes = {};
+    private float[][] instanceData = {};
+    // Formats of the vertex shader inputs: the vertex attributes followed by the instance ones
+    private DataFormat[] inputFormats;
+    // The instance being drawn
+    private int instance = 0;
     private ByteBuffer indicesBuffer;
+    // Type of the indices, the narrowest one which fits them all
+    private DataType indicesType = DataType.UNSIGNED_INT;
     private DrawingMode mode = DrawingMode.TRIANGLES;
     private PolygonMode polygonMode = PolygonMode.FILL;
     private int offset = 0, count = -1, totalCount = 0;
+    private int vertexCount = 0;
+    private VertexCache vertexCache;
+    private TriangleBins triangleBins;
 
     SoftwareVertexArray(SoftwareRenderer renderer) {
         this.renderer = renderer;
@@ -57,43 +81,94 @@ public class SoftwareVertexArray extends VertexArray {
     @Override
     public void setData(VertexData vertexData) {
         checkCreated();
+        // Compute the bounds of the positions
+        updateBounds(vertexData);
+        // The indices are stored as the narrowest type which fits them
+        indicesType = vertexData.getIndicesType();
         // If the new count is greater than or 50% smaller than the old one, we'll reallocate the memory
         // In the first case because we need more space, in the other to save space
-        indicesBuffer = SoftwareUtil.set(indicesBuffer, vertexData.getIndicesBuffer(), 0.5f);
+        indicesBuffer = SoftwareUtil.set(indicesBuffer, vertexData.getIndicesBuffer(indicesType), 0.5f);
         // Update the total indices count
         totalCount = vertexData.getIndicesCount();
+        // The vertex count is one more than the largest index
+        vertexCount = vertexData.getMaxIndex() + 1;
         // Ensure the count fits under the total one
         count = count <= 0 ? totalCount : Math.min(count, totalCount);
         // Ensure that the indices offset and count fits inside the valid part of the buffer
         offset = Math.min(offset, count - 1);
         count -= offset;
-        // Create a new array of attribute buffers of the correct size
+        // Compute the attribute formats and the size of a vertex
         final int attributeCount = vertexData.getAttributeCount();
-        final ByteBuffer[] newAttributeBuffers = new ByteBuffer[attributeCount];
-        // Copy all the old buffer that will fit in the new array so we can reuse them
-        if (attributeBuffers != null) {
-            System.arraycopy(attributeBuffers, 0, newAttributeBuffers, 0, Math.min(attributeBuffers.length, newAttributeBuffers.length));
-        }
-        // Update the arrays
-        attributeBuffers = newAttributeBuffers;
         attributeFormats = new DataFormat[attributeCount];
-        // Set the new vertex data
+        attributeTypes = new DataType[attributeCount];
+        attributeUploadModes = new UploadMode[attributeCount];
+        attributeOffsets = new int[attributeCount];
+        attributeLengths = new int[attributeCount];
+        vertexSize = 0;
         for (int i = 0; i < attributeCount; i++) {
             final VertexAttribute attribute = vertexData.getAttribute(i);
-            final ByteBuffer attributeData = attribute.getData();
-            // If the new count is greater than or 50% smaller than the old one, we'll reallocate the memory
-            // Set the data, converting it to float if necessary
-            final DataType type = attribute.getType();
-            final UploadMode uploadMode = attribute.getUploadMode();
-            switch (uploadMode) {
-                case KEEP_INT:
-                    attributeBuffers[i] = SoftwareUtil.set(attributeBuffers[i], attributeData, 0.5f);
-                    break;
-                default:
-                    attributeBuffers[i] = SoftwareUtil.setAsFloat(attributeBuffers[i], attributeData, type, 0.5f, uploadMode.normalize());
-            }
-            // Save the attribute format
-            attributeFormats[i] = new DataFormat(uploadMode.toFloat() ? DataType.FLOAT : type, attribute.getSize());
+            // Integer data is converted to float, unless we keep it as is
+            attributeFormats[i] = new DataFormat(attribute.getUploadMode().toFloat() ? DataType.FLOAT : attribute.getType(), attribute.getSize());
+            attributeTypes[i] = attribute.getType();
+            attributeUploadModes[i] = attribute.getUploadMode();
+            attributeOffsets[i] = vertexSize;
+            attributeLengths[i] = attribute.getVertexCount() * attribute.getSize();
+            vertexSize += attribute.getSize();
+        }
+        // If the new length is greater than or 50% smaller than the old one, we'll reallocate the memory
+        final int length = vertexData.getVertexCount() * vertexSize;
+        if (vertices == null || length > vertices.length || length <= vertices.length * 0.5) {
+            vertices = new int[length];
+        } else {
+            // Missing data is read as zeros
+            Arrays.fill(vertices, 0, length, 0);
+        }
+        // Interleave the attributes, converting them to float if necessary
+        for (int i = 0; i < attributeCount; i++) {
+            writeAttribute(i, 0, vertexData.getAttribute(i).getDataView(), attributeLengths[i]);
+        }
+        updateInputFormats();
+    }
+
+    @Override
+    public void setBufferUsage(BufferUsage usage) {
+        if (usage == null) {
+            throw new IllegalArgumentException("Buffer usage cannot be null");
+        }
+        // The data is in memory, so there are no draws to wait for
+    }
+
+    @Override
+    public void updateAttribute(int index, int byteOffset, ByteBuffer data) {
+        checkCreated();
+        checkAttributeUpdate(index, byteOffset, data);
+        if (attributeTypes == null || index >= attributeTypes.length) {
+            throw new IllegalArgumentException("No attribute at index: " + index);
+        }
+        final int byteSize = attributeTypes[index].getByteSize();
+        if (byteOffset % byteSize != 0 || data.remaining() % byteSize != 0) {
+            throw new IllegalArgumentException("Byte offset and data length must be multiples of the attribute type size");
+        }
+        final int first = byteOffset / byteSize;
+        final int length = data.remaining() / byteSize;
+        if (first + length > attributeLengths[index]) {
+            throw new IllegalArgumentException("Update exceeds the attribute data size of " + attributeLengths[index] * byteSize + " bytes");
+        }
+        // Grow the bounds if the positions moved
+        updateBounds(index, byteOffset, data);
+        // Read from a duplicate to leave the position of the data unchanged
+        writeAttribute(index, first, data.duplicate().order(data.order()), length);
+    }
+
+    private void writeAttribute(int index, int first, ByteBuffer data, int length) {
+        final DataType type = attributeTypes[index];
+        final UploadMode uploadMode = attributeUploadModes[index];
+        final int size = attributeFormats[index].getCount();
+        final int attributeOffset = attributeOffsets[index];
+        for (int i = first; i < first + length; i++) {
+            // Here conversion from byte or short to int is implicit
+            final int x = SoftwareUtil.read(data, type);
+            vertices[i / size * vertexSize + attributeOffset + i % size] = uploadMode.toFloat() ? Float.floatToRawIntBits(SoftwareUtil.toFloat(type, x, uploadMode.normalize())) : x;
         }
     }
 
@@ -138,6 +213,80 @@ public class SoftwareVertexArray extends VertexArray {
                 drawTriangles();
                 break;
         }
+        // Report the vertex cache statistics for this draw call
+        if (vertexCache != null) {
+            renderer.addVertexCacheStatistics(vertexCache.getHits(), vertexCache.getMisses());
+        }
+    }
+
+    @Override
+    public boolean isInstancingSupported() {
+        return true;
+    }
+
+    @Override
+    public void setInstanceAttribute(int index, int size, FloatBuffer data) {
+        checkCreated();
+        checkInstanceAttribute(index, size, data);
+        // Find the attribute, or insert it so that the indices stay sorted
+        int i = 0;
+        while (i < instanceIndices.length && instanceIndices[i] < index) {
+            i++;
+        }
+        if (i >= instanceIndices.length || instanceIndices[i] != index) {
+            final int count = instanceIndices.length;
+            instanceIndices = Arrays.copyOf(instanceIndices, count + 1);
+            instanceSizes = Arrays.copyOf(instanceSizes, count + 1);
+            instanceData = Arrays.copyOf(instanceData, count + 1);
+            System.arraycopy(instanceIndices, i, instanceIndices, i + 1, count - i);
+            System.arraycopy(instanceSizes, i, instanceSizes, i + 1, count - i);
+            System.arraycopy(instanceData, i, instanceData, i + 1, count - i);
+            instanceIndices[i] = index;
+            instanceData[i] = null;
+        }
+        // Copy the data, reusing the old array when it has the same length
+        final int length = data.remaining();
+        float[] array = instanceData[i];
+        if (array == null || array.length != length) {
+            array = new float[length];
+        }
+        final int position = data.position();
+        for (int ii = 0; ii < length; ii++) {
+            array[ii] = data.get(position + ii);
+        }
+        instanceData[i] = array;
+        instanceSizes[i] = size;
+        updateInputFormats();
+    }
+
+    @Override
+    public void drawInstanced(int count) {
+        checkCreated();
+        // Check that all the instance attributes have enough data
+        for (int i = 0; i < instanceIndices.length; i++) {
+            if (instanceData[i].length < count * instanceSizes[i]) {
+                throw new IllegalArgumentException("Instance attribute " + instanceIndices[i] + " doesn't have data for " + count + " instances");
+            }
+        }
+        // Draw the instances one at a time, each reading its own instance attributes
+        try {
+            for (instance = 0; instance < count; instance++) {
+                draw();
+            }
+        } finally {
+            instance = 0;
+        }
+    }
+
+    private void updateInputFormats() {
+        final int attributeCount = attributeFormats != null ? attributeFormats.length : 0;
+        inputFormats = new DataFormat[attributeCount + instanceSizes.length];
+        if (attributeFormats != null) {
+            System.arraycopy(attributeFormats, 0, inputFormats, 0, attributeCount);
+        }
+        for (int i = 0; i < instanceSizes.length; i++) {
+            inputFormats[attributeCount + i] = new DataFormat(DataType.FLOAT, instanceSizes[i]);
+        }
     }
 
     private void drawPoints() {
@@ -149,16 +298,18 @@ public class SoftwareVertexArray extends VertexArray {
         // Get the vertex shader implementation, and create appropriate in and out buffers
         final ShaderImplementation vertexShader = program.getShader(ShaderType.VERTEX).getImplementation();
         final DataFormat[] vertexOutputFormat = vertexShader.getOutputFormat();
-        final ShaderBuffer vertexIn = new ShaderBuffer(attributeFormats);
+        final ShaderBuffer vertexIn = new ShaderBuffer(inputFormats);
         final ShaderBuffer vertexOut = new ShaderBuffer(vertexOutputFormat);
         // Get the fragment shader implementation, and create appropriate in and out buffers
         final ShaderImplementation fragmentShader = program.getShader(ShaderType.FRAGMENT).getImplementation();
         final ShaderBuffer fragmentIn = new ShaderBuffer(vertexOutputFormat);
-        final ShaderBuffer fragmentOut = new ShaderBuffer(FRAGMENT_OUTPUT);
+        final ShaderBuffer fragmentOut = new ShaderBuffer(getFragmentOutputFormat(fragmentShader));
+        // Get the post-transform vertex cache, if any
+        final VertexCache cache = getVertexCache(vertexOut.capacity());
         // For all indices that need to be drawn
         for (int i = 0; i < count; i++) {
             // Compute the point
-            readVertex(vertexShader, vertexIn, vertexOut, i);
+            readVertex(vertexShader, vertexIn, vertexOut, i, cache);
             // Read the first 4 floats, which is the vertex position
             float x = Float.intBitsToFloat(vertexOut.readRaw());
             float y = Float.intBitsToFloat(vertexOut.readRaw());
@@ -189,7 +340,7 @@ public class SoftwareVertexArray extends VertexArray {
             fragmentIn.writeRaw(vertexOut);
             fragmentIn.flip();
             // Shade and write the fragment
-            writeFragment(fragmentShader, fragmentIn, fragmentOut, (int) x, (int) y, z);
+            writeFragment(fragmentShader, fragmentIn, fragmentOut, (int) x, (int) y, z, true);
         }
     }
 
@@ -202,24 +353,26 @@ public class SoftwareVertexArray extends VertexArray {
         // Get the vertex shader implementation, and create appropriate in and out buffers
         final ShaderImplementation vertexShader = program.getShader(ShaderType.VERTEX).getImplementation();
         final DataFormat[] vertexOutputFormat = vertexShader.getOutputFormat();
-        final ShaderBuffer vertexIn = new ShaderBuffer(attributeFormats);
+        final ShaderBuffer vertexIn = new ShaderBuffer(inputFormats);
         final ShaderBuffer vertexOut1 = new ShaderBuffer(vertexOutputFormat);
         final ShaderBuffer vertexOut2 = new ShaderBuffer(vertexOutputFormat);
         // Get the fragment shader implementation, and create appropriate in and out buffers
         final ShaderImplementation fragmentShader = program.getShader(ShaderType.FRAGMENT).getImplementation();
         final ShaderBuffer fragmentIn = new ShaderBuffer(vertexOutputFormat);
-        final ShaderBuffer fragmentOut = new ShaderBuffer(FRAGMENT_OUTPUT);
+        final ShaderBuffer fragmentOut = new ShaderBuffer(getFragmentOutputFormat(fragmentShader));
+        // Get the post-transform vertex cache, if any
+        final VertexCache cache = getVertexCache(vertexOut1.capacity());
         // For all indices that need to be drawn
         for (int i = 0; i < count; i += 2) {
             // Compute the first point
-            readVertex(vertexShader, vertexIn, vertexOut1, i);
+            readVertex(vertexShader, vertexIn, vertexOut1, i, cache);
             // Read the first 4 floats, which is the vertex position
             float x1 = Float.intBitsToFloat(vertexOut1.readRaw());
             float y1 = Float.intBitsToFloat(vertexOut1.readRaw());
             float z1 = Float.intBitsToFloat(vertexOut1.readRaw());
             float w1 = Float.intBitsToFloat(vertexOut1.readRaw());
             // Compute the second point
-            readVertex(vertexShader, vertexIn, vertexOut2, i + 1);
+            readVertex(vertexShader, vertexIn, vertexOut2, i + 1, cache);
             // Read the first 4 floats, which is the vertex position
             float x2 = Float.intBitsToFloat(vertexOut2.readRaw());
             float y2 = Float.intBitsToFloat(vertexOut2.readRaw());
@@ -435,7 +588,7 @@ public class SoftwareVertexArray extends VertexArray {
                 // Flip the buffer for reading
                 fragmentIn.flip();
                 // Shade and write the fragment
-                writeFragment(fragmentShader, fragmentIn, fragmentOut, (int) x, (int) y, z);
+                writeFragment(fragmentShader, fragmentIn, fragmentOut, (int) x, (int) y, z, true);
             } else if (Math.abs(xDiff) > Math.abs(yDiff)) {
                 final float xMin, xMax;
                 if (x1 < x2) {
@@ -469,7 +622,7 @@ public class SoftwareVertexArray extends VertexArray {
                     // Flip the buffer for reading
                     fragmentIn.flip();
                     // Shade and write the fragment
-                    writeFragment(fragmentShader, fragmentIn, fragmentOut, (int) x, (int) y, z);
+                    writeFragment(fragmentShader, fragmentIn, fragmentOut, (int) x, (int) y, z, true);
                 }
             } else {
                 final float yMin, yMax;
@@ -504,7 +657,7 @@ public class SoftwareVertexArray extends VertexArray {
                     // Flip the buffer for reading
                     fragmentIn.flip();
                     // Shade and write the fragment
-                    writeFragment(fragmentShader, fragmentIn, fragmentOut, (int) x, (int) y, z);
+                    writeFragment(fragmentShader, fragmentIn, fragmentOut, (int) x, (int) y, z, true);
                 }
             }
         }
@@ -520,14 +673,14 @@ public class SoftwareVertexArray extends VertexArray {
         // Get the vertex shader implementation, and create appropriate in and out buffers
         final ShaderImplementation vertexShader = program.getShader(ShaderType.VERTEX).getImplementation();
         final DataFormat[] vertexOutputFormat = vertexShader.getOutputFormat();
-        final ShaderBuffer vertexIn = new ShaderBuffer(attributeFormats);
+        final ShaderBuffer vertexIn = new ShaderBuffer(inputFormats);
         final ShaderBuffer vertexOut1 = new ShaderBuffer(vertexOutputFormat);
         final ShaderBuffer vertexOut2 = new ShaderBuffer(vertexOutputFormat);
         final ShaderBuffer vertexOut3 = new ShaderBuffer(vertexOutputFormat);
         // Get the fragment shader implementation, and create appropriate in and out buffers
         final ShaderImplementation fragmentShader = program.getShader(ShaderType.FRAGMENT).getImplementation();
         final ShaderBuffer fragmentIn = new ShaderBuffer(vertexOutputFormat);
-        final ShaderBuffer fragmentOut = new ShaderBuffer(FRAGMENT_OUTPUT);
+        final ShaderBuffer fragmentOut = new ShaderBuffer(getFragmentOutputFormat(fragmentShader));
         // Arrays for storing the vertices for clipping
         final float[] inVertices = new float[7 * 4];
         final float[] outVertices = new float[7 * 4];
@@ -541,24 +694,28 @@ public class SoftwareVertexArray extends VertexArray {
                 new ShaderBuffer(vertexOutputFormat), new ShaderBuffer(vertexOutputFormat),
                 new ShaderBuffer(vertexOutputFormat), new ShaderBuffer(vertexOutputFormat)
         };
+        // When rasterizing in parallel, bin the triangles into screen tiles to be drawn at the end
+        final TriangleBins bins = renderer.getRasterizationThreads() > 1 ? getBins(vertexOut1.capacity()) : null;
+        // Get the post-transform vertex cache, if any
+        final VertexCache cache = getVertexCache(vertexOut1.capacity());
         // For all indices that need to be drawn
         for (int i = 0; i < count; i += 3) {
             // Compute the first point
-            readVertex(vertexShader, vertexIn, vertexOut1, i);
+            readVertex(vertexShader, vertexIn, vertexOut1, i, cache);
             // Read the first 4 floats, which is the vertex position
             float x1 = Float.intBitsToFloat(vertexOut1.readRaw());
             float y1 = Float.intBitsToFloat(vertexOut1.readRaw());
             float z1 = Float.intBitsToFloat(vertexOut1.readRaw());
             float w1 = Float.intBitsToFloat(vertexOut1.readRaw());
             // Compute the second point
-            readVertex(vertexShader, vertexIn, vertexOut2, i + 1);
+            readVertex(vertexShader, vertexIn, vertexOut2, i + 1, cache);
             // Read the first 4 floats, which is the vertex position
             float x2 = Float.intBitsToFloat(vertexOut2.readRaw());
             float y2 = Float.intBitsToFloat(vertexOut2.readRaw());
             float z2 = Float.intBitsToFloat(vertexOut2.readRaw());
             float w2 = Float.intBitsToFloat(vertexOut2.readRaw());
             // Compute the third point
-            readVertex(vertexShader, vertexIn, vertexOut3, i + 2);
+            readVertex(vertexShader, vertexIn, vertexOut3, i + 2, cache);
             // Read the first 4 floats, which is the vertex position
             float x3 = Float.intBitsToFloat(vertexOut3.readRaw());
             float y3 = Float.intBitsToFloat(vertexOut3.readRaw());
@@ -700,14 +857,56 @@ public class SoftwareVertexArray extends VertexArray {
                 z3 = outVertices[vi + 6];
                 w3 = outVertices[vi + 7];
                 final ShaderBuffer out3 = outBuffers[n + 2];
-                // Draw the triangle
-                drawTriangle(
-                        out1, x1, y1, z1, w1,
-                        out2, x2, y2, z2, w2,
-                        out3, x3, y3, z3, w3,
-                        fragmentShader, fragmentIn, fragmentOut);
+                if (bins != null) {
+                    // Bin the triangle for later
+                    bins.add(
+                            x1, y1, z1, w1, out1,
+                            x2, y2, z2, w2, out2,
+                            x3, y3, z3, w3, out3);
+                } else {
+                    // Draw the triangle
+                    drawTriangle(
+                            out1, x1, y1, z1, w1,
+                            out2, x2, y2, z2, w2,
+                            out3, x3, y3, z3, w3,
+                            fragmentShader, fragmentIn, fragmentOut,
+                            Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+                }
             }
         }
+        // Rasterize the binned triangles, splitting the tiles in a few ranges per thread
+        if (bins != null && bins.getTriangleCount() > 0) {
+            final int tileCount = bins.getTileCount();
+            final int grain = Math.max(tileCount / (renderer.getRasterizationThreads() * 4), 1);
+            renderer.getRasterizationPool().invoke(new TileRasterizationTask(bins, fragmentShader, vertexOutputFormat, 0, tileCount, grain));
+        }
+    }
+
+    private VertexCache getVertexCache(int vertexSize) {
+        final int size = renderer.getVertexCacheSize();
+        if (size == 0) {
+            vertexCache = null;
+            return null;
+        }
+        // Reuse the cache from the last draw call if possible, the entries are only valid for a single one
+        if (vertexCache == null || !vertexCache.isCompatible(vertexCount, vertexSize, size)) {
+            vertexCache = new VertexCache(vertexCount, vertexSize, size);
+        } else {
+            vertexCache.reset();
+        }
+        return vertexCache;
+    }
+
+    private TriangleBins getBins(int vertexSize) {
+        final int width = renderer.getTargetWidth();
+        final int height = renderer.getTargetHeight();
+        // Reuse the bins from the last draw call if possible
+        if (triangleBins == null || !triangleBins.isCompatible(width, height, vertexSize)) {
+            triangleBins = new TriangleBins(width, height, vertexSize);
+        } else {
+            triangleBins.clear();
+        }
+        return triangleBins;
     }
 
     private boolean isInside(float x, float y, float z, float w, int plane) {
@@ -775,7 +974,8 @@ public class SoftwareVertexArray extends VertexArray {
     private void drawTriangle(ShaderBuffer out1, float x1, float y1, float z1, float w1,
                               ShaderBuffer out2, float x2, float y2, float z2, float w2,
                               ShaderBuffer out3, float x3, float y3, float z3, float w3,
-                              ShaderImplementation fragmentShader, ShaderBuffer fragmentIn, ShaderBuffer fragmentOut) {
+                              ShaderImplementation fragmentShader, ShaderBuffer fragmentIn, ShaderBuffer fragmentOut,
+                              int clipMinX, int clipMinY, int clipMaxX, int clipMaxY) {
         // (28).(4) (in bits) fixed-point coordinates
         final int fy1 = Math.round(y1 * 16);
         final int fy2 = Math.round(y2 * 16);
@@ -799,11 +999,11 @@ public class SoftwareVertexArray extends VertexArray {
         final int fdy31 = dy31 << 4;
         // Block size, standard 8x8 (must be power of two), here 2^3
         final int block = 1 << 3;
-        // Bounding rectangle, start in the corner of the 8x8 block
-        final int minX = Math.min(fx1, Math.min(fx2, fx3)) + 0xf >> 4 & ~(block - 1);
-        final int maxX = Math.max(fx1, Math.max(fx2, fx3)) + 0xf >> 4;
-        final int minY = Math.min(fy1, Math.min(fy2, fy3)) + 0xf >> 4 & ~(block - 1);
-        final int maxY = Math.max(fy1, Math.max(fy2, fy3)) + 0xf >> 4;
+        // Bounding rectangle, start in the corner of the 8x8 block, restricted to the clip rectangle (which is block aligned)
+        final int minX = Math.max(Math.min(fx1, Math.min(fx2, fx3)) + 0xf >> 4 & ~(block - 1), clipMinX);
+        final int maxX = Math.min(Math.max(fx1, Math.max(fx2, fx3)) + 0xf >> 4, clipMaxX);
+        final int minY = Math.max(Math.min(fy1, Math.min(fy2, fy3)) + 0xf >> 4 & ~(block - 1), clipMinY);
+        final int maxY = Math.min(Math.max(fy1, Math.max(fy2, fy3)) + 0xf >> 4, clipMaxY);
         // Determinant of deltas to compute the normalized barycentric coordinates for interpolation
         final float det = dx23 * dy12 - dy23 * dx12;
         // Barycentric coordinates
@@ -820,6 +1020,25 @@ public class SoftwareVertexArray extends VertexArray {
         if (dy31 < 0 || dy31 == 0 && dx31 > 0) {
             c3++;
         }
+        // Nothing to draw outside of the clip rectangle
+        if (minX >= maxX || minY >= maxY) {
+            return;
+        }
+        // Derivatives of the barycentric coordinates along the window axes, from the per pixel steps
+        final float dtdx = -fdy12 / det, drdx = -fdy23 / det, dsdx = -dtdx - drdx;
+        final float dtdy = fdx12 / det, drdy = fdx23 / det, dsdy = -dtdy - drdy;
+        // Compute the derivatives of the fragment inputs, which are constant over the triangle
+        fragmentIn.setDerivatives(out1, out2, out3, drdx, dsdx, dtdx, drdy, dsdy, dtdy);
+        // The first four inputs are the fragment coordinates, not the vertex positions
+        fragmentIn.setDerivative(0, 1, 0);
+        fragmentIn.setDerivative(1, 0, 1);
+        fragmentIn.setDerivative(2, SoftwareUtil.baryLerp(z1, z2, z3, drdx, dsdx, dtdx), SoftwareUtil.baryLerp(z1, z2, z3, drdy, dsdy, dtdy));
+        fragmentIn.setDerivative(3, SoftwareUtil.baryLerp(w1, w2, w3, drdx, dsdx, dtdx), SoftwareUtil.baryLerp(w1, w2, w3, drdy, dsdy, dtdy));
+        // Coarse depth testing is only possible when the depth test is enabled
+        final boolean depthTest = renderer.isEnabled(Capability.DEPTH_TEST);
+        final boolean depthWrite = depthTest && renderer.isDepthWriting();
+        // Count the rejections locally, they're reported at the end
+        long rejectedBlocks = 0, rejectedFragments = 0;
         // Loop through blocks
         for (int by = minY; by < maxY; by += block) {
             for (int bx = minX; bx < maxX; bx += block) {
@@ -845,10 +1064,30 @@ public class SoftwareVertexArray extends VertexArray {
                 if (a00 && a10 && a01 && a11 || b00 && b10 && b01 && b11 || c00 && c10 && c01 && c11) {
                     continue;
                 }
+                // Test the block against the coarse depth buffer
+                boolean testDepth = depthTest;
+                if (depthTest) {
+                    // The depth is linear, so its range over the block is given by the corners
+                    final float z00 = interpolateDepth(c1 + dx12 * by0 - dy12 * bx0, c2 + dx23 * by0 - dy23 * bx0, det, z1, z2, z3);
+                    final float z10 = interpolateDepth(c1 + dx12 * by0 - dy12 * bx1, c2 + dx23 * by0 - dy23 * bx1, det, z1, z2, z3);
+                    final float z01 = interpolateDepth(c1 + dx12 * by1 - dy12 * bx0, c2 + dx23 * by1 - dy23 * bx0, det, z1, z2, z3);
+                    final float z11 = interpolateDepth(c1 + dx12 * by1 - dy12 * bx1, c2 + dx23 * by1 - dy23 * bx1, det, z1, z2, z3);
+                    // Widen the range by one to account for rounding
+                    final int minZ = SoftwareUtil.denormalizeToShort(Math.min(Math.min(z00, z10), Math.min(z01, z11))) - 1;
+                    final int maxZ = SoftwareUtil.denormalizeToShort(Math.max(Math.max(z00, z10), Math.max(z01, z11))) + 1;
+                    // Skip the block if it's entirely behind the furthest depth
+                    if (minZ > renderer.getDepthBlockMax(bx, by)) {
+                        rejectedBlocks++;
+                        continue;
+                    }
+                    // Skip the fragment depth test if the block is entirely in front of the closest depth
+                    testDepth = maxZ > renderer.getDepthBlockMin(bx, by);
+                }
                 // Compute the barycentric coordinates
                 int cy1 = c1 + dx12 * by0 - dy12 * bx0;
                 int cy2 = c2 + dx23 * by0 - dy23 * bx0;
                 int cy3 = c3 + dx31 * by0 - dy31 * bx0;
+                boolean written = false;
                 // Iterate the block
                 for (int y = by; y < by + block; y++) {
                     int cx1 = cy1;
@@ -875,7 +1114,11 @@ public class SoftwareVertexArray extends VertexArray {
                             SoftwareUtil.baryLerp(out1, out2, out3, r, s, t, 1, fragmentIn);
                             fragmentIn.flip();
                             // Shade and write the fragment
-                            writeFragment(fragmentShader, fragmentIn, fragmentOut, x, y, z);
+                            if (writeFragment(fragmentShader, fragmentIn, fragmentOut, x, y, z, testDepth)) {
+                                written = true;
+                            } else {
+                                rejectedFragments++;
+                            }
                         }
                         cx1 -= fdy12;
                         cx2 -= fdy23;
@@ -885,26 +1128,59 @@ public class SoftwareVertexArray extends VertexArray {
                     cy2 += fdx23;
                     cy3 += fdx31;
                 }
+                // Update the coarse depth buffer if the depths changed
+                if (written && depthWrite) {
+                    renderer.updateDepthBlock(bx, by);
+                }
             }
         }
+        renderer.addDepthRejections(rejectedBlocks, rejectedFragments);
+    }
+
+    private static float interpolateDepth(int c1, int c2, float det, float z1, float z2, float z3) {
+        // Same interpolation as for the fragments
+        final float t = c1 / det;
+        final float r = c2 / det;
+        return SoftwareUtil.baryLerp(z1, z2, z3, r, 1 - t - r, t);
     }
 
     private boolean isInside(float x, float y, float z, float w, boolean clampDepth) {
         return w != 0 && x >= -w && x <= w && y >= -w && y <= w && (clampDepth || z >= -w && z <= w);
     }
 
-    private void readVertex(ShaderImplementation shader, ShaderBuffer in, ShaderBuffer out, int index) {
+    private int readIndex(int i) {
+        // The indices are unsigned, so the sign extension of the narrow types must be removed
+        final int index = SoftwareUtil.read(indicesBuffer, indicesType, i);
+        switch (indicesType) {
+            case UNSIGNED_BYTE:
+                return index & 0xFF;
+            case UNSIGNED_SHORT:
+                return index & 0xFFFF;
+            default:
+                return index;
+        }
+    }
+
+    private void readVertex(ShaderImplementation shader, ShaderBuffer in, ShaderBuffer out, int index, VertexCache cache) {
+        // Get the index of the vertex, and reuse the output of the vertex shader if it's in the cache
+        final int vertex = readIndex(index + offset);
+        if (cache != null && cache.load(vertex, out)) {
+            return;
+        }
         // Clear the vertex in buffer and write the data from the vertex array, then flip it
         in.clear();
-        for (int i = 0; i < attributeBuffers.length; i++) {
-            final ByteBuffer buffer = attributeBuffers[i];
-            final DataFormat format = attributeFormats[i];
-            final DataType type = format.getType();
-            final int size = format.getCount();
+        final int vertexStart = vertex * vertexSize;
+        for (int i = 0; i < vertexSize; i++) {
+            in.writeRaw(vertices[vertexStart + i]);
+        }
+        // Followed by the instance attributes of the instance being drawn, or zeros if the data is missing
+        for (int i = 0; i < instanceData.length; i++) {
+            final float[] data = instanceData[i];
+            final int size = instanceSizes[i];
+            final int start = instance * size;
+            final boolean present = start + size <= data.length;
             for (int ii = 0; ii < size; ii++) {
-                // Here conversion from byte or short to int is implicit
-                final int x = readComponent(buffer, type, size, index, ii);
-                in.writeRaw(x);
+                in.writeRaw(present ? Float.floatToIntBits(data[start + ii]) : 0);
             }
         }
         in.flip();
@@ -912,12 +1188,16 @@ public class SoftwareVertexArray extends VertexArray {
         out.clear();
         shader.main(in, out);
         out.flip();
+        // Store the output for the next uses of the vertex
+        if (cache != null) {
+            cache.store(vertex, out);
+        }
     }
 
-    private void writeFragment(ShaderImplementation shader, ShaderBuffer in, ShaderBuffer out, int x, int y, float z) {
+    private boolean writeFragment(ShaderImplementation shader, ShaderBuffer in, ShaderBuffer out, int x, int y, float z, boolean testDepth) {
         final short dnZ = SoftwareUtil.denormalizeToShort(z);
-        if (!renderer.testDepth(x, y, dnZ)) {
-            return;
+        if (testDepth && !renderer.testDepth(x, y, dnZ)) {
+            return false;
         }
         // Clear the out buffer, run the fragment shader, and flip the out
         out.clear();
@@ -928,17 +1208,86 @@ public class SoftwareVertexArray extends VertexArray {
         final float g = Float.intBitsToFloat(out.readRaw());
         final float b = Float.intBitsToFloat(out.readRaw());
         final float a = Float.intBitsToFloat(out.readRaw());
-        // Write at the fragment coordinates and depth (converted from [0, 1] to the full short range)
-        // the output color packed into an int
-        renderer.writePixel(x, y, dnZ, SoftwareUtil.pack(r, g, b, a));
+        // Write at the fragment coordinates and depth (converted from [0, 1] to the full short range) the output color
+        renderer.writePixel(x, y, dnZ, r, g, b, a);
+        // Write the other outputs, if any, to the next color attachments
+        final int outputs = Math.min(out.getFormat().length, renderer.getColorCount());
+        for (int i = 1; i < outputs; i++) {
+            renderer.writeColor(i, x, y,
+                    Float.intBitsToFloat(out.readRaw()), Float.intBitsToFloat(out.readRaw()),
+                    Float.intBitsToFloat(out.readRaw()), Float.intBitsToFloat(out.readRaw()));
+        }
+        return true;
     }
 
-    private int readComponent(ByteBuffer buffer, DataType type, int attributeSize, int index, int offset) {
-        return SoftwareUtil.read(buffer, type, SoftwareUtil.read(indicesBuffer, INDICES_TYPE, index + this.offset) * attributeSize + offset);
+    private static DataFormat[] getFragmentOutputFormat(ShaderImplementation shader) {
+        // Fragment shaders which don't declare an output format have a single color output
+        final DataFormat[] format = shader.getOutputFormat();
+        return format != null ? format : FRAGMENT_OUTPUT;
     }
 
     @Override
     public GLVersion getGLVersion() {
         return GLVersion.SOFTWARE;
     }
+
+    private class TileRasterizationTask extends RecursiveAction {
+        private static final long serialVersionUID = 1;
+        private final TriangleBins bins;
+        private final ShaderImplementation fragmentShader;
+        private final DataFormat[] vertexOutputFormat;
+        private final int start, end, grain;
+
+        private TileRasterizationTask(TriangleBins bins, ShaderImplementation fragmentShader, DataFormat[] vertexOutputFormat, int start, int end, int grain) {
+            this.bins = bins;
+            this.fragmentShader = fragmentShader;
+            this.vertexOutputFormat = vertexOutputFormat;
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            // Split the tile range until it's small enough
+            if (end - start > grain) {
+                final int middle = start + end >>> 1;
+                invokeAll(
+                        new TileRasterizationTask(bins, fragmentShader, vertexOutputFormat, start, middle, grain),
+                        new TileRasterizationTask(bins, fragmentShader, vertexOutputFormat, middle, end, grain));
+                return;
+            }
+            // The buffers are shared by the tiles of the range, and created only if needed
+            ShaderBuffer out1 = null, out2 = null, out3 = null, fragmentIn = null, fragmentOut = null;
+            final float[] positions = bins.getPositions();
+            for (int tile = start; tile < end; tile++) {
+                final TIntList triangles = bins.getTile(tile);
+                if (triangles.isEmpty()) {
+                    continue;
+                }
+                if (out1 == null) {
+                    out1 = new ShaderBuffer(vertexOutputFormat);
+                    out2 = new ShaderBuffer(vertexOutputFormat);
+                    out3 = new ShaderBuffer(vertexOutputFormat);
+                    fragmentIn = new ShaderBuffer(vertexOutputFormat);
+                    fragmentOut = new ShaderBuffer(getFragmentOutputFormat(fragmentShader));
+                }
+                // The tile bounds clip the triangles
+                final int tileX = bins.getTileX(tile);
+                final int tileY = bins.getTileY(tile);
+                // Draw the triangles in submission order
+                for (int i = 0; i < triangles.size(); i++) {
+                    final int triangle = triangles.get(i);
+                    bins.loadOutputs(triangle, out1, out2, out3);
+                    final int p = triangle * 12;
+                    drawTriangle(
+                            out1, positions[p], positions[p + 1], positions[p + 2], positions[p + 3],
+                            out2, positions[p + 4], positions[p + 5], positions[p + 6], positions[p + 7],
+                            out3, positions[p + 8], positions[p + 9], positions[p + 10], positions[p + 11],
+                            fragmentShader, fragmentIn, fragmentOut,
+                            tileX, tileY, tileX + TriangleBins.TILE_SIZE, tileY + TriangleBins.TILE_SIZE);
+                }
+            }
+        }
+    }
 }
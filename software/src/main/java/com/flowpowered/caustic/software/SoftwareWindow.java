@@ -0,0 +1,127 @@
+/*
+ * This file is part of Caustic Software, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.software;
+
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.WindowConstants;
+import java.awt.BorderLayout;
+import java.awt.Canvas;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ *
+ */
+class SoftwareWindow extends Canvas {
+    private static final int[] COLOR_MASKS = {0xFF0000, 0xFF00, 0xFF};
+    private static final DirectColorModel COLOR_MODEL = new DirectColorModel(24, COLOR_MASKS[0], COLOR_MASKS[1], COLOR_MASKS[2]);
+    private final JFrame frame;
+    private int scale = 1;
+    private int imageWidth, imageHeight;
+    private BufferedImage image;
+    private volatile boolean closeRequested = false;
+
+    SoftwareWindow() {
+        frame = new JFrame("Caustic");
+        final JPanel panel = new JPanel(new BorderLayout());
+        panel.add(this, BorderLayout.CENTER);
+        frame.setContentPane(panel);
+        frame.setResizable(false);
+        frame.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+        frame.addWindowListener(new WindowCloseListener());
+    }
+
+    void setResizable(boolean resizable) {
+        frame.setResizable(resizable);
+    }
+
+    boolean isResizable() {
+        return frame.isResizable();
+    }
+
+    void setTitle(String title) {
+        frame.setTitle(title);
+    }
+
+    String getTitle() {
+        return frame.getTitle();
+    }
+
+    boolean isCloseRequested() {
+        final boolean oldCloseRequested = closeRequested;
+        closeRequested = false;
+        return oldCloseRequested;
+    }
+
+    void init() {
+        frame.setVisible(true);
+        createBufferStrategy(3);
+    }
+
+    void setImage(int[] pixels, int width, int height) {
+        imageWidth = width;
+        imageHeight = height;
+        final Dimension size = new Dimension(width * scale, height * scale);
+        setSize(size);
+        setPreferredSize(size);
+        setMinimumSize(size);
+        setMaximumSize(size);
+        // Wrap the pixels in an image, without copying them
+        final WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(pixels, pixels.length), width, height, width, COLOR_MASKS, null);
+        image = new BufferedImage(COLOR_MODEL, raster, false, null);
+        frame.pack();
+        if (!frame.isResizable()) {
+            frame.setLocationRelativeTo(null);
+        }
+    }
+
+    void render() {
+        final BufferStrategy bufferStrategy = getBufferStrategy();
+        final Graphics graphics = bufferStrategy.getDrawGraphics();
+        graphics.drawImage(image, 0, 0, imageWidth * scale, imageHeight * scale, null);
+        graphics.dispose();
+        bufferStrategy.show();
+    }
+
+    void dispose() {
+        frame.dispose();
+        image = null;
+    }
+
+    private class WindowCloseListener extends WindowAdapter {
+        @Override
+        public void windowClosing(WindowEvent event) {
+            closeRequested = true;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * This file is part of Caustic Software, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.software;
+
+import java.util.Arrays;
+
+/**
+ *
+ */
+class TextureLevel {
+    // The texels are stored as 4x4 tiles of RGBA floats, so that the neighbouring texels of a filter are close in memory
+    static final int TILE_SHIFT = 2;
+    static final int TILE_SIZE = 1 << TILE_SHIFT;
+    static final int TILE_MASK = TILE_SIZE - 1;
+    private final int width, height;
+    private final int tilesPerRow;
+    private final float[] texels;
+
+    TextureLevel(int width, int height) {
+        this.width = width;
+        this.height = height;
+        tilesPerRow = width + TILE_MASK >> TILE_SHIFT;
+        final int tilesPerColumn = height + TILE_MASK >> TILE_SHIFT;
+        texels = new float[tilesPerRow * tilesPerColumn << TILE_SHIFT * 2 + 2];
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    float[] getTexels() {
+        return texels;
+    }
+
+    int getOffset(int x, int y) {
+        // Offset of the tile, then of the texel in the tile
+        return ((y >> TILE_SHIFT) * tilesPerRow + (x >> TILE_SHIFT) << TILE_SHIFT * 2 + 2) + ((y & TILE_MASK) << TILE_SHIFT + 2) + ((x & TILE_MASK) << 2);
+    }
+
+    void fill(float r, float g, float b, float a) {
+        for (int i = 0; i < texels.length; i += 4) {
+            texels[i] = r;
+            texels[i + 1] = g;
+            texels[i + 2] = b;
+            texels[i + 3] = a;
+        }
+    }
+
+    void clear() {
+        Arrays.fill(texels, 0);
+    }
+
+    TextureLevel downsample() {
+        // Box filter, the last column or row is repeated when the size is odd
+        final TextureLevel level = new TextureLevel(Math.max(width >> 1, 1), Math.max(height >> 1, 1));
+        final float[] destination = level.texels;
+        for (int y = 0; y < level.height; y++) {
+            final int y0 = Math.min(y << 1, height - 1);
+            final int y1 = Math.min(y0 + 1, height - 1);
+            for (int x = 0; x < level.width; x++) {
+                final int x0 = Math.min(x << 1, width - 1);
+                final int x1 = Math.min(x0 + 1, width - 1);
+                final int i00 = getOffset(x0, y0), i10 = getOffset(x1, y0), i01 = getOffset(x0, y1), i11 = getOffset(x1, y1);
+                final int i = level.getOffset(x, y);
+                for (int c = 0; c < 4; c++) {
+                    destination[i + c] = (texels[i00 + c] + texels[i10 + c] + texels[i01 + c] + texels[i11 + c]) * 0.25f;
+                }
+            }
+        }
+        return level;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * This file is part of Caustic Software, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.software;
+
+import com.flowpowered.caustic.api.data.VertexAttribute.DataType;
+
+/**
+ *
+ */
+class TextureRenderTarget extends RenderTarget {
+    private SoftwareTexture[] colors = new SoftwareTexture[0];
+    private SoftwareTexture depth;
+    private int depthVersion;
+    private boolean dirty = true;
+
+    void setAttachments(SoftwareTexture[] colors, SoftwareTexture depth) {
+        this.colors = colors;
+        this.depth = depth;
+        dirty = true;
+    }
+
+    void validate() {
+        // The target is the intersection of the attachments
+        int width = Integer.MAX_VALUE, height = Integer.MAX_VALUE;
+        for (SoftwareTexture color : colors) {
+            width = Math.min(width, color.getWidth());
+            height = Math.min(height, color.getHeight());
+        }
+        if (depth != null) {
+            width = Math.min(width, depth.getWidth());
+            height = Math.min(height, depth.getHeight());
+        }
+        if (width == Integer.MAX_VALUE) {
+            width = height = 0;
+        }
+        // The coarse depth buffer is lost if the depth texture was changed outside of rendering
+        if (dirty || width != this.width || height != this.height) {
+            setSize(width, height);
+        } else if (depth != null && depth.getVersion() != depthVersion) {
+            invalidateDepthBlocks();
+        }
+        if (depth != null) {
+            depthVersion = depth.getVersion();
+        }
+        dirty = false;
+    }
+
+    void invalidateMipmaps() {
+        for (SoftwareTexture color : colors) {
+            color.invalidateMipmaps();
+        }
+        if (depth != null) {
+            depth.invalidateMipmaps();
+        }
+    }
+
+    @Override
+    int getColorCount() {
+        return colors.length;
+    }
+
+    @Override
+    void writeColor(int attachment, int x, int y, float r, float g, float b, float a) {
+        // The pixels are stored top down, but the texture rows bottom up
+        colors[attachment].writeColor(x, height - 1 - y, r, g, b, a);
+    }
+
+    @Override
+    void blendColor(int attachment, int x, int y, float r, float g, float b, float a, Blender blender) {
+        final SoftwareTexture texture = colors[attachment];
+        y = height - 1 - y;
+        // Only float textures aren't clamped before blending
+        if (texture.getInternalFormat().getComponentType() != DataType.FLOAT) {
+            r = SoftwareUtil.clamp(r, 0, 1);
+            g = SoftwareUtil.clamp(g, 0, 1);
+            b = SoftwareUtil.clamp(b, 0, 1);
+            a = SoftwareUtil.clamp(a, 0, 1);
+        }
+        final float dr = texture.readColor(x, y, 0);
+        final float dg = texture.readColor(x, y, 1);
+        final float db = texture.readColor(x, y, 2);
+        final float da = texture.readColor(x, y, 3);
+        texture.writeColor(x, y,
+                blender.blend(false, r, dr, a, da), blender.blend(false, g, dg, a, da),
+                blender.blend(false, b, db, a, da), blender.blend(true, a, da, a, da));
+    }
+
+    @Override
+    boolean hasDepth() {
+        return depth != null;
+    }
+
+    @Override
+    short readDepth(int x, int y) {
+        return depth.readDepth(x, height - 1 - y);
+    }
+
+    @Override
+    protected void writeDepth0(int x, int y, short depth) {
+        this.depth.writeDepth(x, height - 1 - y, depth);
+    }
+
+    @Override
+    protected void clear0(int color) {
+        final float r = (color >> 16 & 0xFF) / 255f;
+        final float g = (color >> 8 & 0xFF) / 255f;
+        final float b = (color & 0xFF) / 255f;
+        final float a = (color >>> 24) / 255f;
+        for (SoftwareTexture texture : colors) {
+            texture.clearColor(r, g, b, a);
+        }
+        if (depth != null) {
+            depth.clearDepth(Short.MAX_VALUE);
+        }
+    }
+}
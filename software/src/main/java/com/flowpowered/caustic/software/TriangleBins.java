@@ -0,0 +1,149 @@
+/*
+ * This file is part of Caustic Software, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.software;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * Stores the triangles of a draw call after clipping and the conversion to window coordinates, sorted into square screen tiles. Each tile lists the triangles touching it in
+ * submission order, so that tiles can be rasterized independently while producing the same result as drawing the triangles one after the other.
+ */
+class TriangleBins {
+    // Tile size in pixels, a multiple of the 8x8 rasterization block size
+    static final int TILE_SHIFT = 6;
+    static final int TILE_SIZE = 1 << TILE_SHIFT;
+    private final int width, height;
+    private final int columns, rows;
+    private final int vertexSize;
+    private final TIntList[] tiles;
+    private float[] positions;
+    private int[] outputs;
+    private int triangleCount = 0;
+
+    TriangleBins(int width, int height, int vertexSize) {
+        this.width = width;
+        this.height = height;
+        this.vertexSize = vertexSize;
+        columns = width + TILE_SIZE - 1 >> TILE_SHIFT;
+        rows = height + TILE_SIZE - 1 >> TILE_SHIFT;
+        tiles = new TIntList[columns * rows];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new TIntArrayList();
+        }
+        positions = new float[12 * 64];
+        outputs = new int[3 * vertexSize * 64];
+    }
+
+    boolean isCompatible(int width, int height, int vertexSize) {
+        return this.width == width && this.height == height && this.vertexSize == vertexSize;
+    }
+
+    void clear() {
+        for (TIntList tile : tiles) {
+            tile.clear();
+        }
+        triangleCount = 0;
+    }
+
+    int getTriangleCount() {
+        return triangleCount;
+    }
+
+    int getTileCount() {
+        return tiles.length;
+    }
+
+    TIntList getTile(int tile) {
+        return tiles[tile];
+    }
+
+    int getTileX(int tile) {
+        return (tile % columns) << TILE_SHIFT;
+    }
+
+    int getTileY(int tile) {
+        return (tile / columns) << TILE_SHIFT;
+    }
+
+    float[] getPositions() {
+        return positions;
+    }
+
+    void add(float x1, float y1, float z1, float w1, ShaderBuffer out1,
+             float x2, float y2, float z2, float w2, ShaderBuffer out2,
+             float x3, float y3, float z3, float w3, ShaderBuffer out3) {
+        // Find the tiles touched by the bounding rectangle, using the same rounding as the rasterizer
+        final int fx1 = Math.round(x1 * 16), fx2 = Math.round(x2 * 16), fx3 = Math.round(x3 * 16);
+        final int fy1 = Math.round(y1 * 16), fy2 = Math.round(y2 * 16), fy3 = Math.round(y3 * 16);
+        final int minColumn = Math.max(Math.min(fx1, Math.min(fx2, fx3)) + 0xf >> 4 >> TILE_SHIFT, 0);
+        final int maxColumn = Math.min((Math.max(fx1, Math.max(fx2, fx3)) + 0xf >> 4) - 1 >> TILE_SHIFT, columns - 1);
+        final int minRow = Math.max(Math.min(fy1, Math.min(fy2, fy3)) + 0xf >> 4 >> TILE_SHIFT, 0);
+        final int maxRow = Math.min((Math.max(fy1, Math.max(fy2, fy3)) + 0xf >> 4) - 1 >> TILE_SHIFT, rows - 1);
+        if (minColumn > maxColumn || minRow > maxRow) {
+            return;
+        }
+        // Grow the storage if needed
+        final int triangle = triangleCount++;
+        if ((triangle + 1) * 12 > positions.length) {
+            final float[] newPositions = new float[positions.length * 2];
+            System.arraycopy(positions, 0, newPositions, 0, positions.length);
+            positions = newPositions;
+            final int[] newOutputs = new int[outputs.length * 2];
+            System.arraycopy(outputs, 0, newOutputs, 0, outputs.length);
+            outputs = newOutputs;
+        }
+        // Store the window coordinates and the vertex shader outputs
+        final int p = triangle * 12;
+        positions[p] = x1;
+        positions[p + 1] = y1;
+        positions[p + 2] = z1;
+        positions[p + 3] = w1;
+        positions[p + 4] = x2;
+        positions[p + 5] = y2;
+        positions[p + 6] = z2;
+        positions[p + 7] = w2;
+        positions[p + 8] = x3;
+        positions[p + 9] = y3;
+        positions[p + 10] = z3;
+        positions[p + 11] = w3;
+        final int o = triangle * 3 * vertexSize;
+        out1.readRaw(outputs, o);
+        out2.readRaw(outputs, o + vertexSize);
+        out3.readRaw(outputs, o + vertexSize * 2);
+        // Add the triangle to the touched tiles
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int column = minColumn; column <= maxColumn; column++) {
+                tiles[column + row * columns].add(triangle);
+            }
+        }
+    }
+
+    void loadOutputs(int triangle, ShaderBuffer out1, ShaderBuffer out2, ShaderBuffer out3) {
+        final int o = triangle * 3 * vertexSize;
+        out1.writeRaw(outputs, o, vertexSize);
+        out2.writeRaw(outputs, o + vertexSize, vertexSize);
+        out3.writeRaw(outputs, o + vertexSize * 2, vertexSize);
+    }
+}
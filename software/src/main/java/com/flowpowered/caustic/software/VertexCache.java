@@ -0,0 +1,121 @@
+/*
+ * This file is part of Caustic Software, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.software;
+
+import java.util.Arrays;
+
+/**
+ * A post-transform vertex cache, storing the vertex shader output of the vertices already shaded in a draw call. It can either remember every vertex (full memo) or only the
+ * last few ones (FIFO).
+ */
+class VertexCache {
+    private final int vertexCount;
+    private final int vertexSize;
+    private final int size;
+    // Draw call in which each vertex was last stored
+    private final int[] stamps;
+    // Slot of each vertex, and vertex of each slot, only used in FIFO mode
+    private final int[] vertexSlots;
+    private final int[] slotVertices;
+    private final int[] outputs;
+    private int generation = 1;
+    private int nextSlot = 0;
+    private long hits = 0, misses = 0;
+
+    VertexCache(int vertexCount, int vertexSize, int size) {
+        this.vertexCount = vertexCount;
+        this.vertexSize = vertexSize;
+        this.size = size;
+        stamps = new int[vertexCount];
+        if (size < 0) {
+            // The slot is the vertex index itself
+            vertexSlots = null;
+            slotVertices = null;
+            outputs = new int[vertexCount * vertexSize];
+        } else {
+            vertexSlots = new int[vertexCount];
+            slotVertices = new int[size];
+            outputs = new int[size * vertexSize];
+        }
+    }
+
+    boolean isCompatible(int vertexCount, int vertexSize, int size) {
+        return this.vertexCount == vertexCount && this.vertexSize == vertexSize && this.size == size;
+    }
+
+    void reset() {
+        // Invalidate all the entries by starting a new generation
+        if (++generation == 0) {
+            Arrays.fill(stamps, 0);
+            generation = 1;
+        }
+        nextSlot = 0;
+        hits = 0;
+        misses = 0;
+    }
+
+    boolean load(int vertex, ShaderBuffer out) {
+        if (stamps[vertex] == generation) {
+            final int slot;
+            if (vertexSlots == null) {
+                slot = vertex;
+            } else {
+                slot = vertexSlots[vertex];
+                // The slot might have been reused for another vertex since
+                if (slotVertices[slot] != vertex) {
+                    misses++;
+                    return false;
+                }
+            }
+            out.writeRaw(outputs, slot * vertexSize, vertexSize);
+            hits++;
+            return true;
+        }
+        misses++;
+        return false;
+    }
+
+    void store(int vertex, ShaderBuffer out) {
+        final int slot;
+        if (vertexSlots == null) {
+            slot = vertex;
+        } else {
+            // Replace the oldest entry
+            slot = nextSlot;
+            nextSlot = (nextSlot + 1) % size;
+            vertexSlots[vertex] = slot;
+            slotVertices[slot] = vertex;
+        }
+        stamps[vertex] = generation;
+        out.readRaw(outputs, slot * vertexSize);
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * This file is part of Caustic Software, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.software.test;
+
+import java.util.Arrays;
+
+import gnu.trove.list.array.TFloatArrayList;
+
+import com.flowpowered.math.vector.Vector2i;
+import com.flowpowered.math.vector.Vector4f;
+
+import com.flowpowered.caustic.api.data.ShaderSource;
+import com.flowpowered.caustic.api.data.VertexAttribute;
+import com.flowpowered.caustic.api.data.VertexAttribute.DataType;
+import com.flowpowered.caustic.api.data.VertexData;
+import com.flowpowered.caustic.api.gl.Context.BlendFunction;
+import com.flowpowered.caustic.api.gl.Context.Capability;
+import com.flowpowered.caustic.api.gl.Program;
+import com.flowpowered.caustic.api.gl.Shader;
+import com.flowpowered.caustic.api.gl.Shader.ShaderType;
+import com.flowpowered.caustic.api.gl.VertexArray;
+import com.flowpowered.caustic.software.DataFormat;
+import com.flowpowered.caustic.software.InBuffer;
+import com.flowpowered.caustic.software.OutBuffer;
+import com.flowpowered.caustic.software.ShaderImplementation;
+import com.flowpowered.caustic.software.SoftwareContext;
+import com.flowpowered.caustic.software.SoftwareHeadlessContext;
+
+/**
+ * Compares the fill rate of opaque and blended full screen quads in the software renderer. Run the main method, the results are printed in milliseconds per frame.
+ */
+public class BlendingBenchmark {
+    private static final int WIDTH = 800, HEIGHT = 600;
+    private static final int LAYERS = 8;
+    private static final int WARMUP_FRAMES = 10, FRAMES = 30, ROUNDS = 3;
+    // Null is opaque, the other modes are the source and destination functions
+    private static final BlendFunction[][] MODES = {
+            null,
+            {BlendFunction.GL_SRC_ALPHA, BlendFunction.GL_ONE_MINUS_SRC_ALPHA},
+            {BlendFunction.GL_ONE, BlendFunction.GL_ONE},
+            {BlendFunction.GL_DST_COLOR, BlendFunction.GL_ONE_MINUS_SRC_ALPHA}
+    };
+
+    public static void main(String[] args) {
+        final SoftwareContext context = new SoftwareHeadlessContext();
+        context.setWindowSize(new Vector2i(WIDTH, HEIGHT));
+        context.create();
+        // A full screen quad with a translucent color
+        final Shader vertex = context.newShader();
+        vertex.create();
+        vertex.setSource(new ShaderSource(QuadVertexShader.class.getName()));
+        vertex.compile();
+        final Shader fragment = context.newShader();
+        fragment.create();
+        fragment.setSource(new ShaderSource(QuadFragmentShader.class.getName()));
+        fragment.compile();
+        final Program program = context.newProgram();
+        program.create();
+        program.attachShader(vertex);
+        program.attachShader(fragment);
+        program.link();
+        final VertexData data = new VertexData();
+        final VertexAttribute positions = new VertexAttribute("positions", DataType.FLOAT, 2);
+        positions.setData(new TFloatArrayList(new float[]{-1, -1, 1, -1, 1, 1, -1, 1}));
+        data.addAttribute(0, positions);
+        data.getIndices().add(new int[]{0, 1, 2, 0, 2, 3});
+        final VertexArray quad = context.newVertexArray();
+        quad.create();
+        quad.setData(data);
+        program.use();
+        // Alternate the modes over a few rounds and keep the best time of each, to reduce the noise from the JIT and the other processes
+        final double[] times = new double[MODES.length];
+        Arrays.fill(times, Double.MAX_VALUE);
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < MODES.length; i++) {
+                final BlendFunction[] mode = MODES[i];
+                if (mode == null) {
+                    context.disableCapability(Capability.BLEND);
+                } else {
+                    context.enableCapability(Capability.BLEND);
+                    context.setBlendingFunctions(mode[0], mode[1]);
+                }
+                times[i] = Math.min(times[i], benchmark(context, quad));
+            }
+        }
+        for (int i = 0; i < MODES.length; i++) {
+            final BlendFunction[] mode = MODES[i];
+            System.out.printf("%-48s %8.2f ms%n", mode == null ? "Opaque" : "Blended (" + mode[0] + ", " + mode[1] + ")", times[i]);
+        }
+        context.destroy();
+    }
+
+    private static double benchmark(SoftwareContext context, VertexArray quad) {
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            renderFrame(context, quad);
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            renderFrame(context, quad);
+        }
+        return (System.nanoTime() - start) / 1e6 / FRAMES;
+    }
+
+    private static void renderFrame(SoftwareContext context, VertexArray quad) {
+        context.clearCurrentBuffer();
+        for (int i = 0; i < LAYERS; i++) {
+            quad.draw();
+        }
+    }
+
+    public static class QuadVertexShader extends ShaderImplementation {
+        public QuadVertexShader() {
+            super(new DataFormat[]{new DataFormat(DataType.FLOAT, 4)});
+        }
+
+        @Override
+        public void main(InBuffer in, OutBuffer out) {
+            final float x = in.readFloat(0);
+            final float y = in.readFloat(1);
+            in.skip();
+            out.writeFloats(x, y, 0, 1);
+        }
+
+        @Override
+        public ShaderType getType() {
+            return ShaderType.VERTEX;
+        }
+    }
+
+    public static class QuadFragmentShader extends ShaderImplementation {
+        private static final Vector4f COLOR = new Vector4f(0.8f, 0.4f, 0.2f, 0.25f);
+
+        @Override
+        public void main(InBuffer in, OutBuffer out) {
+            out.writeVector4f(COLOR);
+        }
+
+        @Override
+        public ShaderType getType() {
+            return ShaderType.FRAGMENT;
+        }
+    }
+}
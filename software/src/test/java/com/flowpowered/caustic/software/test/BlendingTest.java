@@ -0,0 +1,228 @@
+/*
+ * This file is part of Caustic Software, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.software.test;
+
+import java.nio.ByteBuffer;
+
+import gnu.trove.list.array.TFloatArrayList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.flowpowered.math.vector.Vector2i;
+import com.flowpowered.math.vector.Vector4f;
+
+import com.flowpowered.caustic.api.data.ShaderSource;
+import com.flowpowered.caustic.api.data.VertexAttribute;
+import com.flowpowered.caustic.api.data.VertexAttribute.DataType;
+import com.flowpowered.caustic.api.data.VertexData;
+import com.flowpowered.caustic.api.gl.Context.BlendFunction;
+import com.flowpowered.caustic.api.gl.Context.Capability;
+import com.flowpowered.caustic.api.gl.Program;
+import com.flowpowered.caustic.api.gl.Shader;
+import com.flowpowered.caustic.api.gl.Shader.ShaderType;
+import com.flowpowered.caustic.api.gl.Texture.InternalFormat;
+import com.flowpowered.caustic.api.gl.VertexArray;
+import com.flowpowered.caustic.api.util.Rectangle;
+import com.flowpowered.caustic.software.DataFormat;
+import com.flowpowered.caustic.software.InBuffer;
+import com.flowpowered.caustic.software.OutBuffer;
+import com.flowpowered.caustic.software.ShaderImplementation;
+import com.flowpowered.caustic.software.SoftwareContext;
+import com.flowpowered.caustic.software.SoftwareHeadlessContext;
+
+public class BlendingTest {
+    private static final int WIDTH = 64, HEIGHT = 64;
+    private static final float[] BACKGROUND = {0.1f, 0.2f, 0.3f, 1};
+    // The first quad covers the left three quarters of the window, the second one the right three quarters, and is drawn over it in the middle half
+    private static final float[] FIRST_COLOR = {0.8f, 0.4f, 0.2f, 0.5f};
+    private static final float[] SECOND_COLOR = {0.2f, 0.6f, 0.9f, 0.25f};
+    // Columns only covered by the first quad, by both, and only by the second
+    private static final int FIRST_COLUMN = 8, BOTH_COLUMN = 32, SECOND_COLUMN = 56;
+    // Rows checked, away from the edges of the window, where coverage depends on the fill convention
+    private static final int MIN_ROW = 8, MAX_ROW = HEIGHT - 8;
+    // The colors are stored as bytes after each draw, allow for the rounding
+    private static final int TOLERANCE = 2;
+
+    @Test
+    public void testAlphaBlending() {
+        test(BlendFunction.GL_SRC_ALPHA, BlendFunction.GL_ONE_MINUS_SRC_ALPHA);
+    }
+
+    @Test
+    public void testAdditiveBlending() {
+        test(BlendFunction.GL_ONE, BlendFunction.GL_ONE);
+    }
+
+    private static void test(BlendFunction source, BlendFunction destination) {
+        final SoftwareContext context = new SoftwareHeadlessContext();
+        context.setWindowSize(new Vector2i(WIDTH, HEIGHT));
+        context.create();
+        try {
+            final Program program = createProgram(context);
+            final VertexArray quads = context.newVertexArray();
+            quads.create();
+            quads.setData(generateQuads());
+            program.use();
+            context.enableCapability(Capability.BLEND);
+            context.setBlendingFunctions(source, destination);
+            context.setClearColor(new Vector4f(BACKGROUND[0], BACKGROUND[1], BACKGROUND[2], BACKGROUND[3]));
+            final float[] first = blend(FIRST_COLOR, BACKGROUND, source, destination);
+            final float[] both = blend(SECOND_COLOR, first, source, destination);
+            final float[] second = blend(SECOND_COLOR, BACKGROUND, source, destination);
+            // The draw order must be kept when the triangles are binned for parallel rasterization
+            for (int threads = 1; threads <= 4; threads *= 4) {
+                context.setRasterizationThreads(threads);
+                context.clearCurrentBuffer();
+                quads.draw();
+                final ByteBuffer frame = context.readFrame(new Rectangle(0, 0, WIDTH, HEIGHT), InternalFormat.RGBA8);
+                for (int y = MIN_ROW; y < MAX_ROW; y++) {
+                    assertColor("First quad, " + threads + " threads", first, frame, FIRST_COLUMN, y);
+                    assertColor("Both quads, " + threads + " threads", both, frame, BOTH_COLUMN, y);
+                    assertColor("Second quad, " + threads + " threads", second, frame, SECOND_COLUMN, y);
+                }
+            }
+        } finally {
+            context.destroy();
+        }
+    }
+
+    private static float[] blend(float[] source, float[] destination, BlendFunction sourceFunction, BlendFunction destinationFunction) {
+        final float[] result = new float[4];
+        for (int i = 0; i < 4; i++) {
+            final float value = source[i] * factor(sourceFunction, source) + destination[i] * factor(destinationFunction, source);
+            result[i] = Math.min(Math.max(value, 0), 1);
+        }
+        return result;
+    }
+
+    private static float factor(BlendFunction function, float[] source) {
+        switch (function) {
+            case GL_ONE:
+                return 1;
+            case GL_SRC_ALPHA:
+                return source[3];
+            case GL_ONE_MINUS_SRC_ALPHA:
+                return 1 - source[3];
+            default:
+                throw new IllegalArgumentException("Unsupported blend function: " + function);
+        }
+    }
+
+    private static void assertColor(String message, float[] expected, ByteBuffer frame, int x, int y) {
+        final int index = (y * WIDTH + x) * 4;
+        // Only the color channels are checked, the window might not store alpha
+        for (int i = 0; i < 3; i++) {
+            final int actual = frame.get(index + i) & 0xFF;
+            final int expectedByte = Math.round(expected[i] * 255);
+            if (Math.abs(actual - expectedByte) > TOLERANCE) {
+                Assert.fail(message + ", channel " + i + " at (" + x + ", " + y + "): expected " + expectedByte + " but was " + actual);
+            }
+        }
+    }
+
+    private static Program createProgram(SoftwareContext context) {
+        final Shader vertex = context.newShader();
+        vertex.create();
+        vertex.setSource(new ShaderSource(ColorVertexShader.class.getName()));
+        vertex.compile();
+        final Shader fragment = context.newShader();
+        fragment.create();
+        fragment.setSource(new ShaderSource(ColorFragmentShader.class.getName()));
+        fragment.compile();
+        final Program program = context.newProgram();
+        program.create();
+        program.attachShader(vertex);
+        program.attachShader(fragment);
+        program.link();
+        return program;
+    }
+
+    private static VertexData generateQuads() {
+        final TFloatArrayList positions = new TFloatArrayList();
+        final TFloatArrayList colors = new TFloatArrayList();
+        final VertexData data = new VertexData();
+        addQuad(data, positions, colors, -1, 0.5f, FIRST_COLOR);
+        addQuad(data, positions, colors, -0.5f, 1, SECOND_COLOR);
+        final VertexAttribute positionsAttribute = new VertexAttribute("positions", DataType.FLOAT, 2);
+        positionsAttribute.setData(positions);
+        data.addAttribute(0, positionsAttribute);
+        final VertexAttribute colorsAttribute = new VertexAttribute("colors", DataType.FLOAT, 4);
+        colorsAttribute.setData(colors);
+        data.addAttribute(1, colorsAttribute);
+        return data;
+    }
+
+    private static void addQuad(VertexData data, TFloatArrayList positions, TFloatArrayList colors, float left, float right, float[] color) {
+        final int first = positions.size() / 2;
+        positions.add(new float[]{left, -1, right, -1, right, 1, left, 1});
+        for (int i = 0; i < 4; i++) {
+            colors.add(color);
+        }
+        data.getIndices().add(new int[]{first, first + 1, first + 2, first, first + 2, first + 3});
+    }
+
+    public static class ColorVertexShader extends ShaderImplementation {
+        public ColorVertexShader() {
+            super(new DataFormat[]{new DataFormat(DataType.FLOAT, 4), new DataFormat(DataType.FLOAT, 4)});
+        }
+
+        @Override
+        public void main(InBuffer in, OutBuffer out) {
+            final float x = in.readFloat(0);
+            final float y = in.readFloat(1);
+            in.skip();
+            final float r = in.readFloat(0);
+            final float g = in.readFloat(1);
+            final float b = in.readFloat(2);
+            final float a = in.readFloat(3);
+            in.skip();
+            out.writeFloats(x, y, 0, 1);
+            out.writeFloats(r, g, b, a);
+        }
+
+        @Override
+        public ShaderType getType() {
+            return ShaderType.VERTEX;
+        }
+    }
+
+    public static class ColorFragmentShader extends ShaderImplementation {
+        @Override
+        public void main(InBuffer in, OutBuffer out) {
+            in.skip();
+            final float r = in.readFloat(0);
+            final float g = in.readFloat(1);
+            final float b = in.readFloat(2);
+            final float a = in.readFloat(3);
+            in.skip();
+            out.writeFloats(r, g, b, a);
+        }
+
+        @Override
+        public ShaderType getType() {
+            return ShaderType.FRAGMENT;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * This file is part of Caustic Software, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.software.test;
+
+import java.nio.ByteBuffer;
+
+import com.flowpowered.math.vector.Vector2f;
+import com.flowpowered.math.vector.Vector2i;
+import com.flowpowered.math.vector.Vector3f;
+import com.flowpowered.math.vector.Vector4f;
+
+import com.flowpowered.caustic.api.data.ShaderSource;
+import com.flowpowered.caustic.api.data.VertexAttribute.DataType;
+import com.flowpowered.caustic.api.data.VertexData;
+import com.flowpowered.caustic.api.gl.Program;
+import com.flowpowered.caustic.api.gl.Shader;
+import com.flowpowered.caustic.api.gl.Shader.ShaderType;
+import com.flowpowered.caustic.api.gl.VertexArray;
+import com.flowpowered.caustic.api.util.MeshGenerator;
+import com.flowpowered.caustic.software.DataFormat;
+import com.flowpowered.caustic.software.InBuffer;
+import com.flowpowered.caustic.software.OutBuffer;
+import com.flowpowered.caustic.software.ShaderImplementation;
+import com.flowpowered.caustic.software.SoftwareContext;
+import com.flowpowered.caustic.software.SoftwareHeadlessContext;
+
+/**
+ * Compares the indices stored as ints with the narrowest type which fits them, for the meshes of the {@link MeshGenerator}. For each mesh, the size of the indices, the time to build and read the
+ * buffers of both types, and the time to draw the mesh with the software renderer (which uses the narrow type) are printed. Run the main method, the times are in microseconds.
+ */
+public class IndicesBenchmark {
+    private static final int WIDTH = 640, HEIGHT = 480;
+    private static final int WARMUP_ITERATIONS = 2000, ITERATIONS = 10000;
+    private static final int WARMUP_FRAMES = 20, FRAMES = 100;
+
+    public static void main(String[] args) {
+        final SoftwareContext context = new SoftwareHeadlessContext();
+        context.setWindowSize(new Vector2i(WIDTH, HEIGHT));
+        context.create();
+        final Shader vertex = context.newShader();
+        vertex.create();
+        vertex.setSource(new ShaderSource(MeshVertexShader.class.getName()));
+        vertex.compile();
+        final Shader fragment = context.newShader();
+        fragment.create();
+        fragment.setSource(new ShaderSource(MeshFragmentShader.class.getName()));
+        fragment.compile();
+        final Program program = context.newProgram();
+        program.create();
+        program.attachShader(vertex);
+        program.attachShader(fragment);
+        program.link();
+        program.use();
+        benchmark(context, "Plane", MeshGenerator.generatePlane(new Vector2f(1, 1)));
+        benchmark(context, "Cuboid", MeshGenerator.generateCuboid(new Vector3f(1, 1, 1)));
+        benchmark(context, "Sphere", MeshGenerator.generateSphere(0.8f));
+        benchmark(context, "Cylinder", MeshGenerator.generateCylinder(0.5f, 1));
+        benchmark(context, "Cone", MeshGenerator.generateCone(0.5f, 1));
+        benchmark(context, "Capsule", MeshGenerator.generateCapsule(0.4f, 1));
+        context.destroy();
+    }
+
+    private static void benchmark(SoftwareContext context, String name, VertexData data) {
+        final DataType type = data.getIndicesType();
+        final int wideSize = data.getIndicesBuffer(DataType.UNSIGNED_INT).remaining();
+        final int narrowSize = data.getIndicesBuffer(type).remaining();
+        System.out.println(name + ": " + data.getIndicesCount() + " indices as " + type + ", " + narrowSize + " bytes instead of " + wideSize);
+        System.out.println("    Build: " + benchmarkBuild(data, DataType.UNSIGNED_INT) + " us as ints, " + benchmarkBuild(data, type) + " us narrowed");
+        System.out.println("    Read: " + benchmarkRead(data, DataType.UNSIGNED_INT) + " us as ints, " + benchmarkRead(data, type) + " us narrowed");
+        final VertexArray mesh = context.newVertexArray();
+        mesh.create();
+        mesh.setData(data);
+        System.out.println("    Draw: " + benchmarkDraw(context, mesh) + " us");
+        mesh.destroy();
+    }
+
+    private static double benchmarkBuild(VertexData data, DataType type) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            data.getIndicesBuffer(type);
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            data.getIndicesBuffer(type);
+        }
+        return (System.nanoTime() - start) / 1e3 / ITERATIONS;
+    }
+
+    private static double benchmarkRead(VertexData data, DataType type) {
+        final ByteBuffer buffer = data.getIndicesBuffer(type);
+        final int count = data.getIndicesCount();
+        long sum = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sum += read(buffer, type, count);
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sum += read(buffer, type, count);
+        }
+        final double time = (System.nanoTime() - start) / 1e3 / ITERATIONS;
+        // Use the sum so the reads can't be optimized away
+        if (sum == Long.MIN_VALUE) {
+            System.out.println(sum);
+        }
+        return time;
+    }
+
+    private static long read(ByteBuffer buffer, DataType type, int count) {
+        long sum = 0;
+        switch (type) {
+            case UNSIGNED_BYTE:
+                for (int i = 0; i < count; i++) {
+                    sum += buffer.get(i) & 0xFF;
+                }
+                break;
+            case UNSIGNED_SHORT:
+                for (int i = 0; i < count; i++) {
+                    sum += buffer.getShort(i << 1) & 0xFFFF;
+                }
+                break;
+            default:
+                for (int i = 0; i < count; i++) {
+                    sum += buffer.getInt(i << 2);
+                }
+        }
+        return sum;
+    }
+
+    private static double benchmarkDraw(SoftwareContext context, VertexArray mesh) {
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            context.clearCurrentBuffer();
+            mesh.draw();
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            context.clearCurrentBuffer();
+            mesh.draw();
+        }
+        return (System.nanoTime() - start) / 1e3 / FRAMES;
+    }
+
+    public static class MeshVertexShader extends ShaderImplementation {
+        public MeshVertexShader() {
+            super(new DataFormat[]{new DataFormat(DataType.FLOAT, 4)});
+        }
+
+        @Override
+        public void main(InBuffer in, OutBuffer out) {
+            // Scale the mesh to fit the screen, the depth is kept in the clip volume
+            final float x = in.readFloat(0);
+            final float y = in.readFloat(1);
+            final float z = in.readFloat(2);
+            in.skip();
+            out.writeFloats(x * 0.5f, y * 0.5f, z * 0.5f, 1);
+        }
+
+        @Override
+        public ShaderType getType() {
+            return ShaderType.VERTEX;
+        }
+    }
+
+    public static class MeshFragmentShader extends ShaderImplementation {
+        private static final Vector4f COLOR = new Vector4f(0.2f, 0.6f, 0.8f, 1);
+
+        @Override
+        public void main(InBuffer in, OutBuffer out) {
+            out.writeVector4f(COLOR);
+        }
+
+        @Override
+        public ShaderType getType() {
+            return ShaderType.FRAGMENT;
+        }
+    }
+}
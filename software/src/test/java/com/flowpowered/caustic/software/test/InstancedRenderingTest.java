@@ -0,0 +1,294 @@
+/*
+ * This file is part of Caustic Software, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.software.test;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.flowpowered.math.imaginary.Quaternionf;
+import com.flowpowered.math.matrix.Matrix4f;
+import com.flowpowered.math.vector.Vector2i;
+import com.flowpowered.math.vector.Vector3f;
+import com.flowpowered.math.vector.Vector4f;
+
+import com.flowpowered.caustic.api.Camera;
+import com.flowpowered.caustic.api.Material;
+import com.flowpowered.caustic.api.Pipeline;
+import com.flowpowered.caustic.api.Pipeline.PipelineBuilder;
+import com.flowpowered.caustic.api.data.ShaderSource;
+import com.flowpowered.caustic.api.data.Uniform.Vector4Uniform;
+import com.flowpowered.caustic.api.data.VertexAttribute.DataType;
+import com.flowpowered.caustic.api.gl.Context.Capability;
+import com.flowpowered.caustic.api.gl.Program;
+import com.flowpowered.caustic.api.gl.Shader;
+import com.flowpowered.caustic.api.gl.Shader.ShaderType;
+import com.flowpowered.caustic.api.gl.Texture.InternalFormat;
+import com.flowpowered.caustic.api.gl.VertexArray;
+import com.flowpowered.caustic.api.model.Model;
+import com.flowpowered.caustic.api.util.CausticUtil;
+import com.flowpowered.caustic.api.util.MeshGenerator;
+import com.flowpowered.caustic.api.util.Rectangle;
+import com.flowpowered.caustic.software.DataFormat;
+import com.flowpowered.caustic.software.InBuffer;
+import com.flowpowered.caustic.software.OutBuffer;
+import com.flowpowered.caustic.software.ShaderImplementation;
+import com.flowpowered.caustic.software.SoftwareContext;
+import com.flowpowered.caustic.software.SoftwareHeadlessContext;
+import com.flowpowered.caustic.software.Uniform;
+
+public class InstancedRenderingTest {
+    private static final int WIDTH = 320, HEIGHT = 240;
+    private static final int INSTANCES = 24;
+    private static final int MODEL_MATRIX_LAYOUT = 2;
+
+    @Test
+    public void testDrawInstanced() {
+        final SoftwareContext context = createContext();
+        try {
+            final VertexArray sphere = createSphere(context);
+            final Camera camera = Camera.createPerspective(60, WIDTH, HEIGHT, 0.1f, 100);
+            final List<Matrix4f> matrices = new ArrayList<>();
+            final Vector3f[] positions = new Vector3f[INSTANCES];
+            final Quaternionf[] rotations = new Quaternionf[INSTANCES];
+            generateTransforms(positions, rotations);
+            for (int i = 0; i < INSTANCES; i++) {
+                matrices.add(Matrix4f.createTranslation(positions[i]).mul(Matrix4f.createRotation(rotations[i])));
+            }
+            // Draw the spheres one at a time with the model matrix as a uniform
+            final Program uniformProgram = createProgram(context, false);
+            uniformProgram.use();
+            uniformProgram.setUniform("projectionMatrix", camera.getProjectionMatrix());
+            uniformProgram.setUniform("viewMatrix", camera.getViewMatrix());
+            clear(context);
+            for (Matrix4f matrix : matrices) {
+                uniformProgram.setUniform("modelMatrix", matrix);
+                sphere.draw();
+            }
+            final byte[] expected = readFrame(context);
+            // Draw them all at once with the model matrix as an instance attribute
+            final Program instancedProgram = createProgram(context, true);
+            instancedProgram.use();
+            instancedProgram.setUniform("projectionMatrix", camera.getProjectionMatrix());
+            instancedProgram.setUniform("viewMatrix", camera.getViewMatrix());
+            final FloatBuffer buffer = CausticUtil.createFloatBuffer(matrices.size() * 16);
+            for (Matrix4f matrix : matrices) {
+                // Column-major, like the matrix uniforms
+                for (int col = 0; col < 4; col++) {
+                    for (int row = 0; row < 4; row++) {
+                        buffer.put(matrix.get(row, col));
+                    }
+                }
+            }
+            buffer.flip();
+            sphere.setInstanceAttribute(MODEL_MATRIX_LAYOUT, 16, buffer);
+            clear(context);
+            sphere.drawInstanced(matrices.size());
+            Assert.assertArrayEquals(expected, readFrame(context));
+        } finally {
+            context.destroy();
+        }
+    }
+
+    @Test
+    public void testRenderModels() {
+        final SoftwareContext context = createContext();
+        try {
+            final VertexArray sphere = createSphere(context);
+            context.setCamera(Camera.createPerspective(60, WIDTH, HEIGHT, 0.1f, 100));
+            final Vector3f[] positions = new Vector3f[INSTANCES];
+            final Quaternionf[] rotations = new Quaternionf[INSTANCES];
+            generateTransforms(positions, rotations);
+            final byte[][] frames = new byte[2][];
+            for (int pass = 0; pass < 2; pass++) {
+                final Material material = new Material(createProgram(context, pass == 1));
+                material.getUniforms().add(new Vector4Uniform("tint", Vector4f.ONE));
+                final List<Model> models = new ArrayList<>();
+                final Model base = new Model(sphere, material);
+                for (int i = 0; i < INSTANCES; i++) {
+                    final Model model;
+                    if (i == 0) {
+                        model = base;
+                    } else if (i % 5 == 0) {
+                        // A model with its own uniforms breaks the run of instances
+                        model = new Model(sphere, material);
+                        model.getUniforms().add(new Vector4Uniform("tint", new Vector4f(1, 0.5f, 0.25f, 1)));
+                    } else {
+                        model = base.getInstance();
+                    }
+                    model.setPosition(positions[i]);
+                    model.setRotation(rotations[i]);
+                    models.add(model);
+                }
+                final Pipeline pipeline = new PipelineBuilder().clearBuffer().renderModels(models).build();
+                pipeline.run(context);
+                frames[pass] = readFrame(context);
+            }
+            Assert.assertArrayEquals(frames[0], frames[1]);
+        } finally {
+            context.destroy();
+        }
+    }
+
+    private static SoftwareContext createContext() {
+        final SoftwareContext context = new SoftwareHeadlessContext();
+        context.setWindowSize(new Vector2i(WIDTH, HEIGHT));
+        context.create();
+        context.enableCapability(Capability.DEPTH_TEST);
+        context.enableCapability(Capability.CULL_FACE);
+        return context;
+    }
+
+    private static VertexArray createSphere(SoftwareContext context) {
+        final VertexArray sphere = context.newVertexArray();
+        sphere.create();
+        sphere.setData(MeshGenerator.generateSphere(0.5f));
+        return sphere;
+    }
+
+    private static Program createProgram(SoftwareContext context, boolean instanced) {
+        final Shader vertex = context.newShader();
+        vertex.create();
+        if (instanced) {
+            vertex.setSource(new ShaderSource(InstancedVertexShader.class.getName()));
+            vertex.setAttributeLayout("modelMatrix", MODEL_MATRIX_LAYOUT);
+        } else {
+            vertex.setSource(new ShaderSource(UniformVertexShader.class.getName()));
+        }
+        vertex.compile();
+        final Shader fragment = context.newShader();
+        fragment.create();
+        fragment.setSource(new ShaderSource(NormalFragmentShader.class.getName()));
+        fragment.compile();
+        final Program program = context.newProgram();
+        program.create();
+        program.attachShader(vertex);
+        program.attachShader(fragment);
+        program.link();
+        return program;
+    }
+
+    private static void generateTransforms(Vector3f[] positions, Quaternionf[] rotations) {
+        final Random random = new Random(0);
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = new Vector3f(random.nextFloat() * 8 - 4, random.nextFloat() * 6 - 3, -6 - random.nextFloat() * 6);
+            rotations[i] = Quaternionf.fromAngleDegAxis(random.nextFloat() * 360, 0, 1, 0);
+        }
+    }
+
+    private static void clear(SoftwareContext context) {
+        context.setClearColor(new Vector4f(0, 0, 0, 1));
+        context.clearCurrentBuffer();
+    }
+
+    private static byte[] readFrame(SoftwareContext context) {
+        final ByteBuffer frame = context.readFrame(new Rectangle(0, 0, WIDTH, HEIGHT), InternalFormat.RGBA8);
+        final byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        return bytes;
+    }
+
+    public static class UniformVertexShader extends ShaderImplementation {
+        @Uniform
+        public Matrix4f modelMatrix = Matrix4f.IDENTITY;
+        @Uniform
+        public Matrix4f viewMatrix = Matrix4f.IDENTITY;
+        @Uniform
+        public Matrix4f projectionMatrix = Matrix4f.IDENTITY;
+
+        public UniformVertexShader() {
+            super(new DataFormat[]{new DataFormat(DataType.FLOAT, 4), new DataFormat(DataType.FLOAT, 3)});
+        }
+
+        @Override
+        public void main(InBuffer in, OutBuffer out) {
+            final Vector4f position = new Vector4f(in.readFloat(0), in.readFloat(1), in.readFloat(2), 1);
+            in.skip();
+            final Vector3f normal = in.readVector3f();
+            out.writeVector4f(projectionMatrix.mul(viewMatrix).mul(modelMatrix).transform(position));
+            out.writeVector3f(normal);
+        }
+
+        @Override
+        public ShaderType getType() {
+            return ShaderType.VERTEX;
+        }
+    }
+
+    public static class InstancedVertexShader extends ShaderImplementation {
+        @Uniform
+        public Matrix4f viewMatrix = Matrix4f.IDENTITY;
+        @Uniform
+        public Matrix4f projectionMatrix = Matrix4f.IDENTITY;
+        private final float[] modelMatrix = new float[16];
+
+        public InstancedVertexShader() {
+            super(new DataFormat[]{new DataFormat(DataType.FLOAT, 4), new DataFormat(DataType.FLOAT, 3)});
+        }
+
+        @Override
+        public void main(InBuffer in, OutBuffer out) {
+            final Vector4f position = new Vector4f(in.readFloat(0), in.readFloat(1), in.readFloat(2), 1);
+            in.skip();
+            final Vector3f normal = in.readVector3f();
+            in.readFloats(modelMatrix, 0);
+            // The instance attribute is column-major
+            final float[] m = modelMatrix;
+            final Matrix4f model = new Matrix4f(
+                    m[0], m[4], m[8], m[12],
+                    m[1], m[5], m[9], m[13],
+                    m[2], m[6], m[10], m[14],
+                    m[3], m[7], m[11], m[15]);
+            out.writeVector4f(projectionMatrix.mul(viewMatrix).mul(model).transform(position));
+            out.writeVector3f(normal);
+        }
+
+        @Override
+        public ShaderType getType() {
+            return ShaderType.VERTEX;
+        }
+    }
+
+    public static class NormalFragmentShader extends ShaderImplementation {
+        @Uniform
+        public Vector4f tint = Vector4f.ONE;
+
+        @Override
+        public void main(InBuffer in, OutBuffer out) {
+            in.skip();
+            final Vector3f normal = in.readVector3f();
+            out.writeFloats((normal.getX() * 0.5f + 0.5f) * tint.getX(), (normal.getY() * 0.5f + 0.5f) * tint.getY(), (normal.getZ() * 0.5f + 0.5f) * tint.getZ(), 1);
+        }
+
+        @Override
+        public ShaderType getType() {
+            return ShaderType.FRAGMENT;
+        }
+    }
+}
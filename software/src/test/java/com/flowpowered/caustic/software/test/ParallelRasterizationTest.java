@@ -0,0 +1,181 @@
+/*
+ * This file is part of Caustic Software, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.caustic.software.test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import gnu.trove.list.TFloatList;
+import gnu.trove.list.array.TFloatArrayList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.flowpowered.math.vector.Vector2i;
+import com.flowpowered.math.vector.Vector4f;
+
+import com.flowpowered.caustic.api.data.ShaderSource;
+import com.flowpowered.caustic.api.data.VertexAttribute;
+import com.flowpowered.caustic.api.data.VertexAttribute.DataType;
+import com.flowpowered.caustic.api.data.VertexData;
+import com.flowpowered.caustic.api.gl.Context.Capability;
+import com.flowpowered.caustic.api.gl.Program;
+import com.flowpowered.caustic.api.gl.Shader;
+import com.flowpowered.caustic.api.gl.Shader.ShaderType;
+import com.flowpowered.caustic.api.gl.Texture.InternalFormat;
+import com.flowpowered.caustic.api.gl.VertexArray;
+import com.flowpowered.caustic.api.util.Rectangle;
+import com.flowpowered.caustic.software.DataFormat;
+import com.flowpowered.caustic.software.InBuffer;
+import com.flowpowered.caustic.software.OutBuffer;
+import com.flowpowered.caustic.software.ShaderImplementation;
+import com.flowpowered.caustic.software.SoftwareContext;
+import com.flowpowered.caustic.software.SoftwareHeadlessContext;
+
+public class ParallelRasterizationTest {
+    // Not a multiple of the tile size, so the last row and column of tiles are partial
+    private static final int WIDTH = 317, HEIGHT = 241;
+    private static final int TRIANGLES = 300;
+
+    @Test
+    public void test() {
+        final SoftwareContext context = new SoftwareHeadlessContext();
+        context.setWindowSize(new Vector2i(WIDTH, HEIGHT));
+        context.create();
+        try {
+            final Program program = createProgram(context);
+            final VertexArray triangles = context.newVertexArray();
+            triangles.create();
+            triangles.setData(generateTriangles());
+            context.enableCapability(Capability.DEPTH_TEST);
+            program.use();
+            context.setRasterizationThreads(1);
+            final byte[] color = render(context, triangles, InternalFormat.RGBA8);
+            final byte[] depth = render(context, triangles, InternalFormat.DEPTH_COMPONENT16);
+            for (int threads = 2; threads <= 8; threads *= 2) {
+                context.setRasterizationThreads(threads);
+                Assert.assertArrayEquals("Color for " + threads + " threads", color, render(context, triangles, InternalFormat.RGBA8));
+                Assert.assertArrayEquals("Depth for " + threads + " threads", depth, render(context, triangles, InternalFormat.DEPTH_COMPONENT16));
+            }
+        } finally {
+            context.destroy();
+        }
+    }
+
+    private static Program createProgram(SoftwareContext context) {
+        final Shader vertex = context.newShader();
+        vertex.create();
+        vertex.setSource(new ShaderSource(ColorVertexShader.class.getName()));
+        vertex.compile();
+        final Shader fragment = context.newShader();
+        fragment.create();
+        fragment.setSource(new ShaderSource(ColorFragmentShader.class.getName()));
+        fragment.compile();
+        final Program program = context.newProgram();
+        program.create();
+        program.attachShader(vertex);
+        program.attachShader(fragment);
+        program.link();
+        return program;
+    }
+
+    private static VertexData generateTriangles() {
+        // Random triangles in clip space, large enough to straddle tile edges, and some partially outside of the view volume
+        final Random random = new Random(0);
+        final TFloatList positions = new TFloatArrayList();
+        final TFloatList colors = new TFloatArrayList();
+        final VertexData data = new VertexData();
+        for (int i = 0; i < TRIANGLES * 3; i++) {
+            positions.add(random.nextFloat() * 3.2f - 1.6f);
+            positions.add(random.nextFloat() * 3.2f - 1.6f);
+            positions.add(random.nextFloat() * 2.4f - 1.2f);
+            colors.add(random.nextFloat());
+            colors.add(random.nextFloat());
+            colors.add(random.nextFloat());
+            colors.add(1);
+            data.getIndices().add(i);
+        }
+        final VertexAttribute positionsAttribute = new VertexAttribute("positions", DataType.FLOAT, 3);
+        positionsAttribute.setData(positions);
+        data.addAttribute(0, positionsAttribute);
+        final VertexAttribute colorsAttribute = new VertexAttribute("colors", DataType.FLOAT, 4);
+        colorsAttribute.setData(colors);
+        data.addAttribute(1, colorsAttribute);
+        return data;
+    }
+
+    private static byte[] render(SoftwareContext context, VertexArray triangles, InternalFormat format) {
+        context.setClearColor(new Vector4f(0.1f, 0.2f, 0.3f, 1));
+        context.clearCurrentBuffer();
+        triangles.draw();
+        final ByteBuffer frame = context.readFrame(new Rectangle(0, 0, WIDTH, HEIGHT), format);
+        final byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        return bytes;
+    }
+
+    public static class ColorVertexShader extends ShaderImplementation {
+        public ColorVertexShader() {
+            super(new DataFormat[]{new DataFormat(DataType.FLOAT, 4), new DataFormat(DataType.FLOAT, 4)});
+        }
+
+        @Override
+        public void main(InBuffer in, OutBuffer out) {
+            final float x = in.readFloat(0);
+            final float y = in.readFloat(1);
+            final float z = in.readFloat(2);
+            in.skip();
+            final float r = in.readFloat(0);
+            final float g = in.readFloat(1);
+            final float b = in.readFloat(2);
+            final float a = in.readFloat(3);
+            in.skip();
+            out.writeFloats(x, y, z, 1);
+            out.writeFloats(r, g, b, a);
+        }
+
+        @Override
+        public ShaderType getType() {
+            return ShaderType.VERTEX;
+        }
+    }
+
+    public static class ColorFragmentShader extends ShaderImplementation {
+        @Override
+        public void main(InBuffer in, OutBuffer out) {
+            in.skip();
+            final float r = in.readFloat(0);
+            final float g = in.readFloat(1);
+            final float b = in.readFloat(2);
+            final float a = in.readFloat(3);
+            in.skip();
+            out.writeFloats(r, g, b, a);
+        }
+
+        @Override
+        public ShaderType getType() {
+            return ShaderType.FRAGMENT;
+        }
+    }
+}